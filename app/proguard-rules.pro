@@ -23,3 +23,10 @@
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
 #-renamesourcefileattribute SourceFile
+
+# BooklistingSchema reads the @ApiField annotations of Booklisting reflectively.
+-keepattributes *Annotation*
+-keepclassmembers class com.example.android.booklistingapp.Booklisting {
+    @com.example.android.booklistingapp.ApiField <fields>;
+    <init>();
+}
@@ -0,0 +1,195 @@
+package com.example.android.booklistingapp;
+
+import android.app.Instrumentation;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.filters.SdkSuppress;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.Choreographer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Flings through a long list of books with long titles and many authors, once with the row
+ * text laid out while binding and once with it built ahead of time by {@link RowTextLayouts},
+ * and counts the frames that were late.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 16)
+public class RowTextLayoutFlingTest {
+
+    private static final String LOG_TAG = RowTextLayoutFlingTest.class.getSimpleName();
+
+    private static final int BOOK_COUNT = 2000;
+    private static final int FLING_COUNT = 6;
+
+    @Rule
+    public final ActivityTestRule<BooklistingActivity> mActivityRule =
+            new ActivityTestRule<>(BooklistingActivity.class);
+
+    @Test
+    public void precomputedLayouts_dropNoMoreFramesThanBindingTimeLayout() throws Exception {
+        List<Booklisting> books = books();
+
+        int baselineDropped = fling(books, false).mDropped;
+        FlingResult precomputed = fling(books, true);
+        Log.i(LOG_TAG, "Dropped frames: baseline=" + baselineDropped + " precomputed=" + precomputed.mDropped
+                + " binds=" + precomputed.mHits + "/" + precomputed.mMisses);
+
+        assertTrue(precomputed.mHits > 0);
+        assertEquals(0, precomputed.mMisses);
+        assertTrue(precomputed.mDropped <= baselineDropped);
+    }
+
+    /**
+     * Show the books in a fresh adapter and fling up and down through them.
+     */
+    private FlingResult fling(final List<Booklisting> books, final boolean precomputeText) throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        final BooklistingActivity activity = mActivityRule.getActivity();
+        final RecyclerView list = (RecyclerView) activity.findViewById(R.id.list);
+        final BooklistingAdapter adapter = new BooklistingAdapter(ThumbnailLoader.getInstance(activity));
+        adapter.setPrecomputeText(precomputeText);
+
+        // The first batch is shown as it is, which tells the adapter the width of the rows;
+        // the second is laid out ahead of time when that is turned on.
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                list.setAdapter(adapter);
+                adapter.submit(books);
+            }
+        });
+        instrumentation.waitForIdleSync();
+        final CountDownLatch committed = new CountDownLatch(1);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                adapter.submit(new ArrayList<>(books), new Runnable() {
+                    @Override
+                    public void run() {
+                        committed.countDown();
+                    }
+                });
+            }
+        });
+        assertTrue(committed.await(30, TimeUnit.SECONDS));
+        instrumentation.waitForIdleSync();
+
+        final RowTextLayouts layouts = adapter.getTextLayouts();
+        final int hitsBefore = layouts.getHits();
+        final int missesBefore = layouts.getMisses();
+        long framePeriodNanos = (long) (1e9 / activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+        final FrameCounter counter = new FrameCounter(framePeriodNanos);
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                counter.start();
+            }
+        });
+        for (int i = 0; i < FLING_COUNT; i++) {
+            final int direction = i % 2 == 0 ? 1 : -1;
+            instrumentation.runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    list.fling(0, direction * list.getMaxFlingVelocity());
+                }
+            });
+            awaitIdle(list);
+        }
+        final FlingResult result = new FlingResult();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                counter.stop();
+                result.mDropped = counter.mDropped;
+                result.mHits = layouts.getHits() - hitsBefore;
+                result.mMisses = layouts.getMisses() - missesBefore;
+            }
+        });
+        return result;
+    }
+
+    private static void awaitIdle(RecyclerView list) {
+        // Give the fling a frame to start before waiting for it to end
+        SystemClock.sleep(100);
+        long deadline = SystemClock.uptimeMillis() + 10000;
+        while (list.getScrollState() != RecyclerView.SCROLL_STATE_IDLE && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(50);
+        }
+    }
+
+    /**
+     * Books with titles and author lists long enough to wrap and be ellipsized.
+     */
+    private static List<Booklisting> books() {
+        List<Booklisting> books = new ArrayList<>(BOOK_COUNT);
+        for (int i = 0; i < BOOK_COUNT; i++) {
+            String[] authors = new String[4 + i % 5];
+            for (int j = 0; j < authors.length; j++) {
+                authors[j] = "Author Firstname Lastname-Doublebarrel " + (i * 7 + j);
+            }
+            books.add(new Booklisting("fling" + i, authors,
+                    "A Rather Long Title Number " + i + " With a Subtitle That Goes On and On About Everything"));
+        }
+        return books;
+    }
+
+    private static final class FlingResult {
+        int mDropped;
+        int mHits;
+        int mMisses;
+    }
+
+    /**
+     * Counts frames that came more than one and a half periods after the previous one.
+     */
+    private static final class FrameCounter implements Choreographer.FrameCallback {
+        private final long mFramePeriodNanos;
+        private long mLastFrameNanos;
+        private boolean mRunning;
+        int mDropped;
+
+        FrameCounter(long framePeriodNanos) {
+            mFramePeriodNanos = framePeriodNanos;
+        }
+
+        void start() {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameNanos != 0) {
+                long late = frameTimeNanos - mLastFrameNanos - mFramePeriodNanos;
+                if (late > mFramePeriodNanos / 2) {
+                    mDropped += (int) ((late + mFramePeriodNanos / 2) / mFramePeriodNanos);
+                }
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
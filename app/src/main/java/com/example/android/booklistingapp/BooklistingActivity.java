@@ -1,22 +1,43 @@
 package com.example.android.booklistingapp;
 
+import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.Loader;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.telephony.TelephonyManager;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
 import android.text.Editable;
 import android.text.TextWatcher;
+import android.util.Log;
+import android.util.SparseArray;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.EditText;
-import android.widget.ListView;
+import android.widget.AutoCompleteTextView;
 import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 
 public class BooklistingActivity extends AppCompatActivity
@@ -24,17 +45,68 @@ public class BooklistingActivity extends AppCompatActivity
 
     private static final String LOG_TAG = BooklistingActivity.class.getName();
 
-    private static final String BOOKLISTING_JSON = "https://www.googleapis.com/books/v1/volumes?maxResults=30&orderBy=newest&q=";
+    private static final String BOOKLISTING_JSON = "https://www.googleapis.com/books/v1/volumes?orderBy=newest";
 
     /**
-     * Constant value for the booklist loader ID.
+     * Constant value for the booklist loader ID, which loads the first page of a new query.
      */
     private static final int BOOKLISTING_LOADER_ID = 1;
 
+    /**
+     * Constant value for the loader ID that fetches the following pages of the current query.
+     */
+    private static final int BOOKLISTING_PAGE_LOADER_ID = 2;
+
+    /**
+     * Constant value for the loader ID that searches the local index of books seen before.
+     */
+    private static final int INDEX_LOADER_ID = 3;
+
+    /**
+     * Partial-response projection, URL-encoded, matching the fields of {@link Booklisting}.
+     */
+    private static final String BOOKLISTING_FIELDS = encodeQueryValue(BooklistingSchema.get().getProjection());
+
+    /**
+     * Like {@link #BOOKLISTING_FIELDS}, without the fields slow networks skip
+     */
+    private static final String BOOKLISTING_LEAN_FIELDS = encodeQueryValue(BooklistingSchema.get().getLeanProjection());
+
+    private static final String ARG_QUERY = "QUERY";
+    private static final String ARG_PAGE = "PAGE";
+
+    /**
+     * File holding the last query and its first page of results, see {@link ResultSnapshot}
+     */
+    private static final String SNAPSHOT_FILE_NAME = "last_results.snapshot";
+
+    /**
+     * Preference holding whether queries are also searched in titles and authors
+     */
+    private static final String PREF_FEDERATED_SEARCH = "federated_search";
+
+    /**
+     * File holding the queries searched before, see {@link QueryTrie}
+     */
+    private static final String QUERY_TRIE_FILE_NAME = "query_trie.bin";
+
+    /**
+     * Number of likely completions of a query prefetched once its results are shown
+     */
+    private static final int PREFETCH_COMPLETIONS = 2;
+
+    /**
+     * Prefetches likely next queries into the response cache. It lives as long as the process
+     * so that its budget holds across activities.
+     */
+    private static QueryPrefetcher sPrefetcher;
+
     /**
      * Adapter for the list of books
      */
     private BooklistingAdapter mAdapter;
+    private LinearLayoutManager mLayoutManager;
+    private RecyclerView mBooklistingListView;
 
     /**
      * TextView that is displayed when the list is empty
@@ -42,28 +114,215 @@ public class BooklistingActivity extends AppCompatActivity
     private TextView mEmptyStateTextView;
     private ProgressBar loadingIndicator;
 
-    private EditText mQueryEditText;
+    private AutoCompleteTextView mQueryEditText;
     LoaderManager loaderManager;
 
+    /**
+     * Debounces keystrokes and drops duplicate queries before they reach the loader
+     */
+    private QueryScheduler mQueryScheduler;
+
+    /**
+     * Query of the most recently started load
+     */
+    private String mCurrentQuery;
+
+    /**
+     * Pages of results loaded for the current query
+     */
+    private final BooklistingPager mPager = new BooklistingPager();
+
+    /**
+     * Page being fetched by the page loader, or {@link BooklistingPager#NO_PAGE}
+     */
+    private int mLoadingPage = BooklistingPager.NO_PAGE;
+
+    /**
+     * True while the list shows provisional results, refined locally or from the local index,
+     * instead of those from the network
+     */
+    private boolean mShowingProvisionalResults;
+
+    /**
+     * Filters recent result sets locally while a query is being extended
+     */
+    private final RefinementEngine mRefinementEngine = new RefinementEngine();
+
+    /**
+     * True while the network results for the current query have not arrived yet
+     */
+    private boolean mAwaitingNetwork;
+
+    /**
+     * Page sizes and projection of the current query, chosen for the network it was issued on
+     */
+    private NetworkQualityEstimator.RequestPlan mRequestPlan;
+
+    /**
+     * Where the results of the last query are kept for the next launch
+     */
+    private File mSnapshotFile;
+
+    /**
+     * True if the first page of a query merges plain, title and author searches, see
+     * {@link FederatedSearch}
+     */
+    private boolean mFederatedSearch;
+
+    /**
+     * True while the first page shows the merged results of some variants of the query and
+     * the others have not answered yet. No further pages are loaded until they have.
+     */
+    private boolean mVariantsPending;
+
+    /**
+     * Queries searched before, for suggestions and prefetching
+     */
+    private QueryTrie mQueryTrie;
+    private File mQueryTrieFile;
+
+    /**
+     * Records frame durations and main-thread stalls while the activity is in the foreground,
+     * in debug builds; see the frame timings menu entry
+     */
+    private MainThreadMonitor mMainThreadMonitor;
+
+    /**
+     * The result each loader, by id, last delivered to this activity. A loader delivers it again
+     * each time the activity starts, for example on the way back from a book's details, and it
+     * is already on screen then.
+     */
+    private final SparseArray<List<Booklisting>> mDeliveredResults = new SparseArray<>();
+
+    /**
+     * Whether the device has a connected network, kept up to date by
+     * {@link #mConnectivityReceiver} while the activity is in the foreground. Read by the
+     * scroll callbacks, which must not query the system on every frame.
+     */
+    private boolean mOnline;
+
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mOnline = isOnline();
+        }
+    };
+
+    /**
+     * Hands the rows on screen to the {@link DetailPrefetcher}, at most once per frame
+     */
+    private final Runnable mPrefetchVisibleDetails = new Runnable() {
+        @Override
+        public void run() {
+            prefetchVisibleDetails();
+        }
+    };
+
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createdAt = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.booklisting_activity);
         loaderManager = getLoaderManager();
+        mSnapshotFile = new File(getFilesDir(), SNAPSHOT_FILE_NAME);
+        mFederatedSearch = getPreferences(MODE_PRIVATE).getBoolean(PREF_FEDERATED_SEARCH, true);
+        mQueryTrieFile = new File(getFilesDir(), QUERY_TRIE_FILE_NAME);
+        mQueryTrie = QueryTrie.load(mQueryTrieFile, QueryTrie.DEFAULT_HALF_LIFE_MILLIS,
+                QueryTrie.DEFAULT_MAX_QUERIES);
+
+        // Time every request in debug builds; see the request timings menu entry
+        QueryTracer.get().setEnabled(BuildConfig.DEBUG);
+        JankMonitor.get().setEnabled(BuildConfig.DEBUG);
+        mMainThreadMonitor = new MainThreadMonitor(this, JankMonitor.get());
+        mRequestPlan = planRequests();
+
+        // Share one response cache between all queries made by the loader
+        if (QueryUtils.getCache() == null) {
+            QueryUtils.setCache(new BooklistingCache(new File(getCacheDir(), "booklisting_responses")));
+        }
+        if (sPrefetcher == null) {
+            sPrefetcher = new QueryPrefetcher(QueryPrefetcher.DEFAULT_MAX_REQUESTS_PER_MINUTE,
+                    QueryPrefetcher.DEFAULT_MAX_BYTES_PER_DAY, BooklistingCache.DEFAULT_TTL_MILLIS);
+        }
 
-        // Find a reference to the {@link ListView} in the layout
-        ListView booklistingListView = (ListView) findViewById(R.id.list);
-        mQueryEditText = (EditText) findViewById(R.id.search_edit_text);
+        // Find a reference to the {@link RecyclerView} in the layout
+        mBooklistingListView = (RecyclerView) findViewById(R.id.list);
+        mQueryEditText = (AutoCompleteTextView) findViewById(R.id.search_edit_text);
 
         mEmptyStateTextView = (TextView) findViewById(R.id.empty_view);
-        booklistingListView.setEmptyView(mEmptyStateTextView);
         loadingIndicator = (ProgressBar) findViewById(R.id.loading_indicator);
         // Create a new adapter that takes an empty list of books as input
-        mAdapter = new BooklistingAdapter(this, new ArrayList<Booklisting>());
-        // Set the adapter on the {@link ListView}
+        mAdapter = new BooklistingAdapter(ThumbnailLoader.getInstance(this));
+        mAdapter.setOnBooklistingClickListener(new BooklistingAdapter.OnBooklistingClickListener() {
+            @Override
+            public void onBooklistingClick(Booklisting booklisting) {
+                startActivity(VolumeDetailActivity.newIntent(BooklistingActivity.this, booklisting));
+            }
+        });
+        // Set the adapter on the {@link RecyclerView}
         // so the list can be populated in the user interface
-        booklistingListView.setAdapter(mAdapter);
+        mLayoutManager = new LinearLayoutManager(this);
+        mBooklistingListView.setLayoutManager(mLayoutManager);
+        mBooklistingListView.setHasFixedSize(true);
+        mBooklistingListView.setAdapter(mAdapter);
+
+        // Fetch the next page ahead of time as the list nears its end
+        mBooklistingListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                JankMonitor.get().setScrolling(newState != RecyclerView.SCROLL_STATE_IDLE);
+            }
+
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int firstVisibleItem = mLayoutManager.findFirstVisibleItemPosition();
+                int lastVisibleItem = mLayoutManager.findLastVisibleItemPosition();
+                if (firstVisibleItem != RecyclerView.NO_POSITION) {
+                    loadPagesFor(firstVisibleItem, lastVisibleItem);
+                }
+                scheduleDetailPrefetch();
+            }
+        });
+
+        mQueryScheduler = new QueryScheduler(QueryScheduler.DEFAULT_QUIET_PERIOD_MILLIS, new MainThreadTimer(),
+                new QueryScheduler.Listener() {
+                    @Override
+                    public void onQueryIssued(String query) {
+                        mCurrentQuery = query;
+                        // The user's own search needs the network more than any prefetch
+                        sPrefetcher.cancel();
+                        sPrefetcher.onQuerySearched(query);
+
+                        Bundle args = new Bundle();
+                        args.putString(ARG_QUERY, query);
+
+                        // Show matching books seen before right away, while the network
+                        // request is in flight or instead of it when offline
+                        loaderManager.restartLoader(INDEX_LOADER_ID, args, BooklistingActivity.this);
+
+                        mAwaitingNetwork = isOnline();
+                        if (!mAwaitingNetwork) {
+                            // Nothing is in flight; typing the query again once online retries
+                            mQueryScheduler.onQueryFinished(query);
+                            mQueryScheduler.invalidate();
+                            return;
+                        }
+
+                        mRequestPlan = planRequests();
+
+                        // Restart the loader with the new query. Restarting cancels the load
+                        // that is still running for the previous query.
+                        loaderManager.restartLoader(BOOKLISTING_LOADER_ID, args, BooklistingActivity.this);
+                        if (mPager.getCount() == 0) {
+                            showLoading();
+                        }
+                        // Pages of the previous query are no longer wanted
+                        loaderManager.destroyLoader(BOOKLISTING_PAGE_LOADER_ID);
+                        mLoadingPage = BooklistingPager.NO_PAGE;
+                        mVariantsPending = false;
+                    }
+                });
 
         mQueryEditText.addTextChangedListener(new TextWatcher() {
             @Override
@@ -73,29 +332,20 @@ public class BooklistingActivity extends AppCompatActivity
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                // If there is a network connection, fetch data
-                if (isOnline()) {
-                    // Get a reference to the LoaderManager, in order to interact with loaders.
-                    LoaderManager loaderManager = getLoaderManager();
-
-                    //mQuery = s.toString();
-
-                    Bundle args = new Bundle();
-                    args.putString("QUERY", s.toString());
-
-                    // Initialize the loader. Pass in the int ID constant defined above and pass in null for
-                    // the bundle. Pass in this activity for the LoaderCallbacks parameter (which is valid
-                    // because this activity implements the LoaderCallbacks interface).
-                    loaderManager.initLoader(BOOKLISTING_LOADER_ID, args, BooklistingActivity.this);
-                    loaderManager.restartLoader(BOOKLISTING_LOADER_ID, args, BooklistingActivity.this);
-                } else {
-                    // Otherwise, display error
-                    // First, hide loading indicator so error message will be visible
-                    View loadingIndicator = findViewById(R.id.loading_indicator);
-                    loadingIndicator.setVisibility(View.GONE);
-
-                    // Update empty state with no connection error message
-                    mEmptyStateTextView.setText(R.string.no_internet_connection);
+                JankMonitor.Phase previous = JankMonitor.get().enter(JankMonitor.Phase.TYPING);
+                try {
+                    // Hand the query to the scheduler; offline, it is answered from the local
+                    // index
+                    String query = s.toString();
+                    mQueryScheduler.onQueryChanged(query);
+
+                    // If the query extends one answered recently, show its filtered results now
+                    List<Booklisting> refined = mRefinementEngine.refine(query);
+                    if (refined != null) {
+                        showProvisionalResults(refined);
+                    }
+                } finally {
+                    JankMonitor.get().exit(previous);
                 }
             }
 
@@ -105,6 +355,279 @@ public class BooklistingActivity extends AppCompatActivity
             }
         });
 
+        if (savedInstanceState == null) {
+            showSnapshot(createdAt);
+        }
+        // Set after the snapshot's query is typed in, which should not pop up suggestions
+        mQueryEditText.setAdapter(new QuerySuggestionAdapter(this, mQueryTrie));
+    }
+
+    /**
+     * Show the results of the last query of the previous session before anything else happens,
+     * then issue that query again so fresh results replace them once they arrive.
+     */
+    private void showSnapshot(long createdAt) {
+        ResultSnapshot snapshot = ResultSnapshot.read(mSnapshotFile);
+        if (snapshot == null || snapshot.getmBooklistings().isEmpty()) {
+            return;
+        }
+        mRefinementEngine.remember(snapshot.getmQuery(), snapshot.getmBooklistings());
+        showProvisionalResults(snapshot.getmBooklistings());
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Showed " + snapshot.getmBooklistings().size() + " snapshot rows "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdAt)
+                    + " ms after onCreate");
+        }
+
+        // Typing the query goes through the scheduler like any other query: it revalidates
+        // the rows on screen, or keeps them when offline.
+        mQueryEditText.setText(snapshot.getmQuery());
+        mQueryEditText.setSelection(mQueryEditText.length());
+    }
+
+    /**
+     * Save the first page of results of the given query for the next launch, off the main
+     * thread.
+     */
+    private void saveSnapshot(final String query, List<Booklisting> books) {
+        final File file = mSnapshotFile;
+        final List<Booklisting> snapshot = new ArrayList<>(books);
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                ResultSnapshot.write(file, query, snapshot);
+            }
+        });
+    }
+
+    /**
+     * Prefetch the likeliest completions of the given query, if the device is on an unmetered
+     * network and this activity has nothing else to fetch or draw.
+     */
+    private void maybePrefetch(String query) {
+        if (mAwaitingNetwork || mVariantsPending || mLoadingPage != BooklistingPager.NO_PAGE
+                || mBooklistingListView.getScrollState() != RecyclerView.SCROLL_STATE_IDLE
+                || !isUnmetered()) {
+            return;
+        }
+        List<String> completions = mQueryTrie.complete(query, PREFETCH_COMPLETIONS, System.currentTimeMillis());
+        if (completions.isEmpty()) {
+            return;
+        }
+        // Built here: the plan and the pager they depend on belong to the main thread
+        Map<String, List<String>> urls = new HashMap<>();
+        for (String completion : completions) {
+            urls.put(completion, firstPageUrls(completion));
+        }
+        sPrefetcher.prefetch(completions, new PrefetchRequests(urls));
+    }
+
+    /**
+     * Returns the URLs the first page of a search for the query requests.
+     */
+    private List<String> firstPageUrls(String query) {
+        List<String> urls = new ArrayList<>();
+        if (mFederatedSearch) {
+            for (FederatedSearch.Variant variant : FederatedSearch.Variant.values()) {
+                urls.add(buildRequestUrl(variant.scope(query), 0));
+            }
+        } else {
+            urls.add(buildRequestUrl(query, 0));
+        }
+        return urls;
+    }
+
+    /**
+     * Hands the prefetcher's thread URLs built ahead of time, without holding on to the
+     * activity.
+     */
+    private static final class PrefetchRequests implements QueryPrefetcher.Requests {
+        private final Map<String, List<String>> mUrls;
+
+        PrefetchRequests(Map<String, List<String>> urls) {
+            mUrls = urls;
+        }
+
+        @Override
+        public List<String> urlsFor(String query) {
+            List<String> urls = mUrls.get(query);
+            return urls != null ? urls : Collections.<String>emptyList();
+        }
+    }
+
+    /**
+     * Save the queries searched so far, off the main thread.
+     */
+    private void saveQueryTrie() {
+        final QueryTrie queryTrie = mQueryTrie;
+        final File file = mQueryTrieFile;
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                queryTrie.save(file);
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mOnline = isOnline();
+        registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        if (JankMonitor.get().isEnabled()) {
+            mMainThreadMonitor.start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        unregisterReceiver(mConnectivityReceiver);
+        mMainThreadMonitor.stop();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        saveQueryTrie();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mQueryScheduler.cancelPending();
+        Log.i(LOG_TAG, "Search session: " + mQueryScheduler.getStats());
+        Log.i(LOG_TAG, "Prefetch: " + sPrefetcher.getStats());
+        Log.i(LOG_TAG, "Detail prefetch: " + DetailPrefetcher.get().getStats());
+        Log.i(LOG_TAG, "Row text layouts: " + mAdapter.getTextLayouts());
+    }
+
+    /**
+     * Update the rows whose details are prefetched once the list has settled for this frame.
+     * Scrolling reports many positions per frame; only the last set of rows matters.
+     */
+    private void scheduleDetailPrefetch() {
+        mBooklistingListView.removeCallbacks(mPrefetchVisibleDetails);
+        mBooklistingListView.post(mPrefetchVisibleDetails);
+    }
+
+    /**
+     * Hand the volume ids of the visible rows, top to bottom, to the {@link DetailPrefetcher}.
+     */
+    private void prefetchVisibleDetails() {
+        if (!mOnline) {
+            return;
+        }
+        int first = mLayoutManager.findFirstVisibleItemPosition();
+        int last = mLayoutManager.findLastVisibleItemPosition();
+        List<String> volumeIds = new ArrayList<>();
+        if (first != RecyclerView.NO_POSITION) {
+            for (int position = first; position <= last && position < mAdapter.getItemCount(); position++) {
+                Booklisting booklisting = mAdapter.getItem(position);
+                if (booklisting != null) {
+                    volumeIds.add(booklisting.getmId());
+                }
+            }
+        }
+        DetailPrefetcher.get().setVisible(volumeIds);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        ThumbnailLoader.getInstance(this).trimMemory(level);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.booklisting_menu, menu);
+        menu.findItem(R.id.action_query_traces).setVisible(QueryTracer.get().isEnabled());
+        menu.findItem(R.id.action_frame_timings).setVisible(JankMonitor.get().isEnabled());
+        menu.findItem(R.id.action_federated_search).setChecked(mFederatedSearch);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_query_traces) {
+            showQueryTraces();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_frame_timings) {
+            showFrameTimings();
+            return true;
+        }
+        if (item.getItemId() == R.id.action_federated_search) {
+            mFederatedSearch = !item.isChecked();
+            item.setChecked(mFederatedSearch);
+            getPreferences(MODE_PRIVATE).edit().putBoolean(PREF_FEDERATED_SEARCH, mFederatedSearch).apply();
+            // Search the current query again the new way
+            mQueryScheduler.invalidate();
+            if (mCurrentQuery != null) {
+                mQueryScheduler.onQueryChanged(mCurrentQuery);
+            }
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Show the request timing histograms, with the options to export them to a file or to start
+     * over.
+     */
+    private void showQueryTraces() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.query_traces)
+                .setMessage(QueryTracer.get().dump() + "\nPrefetch: " + sPrefetcher.getStats()
+                        + "\nNetwork: " + NetworkQualityEstimator.get() + "\nPlan: " + mRequestPlan)
+                .setPositiveButton(R.string.export_query_traces, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        File directory = getExternalFilesDir(null);
+                        File file = new File(directory != null ? directory : getFilesDir(), "query_traces.txt");
+                        boolean exported = QueryTracer.get().export(file);
+                        Toast.makeText(BooklistingActivity.this, exported
+                                        ? getString(R.string.query_traces_exported, file.getPath())
+                                        : getString(R.string.query_traces_export_failed),
+                                Toast.LENGTH_LONG).show();
+                    }
+                })
+                .setNeutralButton(R.string.reset_query_traces, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        QueryTracer.get().reset();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Show the frame durations and main-thread stalls by phase, with the options to export them
+     * to a file, stacks included, or to start over.
+     */
+    private void showFrameTimings() {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.frame_timings)
+                .setMessage(JankMonitor.get().dump())
+                .setPositiveButton(R.string.export_query_traces, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        File directory = getExternalFilesDir(null);
+                        File file = new File(directory != null ? directory : getFilesDir(), "frame_timings.txt");
+                        boolean exported = JankMonitor.get().export(file);
+                        Toast.makeText(BooklistingActivity.this, exported
+                                        ? getString(R.string.query_traces_exported, file.getPath())
+                                        : getString(R.string.frame_timings_export_failed),
+                                Toast.LENGTH_LONG).show();
+                    }
+                })
+                .setNeutralButton(R.string.reset_query_traces, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        JankMonitor.get().reset();
+                    }
+                })
+                .show();
     }
 
     public boolean isOnline() {
@@ -115,18 +638,191 @@ public class BooklistingActivity extends AppCompatActivity
         return (networkInfo != null && networkInfo.isConnected());
     }
 
+    /**
+     * Returns true if the active network does not charge by the byte, which prefetching needs.
+     */
+    private boolean isUnmetered() {
+        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            return isOnline() && !connMgr.isActiveNetworkMetered();
+        }
+        // Before Jelly Bean there is no metered flag; count Wi-Fi and Ethernet as unmetered
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected()
+                && (networkInfo.getType() == ConnectivityManager.TYPE_WIFI
+                || networkInfo.getType() == ConnectivityManager.TYPE_ETHERNET);
+    }
+
+    /**
+     * Returns the page sizes and projection for a search made now, from the kind of
+     * network the device is on and how fast requests have been on it.
+     */
+    private NetworkQualityEstimator.RequestPlan planRequests() {
+        NetworkQualityEstimator estimator = NetworkQualityEstimator.get();
+        estimator.setLinkType(currentLinkType());
+        NetworkQualityEstimator.RequestPlan plan = estimator.plan();
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Planned " + plan + " for " + estimator);
+        }
+        return plan;
+    }
+
+    /**
+     * Returns the kind of link of the active network.
+     */
+    private NetworkQualityEstimator.LinkType currentLinkType() {
+        ConnectivityManager connMgr = (ConnectivityManager) getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connMgr.getActiveNetworkInfo();
+        if (networkInfo == null || !networkInfo.isConnected()) {
+            return NetworkQualityEstimator.LinkType.UNKNOWN;
+        }
+        switch (networkInfo.getType()) {
+            case ConnectivityManager.TYPE_WIFI:
+                return NetworkQualityEstimator.LinkType.WIFI;
+            case ConnectivityManager.TYPE_ETHERNET:
+                return NetworkQualityEstimator.LinkType.ETHERNET;
+            case ConnectivityManager.TYPE_MOBILE:
+                break;
+            default:
+                return NetworkQualityEstimator.LinkType.UNKNOWN;
+        }
+        switch (networkInfo.getSubtype()) {
+            case TelephonyManager.NETWORK_TYPE_GPRS:
+            case TelephonyManager.NETWORK_TYPE_EDGE:
+            case TelephonyManager.NETWORK_TYPE_CDMA:
+            case TelephonyManager.NETWORK_TYPE_1xRTT:
+            case TelephonyManager.NETWORK_TYPE_IDEN:
+                return NetworkQualityEstimator.LinkType.CELLULAR_2G;
+            case TelephonyManager.NETWORK_TYPE_UMTS:
+            case TelephonyManager.NETWORK_TYPE_EVDO_0:
+            case TelephonyManager.NETWORK_TYPE_EVDO_A:
+            case TelephonyManager.NETWORK_TYPE_EVDO_B:
+            case TelephonyManager.NETWORK_TYPE_HSDPA:
+            case TelephonyManager.NETWORK_TYPE_HSUPA:
+            case TelephonyManager.NETWORK_TYPE_HSPA:
+            case TelephonyManager.NETWORK_TYPE_HSPAP:
+            case TelephonyManager.NETWORK_TYPE_EHRPD:
+                return NetworkQualityEstimator.LinkType.CELLULAR_3G;
+            case TelephonyManager.NETWORK_TYPE_LTE:
+                return NetworkQualityEstimator.LinkType.CELLULAR_4G;
+            default:
+                return NetworkQualityEstimator.LinkType.UNKNOWN;
+        }
+    }
+
+    /**
+     * Request the page the visible rows need, if any, and drop pages that are far off screen.
+     */
+    private void loadPagesFor(int firstVisible, int lastVisible) {
+        if (mCurrentQuery == null || mShowingProvisionalResults || mVariantsPending
+                || mLoadingPage != BooklistingPager.NO_PAGE) {
+            return;
+        }
+        if (mPager.trim(firstVisible, lastVisible)) {
+            showRows();
+        }
+        int page = mPager.nextPageToLoad(firstVisible, lastVisible);
+        if (page == BooklistingPager.NO_PAGE || !mOnline) {
+            return;
+        }
+        mLoadingPage = page;
+
+        Bundle args = new Bundle();
+        args.putString(ARG_QUERY, mCurrentQuery);
+        args.putInt(ARG_PAGE, page);
+        loaderManager.restartLoader(BOOKLISTING_PAGE_LOADER_ID, args, this);
+    }
+
+    /**
+     * Show the loading indicator in place of the empty list until the results arrive.
+     */
+    private void showLoading() {
+        mBooklistingListView.setVisibility(View.GONE);
+        mEmptyStateTextView.setVisibility(View.GONE);
+        loadingIndicator.setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Hand the rows held by the pager to the adapter, which works out what changed.
+     */
+    private void showRows() {
+        showRows(QueryTrace.DISABLED);
+    }
+
+    /**
+     * Like {@link #showRows()}, finishing the given trace once the adapter has the rows.
+     */
+    private void showRows(final QueryTrace trace) {
+        mAdapter.submit(mPager.snapshot(), new Runnable() {
+            @Override
+            public void run() {
+                trace.mark(QueryTrace.Phase.BIND);
+                trace.finish();
+                // New rows may be on screen without any scrolling. The posted update runs
+                // after the layout the change has requested.
+                scheduleDetailPrefetch();
+            }
+        });
+        // Show the empty state view in place of the list while there is nothing to show
+        boolean empty = mPager.getCount() == 0;
+        mBooklistingListView.setVisibility(empty ? View.GONE : View.VISIBLE);
+        mEmptyStateTextView.setVisibility(empty ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Returns the request URL for one page of results for the given query. Only the fields
+     * {@link Booklisting} declares are requested, less the deferrable ones on slow networks.
+     */
+    private String buildRequestUrl(String query, int page) {
+        // The pager only takes the plan's page sizes once the first page of the query arrives
+        int maxResults = page == 0 ? mRequestPlan.getFirstPageSize() : mPager.pageSize(page);
+        return BOOKLISTING_JSON
+                + "&fields=" + (mRequestPlan.isLean() ? BOOKLISTING_LEAN_FIELDS : BOOKLISTING_FIELDS)
+                + "&startIndex=" + mPager.pageStart(page)
+                + "&maxResults=" + maxResults
+                + "&q=" + encodeQueryValue(query);
+    }
+
+    /**
+     * Returns the builder of the request URLs of the variants of a federated search, for the
+     * given page.
+     */
+    private FederatedSearch.UrlBuilder federatedUrls(final int page) {
+        return new FederatedSearch.UrlBuilder() {
+            @Override
+            public String buildUrl(String scopedQuery) {
+                return buildRequestUrl(scopedQuery, page);
+            }
+        };
+    }
+
+    private static String encodeQueryValue(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
     @Override
     public Loader<List<Booklisting>> onCreateLoader(int i, Bundle bundle) {
-        String requestUrl = "";
-
-        String mQuery = bundle.getString("QUERY");
+        String mQuery = bundle.getString(ARG_QUERY);
+        int page = bundle.getInt(ARG_PAGE, 0);
 
-        if (mQuery != null && mQuery != "") {
-            requestUrl = BOOKLISTING_JSON + mQuery;
-        } else {
-            String defaultQuery = "android";
-            requestUrl = BOOKLISTING_JSON + defaultQuery;
+        if (mQuery == null || mQuery.trim().isEmpty()) {
+            mQuery = "android";
+        }
+        // Whatever a new loader delivers is new, even a list from the cache shown before
+        mDeliveredResults.remove(i);
+        if (i == INDEX_LOADER_ID) {
+            return new IndexSearchLoader(this, mQuery);
         }
+        if (mFederatedSearch && page == 0) {
+            // Only a new query streams its results; a first page fetched again, after being
+            // dropped, needs them all at once to refill the same rows.
+            return new BooklistingLoader(this, mQuery, federatedUrls(page), i == BOOKLISTING_LOADER_ID);
+        }
+        String requestUrl = buildRequestUrl(mQuery, page);
         // Create a new loader for the given URL
         return new BooklistingLoader(this, requestUrl);
 
@@ -134,25 +830,135 @@ public class BooklistingActivity extends AppCompatActivity
 
     @Override
     public void onLoadFinished(Loader<List<Booklisting>> loader, List<Booklisting> books) {
+        JankMonitor.Phase previous = JankMonitor.get().enter(JankMonitor.Phase.RESULT_DELIVERY);
+        try {
+            deliverResults(loader, books);
+        } finally {
+            JankMonitor.get().exit(previous);
+        }
+    }
+
+    /**
+     * Shows the results of a finished load.
+     */
+    private void deliverResults(Loader<List<Booklisting>> loader, List<Booklisting> books) {
+        if (books != null && books == mDeliveredResults.get(loader.getId())) {
+            // Redelivered: the pager, the recorded query, the snapshot and the prefetches are
+            // all up to date with it already
+            return;
+        }
+        mDeliveredResults.put(loader.getId(), books);
+        if (loader.getId() == INDEX_LOADER_ID) {
+            onIndexLoadFinished(books);
+            return;
+        }
+        QueryTrace trace = ((BooklistingLoader) loader).getTrace();
+        trace.mark(QueryTrace.Phase.DELIVER);
+        if (loader.getId() == BOOKLISTING_PAGE_LOADER_ID) {
+            onPageLoadFinished(books, trace);
+            return;
+        }
+        mAwaitingNetwork = false;
+        // The merged results of the variants that have answered, more to come
+        boolean partial = books instanceof FederatedSearch.MergedResults
+                && !((FederatedSearch.MergedResults) books).isComplete();
+        mVariantsPending = partial;
 
         // Hide loading indicator because the data has been loaded
-        View loadingIndicator = findViewById(R.id.loading_indicator);
         loadingIndicator.setVisibility(View.GONE);
 
         // /Set empty state view text to display "No books found"
         mEmptyStateTextView.setText(R.string.no_books_found);
 
-        //Clear the adapter of previous booklisting data
-        mAdapter.clear();
-        //If there is a valid list of {@link Booklistings}s, then add them to the adapter's data set.
+        if (!partial) {
+            mQueryScheduler.onQueryFinished(mCurrentQuery);
+            if (books == null) {
+                // The request failed, so retyping the same query should try again.
+                mQueryScheduler.invalidate();
+            }
+            mRefinementEngine.remember(mCurrentQuery, books);
+            if (books != null && !books.isEmpty()) {
+                saveSnapshot(mCurrentQuery, books);
+                mQueryTrie.record(mCurrentQuery, System.currentTimeMillis());
+            }
+        }
+
+        //Replace the previous booklisting data with the first page of the new query, keeping the
+        //rows that were already shown provisionally
+        List<Booklisting> merged = mShowingProvisionalResults
+                ? RefinementEngine.merge(mPager.getPage(0), books) : books;
+        mShowingProvisionalResults = false;
+        mPager.reset(mRequestPlan.getFirstPageSize(), mRequestPlan.getPageSize());
+        if (merged != null && !merged.isEmpty()) {
+            mPager.onPageLoaded(0, merged);
+        }
+        showRows(trace);
+        if (!partial && books != null) {
+            maybePrefetch(mCurrentQuery);
+        }
+    }
+
+    /**
+     * Shows the books found in the local index until the network results arrive. Offline they
+     * are all there is.
+     */
+    private void onIndexLoadFinished(List<Booklisting> books) {
+        if (mAwaitingNetwork && (books == null || books.isEmpty())) {
+            // Keep what is on screen until the network answers
+            return;
+        }
+        if (!mAwaitingNetwork && isOnline()) {
+            // The network results are already shown
+            return;
+        }
+
+        if (!mAwaitingNetwork) {
+            // Update empty state with no connection error message
+            mEmptyStateTextView.setText(R.string.no_internet_connection);
+        }
+        if (mShowingProvisionalResults) {
+            // Add to the locally refined results rather than replacing them
+            books = RefinementEngine.union(mPager.getPage(0), books);
+        }
+        showProvisionalResults(books);
+    }
+
+    /**
+     * Show results that stand in for the network results of the current query.
+     */
+    private void showProvisionalResults(List<Booklisting> books) {
+        loadingIndicator.setVisibility(View.GONE);
+
+        mShowingProvisionalResults = true;
+        mPager.reset();
         if (books != null && !books.isEmpty()) {
-            mAdapter.addAll(books);
+            mPager.onPageLoaded(0, books);
+        }
+        showRows();
+    }
+
+    /**
+     * Stores a page fetched by the page loader and shows its rows.
+     */
+    private void onPageLoadFinished(List<Booklisting> books, QueryTrace trace) {
+        int page = mLoadingPage;
+        mLoadingPage = BooklistingPager.NO_PAGE;
+        if (page == BooklistingPager.NO_PAGE || books == null) {
+            // Cancelled or failed; the next scroll event asks again
+            trace.finish();
+            return;
         }
+        // The pager leaves out the books earlier pages, merged or not, already show
+        mPager.onPageLoaded(page, books);
+        showRows(trace);
     }
 
     @Override
     public void onLoaderReset(Loader<List<Booklisting>> loader) {
-        //Loader reset, so we can clear out our existing data.
-        mAdapter.clear();
+        if (loader.getId() == BOOKLISTING_LOADER_ID) {
+            //Loader reset, so we can clear out our existing data.
+            mPager.reset();
+            showRows();
+        }
     }
 }
@@ -1,13 +1,19 @@
 package com.example.android.booklistingapp;
 
-import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
-import android.widget.TextView;
+import android.widget.ImageView;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by Bianka Matyas on 02/07/2017.
@@ -15,53 +21,351 @@ import java.util.List;
 
 /**
  * An {@link BooklistingAdapter} knows how to create a list item layout for each book
- * in the data source (a list of {@link Booklisting} objects).
+ * in the data source (a list of {@link Booklisting} objects, where null stands for a row
+ * whose page is being fetched again).
  * <p>
- * These list item layouts will be provided to an adapter view like ListView
- * to be displayed to the user.
+ * These list item layouts will be provided to a RecyclerView to be displayed to the user.
+ * New data is compared with what is shown on a background thread, so only inserted, removed,
+ * moved or changed rows are animated and rebound. The text of new rows is laid out on the same
+ * background thread, see {@link RowTextLayouts}, so binding a row measures nothing. Cover
+ * thumbnails are loaded by a
+ * {@link ThumbnailLoader}, and a row that scrolls off screen stops loading its thumbnail.
+ * Tapping a row is reported to an {@link OnBooklistingClickListener}.
  */
 
-public class BooklistingAdapter extends ArrayAdapter<Booklisting> {
+public class BooklistingAdapter extends RecyclerView.Adapter<BooklistingAdapter.ViewHolder> {
+
+    /**
+     * Computes diffs and text layouts off the main thread; one at a time, in submission order.
+     */
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Rows currently shown, which are the data source of the adapter
+     */
+    private List<Booklisting> mRows = new ArrayList<>();
+
+    /**
+     * Incremented on every submission so that a diff finishing late is thrown away
+     */
+    private int mGeneration;
+
+    /**
+     * Loads the cover thumbnails of the rows
+     */
+    private final ThumbnailLoader mThumbnails;
+
+    /**
+     * Layouts of the title and author of the rows, built ahead of binding
+     */
+    private final RowTextLayouts mTextLayouts = new RowTextLayouts();
+
+    /**
+     * False to have rows lay out their text while they are bound, for comparison
+     */
+    private boolean mPrecomputeText = true;
+
+    /**
+     * Rebuilds the layouts of the rows when the width of their text changes
+     */
+    private final TextLayoutView.OnTextWidthListener mTextWidthListener = new TextLayoutView.OnTextWidthListener() {
+        @Override
+        public void onTextWidth(TextLayoutView view, int width) {
+            if (mPrecomputeText && mTextLayouts.setWidth(width)) {
+                final List<Booklisting> rows = mRows;
+                DIFF_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        mTextLayouts.build(rows);
+                    }
+                });
+            }
+        }
+    };
+
+    /**
+     * Receives taps on a row, may be null
+     */
+    private OnBooklistingClickListener mClickListener;
+
+    /**
+     * Receives the book of a tapped row.
+     */
+    public interface OnBooklistingClickListener {
+        void onBooklistingClick(Booklisting booklisting);
+    }
 
     /**
      * Constructs a new {@link BooklistingAdapter}.
      *
-     * @param context      of the app
-     * @param booklistings is the list of books, which is the data source of the adapter
+     * @param thumbnails loads the cover thumbnails of the rows
+     */
+    public BooklistingAdapter(ThumbnailLoader thumbnails) {
+        mThumbnails = thumbnails;
+        setHasStableIds(true);
+    }
+
+    public void setOnBooklistingClickListener(OnBooklistingClickListener listener) {
+        mClickListener = listener;
+    }
+
+    /**
+     * Turn building the text layouts ahead of binding on or off, to measure what it saves.
+     */
+    void setPrecomputeText(boolean precomputeText) {
+        mPrecomputeText = precomputeText;
+    }
+
+    RowTextLayouts getTextLayouts() {
+        return mTextLayouts;
+    }
+
+    /**
+     * Caches the views of one list item so binding does not look them up again.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+        final TextLayoutView titleView;
+        final TextLayoutView authorView;
+        final ImageView thumbnailView;
+
+        ViewHolder(View itemView) {
+            super(itemView);
+            // Find the TextView with view ID title
+            titleView = (TextLayoutView) itemView.findViewById(R.id.title_list_item);
+            // Find the TextView with view ID author
+            authorView = (TextLayoutView) itemView.findViewById(R.id.author_list_item);
+            // Find the ImageView with view ID thumbnail
+            thumbnailView = (ImageView) itemView.findViewById(R.id.thumbnail_list_item);
+        }
+    }
+
+    /**
+     * Replace the rows. The difference to the rows shown is computed on a background thread and
+     * then dispatched as fine-grained change notifications on the main thread. Must be called on
+     * the main thread.
      */
-    public BooklistingAdapter(Context context, List<Booklisting> booklistings) {
-        super(context, 0, booklistings);
+    public void submit(List<Booklisting> rows) {
+        submit(rows, null);
     }
 
     /**
-     * Returns a list item view that displays information about the book at the given position
-     * in the list of books.
+     * Replace the rows, like {@link #submit(List)}, and run the given callback on the main thread
+     * once the change notifications have been dispatched. The callback is not run if a newer
+     * submission supersedes this one first.
+     */
+    public void submit(List<Booklisting> rows, final Runnable onCommitted) {
+        final List<Booklisting> oldRows = mRows;
+        final List<Booklisting> newRows = new ArrayList<>(rows);
+        final int generation = ++mGeneration;
+        final boolean buildText = mPrecomputeText && mTextLayouts.isReady();
+
+        if (newRows.isEmpty() || (oldRows.isEmpty() && !buildText)) {
+            // Nothing to compare or lay out; swap right away.
+            mRows = newRows;
+            notifyDataSetChanged();
+            if (onCommitted != null) {
+                onCommitted.run();
+            }
+            return;
+        }
+
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (buildText) {
+                    mTextLayouts.build(newRows);
+                }
+                final DiffUtil.DiffResult diff = oldRows.isEmpty() ? null
+                        : DiffUtil.calculateDiff(new RowDiff(oldRows, newRows));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            // A newer submission has been made in the meantime.
+                            return;
+                        }
+                        JankMonitor.Phase previous = JankMonitor.get().enter(JankMonitor.Phase.RESULT_DELIVERY);
+                        try {
+                            mRows = newRows;
+                            if (diff != null) {
+                                diff.dispatchUpdatesTo(BooklistingAdapter.this);
+                            } else {
+                                notifyDataSetChanged();
+                            }
+                            if (onCommitted != null) {
+                                onCommitted.run();
+                            }
+                        } finally {
+                            JankMonitor.get().exit(previous);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRows.size();
+    }
+
+    /**
+     * Returns the book at the given position, or null while its page is being fetched again.
+     */
+    public Booklisting getItem(int position) {
+        return mRows.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return stableIdOf(mRows.get(position), position);
+    }
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        JankMonitor.Phase previous = JankMonitor.get().enter(JankMonitor.Phase.BINDING);
+        try {
+            return createViewHolder(parent);
+        } finally {
+            JankMonitor.get().exit(previous);
+        }
+    }
+
+    /**
+     * Inflates a row and wires it up.
+     */
+    private ViewHolder createViewHolder(ViewGroup parent) {
+        View listItemView = LayoutInflater.from(parent.getContext()).inflate(
+                R.layout.booklisting_list_item, parent, false);
+        final ViewHolder holder = new ViewHolder(listItemView);
+        mTextLayouts.setViews(holder.titleView, holder.authorView);
+        holder.titleView.setOnTextWidthListener(mTextWidthListener);
+        listItemView.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int position = holder.getAdapterPosition();
+                // Rows waiting for their page have nothing to open
+                if (mClickListener != null && position != RecyclerView.NO_POSITION
+                        && mRows.get(position) != null) {
+                    mClickListener.onBooklistingClick(mRows.get(position));
+                }
+            }
+        });
+        return holder;
+    }
+
+    /**
+     * Displays information about the book at the given position in the list of books.
      */
     @Override
-    public View getView(int position, View convertView, ViewGroup parent) {
-        // Check if there is an existing list item view (called convertView) that we can reuse,
-        // otherwise, if convertView is null, then inflate a new list item layout.
-        View listItemView = convertView;
-        if (listItemView == null) {
-            listItemView = LayoutInflater.from(getContext()).inflate(
-                    R.layout.booklisting_list_item, parent, false);
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        JankMonitor.Phase previous = JankMonitor.get().enter(JankMonitor.Phase.BINDING);
+        try {
+            bind(holder, position);
+        } finally {
+            JankMonitor.get().exit(previous);
         }
+    }
 
+    private void bind(ViewHolder holder, int position) {
         // Find the book at the given position in the list of booklistings
-        Booklisting currentBooklisting = getItem(position);
+        Booklisting currentBooklisting = mRows.get(position);
+
+        if (currentBooklisting == null) {
+            // The page of this row was dropped to save memory and is being fetched again
+            String loading = holder.itemView.getContext().getString(R.string.loading_row);
+            holder.titleView.setText(loading);
+            holder.authorView.setText("");
+            holder.itemView.setContentDescription(loading);
+            mThumbnails.cancel(holder.thumbnailView);
+        } else {
+            // Display the title and author of the current book, laid out ahead of time if they
+            // have been
+            RowTextLayouts.RowText text = mPrecomputeText ? mTextLayouts.get(currentBooklisting) : null;
+            if (text != null) {
+                holder.titleView.setLayout(currentBooklisting.getmTitle(), text.title);
+                holder.authorView.setLayout(currentBooklisting.getmAuthor(), text.author);
+            } else {
+                holder.titleView.setText(currentBooklisting.getmTitle());
+                holder.authorView.setText(currentBooklisting.getmAuthor());
+            }
+            // Read out as one item, since the row is what gets focused and clicked
+            String author = currentBooklisting.getmAuthor();
+            holder.itemView.setContentDescription(author == null || author.isEmpty()
+                    ? currentBooklisting.getmTitle()
+                    : holder.itemView.getContext().getString(R.string.row_content_description,
+                    currentBooklisting.getmTitle(), author));
+            mThumbnails.load(holder.thumbnailView, currentBooklisting.getmThumbnailUrl());
+        }
+    }
+
+    /**
+     * The row has scrolled off screen; stop loading its thumbnail and let go of the bitmap.
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mThumbnails.cancel(holder.thumbnailView);
+    }
+
+    /**
+     * Returns a stable id derived from {@link FederatedSearch#keyOf(Booklisting)}: the Google
+     * volume id, or title and author for books without one. Rows waiting for their page get an
+     * id based on their position.
+     */
+    static long stableIdOf(Booklisting booklisting, int position) {
+        if (booklisting == null) {
+            return Long.MIN_VALUE + position;
+        }
+        String key = FederatedSearch.keyOf(booklisting);
+        // 64-bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash == Long.MIN_VALUE ? 0 : hash;
+    }
+
+    /**
+     * Compares two row lists by stable id and by displayed text.
+     */
+    private static final class RowDiff extends DiffUtil.Callback {
+        private final List<Booklisting> mOldRows;
+        private final List<Booklisting> mNewRows;
 
-        // Find the TextView with view ID author
-        TextView authorView = (TextView) listItemView.findViewById(R.id.author_list_item);
-        // Display the author of the current book in that TextView
-        authorView.setText(currentBooklisting.getmAuthor());
+        RowDiff(List<Booklisting> oldRows, List<Booklisting> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
 
-        // Find the TextView with view ID title
-        TextView titleView = (TextView) listItemView.findViewById(R.id.title_list_item);
-        // Display the title of the current book in that TextView
-        titleView.setText(currentBooklisting.getmTitle());
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
 
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            return stableIdOf(mOldRows.get(oldPosition), oldPosition)
+                    == stableIdOf(mNewRows.get(newPosition), newPosition);
+        }
 
-        // Return the list item view that is now showing the appropriate data
-        return listItemView;
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Booklisting oldBook = mOldRows.get(oldPosition);
+            Booklisting newBook = mNewRows.get(newPosition);
+            if (oldBook == null || newBook == null) {
+                return oldBook == newBook;
+            }
+            return oldBook.getmTitle().equals(newBook.getmTitle())
+                    && Arrays.equals(oldBook.getmAuthors(), newBook.getmAuthors())
+                    && oldBook.getmThumbnailUrl().equals(newBook.getmThumbnailUrl());
+        }
     }
 }
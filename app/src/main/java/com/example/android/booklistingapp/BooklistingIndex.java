@@ -0,0 +1,201 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Local full-text index of every book the app has received, searchable by prefixes of the
+ * words in its title and authors.
+ * <p>
+ * It answers queries in a few milliseconds, so its results can be shown while a network request
+ * is in flight, and it is the only source of results when the device is offline. The number of
+ * books is bounded; the least recently seen ones are evicted first.
+ */
+public class BooklistingIndex extends SQLiteOpenHelper {
+
+    private static final String LOG_TAG = BooklistingIndex.class.getSimpleName();
+
+    private static final String DATABASE_NAME = "booklisting_index.db";
+    private static final int DATABASE_VERSION = 2;
+
+    /**
+     * Default maximum number of books kept in the index.
+     */
+    public static final int DEFAULT_MAX_BOOKS = 5000;
+
+    private static final String TABLE_BOOKS = "books";
+    private static final String TABLE_BOOKS_FTS = "books_fts";
+    private static final String COLUMN_ID = "_id";
+    private static final String COLUMN_VOLUME_ID = "volume_id";
+    private static final String COLUMN_TITLE = "title";
+    private static final String COLUMN_AUTHOR = "author";
+    private static final String COLUMN_LAST_SEEN = "last_seen";
+
+    private static BooklistingIndex sInstance;
+
+    private final int mMaxBooks;
+
+    /**
+     * Returns the index shared by the whole app.
+     */
+    public static synchronized BooklistingIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BooklistingIndex(context.getApplicationContext(), DEFAULT_MAX_BOOKS);
+        }
+        return sInstance;
+    }
+
+    private BooklistingIndex(Context context, int maxBooks) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mMaxBooks = maxBooks;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_BOOKS + " ("
+                + COLUMN_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COLUMN_VOLUME_ID + " TEXT NOT NULL, "
+                + COLUMN_TITLE + " TEXT NOT NULL, "
+                + COLUMN_AUTHOR + " TEXT NOT NULL, "
+                + COLUMN_LAST_SEEN + " INTEGER NOT NULL, "
+                + "UNIQUE (" + COLUMN_TITLE + ", " + COLUMN_AUTHOR + "))");
+        db.execSQL("CREATE INDEX " + TABLE_BOOKS + "_" + COLUMN_LAST_SEEN + " ON "
+                + TABLE_BOOKS + " (" + COLUMN_LAST_SEEN + ")");
+        // FTS3 rather than FTS4 with external content, which needs a newer SQLite than API 15 has.
+        // The docid of each row is the _id of the book.
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_BOOKS_FTS + " USING fts3("
+                + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ")");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // The index only holds copies of server data, so it is simply rebuilt.
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS_FTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_BOOKS);
+        onCreate(db);
+    }
+
+    /**
+     * Add the books of one response to the index in a single transaction, marking books that are
+     * already indexed as seen just now, then evict the least recently seen books over the limit.
+     * Must not be called on the main thread.
+     */
+    public void addAll(List<Booklisting> booklistings) {
+        if (booklistings == null || booklistings.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement touch = db.compileStatement("UPDATE " + TABLE_BOOKS + " SET "
+                + COLUMN_LAST_SEEN + " = ? WHERE " + COLUMN_TITLE + " = ? AND " + COLUMN_AUTHOR + " = ?");
+        SQLiteStatement insertBook = db.compileStatement("INSERT INTO " + TABLE_BOOKS + " ("
+                + COLUMN_VOLUME_ID + ", " + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ", "
+                + COLUMN_LAST_SEEN + ") VALUES (?, ?, ?, ?)");
+        SQLiteStatement insertText = db.compileStatement("INSERT INTO " + TABLE_BOOKS_FTS
+                + " (docid, " + COLUMN_TITLE + ", " + COLUMN_AUTHOR + ") VALUES (?, ?, ?)");
+
+        db.beginTransaction();
+        try {
+            for (Booklisting booklisting : booklistings) {
+                if (booklisting == null) {
+                    continue;
+                }
+                String title = booklisting.getmTitle();
+                String author = booklisting.getmAuthor();
+
+                touch.bindLong(1, now);
+                touch.bindString(2, title);
+                touch.bindString(3, author);
+                if (touch.executeUpdateDelete() > 0) {
+                    continue;
+                }
+
+                insertBook.bindString(1, booklisting.getmId());
+                insertBook.bindString(2, title);
+                insertBook.bindString(3, author);
+                insertBook.bindLong(4, now);
+                long id = insertBook.executeInsert();
+
+                insertText.bindLong(1, id);
+                insertText.bindString(2, title);
+                insertText.bindString(3, author);
+                insertText.executeInsert();
+            }
+            evictLeastRecentlySeen(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            touch.close();
+            insertBook.close();
+            insertText.close();
+        }
+    }
+
+    /**
+     * Returns up to limit books whose title or author contains words starting with every word
+     * of the query, most recently seen first. Must not be called on the main thread.
+     */
+    public List<Booklisting> search(String query, int limit) {
+        List<Booklisting> booklistings = new ArrayList<>();
+        String match = toMatchExpression(query);
+        if (match == null) {
+            return booklistings;
+        }
+
+        long start = System.nanoTime();
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT b." + COLUMN_VOLUME_ID + ", b."
+                + COLUMN_AUTHOR + ", b." + COLUMN_TITLE
+                + " FROM " + TABLE_BOOKS_FTS + " f JOIN " + TABLE_BOOKS + " b ON b." + COLUMN_ID + " = f.docid"
+                + " WHERE " + TABLE_BOOKS_FTS + " MATCH ?"
+                + " ORDER BY b." + COLUMN_LAST_SEEN + " DESC LIMIT " + limit, new String[]{match});
+        try {
+            while (cursor.moveToNext()) {
+                booklistings.add(new Booklisting(cursor.getString(0), cursor.getString(1),
+                        cursor.getString(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Index search '" + match + "': " + booklistings.size() + " books in "
+                    + (System.nanoTime() - start) / 1000 + " us");
+        }
+        return booklistings;
+    }
+
+    private void evictLeastRecentlySeen(SQLiteDatabase db) {
+        String oldest = "SELECT " + COLUMN_ID + " FROM " + TABLE_BOOKS + " ORDER BY " + COLUMN_LAST_SEEN
+                + " DESC LIMIT -1 OFFSET " + mMaxBooks;
+        db.execSQL("DELETE FROM " + TABLE_BOOKS_FTS + " WHERE docid IN (" + oldest + ")");
+        db.execSQL("DELETE FROM " + TABLE_BOOKS + " WHERE " + COLUMN_ID + " IN (" + oldest + ")");
+    }
+
+    /**
+     * Turn the typed query into an FTS prefix query, for example "Andr prog" into
+     * "andr* prog*". Returns null if the query has no searchable words.
+     */
+    static String toMatchExpression(String query) {
+        if (query == null) {
+            return null;
+        }
+        StringBuilder match = new StringBuilder();
+        for (String token : query.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append(token).append('*');
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+}
@@ -2,6 +2,8 @@ package com.example.android.booklistingapp;
 
 import android.content.AsyncTaskLoader;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 
 import java.util.List;
 
@@ -12,6 +14,10 @@ import java.util.List;
 /**
  * Loads a list of books by using an AsyncTask to perform the
  * network request to the given URL.
+ * <p>
+ * A loader made for a query instead searches it in several ways at once through
+ * {@link FederatedSearch}, and can deliver the merged results as each way answers, before the
+ * final {@link FederatedSearch.MergedResults}.
  */
 public class BooklistingLoader extends AsyncTaskLoader<List<Booklisting>> {
 
@@ -25,6 +31,35 @@ public class BooklistingLoader extends AsyncTaskLoader<List<Booklisting>> {
      */
     private String mUrl;
 
+    /**
+     * Query searched by a federated loader, and how to build its request URLs
+     */
+    private String mQuery;
+    private FederatedSearch.UrlBuilder mUrls;
+
+    /**
+     * Whether a federated loader delivers results before all variants have answered
+     */
+    private boolean mStreamPartialResults;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Cancellation for the request currently running in {@link #loadInBackground()}
+     */
+    private QueryCancellation mCancellation;
+
+    /**
+     * Trace of the most recent load, finished by whoever shows its result
+     */
+    private volatile QueryTrace mTrace = QueryTrace.DISABLED;
+
+    /**
+     * Last result delivered, handed out again when the loader is started again instead of
+     * loading it again. Null if nothing has been delivered or the last load failed.
+     */
+    private List<Booklisting> mBooklistings;
+
     /**
      * Constructs a new {@link BooklistingLoader}.
      *
@@ -36,9 +71,57 @@ public class BooklistingLoader extends AsyncTaskLoader<List<Booklisting>> {
         mUrl = url;
     }
 
+    /**
+     * Constructs a new {@link BooklistingLoader} that runs a federated search.
+     *
+     * @param context              of the activity
+     * @param query                to search for
+     * @param urls                 builds the request URL of each variant of the query
+     * @param streamPartialResults whether to deliver results as each variant answers
+     */
+    public BooklistingLoader(Context context, String query, FederatedSearch.UrlBuilder urls,
+                             boolean streamPartialResults) {
+        super(context);
+        mQuery = query;
+        mUrls = urls;
+        mStreamPartialResults = streamPartialResults;
+    }
+
+    /**
+     * Called when the activity starts, also on the way back from another screen. A loaded
+     * result is delivered again as it is; only a loader without one, or whose content has
+     * changed, loads again.
+     */
     @Override
     protected void onStartLoading() {
-        forceLoad();
+        if (mBooklistings != null) {
+            deliverResult(mBooklistings);
+        }
+        if (takeContentChanged() || mBooklistings == null) {
+            forceLoad();
+        }
+    }
+
+    /**
+     * Keeps the result for {@link #onStartLoading()}, and passes it on while the loader is
+     * started. Partial results of a federated search come through here too, until the final
+     * ones replace them.
+     */
+    @Override
+    public void deliverResult(List<Booklisting> data) {
+        if (isReset()) {
+            return;
+        }
+        mBooklistings = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        cancelLoad();
+        mBooklistings = null;
     }
 
     /**
@@ -46,12 +129,102 @@ public class BooklistingLoader extends AsyncTaskLoader<List<Booklisting>> {
      */
     @Override
     public List<Booklisting> loadInBackground() {
+        if (mQuery != null) {
+            return loadFederated();
+        }
         if (mUrl == null) {
             return null;
         }
 
+        QueryCancellation cancellation = new QueryCancellation();
+        synchronized (this) {
+            mCancellation = cancellation;
+        }
+        QueryTrace trace = QueryTracer.get().start(mUrl);
+        mTrace = trace;
+
         // Perform the network request, parse the response, and extract a list of booklists.
-        List<Booklisting> booklistings = QueryUtils.fetchBooklistingData(mUrl);
-        return booklistings;
+        try {
+            List<Booklisting> booklistings = QueryUtils.fetchBooklistingData(mUrl, cancellation, trace);
+            // Remember every book we have seen for offline and instant search.
+            BooklistingIndex.getInstance(getContext()).addAll(booklistings);
+            return booklistings;
+        } finally {
+            synchronized (this) {
+                mCancellation = null;
+            }
+        }
+    }
+
+    /**
+     * Runs the federated search, handing the results merged so far to the main thread as
+     * variants answer.
+     */
+    private List<Booklisting> loadFederated() {
+        final QueryCancellation cancellation = new QueryCancellation();
+        synchronized (this) {
+            mCancellation = cancellation;
+        }
+        QueryTrace trace = QueryTracer.get().start(mUrls.buildUrl(mQuery));
+        mTrace = trace;
+
+        FederatedSearch.Listener listener = !mStreamPartialResults ? null : new FederatedSearch.Listener() {
+            @Override
+            public void onResults(final FederatedSearch.MergedResults results) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Results of a load that was cancelled or superseded are dropped.
+                        if (isStarted() && !isAbandoned() && !cancellation.isCanceled()) {
+                            deliverResult(results);
+                        }
+                    }
+                });
+            }
+        };
+        try {
+            FederatedSearch.MergedResults booklistings = new FederatedSearch()
+                    .search(mQuery, mUrls, cancellation, trace, listener);
+            BooklistingIndex.getInstance(getContext()).addAll(booklistings);
+            return booklistings;
+        } finally {
+            synchronized (this) {
+                mCancellation = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the trace of the most recent load. The result's receiver adds the delivery and
+     * binding phases and finishes it.
+     */
+    public QueryTrace getTrace() {
+        return mTrace;
+    }
+
+    /**
+     * A cancelled result is never delivered, so its trace ends here.
+     */
+    @Override
+    public void onCanceled(List<Booklisting> data) {
+        QueryTrace trace = mTrace;
+        trace.setOutcome(QueryTrace.Outcome.CANCELED);
+        trace.finish();
+    }
+
+    /**
+     * Called on the main thread when this load is superseded by a newer query. Aborts the
+     * HTTP request instead of letting it finish in the background. (The framework only calls
+     * this from API 16 on; older devices let the request complete.)
+     */
+    @Override
+    public void cancelLoadInBackground() {
+        QueryCancellation cancellation;
+        synchronized (this) {
+            cancellation = mCancellation;
+        }
+        if (cancellation != null) {
+            cancellation.cancel();
+        }
     }
 }
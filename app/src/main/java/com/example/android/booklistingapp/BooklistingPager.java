@@ -0,0 +1,314 @@
+package com.example.android.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the result pages loaded for one query.
+ * <p>
+ * The first page is small so the first results appear quickly; later pages are larger and are
+ * requested ahead of time, when the visible rows come within the prefetch distance of the end of
+ * the loaded data. Only a bounded number of pages stay in memory: when the cap is exceeded, the
+ * pages farthest from the visible rows are dropped. A dropped page keeps its row count so the
+ * positions of everything else stay stable, and it is fetched again when it scrolls back into
+ * view.
+ * <p>
+ * The API often returns a volume again on a later page. A book is only shown once, on the
+ * first page it arrived on, so every row has a distinct stable id; books are told apart by
+ * {@link FederatedSearch#keyOf(Booklisting)}, as the merged first page already does.
+ */
+public class BooklistingPager {
+
+    public static final int DEFAULT_FIRST_PAGE_SIZE = 10;
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    public static final int DEFAULT_PREFETCH_DISTANCE = 8;
+    public static final int DEFAULT_MAX_RESIDENT_PAGES = 6;
+
+    /**
+     * Value returned by {@link #nextPageToLoad(int, int)} when nothing needs loading.
+     */
+    public static final int NO_PAGE = -1;
+
+    private int mFirstPageSize;
+    private int mPageSize;
+    private final int mPrefetchDistance;
+    private final int mMaxResidentPages;
+
+    /**
+     * Loaded pages in order; a dropped page is kept as null.
+     */
+    private final List<List<Booklisting>> mPages = new ArrayList<>();
+
+    /**
+     * Row count of each page, including dropped ones.
+     */
+    private final List<Integer> mPageCounts = new ArrayList<>();
+
+    /**
+     * Page each book is shown on, by key; kept for dropped pages so a refetch leaves out the
+     * same books
+     */
+    private final Map<String, Integer> mPageOfKey = new HashMap<>();
+
+    private int mCount;
+    private boolean mEndReached;
+
+    public BooklistingPager() {
+        this(DEFAULT_FIRST_PAGE_SIZE, DEFAULT_PAGE_SIZE, DEFAULT_PREFETCH_DISTANCE,
+                DEFAULT_MAX_RESIDENT_PAGES);
+    }
+
+    /**
+     * Constructs a new {@link BooklistingPager}.
+     *
+     * @param firstPageSize    is the number of results asked for on the first page
+     * @param pageSize         is the number of results asked for on every later page
+     * @param prefetchDistance is how many rows before the end the next page is requested
+     * @param maxResidentPages is the number of pages kept in memory
+     */
+    public BooklistingPager(int firstPageSize, int pageSize, int prefetchDistance, int maxResidentPages) {
+        mFirstPageSize = firstPageSize;
+        mPageSize = pageSize;
+        mPrefetchDistance = prefetchDistance;
+        mMaxResidentPages = Math.max(2, maxResidentPages);
+    }
+
+    /**
+     * Forget all pages and ask for pages of the given sizes from now on, for example when a
+     * query made over a different network arrives.
+     *
+     * @param firstPageSize is the number of results the first page was asked for with
+     * @param pageSize      is the number of results to ask for on every later page
+     */
+    public void reset(int firstPageSize, int pageSize) {
+        mFirstPageSize = firstPageSize;
+        mPageSize = pageSize;
+        reset();
+    }
+
+    /**
+     * Forget all pages, for example when the query changes.
+     */
+    public void reset() {
+        mPages.clear();
+        mPageCounts.clear();
+        mPageOfKey.clear();
+        mCount = 0;
+        mEndReached = false;
+    }
+
+    /**
+     * Returns the number of rows covered by the loaded and dropped pages.
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the book at the given row, or null if its page has been dropped.
+     */
+    public Booklisting getItem(int position) {
+        int pageIndex = pageOf(position);
+        List<Booklisting> page = mPages.get(pageIndex);
+        return page == null ? null : page.get(position - rowStart(pageIndex));
+    }
+
+    /**
+     * Returns all rows in order, with null for the rows of dropped pages.
+     */
+    public List<Booklisting> snapshot() {
+        List<Booklisting> rows = new ArrayList<>(mCount);
+        for (int pageIndex = 0; pageIndex < mPages.size(); pageIndex++) {
+            List<Booklisting> page = mPages.get(pageIndex);
+            if (page != null) {
+                rows.addAll(page);
+            } else {
+                for (int i = 0; i < mPageCounts.get(pageIndex); i++) {
+                    rows.add(null);
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the books of the given page, or an empty list if it is not loaded.
+     */
+    public List<Booklisting> getPage(int pageIndex) {
+        List<Booklisting> page = pageIndex < mPages.size() ? mPages.get(pageIndex) : null;
+        return page != null ? page : new ArrayList<Booklisting>();
+    }
+
+    /**
+     * Returns true once a page came back shorter than requested.
+     */
+    public boolean isEndReached() {
+        return mEndReached;
+    }
+
+    /**
+     * Returns the API startIndex of the given page.
+     */
+    public int pageStart(int pageIndex) {
+        return pageIndex == 0 ? 0 : mFirstPageSize + (pageIndex - 1) * mPageSize;
+    }
+
+    /**
+     * Returns the number of results to request for the given page.
+     */
+    public int pageSize(int pageIndex) {
+        return pageIndex == 0 ? mFirstPageSize : mPageSize;
+    }
+
+    /**
+     * Returns the index of the loaded page holding the given row, or of the last page for rows
+     * past the end. Rows are counted by what each page actually holds, which can differ from
+     * what was requested, for example for provisional results.
+     */
+    public int pageOf(int position) {
+        int end = 0;
+        for (int pageIndex = 0; pageIndex < mPageCounts.size(); pageIndex++) {
+            end += mPageCounts.get(pageIndex);
+            if (position < end) {
+                return pageIndex;
+            }
+        }
+        return Math.max(0, mPageCounts.size() - 1);
+    }
+
+    /**
+     * Returns the row of the first book of the given page.
+     */
+    private int rowStart(int pageIndex) {
+        int start = 0;
+        for (int i = 0; i < pageIndex; i++) {
+            start += mPageCounts.get(i);
+        }
+        return start;
+    }
+
+    /**
+     * Store a page that has arrived. A page past the end of the loaded data is appended; an
+     * earlier one refills a page that was dropped.
+     */
+    public void onPageLoaded(int pageIndex, List<Booklisting> booklistings) {
+        onPageLoaded(pageIndex, booklistings, booklistings == null ? 0 : booklistings.size());
+    }
+
+    /**
+     * Like {@link #onPageLoaded(int, List)}, for a page some results were filtered out of.
+     *
+     * @param resultCount is the number of results the server returned for the page, which tells
+     *                    whether it was the last one
+     */
+    public void onPageLoaded(int pageIndex, List<Booklisting> booklistings, int resultCount) {
+        if (booklistings == null) {
+            booklistings = new ArrayList<>();
+        }
+        booklistings = withoutBooksOfOtherPages(pageIndex, booklistings);
+        if (pageIndex == mPages.size()) {
+            if (resultCount < pageSize(pageIndex)) {
+                mEndReached = true;
+            }
+            for (Booklisting booklisting : booklistings) {
+                mPageOfKey.put(FederatedSearch.keyOf(booklisting), pageIndex);
+            }
+            mPages.add(booklistings);
+            mPageCounts.add(booklistings.size());
+            mCount += booklistings.size();
+        } else if (pageIndex < mPages.size() && mPages.get(pageIndex) == null) {
+            // Keep the row count stable even if the server returns a different number of rows
+            // this time; rows beyond the old count are dropped, missing ones stay empty.
+            int count = mPageCounts.get(pageIndex);
+            List<Booklisting> refilled = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                refilled.add(i < booklistings.size() ? booklistings.get(i) : null);
+            }
+            mPages.set(pageIndex, refilled);
+        }
+    }
+
+    /**
+     * Returns the books of a page that are not already shown on another page, each once.
+     */
+    private List<Booklisting> withoutBooksOfOtherPages(int pageIndex, List<Booklisting> booklistings) {
+        List<Booklisting> unique = new ArrayList<>(booklistings.size());
+        Set<String> seen = new HashSet<>();
+        for (Booklisting booklisting : booklistings) {
+            if (booklisting == null) {
+                continue;
+            }
+            String key = FederatedSearch.keyOf(booklisting);
+            Integer shownOn = mPageOfKey.get(key);
+            if ((shownOn == null || shownOn == pageIndex) && seen.add(key)) {
+                unique.add(booklisting);
+            }
+        }
+        return unique;
+    }
+
+    /**
+     * Returns the page that should be requested for the given visible rows: a dropped page that
+     * is on screen, or the next page when the visible rows are close to the end. Returns
+     * {@link #NO_PAGE} if nothing needs loading.
+     */
+    public int nextPageToLoad(int firstVisible, int lastVisible) {
+        if (mCount > 0) {
+            int last = Math.min(lastVisible, mCount - 1);
+            for (int pageIndex = pageOf(Math.max(0, firstVisible)); pageIndex <= pageOf(last); pageIndex++) {
+                if (mPages.get(pageIndex) == null) {
+                    return pageIndex;
+                }
+            }
+        }
+        if (!mEndReached && !mPages.isEmpty() && lastVisible >= mCount - 1 - mPrefetchDistance) {
+            return mPages.size();
+        }
+        return NO_PAGE;
+    }
+
+    /**
+     * Drop the pages farthest from the visible rows until no more than the configured number
+     * of pages is held in memory.
+     *
+     * @return true if any page was dropped
+     */
+    public boolean trim(int firstVisible, int lastVisible) {
+        int firstPage = pageOf(Math.max(0, firstVisible));
+        int lastPage = pageOf(Math.max(0, lastVisible));
+        int resident = 0;
+        for (List<Booklisting> page : mPages) {
+            if (page != null) {
+                resident++;
+            }
+        }
+        boolean trimmed = false;
+        while (resident > mMaxResidentPages) {
+            int farthest = -1;
+            int farthestDistance = 0;
+            for (int pageIndex = 0; pageIndex < mPages.size(); pageIndex++) {
+                if (mPages.get(pageIndex) == null) {
+                    continue;
+                }
+                int distance = pageIndex < firstPage ? firstPage - pageIndex
+                        : (pageIndex > lastPage ? pageIndex - lastPage : 0);
+                if (distance > farthestDistance) {
+                    farthest = pageIndex;
+                    farthestDistance = distance;
+                }
+            }
+            if (farthest < 0) {
+                // Everything left is on screen.
+                break;
+            }
+            mPages.set(farthest, null);
+            resident--;
+            trimmed = true;
+        }
+        return trimmed;
+    }
+}
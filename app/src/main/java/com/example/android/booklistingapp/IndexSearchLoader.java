@@ -0,0 +1,77 @@
+package com.example.android.booklistingapp;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * Loads the books in the local {@link BooklistingIndex} that match a query, on a background
+ * thread.
+ */
+public class IndexSearchLoader extends AsyncTaskLoader<List<Booklisting>> {
+
+    /**
+     * Maximum number of books shown from the index
+     */
+    private static final int MAX_RESULTS = 40;
+
+    /**
+     * Query to search for
+     */
+    private String mQuery;
+
+    /**
+     * Last result delivered, handed out again when the loader is started again
+     */
+    private List<Booklisting> mBooklistings;
+
+    /**
+     * Constructs a new {@link IndexSearchLoader}.
+     *
+     * @param context of the activity
+     * @param query   to search the index for
+     */
+    public IndexSearchLoader(Context context, String query) {
+        super(context);
+        mQuery = query;
+    }
+
+    /**
+     * Delivers the loaded result again, if there is one, instead of searching the index again.
+     */
+    @Override
+    protected void onStartLoading() {
+        if (mBooklistings != null) {
+            deliverResult(mBooklistings);
+        }
+        if (takeContentChanged() || mBooklistings == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<Booklisting> data) {
+        if (isReset()) {
+            return;
+        }
+        mBooklistings = data;
+        if (isStarted()) {
+            super.deliverResult(data);
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        cancelLoad();
+        mBooklistings = null;
+    }
+
+    /**
+     * This is on a background thread.
+     */
+    @Override
+    public List<Booklisting> loadInBackground() {
+        return BooklistingIndex.getInstance(getContext()).search(mQuery, MAX_RESULTS);
+    }
+}
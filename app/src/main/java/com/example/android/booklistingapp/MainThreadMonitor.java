@@ -0,0 +1,99 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Looper;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+/**
+ * Feeds the {@link JankMonitor} while the search UI is in the foreground: the duration of every
+ * frame, from the {@link Choreographer}, and the stalls of the main thread, from a
+ * {@link StallWatchdog}.
+ * <p>
+ * The Choreographer only exists from Jelly Bean on; before that only stalls are recorded.
+ */
+public class MainThreadMonitor {
+
+    private final StallWatchdog mWatchdog;
+
+    /**
+     * Null before Jelly Bean
+     */
+    private final FrameRecorder mFrameRecorder;
+
+    public MainThreadMonitor(Context context, JankMonitor monitor) {
+        mWatchdog = new StallWatchdog(monitor, new MainThreadTimer(), Looper.getMainLooper().getThread(),
+                StallWatchdog.DEFAULT_THRESHOLD_MILLIS);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            WindowManager windowManager = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+            float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+            mFrameRecorder = new FrameRecorder(monitor, (long) (1e9 / (refreshRate > 0 ? refreshRate : 60)));
+        } else {
+            mFrameRecorder = null;
+        }
+    }
+
+    /**
+     * Start recording. Must be called on the main thread.
+     */
+    public void start() {
+        mWatchdog.start();
+        if (mFrameRecorder != null) {
+            mFrameRecorder.start();
+        }
+    }
+
+    /**
+     * Stop recording, for example while the activity is in the background and draws nothing.
+     * Must be called on the main thread.
+     */
+    public void stop() {
+        mWatchdog.stop();
+        if (mFrameRecorder != null) {
+            mFrameRecorder.stop();
+        }
+    }
+
+    /**
+     * Records the time between consecutive frames. Only loaded from Jelly Bean on.
+     */
+    private static final class FrameRecorder implements Choreographer.FrameCallback {
+        private final JankMonitor mMonitor;
+        private final long mFramePeriodNanos;
+        private long mLastFrameNanos;
+        private boolean mRunning;
+
+        FrameRecorder(JankMonitor monitor, long framePeriodNanos) {
+            mMonitor = monitor;
+            mFramePeriodNanos = framePeriodNanos;
+        }
+
+        void start() {
+            if (mRunning) {
+                return;
+            }
+            mRunning = true;
+            // The first frame after a pause says nothing about how long it took
+            mLastFrameNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) {
+                return;
+            }
+            if (mLastFrameNanos != 0) {
+                mMonitor.onFrame(frameTimeNanos - mLastFrameNanos, mFramePeriodNanos);
+            }
+            mLastFrameNanos = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+}
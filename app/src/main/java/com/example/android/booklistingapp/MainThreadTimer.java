@@ -0,0 +1,22 @@
+package com.example.android.booklistingapp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Runs the tasks of a {@link QueryScheduler} on the main thread.
+ */
+public class MainThreadTimer implements QueryScheduler.Timer {
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    @Override
+    public void postDelayed(Runnable task, long delayMillis) {
+        mHandler.postDelayed(task, delayMillis);
+    }
+
+    @Override
+    public void removeCallbacks(Runnable task) {
+        mHandler.removeCallbacks(task);
+    }
+}
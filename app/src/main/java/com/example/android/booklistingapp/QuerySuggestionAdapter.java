@@ -0,0 +1,71 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.widget.ArrayAdapter;
+import android.widget.Filter;
+
+import java.util.List;
+
+/**
+ * Suggests completions of the text in the search field from the queries searched before, see
+ * {@link QueryTrie}.
+ */
+public class QuerySuggestionAdapter extends ArrayAdapter<String> {
+
+    /**
+     * Number of completions shown under the search field
+     */
+    public static final int MAX_SUGGESTIONS = 5;
+
+    private final QueryTrie mQueryTrie;
+
+    private final Filter mFilter = new Filter() {
+        /**
+         * This is on the filter's background thread.
+         */
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            FilterResults results = new FilterResults();
+            if (constraint != null) {
+                List<String> completions = mQueryTrie.complete(constraint.toString(), MAX_SUGGESTIONS,
+                        System.currentTimeMillis());
+                results.values = completions;
+                results.count = completions.size();
+            }
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            setNotifyOnChange(false);
+            clear();
+            if (results.values != null) {
+                for (String completion : (List<String>) results.values) {
+                    add(completion);
+                }
+            }
+            if (results.count > 0) {
+                notifyDataSetChanged();
+            } else {
+                notifyDataSetInvalidated();
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link QuerySuggestionAdapter}.
+     *
+     * @param context   of the activity
+     * @param queryTrie holds the queries searched before
+     */
+    public QuerySuggestionAdapter(Context context, QueryTrie queryTrie) {
+        super(context, android.R.layout.simple_dropdown_item_1line);
+        mQueryTrie = queryTrie;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.android.booklistingapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reuses recent result sets while a query is being typed.
+ * <p>
+ * The last few result sets are kept together with the words of every book. When the query
+ * grows from a cached one, for example from "andr" to "andro", the cached set is filtered
+ * locally: a book is kept if every word of the query is a prefix of a word in its title or
+ * authors. The filtered subset can be shown at once, before the network has answered the new
+ * query.
+ */
+public class RefinementEngine {
+
+    public static final int DEFAULT_MAX_RESULT_SETS = 8;
+
+    private final int mMaxResultSets;
+
+    /**
+     * Result sets by normalized query, least recently used first.
+     */
+    private final LinkedHashMap<String, List<Entry>> mResultSets = new LinkedHashMap<>(16, 0.75f, true);
+
+    public RefinementEngine() {
+        this(DEFAULT_MAX_RESULT_SETS);
+    }
+
+    public RefinementEngine(int maxResultSets) {
+        mMaxResultSets = maxResultSets;
+    }
+
+    /**
+     * Keep the results of a query for refining longer queries later.
+     */
+    public void remember(String query, List<Booklisting> booklistings) {
+        String key = normalize(query);
+        if (key.isEmpty() || booklistings == null || booklistings.isEmpty()) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>(booklistings.size());
+        for (Booklisting booklisting : booklistings) {
+            if (booklisting != null) {
+                entries.add(new Entry(booklisting));
+            }
+        }
+        mResultSets.put(key, entries);
+        Iterator<String> eldest = mResultSets.keySet().iterator();
+        while (mResultSets.size() > mMaxResultSets && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Returns the books of the longest remembered query that the given query extends, filtered
+     * to those matching the given query, or null if no remembered query is a prefix of it.
+     */
+    public List<Booklisting> refine(String query) {
+        String key = normalize(query);
+        if (key.isEmpty()) {
+            return null;
+        }
+        String base = null;
+        for (String candidate : mResultSets.keySet()) {
+            if (key.startsWith(candidate) && (base == null || candidate.length() > base.length())) {
+                base = candidate;
+            }
+        }
+        if (base == null) {
+            return null;
+        }
+
+        String[] queryTokens = tokenize(key);
+        List<Booklisting> refined = new ArrayList<>();
+        for (Entry entry : mResultSets.get(base)) {
+            if (entry.matches(queryTokens)) {
+                refined.add(entry.booklisting);
+            }
+        }
+        return refined;
+    }
+
+    /**
+     * Merge the authoritative results into what is on screen: the authoritative order wins,
+     * but a book that is already shown keeps its existing instance, so rows that did not change
+     * can be recognised and left alone.
+     */
+    public static List<Booklisting> merge(List<Booklisting> shown, List<Booklisting> authoritative) {
+        if (authoritative == null) {
+            return null;
+        }
+        if (shown == null || shown.isEmpty()) {
+            return authoritative;
+        }
+        Map<String, Booklisting> shownByKey = new HashMap<>();
+        for (Booklisting booklisting : shown) {
+            if (booklisting != null) {
+                shownByKey.put(FederatedSearch.keyOf(booklisting), booklisting);
+            }
+        }
+        List<Booklisting> merged = new ArrayList<>(authoritative.size());
+        for (Booklisting booklisting : authoritative) {
+            Booklisting existing = shownByKey.get(FederatedSearch.keyOf(booklisting));
+            merged.add(existing != null ? existing : booklisting);
+        }
+        return merged;
+    }
+
+    /**
+     * Returns the books of the first list followed by those of the second that are not in the
+     * first.
+     */
+    public static List<Booklisting> union(List<Booklisting> first, List<Booklisting> second) {
+        if (first == null || first.isEmpty()) {
+            return second;
+        }
+        List<Booklisting> union = new ArrayList<>(first);
+        if (second != null) {
+            Map<String, Booklisting> firstByKey = new HashMap<>();
+            for (Booklisting booklisting : first) {
+                firstByKey.put(FederatedSearch.keyOf(booklisting), booklisting);
+            }
+            for (Booklisting booklisting : second) {
+                if (!firstByKey.containsKey(FederatedSearch.keyOf(booklisting))) {
+                    union.add(booklisting);
+                }
+            }
+        }
+        return union;
+    }
+
+    static String normalize(String query) {
+        return query == null ? "" : query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+    }
+
+    static String[] tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : text.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens.toArray(new String[tokens.size()]);
+    }
+
+    /**
+     * A remembered book together with the words it can be matched by.
+     */
+    private static final class Entry {
+        final Booklisting booklisting;
+        final String[] words;
+
+        Entry(Booklisting booklisting) {
+            this.booklisting = booklisting;
+            this.words = tokenize(booklisting.getmTitle() + ' ' + booklisting.getmAuthor());
+        }
+
+        boolean matches(String[] queryTokens) {
+            for (String queryToken : queryTokens) {
+                boolean found = false;
+                for (String word : words) {
+                    if (word.startsWith(queryToken)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.android.booklistingapp;
+
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text layouts of the title and author of the rows, built off the main thread.
+ * <p>
+ * Measuring, wrapping and ellipsizing a long title or a long list of authors is the costliest
+ * part of binding a row. Done during a fling it makes frames late. The adapter instead has
+ * the layouts of a batch of results built on its background thread before the batch is shown,
+ * for the width the rows offer their text, and binding only hands them to the
+ * {@link TextLayoutView}s.
+ * <p>
+ * The layouts are kept with the batch of rows they were built for: building the next batch
+ * reuses those of the rows it still holds and drops the rest. When the width changes, for
+ * example on rotation, all of them are built again. The title and author share a column, so
+ * they are laid out to the same width.
+ */
+final class RowTextLayouts {
+
+    /**
+     * Paints, line limits and width that the layouts are built with; never changed once made,
+     * so it can be handed to the background thread as it is.
+     */
+    private static final class Spec {
+        final TextPaint titlePaint;
+        final int titleMaxLines;
+        final TextPaint authorPaint;
+        final int authorMaxLines;
+        final int width;
+
+        Spec(TextPaint titlePaint, int titleMaxLines, TextPaint authorPaint, int authorMaxLines, int width) {
+            this.titlePaint = titlePaint;
+            this.titleMaxLines = titleMaxLines;
+            this.authorPaint = authorPaint;
+            this.authorMaxLines = authorMaxLines;
+            this.width = width;
+        }
+    }
+
+    /**
+     * The layouts of one row.
+     */
+    static final class RowText {
+        final Layout title;
+        final Layout author;
+
+        RowText(Layout title, Layout author) {
+            this.title = title;
+            this.author = author;
+        }
+    }
+
+    /**
+     * Layouts of the rows of the last batch, by book, and what they were built with.
+     */
+    private static final class Batch {
+        final Spec spec;
+        final Map<Booklisting, RowText> rows;
+
+        Batch(Spec spec, Map<Booklisting, RowText> rows) {
+            this.spec = spec;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Set on the main thread, read by the background thread
+     */
+    private volatile Spec mSpec;
+
+    /**
+     * Published by the background thread, read on the main thread
+     */
+    private volatile Batch mBatch;
+
+    /**
+     * Binds that found their layouts, and binds that had to lay out text themselves; only
+     * touched on the main thread
+     */
+    private int mHits;
+    private int mMisses;
+
+    /**
+     * Take the paints and line limits from the views of a row. Later calls change nothing
+     * unless the text sizes of the views differ, as they do once the user changes the font
+     * scale; the layouts built so far are then dropped. Must be called on the main thread.
+     */
+    void setViews(TextLayoutView titleView, TextLayoutView authorView) {
+        Spec spec = mSpec;
+        if (spec != null && spec.titlePaint.getTextSize() == titleView.getPaint().getTextSize()
+                && spec.authorPaint.getTextSize() == authorView.getPaint().getTextSize()) {
+            return;
+        }
+        // Copies, so measuring on the background thread never races with drawing
+        mSpec = new Spec(new TextPaint(titleView.getPaint()), titleView.getMaxLines(),
+                new TextPaint(authorView.getPaint()), authorView.getMaxLines(), spec != null ? spec.width : 0);
+    }
+
+    /**
+     * Set the width the rows offer their text. Must be called on the main thread.
+     *
+     * @return true if the width changed, so the layouts need to be built again
+     */
+    boolean setWidth(int width) {
+        Spec spec = mSpec;
+        if (spec == null || width <= 0 || width == spec.width) {
+            return false;
+        }
+        mSpec = new Spec(spec.titlePaint, spec.titleMaxLines, spec.authorPaint, spec.authorMaxLines, width);
+        return true;
+    }
+
+    /**
+     * Returns true once the paints and the width are known, so layouts can be built.
+     */
+    boolean isReady() {
+        Spec spec = mSpec;
+        return spec != null && spec.width > 0;
+    }
+
+    /**
+     * Build the layouts of the given rows, reusing those of the last batch that are still
+     * valid, and make them the current batch. Runs on the background thread. Null rows, which
+     * stand for rows being fetched again, are skipped.
+     */
+    void build(List<Booklisting> rows) {
+        Spec spec = mSpec;
+        if (spec == null || spec.width <= 0) {
+            return;
+        }
+        Batch previous = mBatch;
+        Map<Booklisting, RowText> reusable = previous != null && previous.spec == spec ? previous.rows : null;
+        Map<Booklisting, RowText> built = new IdentityHashMap<>();
+        for (Booklisting book : rows) {
+            if (book == null || built.containsKey(book)) {
+                continue;
+            }
+            RowText text = reusable != null ? reusable.get(book) : null;
+            if (text == null) {
+                text = new RowText(layout(book.getmTitle(), spec.titlePaint, spec.width, spec.titleMaxLines),
+                        layout(book.getmAuthor(), spec.authorPaint, spec.width, spec.authorMaxLines));
+            }
+            built.put(book, text);
+        }
+        mBatch = new Batch(spec, built);
+    }
+
+    /**
+     * Returns the layouts of the given book for the current width, or null if they have not
+     * been built. Must be called on the main thread.
+     */
+    RowText get(Booklisting book) {
+        Batch batch = mBatch;
+        RowText text = batch != null && batch.spec == mSpec ? batch.rows.get(book) : null;
+        if (text != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return text;
+    }
+
+    int getHits() {
+        return mHits;
+    }
+
+    int getMisses() {
+        return mMisses;
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + mHits + " misses=" + mMisses;
+    }
+
+    /**
+     * Lay out the text to the given width in at most the given number of lines, ellipsizing
+     * the end of the last line if the text does not fit, as a TextView with
+     * {@code ellipsize="end"} does. Safe to call on any thread with a paint of its own.
+     */
+    static Layout layout(CharSequence text, TextPaint paint, int width, int maxLines) {
+        StaticLayout layout = new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+        if (layout.getLineCount() <= maxLines) {
+            return layout;
+        }
+        // Keep the lines that fit and squeeze everything after them into the last one
+        int lastLineStart = layout.getLineStart(maxLines - 1);
+        String rest = text.subSequence(lastLineStart, text.length()).toString().replace('\n', ' ');
+        CharSequence ellipsized = new StringBuilder(text.subSequence(0, lastLineStart))
+                .append(TextUtils.ellipsize(rest, paint, width, TextUtils.TruncateAt.END));
+        return new StaticLayout(ellipsized, paint, width, Layout.Alignment.ALIGN_NORMAL, 1f, 0f, true);
+    }
+}
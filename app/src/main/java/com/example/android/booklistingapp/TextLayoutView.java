@@ -0,0 +1,186 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Typeface;
+import android.text.Layout;
+import android.text.TextPaint;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.accessibility.AccessibilityEvent;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.widget.TextView;
+
+/**
+ * Draws text from a {@link Layout} that has usually been built ahead of time on a background
+ * thread, see {@link RowTextLayouts}. Binding a row then costs no text measuring at all.
+ * <p>
+ * Text set with {@link #setText(CharSequence)} instead is laid out here, on the main thread,
+ * when the view is measured. The view always takes the full width it is offered, so a layout
+ * built for that width can be drawn as it is.
+ * <p>
+ * Reads {@code android:textSize}, {@code android:textStyle}, {@code android:textColor} and
+ * {@code android:maxLines} from XML; text that does not fit in the lines is ellipsized at the
+ * end. The text size is scaled with the user's font scale, as that of a {@link TextView} is.
+ * <p>
+ * Accessibility services see the view as a {@link TextView} with its whole text, including
+ * any part that was ellipsized.
+ */
+public class TextLayoutView extends View {
+
+    /**
+     * Sorted by attribute id, as {@link Context#obtainStyledAttributes} requires
+     */
+    private static final int[] ATTRS = {
+            android.R.attr.textSize,
+            android.R.attr.textStyle,
+            android.R.attr.textColor,
+            android.R.attr.maxLines
+    };
+    private static final int ATTR_TEXT_SIZE = 0;
+    private static final int ATTR_TEXT_STYLE = 1;
+    private static final int ATTR_TEXT_COLOR = 2;
+    private static final int ATTR_MAX_LINES = 3;
+
+    private final TextPaint mPaint = new TextPaint(TextPaint.ANTI_ALIAS_FLAG);
+    private final int mMaxLines;
+
+    private Layout mLayout;
+    private CharSequence mText = "";
+
+    /**
+     * Told the width available to the text once it is known, may be null
+     */
+    private OnTextWidthListener mTextWidthListener;
+
+    /**
+     * Receives the width available to the text, whenever it changes.
+     */
+    public interface OnTextWidthListener {
+        void onTextWidth(TextLayoutView view, int width);
+    }
+
+    public TextLayoutView(Context context) {
+        this(context, null);
+    }
+
+    public TextLayoutView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        TypedArray a = context.obtainStyledAttributes(attrs, ATTRS);
+        try {
+            mPaint.setTextSize(a.getDimension(ATTR_TEXT_SIZE, 14 * getResources().getDisplayMetrics().scaledDensity));
+            mPaint.setColor(a.getColor(ATTR_TEXT_COLOR, 0xff000000));
+            int style = a.getInt(ATTR_TEXT_STYLE, Typeface.NORMAL);
+            mPaint.setTypeface(Typeface.defaultFromStyle(style));
+            // Emulate what the typeface lacks, as TextView does
+            int missing = style & ~mPaint.getTypeface().getStyle();
+            mPaint.setFakeBoldText((missing & Typeface.BOLD) != 0);
+            mPaint.setTextSkewX((missing & Typeface.ITALIC) != 0 ? -0.25f : 0);
+            mMaxLines = a.getInt(ATTR_MAX_LINES, Integer.MAX_VALUE);
+        } finally {
+            a.recycle();
+        }
+    }
+
+    /**
+     * Returns the paint the text is drawn with. Copy it before measuring on another thread.
+     */
+    public TextPaint getPaint() {
+        return mPaint;
+    }
+
+    public int getMaxLines() {
+        return mMaxLines;
+    }
+
+    public void setOnTextWidthListener(OnTextWidthListener listener) {
+        mTextWidthListener = listener;
+    }
+
+    /**
+     * Show a layout of the given text built ahead of time, for the width this view offers its
+     * text. The text is laid out again should the width change.
+     */
+    public void setLayout(CharSequence text, Layout layout) {
+        if (layout == mLayout) {
+            return;
+        }
+        boolean sameHeight = mLayout != null && mLayout.getHeight() == layout.getHeight();
+        mLayout = layout;
+        mText = text;
+        if (sameHeight) {
+            invalidate();
+        } else {
+            requestLayout();
+        }
+    }
+
+    /**
+     * Show the given text, laid out on the main thread when the view is measured.
+     */
+    public void setText(CharSequence text) {
+        if (mLayout == null && text.equals(mText)) {
+            return;
+        }
+        mText = text;
+        mLayout = null;
+        requestLayout();
+        invalidate();
+    }
+
+    public CharSequence getText() {
+        return mText;
+    }
+
+    @Override
+    public void onInitializeAccessibilityNodeInfo(AccessibilityNodeInfo info) {
+        super.onInitializeAccessibilityNodeInfo(info);
+        info.setClassName(TextView.class.getName());
+        info.setText(mText);
+    }
+
+    @Override
+    public void onInitializeAccessibilityEvent(AccessibilityEvent event) {
+        super.onInitializeAccessibilityEvent(event);
+        event.setClassName(TextView.class.getName());
+    }
+
+    @Override
+    public void onPopulateAccessibilityEvent(AccessibilityEvent event) {
+        super.onPopulateAccessibilityEvent(event);
+        if (mText.length() > 0) {
+            event.getText().add(mText);
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = MeasureSpec.getSize(widthMeasureSpec);
+        int textWidth = width - getPaddingLeft() - getPaddingRight();
+        if (textWidth <= 0) {
+            // Measured before the parent knows its width; there is nothing to lay out yet
+            setMeasuredDimension(width, resolveSize(getPaddingTop() + getPaddingBottom(), heightMeasureSpec));
+            return;
+        }
+        if (mTextWidthListener != null && (mLayout == null || mLayout.getWidth() != textWidth)) {
+            mTextWidthListener.onTextWidth(this, textWidth);
+        }
+        if (mLayout == null || mLayout.getWidth() != textWidth) {
+            mLayout = RowTextLayouts.layout(mText, mPaint, textWidth, mMaxLines);
+        }
+        int height = mLayout.getHeight() + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (mLayout == null) {
+            return;
+        }
+        canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        mLayout.draw(canvas);
+        canvas.restore();
+    }
+}
@@ -0,0 +1,636 @@
+package com.example.android.booklistingapp;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Loads cover thumbnails into the rows of the list.
+ * <p>
+ * Thumbnails are downloaded on a small dedicated pool, stored on disk as they came, and decoded
+ * downsampled to the size of the row's image view. Decoded bitmaps are kept in a memory LRU
+ * bounded in bytes. A bitmap that has left the memory cache and is no longer shown by any row
+ * is kept for reuse, so decoding the next thumbnail can write into its memory instead of
+ * allocating a new one; scrolling through many results then allocates almost nothing.
+ * <p>
+ * All methods must be called on the main thread. A row that is recycled, or bound to another
+ * book, cancels its load, which also aborts its download.
+ */
+public final class ThumbnailLoader {
+
+    private static final String LOG_TAG = ThumbnailLoader.class.getName();
+
+    /**
+     * Threads decoding and downloading thumbnails; few, so they do not compete with the
+     * main thread for the CPU.
+     */
+    private static final int THREADS = 2;
+
+    public static final long DEFAULT_MAX_DISK_BYTES = 8 * 1024 * 1024;
+
+    /**
+     * Largest thumbnail downloaded. Covers from the Books API are a few kilobytes.
+     */
+    private static final int MAX_DOWNLOAD_BYTES = 512 * 1024;
+
+    /**
+     * Bitmaps kept for reuse beyond those in the memory cache
+     */
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static ThumbnailLoader sInstance;
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(THREADS);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final HttpTransport mTransport = new UrlConnectionTransport();
+
+    /**
+     * Decoded thumbnails by URL, bounded by their size in bytes
+     */
+    private final MemoryCache<Bitmap> mMemory;
+
+    /**
+     * Number of rows showing each bitmap. Only touched on the main thread.
+     */
+    private final Map<Bitmap, Integer> mShown = new HashMap<>();
+
+    /**
+     * Bitmaps no row shows any more, whose memory can be decoded into
+     */
+    private final ArrayDeque<Bitmap> mReusable = new ArrayDeque<>();
+
+    private final File mDirectory;
+    private final long mMaxDiskBytes;
+    private final int mTargetWidth;
+    private final int mTargetHeight;
+
+    /**
+     * Size of the disk cache, or -1 until it has been measured
+     */
+    private long mDiskBytes = -1;
+
+    /**
+     * Returns the loader shared by the whole app, created on first use.
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (sInstance == null) {
+            Context application = context.getApplicationContext();
+            ActivityManager activityManager =
+                    (ActivityManager) application.getSystemService(Context.ACTIVITY_SERVICE);
+            // An eighth of the memory the app may use, as the platform guidelines suggest.
+            int maxMemoryBytes = activityManager.getMemoryClass() * 1024 * 1024 / 8;
+            sInstance = new ThumbnailLoader(new File(application.getCacheDir(), "thumbnails"),
+                    maxMemoryBytes, DEFAULT_MAX_DISK_BYTES,
+                    application.getResources().getDimensionPixelSize(R.dimen.thumbnail_width),
+                    application.getResources().getDimensionPixelSize(R.dimen.thumbnail_height));
+        }
+        return sInstance;
+    }
+
+    private ThumbnailLoader(File directory, int maxMemoryBytes, long maxDiskBytes,
+                            int targetWidth, int targetHeight) {
+        mDirectory = directory;
+        mMaxDiskBytes = maxDiskBytes;
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        mMemory = new MemoryCache<Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(Bitmap oldBitmap) {
+                if (!mShown.containsKey(oldBitmap)) {
+                    offerReusable(oldBitmap);
+                }
+            }
+        };
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.e(LOG_TAG, "Could not create thumbnail directory " + mDirectory);
+        }
+    }
+
+    /**
+     * Show the thumbnail at the given URL in the image view, right away if it is in memory and
+     * otherwise once it has been loaded. Nothing is shown for an empty URL.
+     */
+    public void load(ImageView view, String url) {
+        Binding binding = bindingOf(view);
+        if (binding.isShowingOrLoading(url)) {
+            // Already shown, or on its way.
+            return;
+        }
+        cancel(view);
+        binding.url = url;
+        if (url.isEmpty()) {
+            return;
+        }
+
+        Bitmap cached = mMemory.get(url);
+        if (cached != null) {
+            show(view, binding, cached);
+            return;
+        }
+        Job job = new Job(view, binding, url);
+        binding.pending = job.mPending;
+        job.mPending.future = mExecutor.submit(job);
+    }
+
+    /**
+     * Stop loading into the image view and clear it, for example because its row was recycled.
+     */
+    public void cancel(ImageView view) {
+        Binding binding = bindingOf(view);
+        binding.cancelPending();
+        release(view, binding);
+        binding.url = null;
+    }
+
+    /**
+     * Give memory back when the system asks for it, see
+     * {@link ComponentCallbacks2#onTrimMemory(int)}.
+     */
+    public void trimMemory(int level) {
+        // Only what is on screen is kept; everything else decodes again from disk.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mMemory.evictAll();
+            synchronized (mReusable) {
+                mReusable.clear();
+            }
+        }
+    }
+
+    private static Binding bindingOf(ImageView view) {
+        Object tag = view.getTag();
+        if (tag instanceof Binding) {
+            return (Binding) tag;
+        }
+        Binding binding = new Binding();
+        view.setTag(binding);
+        return binding;
+    }
+
+    private void show(ImageView view, Binding binding, Bitmap bitmap) {
+        release(view, binding);
+        Integer count = mShown.get(bitmap);
+        mShown.put(bitmap, count == null ? 1 : count + 1);
+        binding.shown = bitmap;
+        view.setImageBitmap(bitmap);
+    }
+
+    /**
+     * Clear the image view. If no other row shows its bitmap and the memory cache has let go
+     * of it, the bitmap becomes available for reuse.
+     */
+    private void release(ImageView view, Binding binding) {
+        view.setImageDrawable(null);
+        Bitmap bitmap = binding.shown;
+        if (bitmap == null) {
+            return;
+        }
+        binding.shown = null;
+        Integer count = mShown.get(bitmap);
+        if (count != null && count > 1) {
+            mShown.put(bitmap, count - 1);
+            return;
+        }
+        mShown.remove(bitmap);
+        if (mMemory.get(binding.url) != bitmap) {
+            offerReusable(bitmap);
+        }
+    }
+
+    private void offerReusable(Bitmap bitmap) {
+        if (!bitmap.isMutable()) {
+            return;
+        }
+        synchronized (mReusable) {
+            mReusable.addLast(bitmap);
+            if (mReusable.size() > MAX_REUSABLE_BITMAPS) {
+                mReusable.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Takes a bitmap the given decode can write into out of the reusable ones, or returns null.
+     */
+    private Bitmap takeReusable(BitmapFactory.Options options) {
+        synchronized (mReusable) {
+            Iterator<Bitmap> candidates = mReusable.iterator();
+            while (candidates.hasNext()) {
+                Bitmap candidate = candidates.next();
+                if (candidate.isRecycled()) {
+                    candidates.remove();
+                } else if (canDecodeInto(candidate, options)) {
+                    candidates.remove();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns true if a decode with the given options may reuse the memory of the bitmap. Before
+     * KitKat the sizes must match exactly, without downsampling; from KitKat on the bitmap only
+     * needs to be large enough.
+     */
+    private static boolean canDecodeInto(Bitmap candidate, BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            int width = (options.outWidth + options.inSampleSize - 1) / options.inSampleSize;
+            int height = (options.outHeight + options.inSampleSize - 1) / options.inSampleSize;
+            // Thumbnails are decoded as RGB_565, two bytes per pixel.
+            return width * height * 2 <= candidate.getByteCount();
+        }
+        return candidate.getWidth() == options.outWidth
+                && candidate.getHeight() == options.outHeight
+                && options.inSampleSize == 1;
+    }
+
+    /**
+     * Returns the largest power of two the image can be downsampled by while still covering
+     * the target size in both dimensions.
+     */
+    static int calculateInSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int inSampleSize = 1;
+        if (targetWidth <= 0 || targetHeight <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= targetWidth
+                && height / (inSampleSize * 2) >= targetHeight) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Decode the stored thumbnail at its target size, or return null if it cannot be decoded.
+     */
+    private Bitmap decode(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight,
+                mTargetWidth, mTargetHeight);
+        options.inJustDecodeBounds = false;
+        // Covers are opaque; RGB_565 halves the memory of ARGB_8888.
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        options.inMutable = true;
+        options.inBitmap = takeReusable(options);
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The reused bitmap did not fit after all; decode into a new one.
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /**
+     * Download the thumbnail into the given file.
+     *
+     * @return true if the file now holds the complete thumbnail
+     */
+    private boolean download(String url, File file, QueryCancellation cancellation) {
+        HttpTransport.Response response = null;
+        OutputStream out = null;
+        File temp = new File(file.getPath() + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        boolean complete = false;
+        try {
+            // The API hands out http addresses; the same images are served over https.
+            HttpTransport.Request request = new HttpTransport.Request(
+                    new URL(url.startsWith("http://") ? "https://" + url.substring(7) : url));
+            request.cancellation = cancellation;
+            response = mTransport.execute(request);
+            if (response.getCode() != 200) {
+                Log.w(LOG_TAG, "Thumbnail response code " + response.getCode() + " for " + url);
+                return false;
+            }
+            InputStream in = response.getBody();
+            out = new FileOutputStream(temp);
+            byte[] buffer = new byte[8192];
+            int total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                total += read;
+                if (total > MAX_DOWNLOAD_BYTES) {
+                    Log.w(LOG_TAG, "Thumbnail too large: " + url);
+                    return false;
+                }
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            complete = temp.renameTo(file);
+            if (complete) {
+                addDiskBytes(total);
+            }
+            return complete;
+        } catch (IOException e) {
+            if (!cancellation.isCanceled()) {
+                Log.w(LOG_TAG, "Problem downloading thumbnail " + url, e);
+            }
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (!complete) {
+                temp.delete();
+            }
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Account for a stored thumbnail and delete the least recently used ones while the disk
+     * cache is over its size cap.
+     */
+    private synchronized void addDiskBytes(long bytes) {
+        File[] files = null;
+        if (mDiskBytes < 0) {
+            files = mDirectory.listFiles();
+            mDiskBytes = 0;
+            if (files != null) {
+                for (File stored : files) {
+                    mDiskBytes += stored.length();
+                }
+            }
+        } else {
+            mDiskBytes += bytes;
+        }
+        if (mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+
+        if (files == null) {
+            files = mDirectory.listFiles();
+            if (files == null) {
+                return;
+            }
+        }
+        List<File> stored = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(stored, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        // Trim to three quarters so the next few downloads do not trim again.
+        for (File oldest : stored) {
+            if (mDiskBytes <= mMaxDiskBytes * 3 / 4) {
+                break;
+            }
+            long length = oldest.length();
+            if (!oldest.getName().endsWith(TEMP_SUFFIX) && oldest.delete()) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+
+    /**
+     * Returns a file-system safe name for the URL.
+     */
+    private File fileFor(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(mDirectory, name.toString());
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Memory cache bounded by the total size of its values in bytes, evicting the least
+     * recently used first. Unlike {@link android.util.LruCache} it does not depend on the
+     * platform, so its bound can be unit tested. Only used on the main thread.
+     */
+    abstract static class MemoryCache<V> {
+        private final LinkedHashMap<String, V> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+        private final int mMaxBytes;
+        private int mBytes;
+
+        MemoryCache(int maxBytes) {
+            mMaxBytes = maxBytes;
+        }
+
+        /**
+         * Returns the size of the value in bytes; must not change while it is cached.
+         */
+        protected abstract int sizeOf(V value);
+
+        /**
+         * Called once the cache no longer holds the value, whether it was evicted, replaced or
+         * cleared.
+         */
+        protected abstract void entryRemoved(V value);
+
+        /**
+         * Returns the value cached for the key, marking it most recently used, or null.
+         */
+        V get(String key) {
+            return key == null ? null : mEntries.get(key);
+        }
+
+        /**
+         * Cache the value, then evict the least recently used values until the cache is within
+         * its bound again. A value larger than the whole bound is evicted right away.
+         */
+        void put(String key, V value) {
+            mBytes += sizeOf(value);
+            V previous = mEntries.put(key, value);
+            if (previous != null) {
+                mBytes -= sizeOf(previous);
+                if (previous != value) {
+                    entryRemoved(previous);
+                }
+            }
+            trimTo(mMaxBytes);
+        }
+
+        void evictAll() {
+            trimTo(-1);
+        }
+
+        /**
+         * Returns the total size of the cached values in bytes.
+         */
+        int size() {
+            return mBytes;
+        }
+
+        private void trimTo(int maxBytes) {
+            Iterator<V> eldest = mEntries.values().iterator();
+            while (mBytes > maxBytes && eldest.hasNext()) {
+                V value = eldest.next();
+                eldest.remove();
+                mBytes -= sizeOf(value);
+                entryRemoved(value);
+            }
+        }
+    }
+
+    /**
+     * What an image view shows and what it is waiting for, kept in its tag.
+     */
+    static final class Binding {
+        String url;
+        Bitmap shown;
+        Pending pending;
+
+        /**
+         * Returns true if the view already shows the thumbnail at the URL, or is waiting for it.
+         */
+        boolean isShowingOrLoading(String url) {
+            return url.equals(this.url) && (shown != null || pending != null);
+        }
+
+        /**
+         * Abort the load the view is waiting for, if any, so its result is never shown.
+         */
+        void cancelPending() {
+            if (pending != null) {
+                pending.cancel();
+                pending = null;
+            }
+        }
+
+        /**
+         * Stop waiting for the given load if the view still waits for it.
+         *
+         * @return true if the load's result should be shown, false if the view was recycled
+         * or bound to another thumbnail in the meantime
+         */
+        boolean complete(Pending load) {
+            if (pending != load) {
+                return false;
+            }
+            pending = null;
+            return true;
+        }
+    }
+
+    /**
+     * A load in flight: its download and its place in the pool can both be aborted.
+     */
+    static final class Pending {
+        final QueryCancellation cancellation = new QueryCancellation();
+        Future<?> future;
+
+        void cancel() {
+            cancellation.cancel();
+            if (future != null) {
+                future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Loads one thumbnail on the pool and hands it to the main thread.
+     */
+    private final class Job implements Runnable {
+        private final ImageView mView;
+        private final Binding mBinding;
+        private final String mUrl;
+        private final Pending mPending = new Pending();
+        private final QueryCancellation mCancellation = mPending.cancellation;
+
+        Job(ImageView view, Binding binding, String url) {
+            mView = view;
+            mBinding = binding;
+            mUrl = url;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            if (mCancellation.isCanceled()) {
+                return;
+            }
+            File file = fileFor(mUrl);
+            if (file.isFile()) {
+                // Touch the file so disk eviction is least-recently-used.
+                file.setLastModified(System.currentTimeMillis());
+            } else if (!download(mUrl, file, mCancellation)) {
+                return;
+            }
+            if (mCancellation.isCanceled()) {
+                return;
+            }
+            final Bitmap loaded = decode(file);
+            if (loaded == null) {
+                Log.w(LOG_TAG, "Could not decode thumbnail " + mUrl);
+                file.delete();
+                return;
+            }
+
+            // The memory cache is only touched on the main thread, so that whether a bitmap
+            // is cached or shown never changes while it is being checked.
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    Bitmap cached = mMemory.get(mUrl);
+                    if (cached == null) {
+                        mMemory.put(mUrl, loaded);
+                        cached = loaded;
+                    } else {
+                        // Another row loaded the same thumbnail first.
+                        offerReusable(loaded);
+                    }
+                    if (mBinding.complete(mPending)) {
+                        show(mView, mBinding, cached);
+                    }
+                }
+            });
+        }
+    }
+}
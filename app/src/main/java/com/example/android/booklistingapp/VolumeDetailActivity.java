@@ -0,0 +1,175 @@
+package com.example.android.booklistingapp;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.app.AppCompatActivity;
+import android.text.Html;
+import android.util.Log;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the description, page count and ISBN of one book.
+ * <p>
+ * The row that was tapped supplies the title, authors and cover; the rest comes from
+ * {@link DetailPrefetcher}, which has usually fetched it while the row was on screen.
+ */
+public class VolumeDetailActivity extends AppCompatActivity {
+
+    private static final String LOG_TAG = VolumeDetailActivity.class.getName();
+
+    private static final String EXTRA_VOLUME_ID = "VOLUME_ID";
+    private static final String EXTRA_TITLE = "TITLE";
+    private static final String EXTRA_AUTHOR = "AUTHOR";
+    private static final String EXTRA_THUMBNAIL_URL = "THUMBNAIL_URL";
+
+    private TextView mPageCountView;
+    private TextView mIsbnView;
+    private TextView mDescriptionView;
+    private ProgressBar mLoadingIndicator;
+
+    /**
+     * Volume whose details this screen waits for, and the callback the prefetcher holds until
+     * they arrive or the screen is destroyed; null if it does not wait
+     */
+    private String mVolumeId;
+    private DetailsCallback mDetailsCallback;
+
+    /**
+     * Set in {@link #onDestroy()}, after which the views are no longer touched
+     */
+    private boolean mDestroyed;
+
+    /**
+     * Returns the intent that opens the details of the given book.
+     */
+    public static Intent newIntent(Context context, Booklisting booklisting) {
+        return new Intent(context, VolumeDetailActivity.class)
+                .putExtra(EXTRA_VOLUME_ID, booklisting.getmId())
+                .putExtra(EXTRA_TITLE, booklisting.getmTitle())
+                .putExtra(EXTRA_AUTHOR, booklisting.getmAuthor())
+                .putExtra(EXTRA_THUMBNAIL_URL, booklisting.getmThumbnailUrl());
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        final long createdAt = System.nanoTime();
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.volume_detail_activity);
+
+        Intent intent = getIntent();
+        ((TextView) findViewById(R.id.title_detail)).setText(intent.getStringExtra(EXTRA_TITLE));
+        ((TextView) findViewById(R.id.author_detail)).setText(intent.getStringExtra(EXTRA_AUTHOR));
+        ThumbnailLoader.getInstance(this).load((ImageView) findViewById(R.id.thumbnail_detail),
+                intent.getStringExtra(EXTRA_THUMBNAIL_URL));
+        mPageCountView = (TextView) findViewById(R.id.page_count_detail);
+        mIsbnView = (TextView) findViewById(R.id.isbn_detail);
+        mDescriptionView = (TextView) findViewById(R.id.description_detail);
+        mLoadingIndicator = (ProgressBar) findViewById(R.id.loading_indicator_detail);
+
+        String volumeId = intent.getStringExtra(EXTRA_VOLUME_ID);
+        if (volumeId == null || volumeId.isEmpty()) {
+            showDetails(null);
+            return;
+        }
+        mLoadingIndicator.setVisibility(View.VISIBLE);
+        mVolumeId = volumeId;
+        mDetailsCallback = new DetailsCallback(this, createdAt);
+        DetailPrefetcher.get().load(volumeId, mDetailsCallback);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mDestroyed = true;
+        if (mDetailsCallback != null) {
+            DetailPrefetcher.get().cancel(mVolumeId, mDetailsCallback);
+            mDetailsCallback = null;
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Called on the main thread with the details this screen waits for.
+     */
+    private void onDetails(VolumeDetails details, long createdAt) {
+        if (mDestroyed || isFinishing()) {
+            return;
+        }
+        mDetailsCallback = null;
+        showDetails(details);
+        if (BuildConfig.DEBUG) {
+            Log.d(LOG_TAG, "Showed details "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdAt) + " ms after onCreate");
+        }
+    }
+
+    /**
+     * Show the given details, or say that there are none.
+     */
+    private void showDetails(VolumeDetails details) {
+        mLoadingIndicator.setVisibility(View.GONE);
+        if (details == null) {
+            mPageCountView.setVisibility(View.GONE);
+            mIsbnView.setVisibility(View.GONE);
+            mDescriptionView.setText(R.string.details_unavailable);
+            return;
+        }
+
+        if (details.getmPageCount() > 0) {
+            mPageCountView.setText(getString(R.string.detail_page_count, details.getmPageCount()));
+        } else {
+            mPageCountView.setVisibility(View.GONE);
+        }
+        // The 13 digit ISBN is the current one; older books may only have the 10 digit one
+        String isbn = !details.getmIsbn13().isEmpty() ? details.getmIsbn13() : details.getmIsbn10();
+        if (!isbn.isEmpty()) {
+            mIsbnView.setText(getString(R.string.detail_isbn, isbn));
+        } else {
+            mIsbnView.setVisibility(View.GONE);
+        }
+        // The API describes books with a little HTML markup
+        if (!details.getmDescription().isEmpty()) {
+            mDescriptionView.setText(Html.fromHtml(details.getmDescription()));
+        } else {
+            mDescriptionView.setText(R.string.no_description);
+        }
+    }
+
+    /**
+     * Hands the details to the screen on the main thread. It only holds the screen weakly, so a
+     * slow request cannot keep a closed screen in memory.
+     */
+    private static final class DetailsCallback implements DetailPrefetcher.Callback {
+        private final WeakReference<VolumeDetailActivity> mActivity;
+        private final long mCreatedAt;
+
+        DetailsCallback(VolumeDetailActivity activity, long createdAt) {
+            mActivity = new WeakReference<>(activity);
+            mCreatedAt = createdAt;
+        }
+
+        @Override
+        public void onDetails(String volumeId, final VolumeDetails details) {
+            VolumeDetailActivity activity = mActivity.get();
+            if (activity == null) {
+                return;
+            }
+            // Runs right away when the details were prefetched
+            activity.runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    VolumeDetailActivity activity = mActivity.get();
+                    if (activity != null) {
+                        activity.onDetails(details, mCreatedAt);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BooklistingPagerTest {
+
+    @Test
+    public void pages_useSmallFirstPageThenFullPages() {
+        BooklistingPager pager = new BooklistingPager(10, 20, 5, 3);
+        assertEquals(0, pager.pageStart(0));
+        assertEquals(10, pager.pageSize(0));
+        assertEquals(10, pager.pageStart(1));
+        assertEquals(30, pager.pageStart(2));
+        assertEquals(20, pager.pageSize(2));
+
+        pager.onPageLoaded(0, books(0, 10));
+        pager.onPageLoaded(1, books(10, 20));
+        pager.onPageLoaded(2, books(30, 20));
+        assertEquals(0, pager.pageOf(9));
+        assertEquals(1, pager.pageOf(10));
+        assertEquals(2, pager.pageOf(30));
+        assertEquals("title 30", pager.getItem(30).getmTitle());
+    }
+
+    @Test
+    public void reset_withPlannedSizes_addressesLaterPagesByThem() {
+        BooklistingPager pager = new BooklistingPager(10, 20, 5, 3);
+        pager.onPageLoaded(0, books(0, 10));
+
+        pager.reset(40, 40);
+        assertEquals(0, pager.getCount());
+        assertEquals(40, pager.pageSize(0));
+        assertEquals(40, pager.pageStart(1));
+        assertEquals(80, pager.pageStart(2));
+
+        // A full first page of the new size is not the end.
+        pager.onPageLoaded(0, books(0, 40));
+        assertEquals(1, pager.nextPageToLoad(30, 39));
+    }
+
+    @Test
+    public void oversizedFirstPage_isAddressedByItsActualSize() {
+        BooklistingPager pager = new BooklistingPager(10, 20, 5, 3);
+        pager.onPageLoaded(0, books(0, 40));
+
+        assertEquals(40, pager.getCount());
+        assertEquals("title 39", pager.getItem(39).getmTitle());
+    }
+
+    @Test
+    public void nextPage_isPrefetchedWithinDistanceOfTheEnd() {
+        BooklistingPager pager = new BooklistingPager(10, 20, 5, 3);
+        pager.onPageLoaded(0, books(0, 10));
+
+        assertEquals(BooklistingPager.NO_PAGE, pager.nextPageToLoad(0, 3));
+        assertEquals(1, pager.nextPageToLoad(0, 4));
+
+        pager.onPageLoaded(1, books(10, 7));
+        assertEquals(17, pager.getCount());
+        assertTrue(pager.isEndReached());
+        assertEquals(BooklistingPager.NO_PAGE, pager.nextPageToLoad(10, 16));
+    }
+
+    @Test
+    public void farPages_areDroppedAndRefetchedOnDemand() {
+        BooklistingPager pager = new BooklistingPager(10, 20, 5, 3);
+        pager.onPageLoaded(0, books(0, 10));
+        pager.onPageLoaded(1, books(10, 20));
+        pager.onPageLoaded(2, books(30, 20));
+        pager.onPageLoaded(3, books(50, 20));
+
+        pager.trim(60, 65);
+        assertNull(pager.getItem(0));
+        assertNotNull(pager.getItem(10));
+        assertEquals(70, pager.getCount());
+
+        assertEquals(0, pager.nextPageToLoad(0, 6));
+        pager.onPageLoaded(0, books(0, 10));
+        assertEquals("title 3", pager.getItem(3).getmTitle());
+    }
+
+    @Test
+    public void booksRepeatedOnLaterPages_areShownOnce() {
+        BooklistingPager pager = new BooklistingPager(10, 20, 5, 3);
+        pager.onPageLoaded(0, books(0, 10));
+        // The API shifts its results and returns books 5 to 24, one of them twice
+        List<Booklisting> second = books(5, 20);
+        second.add(second.get(10));
+        pager.onPageLoaded(1, second, 20);
+
+        assertEquals(25, pager.getCount());
+        assertEquals("title 10", pager.getItem(10).getmTitle());
+        Set<String> keys = new HashSet<>();
+        for (Booklisting book : pager.snapshot()) {
+            keys.add(FederatedSearch.keyOf(book));
+        }
+        assertEquals(pager.getCount(), keys.size());
+        // A full page, even though rows were left out, is not the end
+        assertEquals(2, pager.nextPageToLoad(20, 24));
+    }
+
+    @Test
+    public void refetchedPage_leavesOutTheSameBooks() {
+        BooklistingPager pager = new BooklistingPager(10, 20, 5, 2);
+        pager.onPageLoaded(0, books(0, 10));
+        pager.onPageLoaded(1, books(5, 20));
+        pager.onPageLoaded(2, books(25, 20));
+        pager.onPageLoaded(3, books(45, 20));
+        pager.trim(50, 60);
+        assertNull(pager.getItem(10));
+
+        pager.onPageLoaded(1, books(5, 20));
+        assertEquals("title 10", pager.getItem(10).getmTitle());
+        assertEquals("title 24", pager.getItem(24).getmTitle());
+    }
+
+    private static List<Booklisting> books(int start, int count) {
+        List<Booklisting> books = new ArrayList<>();
+        for (int i = start; i < start + count; i++) {
+            books.add(new Booklisting("author " + i, "title " + i));
+        }
+        return books;
+    }
+}
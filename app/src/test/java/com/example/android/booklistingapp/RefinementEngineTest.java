@@ -0,0 +1,49 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RefinementEngineTest {
+
+    private static final Booklisting ANDROID = new Booklisting("Reto Meier", "Professional Android");
+    private static final Booklisting ANDROMEDA = new Booklisting("Michael Crichton", "The Andromeda Strain");
+    private static final Booklisting ANDREW = new Booklisting("Andrew Hunt", "The Pragmatic Programmer");
+
+    @Test
+    public void refine_filtersLongestCachedPrefix() {
+        RefinementEngine engine = new RefinementEngine();
+        engine.remember("an", Arrays.asList(ANDROID, ANDROMEDA, ANDREW));
+        engine.remember("andr", Arrays.asList(ANDROID, ANDROMEDA, ANDREW));
+
+        assertEquals(Arrays.asList(ANDROID, ANDROMEDA), engine.refine("Andro"));
+        assertEquals(Arrays.asList(ANDREW), engine.refine("andr prag"));
+        assertNull(engine.refine("kotlin"));
+    }
+
+    @Test
+    public void remember_keepsOnlyTheMostRecentSets() {
+        RefinementEngine engine = new RefinementEngine(1);
+        engine.remember("andr", Arrays.asList(ANDROID));
+        engine.remember("prag", Arrays.asList(ANDREW));
+
+        assertNull(engine.refine("andro"));
+        assertEquals(Arrays.asList(ANDREW), engine.refine("pragm"));
+    }
+
+    @Test
+    public void merge_keepsShownInstancesInAuthoritativeOrder() {
+        Booklisting sameAsShown = new Booklisting("Reto Meier", "Professional Android");
+        List<Booklisting> merged = RefinementEngine.merge(Arrays.asList(ANDROID),
+                Arrays.asList(ANDROMEDA, sameAsShown));
+
+        assertEquals(2, merged.size());
+        assertSame(ANDROMEDA, merged.get(0));
+        assertSame(ANDROID, merged.get(1));
+    }
+}
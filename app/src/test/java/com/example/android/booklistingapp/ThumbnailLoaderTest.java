@@ -0,0 +1,136 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailLoaderTest {
+
+    @Test
+    public void inSampleSize_isTheLargestPowerOfTwoStillCoveringTheTarget() {
+        // A 128x192 cover in a 48x72 row: halving once still covers it, twice does not.
+        assertEquals(2, ThumbnailLoader.calculateInSampleSize(128, 192, 48, 72));
+        assertEquals(4, ThumbnailLoader.calculateInSampleSize(800, 1200, 144, 216));
+        // Both dimensions must stay covered.
+        assertEquals(1, ThumbnailLoader.calculateInSampleSize(400, 100, 48, 72));
+    }
+
+    @Test
+    public void inSampleSize_neverUpsamples() {
+        assertEquals(1, ThumbnailLoader.calculateInSampleSize(128, 192, 144, 216));
+        assertEquals(1, ThumbnailLoader.calculateInSampleSize(128, 192, 128, 192));
+        assertEquals(1, ThumbnailLoader.calculateInSampleSize(128, 192, 0, 0));
+    }
+
+    @Test
+    public void memoryCache_evictsLeastRecentlyUsedToStayWithinItsBytes() {
+        RecordingCache cache = new RecordingCache(100);
+        byte[] first = new byte[40];
+        byte[] second = new byte[40];
+        byte[] third = new byte[40];
+        cache.put("first", first);
+        cache.put("second", second);
+        // Reading the first makes the second the least recently used.
+        assertSame(first, cache.get("first"));
+        cache.put("third", third);
+
+        assertEquals(80, cache.size());
+        assertNull(cache.get("second"));
+        assertSame(first, cache.get("first"));
+        assertSame(third, cache.get("third"));
+        assertEquals(1, cache.removed.size());
+        assertSame(second, cache.removed.get(0));
+    }
+
+    @Test
+    public void memoryCache_replacingOrClearingReportsTheRemovedValues() {
+        RecordingCache cache = new RecordingCache(100);
+        byte[] old = new byte[60];
+        byte[] replacement = new byte[30];
+        cache.put("url", old);
+        cache.put("url", replacement);
+        assertEquals(30, cache.size());
+        assertSame(old, cache.removed.get(0));
+
+        // A value larger than the whole bound is not kept.
+        byte[] huge = new byte[101];
+        cache.put("huge", huge);
+        assertNull(cache.get("huge"));
+        assertTrue(cache.size() <= 100);
+
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("url"));
+        assertTrue(cache.removed.contains(replacement));
+        assertTrue(cache.removed.contains(huge));
+    }
+
+    @Test
+    public void recycledRow_cancelsItsLoadAndNeverShowsTheResult() {
+        ThumbnailLoader.Binding binding = new ThumbnailLoader.Binding();
+        ThumbnailLoader.Pending load = start(binding, "http://covers/1");
+        assertTrue(binding.isShowingOrLoading("http://covers/1"));
+
+        binding.cancelPending();
+
+        assertTrue(load.cancellation.isCanceled());
+        assertTrue(load.future.isCancelled());
+        assertFalse(binding.isShowingOrLoading("http://covers/1"));
+        // The download finishing anyway must not put the cover in the recycled row.
+        assertFalse(binding.complete(load));
+    }
+
+    @Test
+    public void reboundRow_showsOnlyItsLatestLoad() {
+        ThumbnailLoader.Binding binding = new ThumbnailLoader.Binding();
+        ThumbnailLoader.Pending stale = start(binding, "http://covers/1");
+        binding.cancelPending();
+        ThumbnailLoader.Pending current = start(binding, "http://covers/2");
+
+        assertTrue(stale.cancellation.isCanceled());
+        assertFalse(current.cancellation.isCanceled());
+        assertFalse(binding.isShowingOrLoading("http://covers/1"));
+        assertFalse(binding.complete(stale));
+        assertTrue(binding.complete(current));
+        // Completed loads are only shown once.
+        assertFalse(binding.complete(current));
+    }
+
+    private static ThumbnailLoader.Pending start(ThumbnailLoader.Binding binding, String url) {
+        ThumbnailLoader.Pending load = new ThumbnailLoader.Pending();
+        load.future = new FutureTask<>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        binding.url = url;
+        binding.pending = load;
+        return load;
+    }
+
+    private static final class RecordingCache extends ThumbnailLoader.MemoryCache<byte[]> {
+        final List<byte[]> removed = new ArrayList<>();
+
+        RecordingCache(int maxBytes) {
+            super(maxBytes);
+        }
+
+        @Override
+        protected int sizeOf(byte[] value) {
+            return value.length;
+        }
+
+        @Override
+        protected void entryRemoved(byte[] value) {
+            removed.add(value);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.android.booklistingapp.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in for the Google Books volumes endpoint, for load tests.
+ * <p>
+ * Every request waits for a latency drawn from a log-normal distribution, fails with a 503 at
+ * the configured rate, and is otherwise answered with as many of the recorded results as it
+ * asks for, each padded by the configured number of bytes. The body is gzip-compressed when the
+ * client accepts it and sent no faster than the configured bandwidth. Each request is served
+ * on its own thread, so slow responses overlap like they do on a real server.
+ */
+final class FakeBooksApi {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Size of the pieces a throttled body is written in.
+     */
+    private static final int CHUNK_BYTES = 4096;
+
+    /**
+     * How the server behaves. The defaults answer at once, without errors or throttling.
+     */
+    static final class Config {
+        /**
+         * Median of the latency before the response starts.
+         */
+        long medianLatencyMillis;
+
+        /**
+         * Spread of the latency: the standard deviation of its logarithm. 0 makes every request
+         * take the median; 0.5 puts the 99th percentile at about three times the median.
+         */
+        double latencySigma;
+
+        /**
+         * Share of requests answered with a 503.
+         */
+        double errorRate;
+
+        /**
+         * Bytes of padding added to every result, standing in for the fields the projection
+         * does not ask for.
+         */
+        int paddingBytesPerResult;
+
+        /**
+         * Bytes per second the body is sent at; 0 for no limit.
+         */
+        long bandwidthBytesPerSecond;
+
+        long seed = 1;
+
+        /**
+         * Returns the configuration as a JSON object for the report.
+         */
+        JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("medianLatencyMillis", medianLatencyMillis);
+            json.addProperty("latencySigma", latencySigma);
+            json.addProperty("errorRate", errorRate);
+            json.addProperty("paddingBytesPerResult", paddingBytesPerResult);
+            json.addProperty("bandwidthBytesPerSecond", bandwidthBytesPerSecond);
+            json.addProperty("seed", seed);
+            return json;
+        }
+    }
+
+    private final Config mConfig;
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final Random mRandom;
+    private final Map<Integer, byte[][]> mBodies = new HashMap<>();
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+
+    FakeBooksApi(Config config) throws IOException {
+        mConfig = config;
+        mRandom = new Random(config.seed);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/books/v1/volumes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    /**
+     * Returns the URL the app's requests would go to, with the host replaced by this server.
+     */
+    String baseUrl() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/books/v1/volumes";
+    }
+
+    int getRequestCount() {
+        return mRequests.get();
+    }
+
+    int getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * Returns the body bytes sent, compressed where the client accepted it.
+     */
+    long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    void shutdown() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        mRequests.incrementAndGet();
+        long latencyMillis;
+        boolean fail;
+        synchronized (mRandom) {
+            latencyMillis = Math.round(mConfig.medianLatencyMillis
+                    * Math.exp(mConfig.latencySigma * mRandom.nextGaussian()));
+            fail = mRandom.nextDouble() < mConfig.errorRate;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            return;
+        }
+        if (fail) {
+            mErrors.incrementAndGet();
+            exchange.sendResponseHeaders(503, -1);
+            return;
+        }
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        byte[] body = bodyFor(maxResults(exchange.getRequestURI().getRawQuery()), gzip);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        if (gzip) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            long bandwidth = mConfig.bandwidthBytesPerSecond;
+            for (int offset = 0; offset < body.length; offset += CHUNK_BYTES) {
+                int length = Math.min(CHUNK_BYTES, body.length - offset);
+                out.write(body, offset, length);
+                out.flush();
+                mBytesSent.addAndGet(length);
+                if (bandwidth > 0) {
+                    Thread.sleep(length * 1000L / bandwidth);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client cancelled the request; nothing left to do.
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int maxResults(String rawQuery) throws IOException {
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                if (parameter.startsWith("maxResults=")) {
+                    try {
+                        return Integer.parseInt(URLDecoder.decode(
+                                parameter.substring("maxResults=".length()), "UTF-8"));
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return 10;
+    }
+
+    /**
+     * Returns the response body with the given number of results, built on first use.
+     */
+    private synchronized byte[] bodyFor(int results, boolean gzip) throws IOException {
+        int count = Math.max(0, Math.min(results, Payloads.MAX_PAGE_SIZE));
+        byte[][] bodies = mBodies.get(count);
+        if (bodies == null) {
+            byte[] plain = count == 0 ? "{\"totalItems\":0}".getBytes(UTF_8)
+                    : pad(Payloads.pages(count).get(0));
+            bodies = new byte[][]{plain, Payloads.gzip(Arrays.asList(plain)).get(0)};
+            mBodies.put(count, bodies);
+        }
+        return bodies[gzip ? 1 : 0];
+    }
+
+    private byte[] pad(byte[] page) {
+        if (mConfig.paddingBytesPerResult <= 0) {
+            return page;
+        }
+        char[] padding = new char[mConfig.paddingBytesPerResult];
+        Arrays.fill(padding, 'x');
+        JsonObject response = new JsonParser().parse(new String(page, UTF_8)).getAsJsonObject();
+        JsonArray items = response.getAsJsonArray("items");
+        for (JsonElement item : items) {
+            item.getAsJsonObject().getAsJsonObject("volumeInfo")
+                    .addProperty("description", new String(padding));
+        }
+        return response.toString().getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.booklistingapp.benchmark;
+
+import com.example.android.booklistingapp.AuthorPool;
+import com.example.android.booklistingapp.Booklisting;
+import com.example.android.booklistingapp.BooklistingJsonDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Measures the steps between a response arriving and the list of {@link Booklisting} objects
+ * handed to the UI, for queries answered by 10, 40 and 400 results.
+ * <p>
+ * One operation handles every page of a query, so the 400 result case decodes ten pages. Run
+ * with {@code -prof gc} (the default of the jmh task) to get the bytes allocated per operation
+ * next to throughput and average time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(java.util.concurrent.TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FetchPathBenchmark {
+
+    /**
+     * Number of results of the query.
+     */
+    @Param({"10", "40", "400"})
+    public int results;
+
+    private List<byte[]> mBodies;
+    private List<byte[]> mGzippedBodies;
+    private List<Object[]> mFields;
+    private final byte[] mBuffer = new byte[8192];
+
+    @Setup
+    public void setUp() throws IOException {
+        mBodies = Payloads.pages(results);
+        mGzippedBodies = Payloads.gzip(mBodies);
+        mFields = Payloads.fields(mBodies);
+    }
+
+    /**
+     * Reading the compressed responses off the wire, without decoding them.
+     */
+    @Benchmark
+    public long readResponse() throws IOException {
+        long total = 0;
+        for (byte[] body : mGzippedBodies) {
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+            int read;
+            while ((read = in.read(mBuffer)) != -1) {
+                total += read;
+            }
+            in.close();
+        }
+        return total;
+    }
+
+    /**
+     * Extracting the books out of uncompressed responses into lists.
+     */
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        for (byte[] body : mBodies) {
+            blackhole.consume(BooklistingJsonDecoder.decode(new ByteArrayInputStream(body)));
+        }
+    }
+
+    /**
+     * Extracting the books one by one, as the cache-filling path does, without collecting them.
+     */
+    @Benchmark
+    public void decodeStreaming(final Blackhole blackhole) throws IOException {
+        for (byte[] body : mBodies) {
+            BooklistingJsonDecoder.decode(new ByteArrayInputStream(body),
+                    new BooklistingJsonDecoder.Callback() {
+                        @Override
+                        public void onBooklisting(Booklisting booklisting) {
+                            blackhole.consume(booklisting);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Constructing the books from already extracted values, including pooling the authors the
+     * way the decoder does.
+     */
+    @Benchmark
+    public void construct(Blackhole blackhole) {
+        AuthorPool pool = AuthorPool.shared();
+        for (Object[] fields : mFields) {
+            String[] authors = ((String[]) fields[Payloads.AUTHORS]).clone();
+            blackhole.consume(new Booklisting((String) fields[Payloads.ID], pool.intern(authors),
+                    (String) fields[Payloads.TITLE]));
+        }
+    }
+
+    /**
+     * The whole path as the app runs it: inflate and decode in one pass.
+     */
+    @Benchmark
+    public void readAndDecode(Blackhole blackhole) throws IOException {
+        for (byte[] body : mGzippedBodies) {
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(body));
+            blackhole.consume(BooklistingJsonDecoder.decode(in));
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.booklistingapp.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A recorded search session: the text of the search field after every keystroke, and when that
+ * keystroke happened.
+ * <p>
+ * Traces are stored as a JSON array of sessions, each
+ * {@code {"name": "...", "keystrokes": [[millis, "text"], ...]}}, with the times counted from
+ * the start of the session. Backspaces are keystrokes like any other, so a corrected typo shows
+ * up as the text getting shorter.
+ */
+final class KeystrokeTrace {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    final String name;
+    final long[] atMillis;
+    final String[] texts;
+
+    private KeystrokeTrace(String name, long[] atMillis, String[] texts) {
+        this.name = name;
+        this.atMillis = atMillis;
+        this.texts = texts;
+    }
+
+    /**
+     * Returns the text the session ends with.
+     */
+    String finalText() {
+        return texts[texts.length - 1];
+    }
+
+    /**
+     * Returns the time of the last keystroke.
+     */
+    long durationMillis() {
+        return atMillis[atMillis.length - 1];
+    }
+
+    /**
+     * Returns the sessions stored in the given stream, closing it.
+     */
+    static List<KeystrokeTrace> read(InputStream in) throws IOException {
+        try {
+            JsonArray sessions = new JsonParser().parse(new InputStreamReader(in, UTF_8)).getAsJsonArray();
+            List<KeystrokeTrace> traces = new ArrayList<>(sessions.size());
+            for (JsonElement element : sessions) {
+                JsonObject session = element.getAsJsonObject();
+                JsonArray keystrokes = session.getAsJsonArray("keystrokes");
+                if (keystrokes.size() == 0) {
+                    continue;
+                }
+                long[] atMillis = new long[keystrokes.size()];
+                String[] texts = new String[keystrokes.size()];
+                for (int i = 0; i < atMillis.length; i++) {
+                    JsonArray keystroke = keystrokes.get(i).getAsJsonArray();
+                    atMillis[i] = keystroke.get(0).getAsLong();
+                    texts[i] = keystroke.get(1).getAsString();
+                }
+                traces.add(new KeystrokeTrace(session.get("name").getAsString(), atMillis, texts));
+            }
+            return traces;
+        } catch (RuntimeException e) {
+            // Gson reports malformed input with unchecked exceptions.
+            throw new IOException("Malformed keystroke traces", e);
+        } finally {
+            in.close();
+        }
+    }
+}
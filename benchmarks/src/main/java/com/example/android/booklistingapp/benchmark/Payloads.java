@@ -0,0 +1,130 @@
+package com.example.android.booklistingapp.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Google Books responses for the benchmarks, derived from the recorded 40 result response the
+ * core library's tests use.
+ * <p>
+ * A query is answered by one or more pages of at most {@link #MAX_PAGE_SIZE} results, like the
+ * API does. Pages after the first get their ids and titles rewritten so that every result is a
+ * different book, while the author names keep repeating across pages as they do in real
+ * searches.
+ */
+final class Payloads {
+
+    static final int MAX_PAGE_SIZE = 40;
+
+    /**
+     * Positions in the arrays returned by {@link #fields(List)}.
+     */
+    static final int ID = 0;
+    static final int AUTHORS = 1;
+    static final int TITLE = 2;
+
+    private static final String FIXTURE = "/volumes_40.json";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private Payloads() {
+    }
+
+    /**
+     * Returns the pages answering a query with the given number of results, as uncompressed
+     * response bodies.
+     */
+    static List<byte[]> pages(int results) throws IOException {
+        List<byte[]> pages = new ArrayList<>();
+        for (int start = 0; start < results; start += MAX_PAGE_SIZE) {
+            int pageIndex = start / MAX_PAGE_SIZE;
+            // Every page starts from a fresh copy of the recording, which is then rewritten.
+            JsonObject recorded = readFixture();
+            JsonArray recordedItems = recorded.getAsJsonArray("items");
+            JsonArray items = new JsonArray();
+            for (int i = 0; i < Math.min(MAX_PAGE_SIZE, results - start); i++) {
+                JsonObject item = recordedItems.get(i % recordedItems.size()).getAsJsonObject();
+                if (pageIndex > 0) {
+                    item.addProperty("id", item.get("id").getAsString() + "-" + pageIndex);
+                    JsonObject volumeInfo = item.getAsJsonObject("volumeInfo");
+                    volumeInfo.addProperty("title",
+                            volumeInfo.get("title").getAsString() + " (" + pageIndex + ")");
+                }
+                items.add(item);
+            }
+            JsonObject page = new JsonObject();
+            page.addProperty("kind", recorded.get("kind").getAsString());
+            page.addProperty("totalItems", results);
+            page.add("items", items);
+            pages.add(page.toString().getBytes(UTF_8));
+        }
+        return pages;
+    }
+
+    /**
+     * Returns the id, authors and title of every result on the given pages, in the order
+     * {@link #ID}, {@link #AUTHORS}, {@link #TITLE}. Authors are a String[].
+     */
+    static List<Object[]> fields(List<byte[]> pages) {
+        List<Object[]> fields = new ArrayList<>();
+        for (byte[] page : pages) {
+            JsonArray items = new JsonParser().parse(new String(page, UTF_8))
+                    .getAsJsonObject().getAsJsonArray("items");
+            for (JsonElement element : items) {
+                JsonObject item = element.getAsJsonObject();
+                JsonObject volumeInfo = item.getAsJsonObject("volumeInfo");
+                JsonArray authorArray = volumeInfo.getAsJsonArray("authors");
+                String[] authors;
+                if (authorArray == null || authorArray.size() == 0) {
+                    authors = new String[]{"Unknown Author"};
+                } else {
+                    authors = new String[authorArray.size()];
+                    for (int i = 0; i < authors.length; i++) {
+                        authors[i] = authorArray.get(i).getAsString();
+                    }
+                }
+                fields.add(new Object[]{item.get("id").getAsString(), authors,
+                        volumeInfo.get("title").getAsString()});
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the given bodies compressed the way the server sends them.
+     */
+    static List<byte[]> gzip(List<byte[]> bodies) throws IOException {
+        List<byte[]> compressed = new ArrayList<>(bodies.size());
+        for (byte[] body : bodies) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(body);
+            gzip.close();
+            compressed.add(out.toByteArray());
+        }
+        return compressed;
+    }
+
+    private static JsonObject readFixture() throws IOException {
+        InputStream in = Payloads.class.getResourceAsStream(FIXTURE);
+        if (in == null) {
+            throw new IOException("Missing fixture " + FIXTURE);
+        }
+        try {
+            JsonElement element = new JsonParser().parse(new InputStreamReader(in, UTF_8));
+            return element.getAsJsonObject();
+        } finally {
+            in.close();
+        }
+    }
+}
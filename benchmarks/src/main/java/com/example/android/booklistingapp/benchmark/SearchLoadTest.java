@@ -0,0 +1,568 @@
+package com.example.android.booklistingapp.benchmark;
+
+import com.example.android.booklistingapp.AdaptiveTransport;
+import com.example.android.booklistingapp.Booklisting;
+import com.example.android.booklistingapp.BooklistingCache;
+import com.example.android.booklistingapp.BooklistingSchema;
+import com.example.android.booklistingapp.FederatedSearch;
+import com.example.android.booklistingapp.QueryCancellation;
+import com.example.android.booklistingapp.QueryScheduler;
+import com.example.android.booklistingapp.QueryTrace;
+import com.example.android.booklistingapp.QueryUtils;
+import com.example.android.booklistingapp.NetworkQualityEstimator;
+import com.example.android.booklistingapp.ResilientTransport;
+import com.example.android.booklistingapp.UrlConnectionTransport;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays recorded typing against {@link FakeBooksApi} through the same search pipeline as the
+ * app, and reports how long the user waits for results.
+ * <p>
+ * The pipeline is the app's, minus the views: every keystroke goes through a
+ * {@link QueryScheduler} on a single "main" thread, an issued query cancels the load in flight
+ * and starts a new one on a pool thread, as {@code LoaderManager.restartLoader} does, and the
+ * load runs {@link FederatedSearch} (or a single {@link QueryUtils} request with
+ * {@code --plain}) through the app's response cache and transport. Results are handed back to
+ * the main thread, where superseded ones are dropped, as in {@code onLoadFinished}.
+ * <p>
+ * For each server scenario the report gives the time from the keystroke that typed a query to
+ * its first results on screen, the time from the last keystroke of a session until its final
+ * results are complete, and the queries, requests and bytes it took. The report is JSON with
+ * stable keys, so two builds can be compared by passing the older report as the baseline.
+ * <p>
+ * Run with {@code ./gradlew :benchmarks:loadTest}, optionally with
+ * {@code -PloadTestArgs="--scenario slow-3g --baseline old.json"}.
+ */
+public final class SearchLoadTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int REPORT_FORMAT = 1;
+
+    private static final String TRACES = "/keystroke_traces.json";
+
+    /**
+     * Time a session has to settle after its last keystroke before it counts as timed out.
+     */
+    private static final long SETTLE_TIMEOUT_MILLIS = 30000;
+
+    private static final String FIELDS = encode(BooklistingSchema.get().getProjection());
+    private static final String LEAN_FIELDS = encode(BooklistingSchema.get().getLeanProjection());
+
+    private final List<KeystrokeTrace> mTraces;
+    private final boolean mFederated;
+
+    private SearchLoadTest(List<KeystrokeTrace> traces, boolean federated) {
+        mTraces = traces;
+        mFederated = federated;
+    }
+
+    /**
+     * Returns the server scenarios, from a fast Wi-Fi connection to a slow and lossy one.
+     */
+    static Map<String, FakeBooksApi.Config> scenarios() {
+        Map<String, FakeBooksApi.Config> scenarios = new LinkedHashMap<>();
+        scenarios.put("fast-wifi", config(80, 0.3, 0, 0, 0));
+        scenarios.put("typical-lte", config(250, 0.5, 0.01, 600, 500 * 1024));
+        scenarios.put("slow-3g", config(600, 0.6, 0.02, 600, 60 * 1024));
+        scenarios.put("flaky", config(250, 0.5, 0.2, 0, 0));
+        return scenarios;
+    }
+
+    /**
+     * Returns the kind of link the platform would report in the given scenario.
+     */
+    private static NetworkQualityEstimator.LinkType linkType(String scenario) {
+        switch (scenario) {
+            case "typical-lte":
+                return NetworkQualityEstimator.LinkType.CELLULAR_4G;
+            case "slow-3g":
+                return NetworkQualityEstimator.LinkType.CELLULAR_3G;
+            default:
+                return NetworkQualityEstimator.LinkType.WIFI;
+        }
+    }
+
+    private static FakeBooksApi.Config config(long medianLatencyMillis, double latencySigma, double errorRate,
+                                              int paddingBytesPerResult, long bandwidthBytesPerSecond) {
+        FakeBooksApi.Config config = new FakeBooksApi.Config();
+        config.medianLatencyMillis = medianLatencyMillis;
+        config.latencySigma = latencySigma;
+        config.errorRate = errorRate;
+        config.paddingBytesPerResult = paddingBytesPerResult;
+        config.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+        return config;
+    }
+
+    public static void main(String[] args) throws Exception {
+        File report = new File("build/reports/loadtest/report.json");
+        File baseline = null;
+        File traces = null;
+        String only = null;
+        boolean federated = true;
+        for (int i = 0; i < args.length; i++) {
+            if ("--report".equals(args[i]) && i + 1 < args.length) {
+                report = new File(args[++i]);
+            } else if ("--baseline".equals(args[i]) && i + 1 < args.length) {
+                baseline = new File(args[++i]);
+            } else if ("--traces".equals(args[i]) && i + 1 < args.length) {
+                traces = new File(args[++i]);
+            } else if ("--scenario".equals(args[i]) && i + 1 < args.length) {
+                only = args[++i];
+            } else if ("--plain".equals(args[i])) {
+                federated = false;
+            } else {
+                System.err.println("Usage: SearchLoadTest [--report file] [--baseline file] "
+                        + "[--traces file] [--scenario name] [--plain]");
+                System.exit(2);
+            }
+        }
+
+        InputStream in = traces != null ? new FileInputStream(traces)
+                : SearchLoadTest.class.getResourceAsStream(TRACES);
+        SearchLoadTest test = new SearchLoadTest(KeystrokeTrace.read(in), federated);
+
+        JsonObject result = new JsonObject();
+        result.addProperty("format", REPORT_FORMAT);
+        result.addProperty("traces", traces != null ? traces.getName() : TRACES.substring(1));
+        result.addProperty("sessions", test.mTraces.size());
+        result.addProperty("quietPeriodMillis", QueryScheduler.DEFAULT_QUIET_PERIOD_MILLIS);
+        JsonArray scenarioResults = new JsonArray();
+        for (Map.Entry<String, FakeBooksApi.Config> scenario : scenarios().entrySet()) {
+            if (only == null || only.equals(scenario.getKey())) {
+                System.out.println("Running " + scenario.getKey() + "...");
+                scenarioResults.add(test.run(scenario.getKey(), scenario.getValue()));
+            }
+        }
+        if (scenarioResults.size() == 0) {
+            System.err.println("No scenario named " + only + "; there are " + scenarios().keySet());
+            System.exit(2);
+        }
+        result.add("scenarios", scenarioResults);
+
+        String json = new GsonBuilder().setPrettyPrinting().create().toJson(result);
+        File directory = report.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(report), UTF_8);
+        try {
+            writer.write(json);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+        System.out.println(json);
+        System.out.println("Report written to " + report.getPath());
+        if (baseline != null) {
+            compare(readReport(baseline), result);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Replay every session against a server set up for the given scenario, in one process with
+     * one response cache, like one user searching several times.
+     */
+    private JsonObject run(String name, FakeBooksApi.Config config) throws Exception {
+        FakeBooksApi server = new FakeBooksApi(config);
+        File cacheDirectory = Files.createTempDirectory("loadtest").toFile();
+        QueryUtils.setCache(new BooklistingCache(cacheDirectory));
+        // Consecutive scenarios are on different links, so the estimates start over for each,
+        // as after a network change.
+        NetworkQualityEstimator estimator = NetworkQualityEstimator.get();
+        estimator.setLinkType(linkType(name));
+        QueryUtils.setTransport(new ResilientTransport(new AdaptiveTransport(new UrlConnectionTransport(), estimator)));
+        ScheduledExecutorService mainThread = Executors.newSingleThreadScheduledExecutor();
+        ExecutorService loaderThreads = Executors.newCachedThreadPool();
+
+        Metrics metrics = new Metrics();
+        try {
+            for (KeystrokeTrace trace : mTraces) {
+                new Session(trace, server.baseUrl(), mainThread, loaderThreads, metrics).replay();
+            }
+        } finally {
+            mainThread.shutdownNow();
+            loaderThreads.shutdownNow();
+            server.shutdown();
+            QueryUtils.setCache(null);
+            deleteRecursively(cacheDirectory);
+        }
+
+        JsonObject result = new JsonObject();
+        result.addProperty("name", name);
+        result.addProperty("federated", mFederated);
+        result.add("server", config.toJson());
+        result.addProperty("settledSessions", metrics.settledSessions);
+        result.addProperty("failedSessions", metrics.failedSessions);
+        result.addProperty("timedOutSessions", metrics.timedOutSessions);
+        result.addProperty("keystrokes", metrics.keystrokes);
+        result.addProperty("queriesIssued", metrics.queriesIssued);
+        result.addProperty("queriesCoalesced", metrics.queriesCoalesced);
+        result.addProperty("queriesCancelled", metrics.queriesCancelled);
+        result.addProperty("requests", server.getRequestCount());
+        result.addProperty("errorsServed", server.getErrorCount());
+        result.addProperty("bytesTransferred", server.getBytesSent());
+        result.add("keystrokeToFirstResultsMillis", percentiles(metrics.firstResultsMillis));
+        result.add("settleMillis", percentiles(metrics.settleMillis));
+        result.add("firstPageSize", percentiles(metrics.firstPageSizes));
+        result.addProperty("network", estimator.toString());
+        return result;
+    }
+
+    /**
+     * Counters and latencies of one scenario, only touched on the main thread.
+     */
+    private static final class Metrics {
+        int settledSessions;
+        int failedSessions;
+        int timedOutSessions;
+        int keystrokes;
+        int queriesIssued;
+        int queriesCoalesced;
+        int queriesCancelled;
+        final List<Long> firstResultsMillis = new ArrayList<>();
+        final List<Long> settleMillis = new ArrayList<>();
+        final List<Long> firstPageSizes = new ArrayList<>();
+    }
+
+    /**
+     * One replayed session: the search field, the scheduler and the loader of a fresh activity.
+     * Everything but the loads runs on the main thread.
+     */
+    private final class Session implements QueryScheduler.Listener {
+        private final KeystrokeTrace mTrace;
+        private final String mBaseUrl;
+        private final ScheduledExecutorService mMainThread;
+        private final ExecutorService mLoaderThreads;
+        private final Metrics mMetrics;
+        private final QueryScheduler mScheduler;
+        private final CountDownLatch mSettled = new CountDownLatch(1);
+
+        /**
+         * When each text was last typed, in nanoseconds
+         */
+        private final Map<String, Long> mTypedAt = new HashMap<>();
+        private long mLastKeystrokeAt;
+
+        /**
+         * The load in flight, as the loader manager knows it
+         */
+        private int mLoadId;
+        private QueryCancellation mCancellation;
+        private boolean mFirstResultsShown;
+
+        /**
+         * Query whose complete results are on screen
+         */
+        private String mShownQuery;
+
+        Session(KeystrokeTrace trace, String baseUrl, ScheduledExecutorService mainThread,
+                ExecutorService loaderThreads, Metrics metrics) {
+            mTrace = trace;
+            mBaseUrl = baseUrl;
+            mMainThread = mainThread;
+            mLoaderThreads = loaderThreads;
+            mMetrics = metrics;
+            mScheduler = new QueryScheduler(QueryScheduler.DEFAULT_QUIET_PERIOD_MILLIS, new QueryScheduler.Timer() {
+                private final Map<Runnable, ScheduledFuture<?>> mPending = new HashMap<>();
+
+                @Override
+                public void postDelayed(final Runnable task, long delayMillis) {
+                    mPending.put(task, mMainThread.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            mPending.remove(task);
+                            task.run();
+                        }
+                    }, delayMillis, TimeUnit.MILLISECONDS));
+                }
+
+                @Override
+                public void removeCallbacks(Runnable task) {
+                    ScheduledFuture<?> pending = mPending.remove(task);
+                    if (pending != null) {
+                        pending.cancel(false);
+                    }
+                }
+            }, this);
+        }
+
+        /**
+         * Type the session at its recorded pace and wait until its final query has settled.
+         */
+        void replay() throws InterruptedException {
+            for (int i = 0; i < mTrace.texts.length; i++) {
+                final String text = mTrace.texts[i];
+                mMainThread.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        mLastKeystrokeAt = System.nanoTime();
+                        mTypedAt.put(text, mLastKeystrokeAt);
+                        mScheduler.onQueryChanged(text);
+                    }
+                }, mTrace.atMillis[i], TimeUnit.MILLISECONDS);
+            }
+            // The final query may already be on screen, in which case the scheduler drops it.
+            mMainThread.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (mTrace.finalText().equals(mShownQuery) && mCancellation == null) {
+                        settle(mLastKeystrokeAt, true);
+                    }
+                }
+            }, mTrace.durationMillis() + QueryScheduler.DEFAULT_QUIET_PERIOD_MILLIS + 1, TimeUnit.MILLISECONDS);
+
+            boolean settled = mSettled.await(mTrace.durationMillis() + SETTLE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            final CountDownLatch counted = new CountDownLatch(1);
+            final boolean timedOut = !settled;
+            mMainThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mScheduler.cancelPending();
+                    if (mCancellation != null) {
+                        mCancellation.cancel();
+                        mCancellation = null;
+                    }
+                    mLoadId++;
+                    if (timedOut) {
+                        mMetrics.timedOutSessions++;
+                    }
+                    QueryScheduler.Stats stats = mScheduler.getStats();
+                    mMetrics.keystrokes += stats.keystrokes;
+                    mMetrics.queriesIssued += stats.issued;
+                    mMetrics.queriesCoalesced += stats.coalesced;
+                    mMetrics.queriesCancelled += stats.cancelled;
+                    counted.countDown();
+                }
+            });
+            counted.await();
+        }
+
+        @Override
+        public void onQueryIssued(final String query) {
+            // restartLoader: the load in flight is cancelled and its results never delivered.
+            if (mCancellation != null) {
+                mCancellation.cancel();
+            }
+            final QueryCancellation cancellation = new QueryCancellation();
+            final int loadId = ++mLoadId;
+            mCancellation = cancellation;
+            mFirstResultsShown = false;
+            // Planned when the query is issued, as the app does
+            final NetworkQualityEstimator.RequestPlan plan = NetworkQualityEstimator.get().plan();
+            mMetrics.firstPageSizes.add((long) plan.getFirstPageSize());
+            mLoaderThreads.execute(new Runnable() {
+                @Override
+                public void run() {
+                    List<Booklisting> books;
+                    if (mFederated) {
+                        books = new FederatedSearch().search(query, new FederatedSearch.UrlBuilder() {
+                            @Override
+                            public String buildUrl(String scopedQuery) {
+                                return requestUrl(scopedQuery, plan);
+                            }
+                        }, cancellation, QueryTrace.DISABLED, new FederatedSearch.Listener() {
+                            @Override
+                            public void onResults(FederatedSearch.MergedResults results) {
+                                post(loadId, query, results, false);
+                            }
+                        });
+                    } else {
+                        books = QueryUtils.fetchBooklistingData(requestUrl(query, plan), cancellation, QueryTrace.DISABLED);
+                    }
+                    if (!cancellation.isCanceled()) {
+                        post(loadId, query, books, true);
+                    }
+                }
+            });
+        }
+
+        private void post(final int loadId, final String query, final List<Booklisting> books,
+                          final boolean complete) {
+            mMainThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    onLoadFinished(loadId, query, books, complete);
+                }
+            });
+        }
+
+        private void onLoadFinished(int loadId, String query, List<Booklisting> books, boolean complete) {
+            if (loadId != mLoadId) {
+                // Superseded by a newer query
+                return;
+            }
+            long now = System.nanoTime();
+            Long typedAt = mTypedAt.get(query);
+            if (!mFirstResultsShown && typedAt != null) {
+                mFirstResultsShown = true;
+                mMetrics.firstResultsMillis.add(TimeUnit.NANOSECONDS.toMillis(now - typedAt));
+            }
+            if (!complete) {
+                return;
+            }
+            mCancellation = null;
+            mScheduler.onQueryFinished(query);
+            if (books == null) {
+                mScheduler.invalidate();
+            }
+            mShownQuery = query;
+            if (query.equals(mTrace.finalText())) {
+                settle(now, books != null);
+            }
+        }
+
+        private void settle(long settledAt, boolean succeeded) {
+            if (mSettled.getCount() == 0) {
+                return;
+            }
+            if (succeeded) {
+                mMetrics.settledSessions++;
+                mMetrics.settleMillis.add(TimeUnit.NANOSECONDS.toMillis(Math.max(0, settledAt - mLastKeystrokeAt)));
+            } else {
+                mMetrics.failedSessions++;
+            }
+            mSettled.countDown();
+        }
+
+        /**
+         * Returns the URL of the first page of results for the query, built like the app's.
+         */
+        private String requestUrl(String query, NetworkQualityEstimator.RequestPlan plan) {
+            return mBaseUrl + "?orderBy=newest"
+                    + "&fields=" + (plan.isLean() ? LEAN_FIELDS : FIELDS)
+                    + "&startIndex=0"
+                    + "&maxResults=" + plan.getFirstPageSize()
+                    + "&q=" + encode(query);
+        }
+    }
+
+    /**
+     * Returns the count, mean, p50, p90, p99 and maximum of the given latencies. Percentiles
+     * are exact, by nearest rank, so that small changes between builds show.
+     */
+    private static JsonObject percentiles(List<Long> millis) {
+        List<Long> sorted = new ArrayList<>(millis);
+        Collections.sort(sorted);
+        JsonObject json = new JsonObject();
+        json.addProperty("count", sorted.size());
+        long total = 0;
+        for (long value : sorted) {
+            total += value;
+        }
+        json.addProperty("mean", sorted.isEmpty() ? 0 : total / sorted.size());
+        json.addProperty("p50", percentile(sorted, 50));
+        json.addProperty("p90", percentile(sorted, 90));
+        json.addProperty("p99", percentile(sorted, 99));
+        json.addProperty("max", sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1));
+        return json;
+    }
+
+    private static long percentile(List<Long> sorted, double percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    /**
+     * Print how the metrics of every scenario in the current report changed from the baseline.
+     */
+    private static void compare(JsonObject baseline, JsonObject current) {
+        Map<String, JsonObject> baselineScenarios = new HashMap<>();
+        for (JsonElement scenario : baseline.getAsJsonArray("scenarios")) {
+            baselineScenarios.put(scenarioKey(scenario.getAsJsonObject()), scenario.getAsJsonObject());
+        }
+        System.out.println();
+        System.out.println("Compared with the baseline:");
+        for (JsonElement element : current.getAsJsonArray("scenarios")) {
+            JsonObject scenario = element.getAsJsonObject();
+            JsonObject old = baselineScenarios.get(scenarioKey(scenario));
+            if (old == null) {
+                System.out.println(scenarioKey(scenario) + ": not in the baseline");
+                continue;
+            }
+            System.out.println(scenarioKey(scenario) + ":");
+            for (String latency : new String[]{"keystrokeToFirstResultsMillis", "settleMillis"}) {
+                for (String statistic : new String[]{"p50", "p90", "p99"}) {
+                    printChange(latency + "." + statistic,
+                            old.getAsJsonObject(latency).get(statistic).getAsLong(),
+                            scenario.getAsJsonObject(latency).get(statistic).getAsLong());
+                }
+            }
+            for (String counter : new String[]{"queriesIssued", "requests", "bytesTransferred",
+                    "failedSessions", "timedOutSessions"}) {
+                printChange(counter, old.get(counter).getAsLong(), scenario.get(counter).getAsLong());
+            }
+        }
+    }
+
+    private static String scenarioKey(JsonObject scenario) {
+        return scenario.get("name").getAsString() + (scenario.get("federated").getAsBoolean() ? "" : " (plain)");
+    }
+
+    private static void printChange(String metric, long old, long current) {
+        String change = old == 0 ? (current == 0 ? "" : " (new)")
+                : String.format(Locale.US, " (%+.1f%%)", (current - old) * 100.0 / old);
+        System.out.println(String.format(Locale.US, "  %-36s %10d -> %10d%s", metric, old, current, change));
+    }
+
+    private static JsonObject readReport(File file) throws IOException {
+        InputStreamReader reader = new InputStreamReader(new FileInputStream(file), UTF_8);
+        try {
+            return new JsonParser().parse(reader).getAsJsonObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.android.booklistingapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+/**
+ * {@link HttpTransport} that sizes the timeouts of each request to the network, and feeds what
+ * it observes back into a {@link NetworkQualityEstimator}.
+ * <p>
+ * Requests that still have the default timeouts get those of the estimator. Timeouts a caller
+ * set, such as those {@link ResilientTransport} cuts to what is left of its budget, are only
+ * ever lowered to them. The time to the headers of every attempt is recorded as a round trip, and
+ * bodies read to the end are recorded as transfers. A transfer takes only the time spent inside
+ * the reads of the body: the decoder reads it as it parses, and the time it spends parsing
+ * between reads says nothing about the network. An attempt that times out is recorded with
+ * the time it waited, so the next timeouts grow.
+ */
+public class AdaptiveTransport implements HttpTransport {
+
+    private final HttpTransport mDelegate;
+    private final NetworkQualityEstimator mEstimator;
+
+    public AdaptiveTransport(HttpTransport delegate, NetworkQualityEstimator estimator) {
+        mDelegate = delegate;
+        mEstimator = estimator;
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        request.connectTimeoutMillis = timeoutMillis(request.connectTimeoutMillis,
+                Request.DEFAULT_CONNECT_TIMEOUT_MILLIS, mEstimator.connectTimeoutMillis());
+        request.readTimeoutMillis = timeoutMillis(request.readTimeoutMillis,
+                Request.DEFAULT_READ_TIMEOUT_MILLIS, mEstimator.readTimeoutMillis());
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = mDelegate.execute(request);
+        } catch (SocketTimeoutException e) {
+            mEstimator.onRoundTrip(elapsedMillis(start));
+            throw e;
+        }
+        mEstimator.onRoundTrip(elapsedMillis(start));
+        return new MeasuredResponse(response);
+    }
+
+    private static int timeoutMillis(int requested, int defaultMillis, int estimated) {
+        return requested == defaultMillis ? estimated : Math.min(requested, estimated);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000000;
+    }
+
+    /**
+     * Passes the response through, measuring its body as it is read.
+     */
+    private final class MeasuredResponse implements Response {
+        private final Response mResponse;
+
+        MeasuredResponse(Response response) {
+            mResponse = response;
+        }
+
+        @Override
+        public int getCode() {
+            return mResponse.getCode();
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mResponse.getHeader(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            return new MeasuredInputStream(mResponse.getBody());
+        }
+
+        @Override
+        public void close() {
+            mResponse.close();
+        }
+    }
+
+    /**
+     * Counts the bytes of a body and the time spent reading them, and records the transfer once
+     * the end is reached. A body that is abandoned halfway, for example because the request was
+     * cancelled, is not recorded.
+     */
+    private final class MeasuredInputStream extends FilterInputStream {
+        private long mByteCount;
+        private long mReadNanos;
+        private boolean mRecorded;
+
+        MeasuredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            mReadNanos += System.nanoTime() - start;
+            if (b != -1) {
+                mByteCount++;
+            } else {
+                onEnd();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = System.nanoTime();
+            int count = super.read(buffer, offset, length);
+            mReadNanos += System.nanoTime() - start;
+            if (count > 0) {
+                mByteCount += count;
+            } else if (count == -1) {
+                onEnd();
+            }
+            return count;
+        }
+
+        private void onEnd() {
+            if (!mRecorded) {
+                mRecorded = true;
+                mEstimator.onTransfer(mByteCount, mReadNanos / 1000000);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.android.booklistingapp;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link Booklisting} field as filled from the Google Books volume resource.
+ * <p>
+ * The annotated fields are all that is requested from the API (through the {@code fields=}
+ * projection) and all that the decoder reads, see {@link BooklistingSchema}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ApiField {
+
+    /**
+     * Path of the value within an element of the "items" array, with segments separated by
+     * '/', for example {@code "volumeInfo/title"}. An array of strings is joined with ", ".
+     */
+    String value();
+
+    /**
+     * Value used when the field is missing, and for array elements that are not strings.
+     */
+    String defaultValue() default "";
+
+    /**
+     * Whether a volume without this field is left out of the results.
+     */
+    boolean required() default false;
+
+    /**
+     * Whether the field is left out of requests made over slow networks, see
+     * {@link BooklistingSchema#getLeanProjection()}. Such a volume is decoded with the default
+     * value. A required field cannot be deferrable.
+     */
+    boolean deferrable() default false;
+}
@@ -0,0 +1,105 @@
+package com.example.android.booklistingapp;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded pool of author names, so a name that appears in many results, pages and cached
+ * responses is held by a single String instance. Whole author lists are pooled the same way, so
+ * every book by the same authors shares one array.
+ * <p>
+ * The pool keeps the most recently used names; once it is full, the least recently used name is
+ * forgotten. Forgetting a name never affects books holding it, it only means the next occurrence
+ * is stored as a new instance.
+ */
+public final class AuthorPool {
+
+    public static final int DEFAULT_MAX_NAMES = 2048;
+
+    private static final AuthorPool sShared = new AuthorPool(DEFAULT_MAX_NAMES);
+
+    private final LinkedHashMap<String, String> mNames;
+    private final LinkedHashMap<AuthorList, String[]> mLists;
+
+    /**
+     * Returns the pool used by the decoder.
+     */
+    public static AuthorPool shared() {
+        return sShared;
+    }
+
+    public AuthorPool(final int maxNames) {
+        mNames = new LinkedHashMap<String, String>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                return size() > maxNames;
+            }
+        };
+        mLists = new LinkedHashMap<AuthorList, String[]>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AuthorList, String[]> eldest) {
+                return size() > maxNames;
+            }
+        };
+    }
+
+    /**
+     * Returns the pooled instance equal to the given name, adding it if it is not pooled yet.
+     */
+    public synchronized String intern(String name) {
+        String pooled = mNames.get(name);
+        if (pooled == null) {
+            mNames.put(name, name);
+            pooled = name;
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns the pooled array equal to the given author list, interning each name and adding
+     * the list if it is not pooled yet. The returned array is shared and must not be modified.
+     */
+    public synchronized String[] intern(String[] names) {
+        AuthorList key = new AuthorList(names);
+        String[] pooled = mLists.get(key);
+        if (pooled == null) {
+            for (int i = 0; i < names.length; i++) {
+                names[i] = intern(names[i]);
+            }
+            mLists.put(key, names);
+            pooled = names;
+        }
+        return pooled;
+    }
+
+    /**
+     * Returns the number of pooled names.
+     */
+    public synchronized int size() {
+        return mNames.size();
+    }
+
+    /**
+     * Map key comparing author lists by content.
+     */
+    private static final class AuthorList {
+        private final String[] mNames;
+        private final int mHash;
+
+        AuthorList(String[] names) {
+            mNames = names;
+            mHash = Arrays.hashCode(names);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof AuthorList && Arrays.equals(mNames, ((AuthorList) other).mNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHash;
+        }
+    }
+}
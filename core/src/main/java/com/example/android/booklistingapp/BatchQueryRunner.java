@@ -0,0 +1,307 @@
+package com.example.android.booklistingapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many Google Books requests through {@link QueryUtils}, for bulk work such as warming the
+ * response cache from a list of queries.
+ * <p>
+ * Requests run on a fixed number of threads and only a bounded number are queued, so a list of
+ * any length can be streamed in. Every host is subject to a {@link HostRateLimiter}. Each result
+ * is handed to the {@link Sink} as soon as it completes, and {@link #run(Iterable, Sink)} returns
+ * a {@link Report} with the throughput and latency percentiles of the batch.
+ */
+public class BatchQueryRunner {
+
+    private static final String LOG_TAG = BatchQueryRunner.class.getSimpleName();
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final double DEFAULT_REQUESTS_PER_SECOND_PER_HOST = 5;
+    public static final int DEFAULT_BURST = 5;
+
+    /**
+     * Receives each result as its request completes. Calls are never concurrent, so a sink does
+     * not need to be thread-safe.
+     */
+    public interface Sink {
+        void onResult(Result result);
+    }
+
+    private final int mThreads;
+    private final HostRateLimiter mRateLimiter;
+
+    public BatchQueryRunner() {
+        this(DEFAULT_THREADS, new HostRateLimiter(DEFAULT_REQUESTS_PER_SECOND_PER_HOST, DEFAULT_BURST));
+    }
+
+    /**
+     * Constructs a new {@link BatchQueryRunner}.
+     *
+     * @param threads     is the number of requests in flight at once
+     * @param rateLimiter is applied to every request before it is sent
+     */
+    public BatchQueryRunner(int threads, HostRateLimiter rateLimiter) {
+        mThreads = Math.max(1, threads);
+        mRateLimiter = rateLimiter;
+    }
+
+    /**
+     * Run every request and block until all of them have completed.
+     *
+     * @param requestUrls are the Google Books request URLs; they are read as they are needed
+     * @param sink        receives each result as it completes
+     * @return the throughput and latencies of the batch
+     * @throws InterruptedException if the calling thread is interrupted; requests in flight are
+     *                              cancelled and no further requests are started
+     */
+    public Report run(Iterable<String> requestUrls, final Sink sink) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, LOG_TAG + "-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Keep the queue short, so a long list does not turn into a long queue of tasks.
+        final Semaphore queued = new Semaphore(mThreads * 2);
+        final Set<QueryCancellation> inFlight = Collections.synchronizedSet(new HashSet<QueryCancellation>());
+        final Report report = new Report();
+
+        long startedAt = System.nanoTime();
+        try {
+            for (final String requestUrl : requestUrls) {
+                queued.acquire();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            Result result = runRequest(requestUrl, inFlight);
+                            synchronized (sink) {
+                                report.add(result);
+                                sink.onResult(result);
+                            }
+                        } finally {
+                            queued.release();
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            synchronized (inFlight) {
+                for (QueryCancellation cancellation : inFlight) {
+                    cancellation.cancel();
+                }
+            }
+            throw e;
+        }
+        report.mElapsedNanos = System.nanoTime() - startedAt;
+        return report;
+    }
+
+    private Result runRequest(String requestUrl, Set<QueryCancellation> inFlight) {
+        String host;
+        try {
+            host = new URL(requestUrl).getHost();
+        } catch (MalformedURLException e) {
+            CoreLog.e(LOG_TAG, "Skipping malformed URL " + requestUrl, e);
+            return new Result(requestUrl, null, 0);
+        }
+        try {
+            mRateLimiter.acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(requestUrl, null, 0);
+        }
+
+        QueryCancellation cancellation = new QueryCancellation();
+        QueryTrace trace = QueryTracer.get().start(requestUrl);
+        inFlight.add(cancellation);
+        long startedAt = System.nanoTime();
+        try {
+            List<Booklisting> booklistings = QueryUtils.fetchBooklistingData(requestUrl, cancellation, trace);
+            return new Result(requestUrl, booklistings, System.nanoTime() - startedAt);
+        } finally {
+            inFlight.remove(cancellation);
+            trace.finish();
+        }
+    }
+
+    /**
+     * The outcome of one request.
+     */
+    public static final class Result {
+        private final String mRequestUrl;
+        private final List<Booklisting> mBooklistings;
+        private final long mLatencyNanos;
+
+        Result(String requestUrl, List<Booklisting> booklistings, long latencyNanos) {
+            mRequestUrl = requestUrl;
+            mBooklistings = booklistings;
+            mLatencyNanos = latencyNanos;
+        }
+
+        public String getmRequestUrl() {
+            return mRequestUrl;
+        }
+
+        /**
+         * Returns the books found, or null if the request failed or the response had no results.
+         */
+        public List<Booklisting> getmBooklistings() {
+            return mBooklistings;
+        }
+
+        /**
+         * Returns the time spent on the request, not counting the wait for the rate limit.
+         */
+        public long getmLatencyNanos() {
+            return mLatencyNanos;
+        }
+    }
+
+    /**
+     * Throughput and latency of a batch.
+     */
+    public static final class Report {
+        private long[] mLatencies = new long[64];
+        private int mCount;
+        private int mWithResults;
+        private long mElapsedNanos;
+        private boolean mSorted;
+
+        synchronized void add(Result result) {
+            if (mCount == mLatencies.length) {
+                mLatencies = Arrays.copyOf(mLatencies, mCount * 2);
+            }
+            mLatencies[mCount++] = result.getmLatencyNanos();
+            if (result.getmBooklistings() != null) {
+                mWithResults++;
+            }
+            mSorted = false;
+        }
+
+        /**
+         * Returns the number of requests run.
+         */
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * Returns the number of requests that returned books.
+         */
+        public int getWithResults() {
+            return mWithResults;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        /**
+         * Returns the requests completed per second of wall-clock time.
+         */
+        public double getQueriesPerSecond() {
+            return mElapsedNanos > 0 ? mCount * (double) TimeUnit.SECONDS.toNanos(1) / mElapsedNanos : 0;
+        }
+
+        /**
+         * Returns the latency below which the given percentage of the requests completed, using
+         * the nearest-rank method, or 0 if there were no requests.
+         *
+         * @param percentile is between 0 and 100
+         */
+        public synchronized double getLatencyMillis(double percentile) {
+            if (mCount == 0) {
+                return 0;
+            }
+            if (!mSorted) {
+                Arrays.sort(mLatencies, 0, mCount);
+                mSorted = true;
+            }
+            int rank = (int) Math.ceil(percentile / 100 * mCount);
+            int index = Math.min(mCount - 1, Math.max(0, rank - 1));
+            return mLatencies[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d requests (%d with results) in %.1f s, %.1f requests/s, "
+                            + "latency p50 %.1f ms, p90 %.1f ms, p99 %.1f ms, max %.1f ms",
+                    mCount, mWithResults, mElapsedNanos / (double) TimeUnit.SECONDS.toNanos(1),
+                    getQueriesPerSecond(), getLatencyMillis(50), getLatencyMillis(90),
+                    getLatencyMillis(99), getLatencyMillis(100));
+        }
+    }
+
+    /**
+     * Run the requests listed in a file, one URL per line, and print one line per result
+     * followed by the report. Blank lines and lines starting with '#' are skipped.
+     * <p>
+     * Usage: {@code BatchQueryRunner <file of request URLs> [cache directory]}. With a cache
+     * directory, the responses are stored in a {@link BooklistingCache} there, which is how a
+     * catalog cache is warmed.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: BatchQueryRunner <file of request URLs> [cache directory]");
+            System.exit(2);
+        }
+        if (args.length > 1) {
+            QueryUtils.setCache(new BooklistingCache(new File(args[1])));
+        }
+
+        List<String> requestUrls = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(args[0]), Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    requestUrls.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        Report report = new BatchQueryRunner().run(requestUrls, new Sink() {
+            @Override
+            public void onResult(Result result) {
+                List<Booklisting> booklistings = result.getmBooklistings();
+                System.out.println(String.format(Locale.US, "%.1f ms\t%d\t%s",
+                        result.getmLatencyNanos() / 1e6,
+                        booklistings != null ? booklistings.size() : 0, result.getmRequestUrl()));
+            }
+        });
+        System.err.println(report);
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.android.booklistingapp;
+
+/**
+ * Created by Bianka Matyas on 02/07/2017.
+ */
+
+/**
+ * An {@link Booklisting} object contains information related to a single book.
+ */
+
+public class Booklisting {
+
+    /**
+     * Shown when a book has no authors
+     */
+    static final String UNKNOWN_AUTHOR = "Unknown Author";
+
+    /**
+     * Google Books volume id, empty if unknown
+     */
+    @ApiField("id")
+    private String mId;
+
+    /**
+     * Separator between author names in the display string
+     */
+    static final String AUTHOR_SEPARATOR = ", ";
+
+    /**
+     * Authors of the book. The array is pooled and shared with every other book by the same
+     * authors, see {@link AuthorPool}; the display string is only built when it is asked for.
+     */
+    @ApiField(value = "volumeInfo/authors", defaultValue = UNKNOWN_AUTHOR)
+    private String[] mAuthors;
+
+    /**
+     * Title of the book
+     */
+    @ApiField(value = "volumeInfo/title", required = true)
+    private String mTitle;
+
+    /**
+     * Address of the cover thumbnail, empty if the volume has none. Slow networks skip it, as
+     * the cover would cost a second download anyway.
+     */
+    @ApiField(value = "volumeInfo/imageLinks/thumbnail", deferrable = true)
+    private String mThumbnailUrl;
+
+    /**
+     * Used by {@link BooklistingSchema} to create books from decoded responses.
+     */
+    private Booklisting() {
+    }
+
+    /**
+     * Constructs a new {@link Booklisting} object.
+     *
+     * @param author is the author of the book
+     * @param title  of the book
+     */
+    public Booklisting(String author, String title) {
+        this("", author, title);
+    }
+
+    /**
+     * Constructs a new {@link Booklisting} object.
+     *
+     * @param id     is the Google Books volume id
+     * @param author is the author of the book
+     * @param title  of the book
+     */
+    public Booklisting(String id, String author, String title) {
+        this(id, AuthorPool.shared().intern(new String[]{author}), title);
+    }
+
+    /**
+     * Constructs a new {@link Booklisting} object.
+     *
+     * @param id      is the Google Books volume id
+     * @param authors are the authors of the book
+     * @param title   of the book
+     */
+    public Booklisting(String id, String[] authors, String title) {
+        this(id, authors, title, "");
+    }
+
+    /**
+     * Constructs a new {@link Booklisting} object.
+     *
+     * @param id           is the Google Books volume id
+     * @param authors      are the authors of the book
+     * @param title        of the book
+     * @param thumbnailUrl is the address of the cover thumbnail, or an empty string
+     */
+    public Booklisting(String id, String[] authors, String title, String thumbnailUrl) {
+        mId = id;
+        mAuthors = authors;
+        mTitle = title;
+        mThumbnailUrl = thumbnailUrl;
+    }
+
+    /**
+     * Returns the Google Books volume id, or an empty string if it is not known.
+     */
+    public String getmId() {
+        return mId;
+    }
+
+    /**
+     * Returns the authors of the book joined for display. The string is built on every call,
+     * so it should only be asked for when it is shown.
+     */
+    public String getmAuthor() {
+        if (mAuthors.length == 1) {
+            return mAuthors[0];
+        }
+        StringBuilder author = new StringBuilder();
+        for (int i = 0; i < mAuthors.length; i++) {
+            if (i > 0) {
+                author.append(AUTHOR_SEPARATOR);
+            }
+            author.append(mAuthors[i]);
+        }
+        return author.toString();
+    }
+
+    /**
+     * Returns the authors of the book. The array must not be modified.
+     */
+    public String[] getmAuthors() {
+        return mAuthors;
+    }
+
+
+    /**
+     * Returns the title of the book.
+     */
+    public String getmTitle() {
+        return mTitle;
+    }
+
+    /**
+     * Returns the address of the cover thumbnail, or an empty string if there is none.
+     */
+    public String getmThumbnailUrl() {
+        return mThumbnailUrl;
+    }
+}
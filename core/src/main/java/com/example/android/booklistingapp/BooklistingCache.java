@@ -0,0 +1,526 @@
+package com.example.android.booklistingapp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Two-tier cache for Google Books responses, keyed by the normalized request URL.
+ * <p>
+ * The memory tier is a bounded LRU of parsed {@link Booklisting} lists. The disk tier keeps the
+ * raw response bodies together with their ETag and Last-Modified validators, capped at a total
+ * size. Entries are fresh for a fixed time to live; after that, a disk entry is revalidated with
+ * a conditional GET so an unchanged response costs no payload transfer.
+ */
+public final class BooklistingCache {
+
+    private static final String LOG_TAG = BooklistingCache.class.getSimpleName();
+
+    /**
+     * Default time an entry is served without asking the server.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_MEMORY_ENTRIES = 20;
+    public static final long DEFAULT_MAX_DISK_BYTES = 2 * 1024 * 1024;
+
+    private static final int META_VERSION = 1;
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Temporary bodies this old were left behind by a process that died while writing them.
+     */
+    private static final long STALE_TEMP_MILLIS = 10 * 60 * 1000;
+
+    private final LinkedHashMap<String, MemoryEntry> mMemory;
+    private final int mMaxMemoryEntries;
+    private final File mDirectory;
+    private final long mMaxDiskBytes;
+    private final long mTtlMillis;
+
+    private int mMemoryHits;
+    private int mDiskHits;
+    private int mRevalidatedHits;
+    private int mStaleHits;
+    private int mMisses;
+    private int mMemoryEvictions;
+    private int mDiskEvictions;
+    private long mBytesDownloaded;
+
+    /**
+     * Constructs a new {@link BooklistingCache} with the default limits.
+     *
+     * @param directory where the raw responses are stored, usually under the app cache dir
+     */
+    public BooklistingCache(File directory) {
+        this(directory, DEFAULT_MAX_MEMORY_ENTRIES, DEFAULT_MAX_DISK_BYTES, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Constructs a new {@link BooklistingCache}.
+     *
+     * @param directory        where the raw responses are stored
+     * @param maxMemoryEntries is the number of parsed result lists kept in memory
+     * @param maxDiskBytes     is the size cap of the disk tier
+     * @param ttlMillis        is how long an entry is served without revalidation
+     */
+    public BooklistingCache(File directory, int maxMemoryEntries, long maxDiskBytes, long ttlMillis) {
+        mDirectory = directory;
+        mMaxMemoryEntries = maxMemoryEntries;
+        mMaxDiskBytes = maxDiskBytes;
+        mTtlMillis = ttlMillis;
+        mMemory = new LinkedHashMap<>(16, 0.75f, true);
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            CoreLog.e(LOG_TAG, "Could not create cache directory " + mDirectory);
+        }
+    }
+
+    /**
+     * Returns the cache key for the given request URL: scheme and host lowercased, query
+     * parameters sorted, and the search terms trimmed, lowercased and single-spaced, so that
+     * retyping the same query hits the same entry.
+     */
+    public static String normalizeUrl(String requestUrl) {
+        int queryStart = requestUrl.indexOf('?');
+        String base = queryStart < 0 ? requestUrl : requestUrl.substring(0, queryStart);
+        int hostEnd = base.indexOf('/', base.indexOf("://") + 3);
+        if (hostEnd < 0) {
+            base = base.toLowerCase(Locale.US);
+        } else {
+            base = base.substring(0, hostEnd).toLowerCase(Locale.US) + base.substring(hostEnd);
+        }
+        if (queryStart < 0) {
+            return base;
+        }
+
+        List<String> params = new ArrayList<>();
+        for (String param : requestUrl.substring(queryStart + 1).split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int equals = param.indexOf('=');
+            String name = equals < 0 ? param : param.substring(0, equals);
+            String value = equals < 0 ? "" : param.substring(equals + 1);
+            if ("q".equals(name)) {
+                value = encode(decode(value).trim().replaceAll("\\s+", " ").toLowerCase(Locale.US));
+            }
+            params.add(name + "=" + value);
+        }
+        Collections.sort(params);
+
+        StringBuilder key = new StringBuilder(base).append('?');
+        for (int i = 0; i < params.size(); i++) {
+            if (i > 0) {
+                key.append('&');
+            }
+            key.append(params.get(i));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached result list for the key if it is still fresh, looking in memory first
+     * and then on disk, or null on a miss.
+     */
+    public List<Booklisting> getFresh(String key) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            MemoryEntry memoryEntry = mMemory.get(key);
+            if (memoryEntry != null && now - memoryEntry.storedAt < mTtlMillis) {
+                mMemoryHits++;
+                return memoryEntry.booklistings;
+            }
+        }
+
+        DiskEntry diskEntry = getDiskEntry(key);
+        if (diskEntry != null && now - diskEntry.storedAt < mTtlMillis) {
+            List<Booklisting> booklistings = readBody(key);
+            if (booklistings != null) {
+                synchronized (this) {
+                    mDiskHits++;
+                }
+                putMemory(key, booklistings, diskEntry.storedAt);
+                return booklistings;
+            }
+        }
+
+        synchronized (this) {
+            mMisses++;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cached result list for the key however old it is, or null if there is none.
+     * Used when the network fails, where an old result beats no result.
+     */
+    public List<Booklisting> getStale(String key) {
+        synchronized (this) {
+            MemoryEntry memoryEntry = mMemory.get(key);
+            if (memoryEntry != null) {
+                mStaleHits++;
+                return memoryEntry.booklistings;
+            }
+        }
+        List<Booklisting> booklistings = getDiskEntry(key) != null ? readBody(key) : null;
+        if (booklistings != null) {
+            synchronized (this) {
+                mStaleHits++;
+            }
+        }
+        return booklistings;
+    }
+
+    /**
+     * Returns the stored validators for the key, whether fresh or expired, or null if there is
+     * no usable disk entry.
+     */
+    public DiskEntry getDiskEntry(String key) {
+        File metaFile = new File(mDirectory, fileName(key) + META_SUFFIX);
+        if (!metaFile.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(metaFile)));
+            if (in.readInt() != META_VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            String etag = in.readUTF();
+            String lastModified = in.readUTF();
+            long storedAt = in.readLong();
+            // Touch the entry so disk eviction is least-recently-used.
+            metaFile.setLastModified(System.currentTimeMillis());
+            return new DiskEntry(etag.isEmpty() ? null : etag,
+                    lastModified.isEmpty() ? null : lastModified, storedAt);
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem reading cache entry " + metaFile, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Called when the server answered a conditional GET with 304 Not Modified. Marks the disk
+     * entry fresh again and returns its decoded results.
+     */
+    public List<Booklisting> onNotModified(String key, DiskEntry entry) {
+        long now = System.currentTimeMillis();
+        List<Booklisting> booklistings = readBody(key);
+        if (booklistings == null) {
+            return null;
+        }
+        writeMeta(key, new DiskEntry(entry.etag, entry.lastModified, now));
+        putMemory(key, booklistings, now);
+        synchronized (this) {
+            mRevalidatedHits++;
+        }
+        return booklistings;
+    }
+
+    /**
+     * Opens a temporary file that a network response body can be copied into while it is being
+     * decoded. Every writer has a file of its own, so two fetches of the same URL at once, such
+     * as a prefetch and the user's own search, never write into each other's body. Returns null
+     * if the disk tier is unavailable.
+     */
+    public BodyWriter openBodyWriter(String key) {
+        try {
+            return new BodyWriter(File.createTempFile(fileName(key), TEMP_SUFFIX, mDirectory));
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem opening cache entry for writing", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a fully read network response: the parsed results go to memory, and the body
+     * written through the given writer, which must be closed, is published on disk with its
+     * validators. Without a writer only the memory tier is updated.
+     */
+    public void put(String key, List<Booklisting> booklistings, String etag, String lastModified,
+                    long bodyBytes, BodyWriter bodyWriter) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            mBytesDownloaded += bodyBytes;
+        }
+        putMemory(key, booklistings, now);
+
+        if (bodyWriter == null) {
+            return;
+        }
+        File temp = bodyWriter.mFile;
+        File body = new File(mDirectory, fileName(key) + BODY_SUFFIX);
+        if (!temp.isFile()) {
+            return;
+        }
+        if (!temp.renameTo(body)) {
+            temp.delete();
+            return;
+        }
+        writeMeta(key, new DiskEntry(etag, lastModified, now));
+        trimDisk();
+    }
+
+    /**
+     * Drops a partially written response body, for example after a parse error or cancellation.
+     * The writer must be closed.
+     */
+    public void abortBody(BodyWriter bodyWriter) {
+        if (bodyWriter != null) {
+            bodyWriter.mFile.delete();
+        }
+    }
+
+    /**
+     * Returns a snapshot of the hit, miss and eviction counters.
+     */
+    public synchronized Stats getStats() {
+        return new Stats(mMemoryHits, mDiskHits, mRevalidatedHits, mStaleHits, mMisses,
+                mMemoryEvictions, mDiskEvictions, mBytesDownloaded);
+    }
+
+    private void putMemory(String key, List<Booklisting> booklistings, long storedAt) {
+        synchronized (this) {
+            mMemory.put(key, new MemoryEntry(Collections.unmodifiableList(booklistings), storedAt));
+            Iterator<Map.Entry<String, MemoryEntry>> eldest = mMemory.entrySet().iterator();
+            while (mMemory.size() > mMaxMemoryEntries && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+                mMemoryEvictions++;
+            }
+        }
+    }
+
+    private List<Booklisting> readBody(String key) {
+        File body = new File(mDirectory, fileName(key) + BODY_SUFFIX);
+        if (!body.isFile()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(body));
+            List<Booklisting> booklistings = BooklistingJsonDecoder.decode(in);
+            return booklistings != null ? booklistings : new ArrayList<Booklisting>();
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem decoding cached response " + body, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeMeta(String key, DiskEntry entry) {
+        File metaFile = new File(mDirectory, fileName(key) + META_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(metaFile));
+            out.writeInt(META_VERSION);
+            out.writeUTF(key);
+            out.writeUTF(entry.etag != null ? entry.etag : "");
+            out.writeUTF(entry.lastModified != null ? entry.lastModified : "");
+            out.writeLong(entry.storedAt);
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem writing cache entry " + metaFile, e);
+            metaFile.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Deletes the least recently used disk entries until the disk tier fits its size cap.
+     */
+    private synchronized void trimDisk() {
+        File[] metaFiles = mDirectory.listFiles();
+        if (metaFiles == null) {
+            return;
+        }
+        long total = 0;
+        long staleTempBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        List<File> entries = new ArrayList<>();
+        for (File file : metaFiles) {
+            if (file.getName().endsWith(TEMP_SUFFIX) && file.lastModified() < staleTempBefore
+                    && file.delete()) {
+                continue;
+            }
+            total += file.length();
+            if (file.getName().endsWith(META_SUFFIX)) {
+                entries.add(file);
+            }
+        }
+        if (total <= mMaxDiskBytes) {
+            return;
+        }
+
+        File[] byAge = entries.toArray(new File[entries.size()]);
+        Arrays.sort(byAge, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long difference = a.lastModified() - b.lastModified();
+                return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+            }
+        });
+        for (File metaFile : byAge) {
+            if (total <= mMaxDiskBytes) {
+                break;
+            }
+            String name = metaFile.getName();
+            File body = new File(mDirectory,
+                    name.substring(0, name.length() - META_SUFFIX.length()) + BODY_SUFFIX);
+            total -= metaFile.length() + body.length();
+            metaFile.delete();
+            body.delete();
+            mDiskEvictions++;
+        }
+    }
+
+    /**
+     * Returns a file-system safe name for the key.
+     */
+    private static String fileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return value;
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static final class MemoryEntry {
+        final List<Booklisting> booklistings;
+        final long storedAt;
+
+        MemoryEntry(List<Booklisting> booklistings, long storedAt) {
+            this.booklistings = booklistings;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * Validators of a response stored on disk.
+     */
+    public static final class DiskEntry {
+        public final String etag;
+        public final String lastModified;
+        public final long storedAt;
+
+        DiskEntry(String etag, String lastModified, long storedAt) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+        }
+    }
+
+    /**
+     * Snapshot of the cache counters.
+     */
+    public static final class Stats {
+        public final int memoryHits;
+        public final int diskHits;
+        public final int revalidatedHits;
+        /**
+         * Expired results served because the network failed.
+         */
+        public final int staleHits;
+        public final int misses;
+        public final int memoryEvictions;
+        public final int diskEvictions;
+        /**
+         * Decompressed body bytes of the full responses stored in the cache.
+         */
+        public final long bytesDownloaded;
+
+        Stats(int memoryHits, int diskHits, int revalidatedHits, int staleHits, int misses,
+              int memoryEvictions, int diskEvictions, long bytesDownloaded) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.revalidatedHits = revalidatedHits;
+            this.staleHits = staleHits;
+            this.misses = misses;
+            this.memoryEvictions = memoryEvictions;
+            this.diskEvictions = diskEvictions;
+            this.bytesDownloaded = bytesDownloaded;
+        }
+
+        @Override
+        public String toString() {
+            return "memoryHits=" + memoryHits + " diskHits=" + diskHits
+                    + " revalidatedHits=" + revalidatedHits + " staleHits=" + staleHits
+                    + " misses=" + misses
+                    + " memoryEvictions=" + memoryEvictions + " diskEvictions=" + diskEvictions
+                    + " bytesDownloaded=" + bytesDownloaded;
+        }
+    }
+
+    /**
+     * Writes a response body into a temporary file of its own, see
+     * {@link #openBodyWriter(String)}.
+     */
+    public static final class BodyWriter extends FilterOutputStream {
+        private final File mFile;
+
+        BodyWriter(File file) throws IOException {
+            super(new FileOutputStream(file));
+            mFile = file;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            // FilterOutputStream would write the bytes one at a time
+            out.write(buffer, offset, length);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.booklistingapp;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming, pull-based decoder for Google Books volume search responses.
+ * <p>
+ * Reads the values described by {@link BooklistingSchema} straight off the response
+ * {@link InputStream} and skips every other subtree without building it, so the response is
+ * never held in memory as a whole.
+ */
+public final class BooklistingJsonDecoder {
+
+    private static final String JSON_KEY_ITEMS = "items";
+
+    /**
+     * Receives each {@link Booklisting} as soon as it has been decoded.
+     */
+    public interface Callback {
+        void onBooklisting(Booklisting booklisting);
+    }
+
+    /**
+     * Create a private constructor because no one should ever create a
+     * {@link BooklistingJsonDecoder} object.
+     */
+    private BooklistingJsonDecoder() {
+    }
+
+    /**
+     * Decode the given response and return the list of {@link Booklisting} objects,
+     * or null if the response has no "items" array.
+     */
+    public static List<Booklisting> decode(InputStream inputStream) throws IOException {
+        final List<Booklisting> booklistings = new ArrayList<>();
+        boolean hasItems = decode(inputStream, new Callback() {
+            @Override
+            public void onBooklisting(Booklisting booklisting) {
+                booklistings.add(booklisting);
+            }
+        });
+        return hasItems ? booklistings : null;
+    }
+
+    /**
+     * Decode the given response and emit each {@link Booklisting} to the callback as it goes.
+     *
+     * @return true if the response contained an "items" array
+     */
+    public static boolean decode(InputStream inputStream, Callback callback) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            return readResponse(reader, BooklistingSchema.get(), callback);
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when the document does not have the expected shape.
+            throw new IOException("Unexpected booklist JSON structure", e);
+        }
+    }
+
+    private static boolean readResponse(JsonReader reader, BooklistingSchema schema, Callback callback)
+            throws IOException {
+        boolean hasItems = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (JSON_KEY_ITEMS.equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                hasItems = true;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    Booklisting booklisting = readItem(reader, schema);
+                    if (booklisting != null) {
+                        callback.onBooklisting(booklisting);
+                    }
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return hasItems;
+    }
+
+    /**
+     * Read a single element of the "items" array. Returns null if a required value is missing.
+     */
+    private static Booklisting readItem(JsonReader reader, BooklistingSchema schema) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            reader.skipValue();
+            return null;
+        }
+        Object[] values = schema.newValues();
+        readObject(reader, schema, schema.getRoot(), values);
+        return schema.create(values);
+    }
+
+    /**
+     * Read the values of the schema node out of the current object, skipping everything else.
+     */
+    private static void readObject(JsonReader reader, BooklistingSchema schema,
+                                   BooklistingSchema.Node node, Object[] values) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            BooklistingSchema.Node child = node.children.get(reader.nextName());
+            JsonToken token = reader.peek();
+            if (child == null || token == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (child.slot >= 0 && schema.isArray(child.slot)) {
+                values[child.slot] = readArray(reader, schema.getDefaultValue(child.slot));
+            } else if (child.slot >= 0) {
+                values[child.slot] = readValue(reader, schema.getDefaultValue(child.slot));
+            } else if (token == JsonToken.BEGIN_OBJECT) {
+                readObject(reader, schema, child, values);
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    /**
+     * Read an array of strings, or a single string, into an array pooled through
+     * {@link AuthorPool}, substituting the default value for elements that are not strings.
+     * Returns null for an empty array or an object.
+     */
+    private static String[] readArray(JsonReader reader, String defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return AuthorPool.shared().intern(new String[]{reader.nextString()});
+        }
+        if (token != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+
+        // Almost every book has a handful of authors; grow in the rare case it has more.
+        String[] names = new String[4];
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String name;
+            JsonToken elementToken = reader.peek();
+            if (elementToken == JsonToken.STRING || elementToken == JsonToken.NUMBER) {
+                name = reader.nextString();
+            } else {
+                reader.skipValue();
+                name = defaultValue;
+            }
+            if (count == names.length) {
+                names = Arrays.copyOf(names, count * 2);
+            }
+            names[count++] = name;
+        }
+        reader.endArray();
+        return count == 0 ? null : AuthorPool.shared().intern(Arrays.copyOf(names, count));
+    }
+
+    /**
+     * Read a scalar as a string, or join an array of strings with {@link Booklisting#AUTHOR_SEPARATOR},
+     * substituting the default value for elements that are not strings. Returns null for an
+     * empty array or an object.
+     */
+    private static String readValue(JsonReader reader, String defaultValue) throws IOException {
+        JsonToken token = reader.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return reader.nextString();
+        }
+        if (token == JsonToken.BOOLEAN) {
+            return String.valueOf(reader.nextBoolean());
+        }
+        if (token != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+
+        StringBuilder joined = null;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String element;
+            JsonToken elementToken = reader.peek();
+            if (elementToken == JsonToken.STRING || elementToken == JsonToken.NUMBER) {
+                element = reader.nextString();
+            } else {
+                reader.skipValue();
+                element = defaultValue;
+            }
+            if (joined == null) {
+                joined = new StringBuilder(element);
+            } else {
+                joined.append(Booklisting.AUTHOR_SEPARATOR).append(element);
+            }
+        }
+        reader.endArray();
+        return joined != null ? joined.toString() : null;
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.android.booklistingapp;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The part of a Google Books volume that {@link Booklisting} actually uses, derived from its
+ * {@link ApiField} annotations.
+ * <p>
+ * The same schema produces the partial-response projection sent with each request and tells
+ * {@link BooklistingJsonDecoder} which values to read, so adding an annotated field to the model
+ * is enough to have it requested and decoded.
+ */
+public final class BooklistingSchema {
+
+    private static BooklistingSchema sInstance;
+
+    /**
+     * Fields of {@link Booklisting}, in the order of their slots in {@link #newValues()}
+     */
+    private final Field[] mFields;
+    private final ApiField[] mAnnotations;
+    private final Constructor<Booklisting> mConstructor;
+    private final Node mRoot;
+    private final String mProjection;
+    private final String mLeanProjection;
+
+    /**
+     * Returns the schema of {@link Booklisting}, built on first use.
+     */
+    public static synchronized BooklistingSchema get() {
+        if (sInstance == null) {
+            sInstance = new BooklistingSchema();
+        }
+        return sInstance;
+    }
+
+    private BooklistingSchema() {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : Booklisting.class.getDeclaredFields()) {
+            if (field.isAnnotationPresent(ApiField.class) && !Modifier.isStatic(field.getModifiers())) {
+                fields.add(field);
+            }
+        }
+        // getDeclaredFields() has no defined order; sort so the projection is stable.
+        Collections.sort(fields, new Comparator<Field>() {
+            @Override
+            public int compare(Field a, Field b) {
+                return a.getAnnotation(ApiField.class).value().compareTo(b.getAnnotation(ApiField.class).value());
+            }
+        });
+
+        mFields = fields.toArray(new Field[fields.size()]);
+        mAnnotations = new ApiField[mFields.length];
+        mRoot = new Node();
+        for (int i = 0; i < mFields.length; i++) {
+            mFields[i].setAccessible(true);
+            mAnnotations[i] = mFields[i].getAnnotation(ApiField.class);
+            if (mAnnotations[i].required() && mAnnotations[i].deferrable()) {
+                throw new IllegalStateException(mFields[i].getName() + " cannot be both required and deferrable");
+            }
+            Node node = mRoot;
+            for (String segment : mAnnotations[i].value().split("/")) {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+            node.slot = i;
+        }
+
+        try {
+            mConstructor = Booklisting.class.getDeclaredConstructor();
+            mConstructor.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Booklisting needs a no-argument constructor", e);
+        }
+
+        mProjection = buildProjection(false);
+        mLeanProjection = buildProjection(true);
+    }
+
+    /**
+     * Returns the value of the {@code fields=} request parameter, for example
+     * {@code items(id,volumeInfo(authors,title))}.
+     */
+    public String getProjection() {
+        return mProjection;
+    }
+
+    /**
+     * Returns the value of the {@code fields=} request parameter without the
+     * {@link ApiField#deferrable() deferrable} fields, for requests over slow networks.
+     */
+    public String getLeanProjection() {
+        return mLeanProjection;
+    }
+
+    /**
+     * Returns the root of the tree of paths, matching one element of the "items" array.
+     */
+    Node getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * Returns an empty array with one slot per annotated field.
+     */
+    Object[] newValues() {
+        return new Object[mFields.length];
+    }
+
+    /**
+     * Returns true if the field in the given slot is a {@code String[]}, which is pooled
+     * through {@link AuthorPool}; otherwise it is a String.
+     */
+    boolean isArray(int slot) {
+        return mFields[slot].getType() == String[].class;
+    }
+
+    /**
+     * Returns the value used for array elements that are not strings in the given slot.
+     */
+    String getDefaultValue(int slot) {
+        return mAnnotations[slot].defaultValue();
+    }
+
+    /**
+     * Build a {@link Booklisting} from the decoded values, or return null if a required value
+     * is missing.
+     */
+    Booklisting create(Object[] values) {
+        try {
+            Booklisting booklisting = mConstructor.newInstance();
+            for (int i = 0; i < mFields.length; i++) {
+                Object value = values[i];
+                if (value == null) {
+                    if (mAnnotations[i].required()) {
+                        return null;
+                    }
+                    String defaultValue = mAnnotations[i].defaultValue();
+                    value = isArray(i) ? AuthorPool.shared().intern(new String[]{defaultValue}) : defaultValue;
+                }
+                mFields[i].set(booklisting, value);
+            }
+            return booklisting;
+        } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Cannot create Booklisting", e);
+        }
+    }
+
+    private String buildProjection(boolean lean) {
+        StringBuilder projection = new StringBuilder("items(");
+        appendProjection(projection, mRoot, lean);
+        return projection.append(')').toString();
+    }
+
+    private void appendProjection(StringBuilder projection, Node node, boolean lean) {
+        boolean first = true;
+        for (Map.Entry<String, Node> child : node.children.entrySet()) {
+            if (lean && isDeferrable(child.getValue())) {
+                continue;
+            }
+            if (!first) {
+                projection.append(',');
+            }
+            first = false;
+            projection.append(child.getKey());
+            if (!child.getValue().children.isEmpty()) {
+                projection.append('(');
+                appendProjection(projection, child.getValue(), lean);
+                projection.append(')');
+            }
+        }
+    }
+
+    /**
+     * Returns true if every value under the given node is deferrable, so the lean projection
+     * leaves the whole node out.
+     */
+    private boolean isDeferrable(Node node) {
+        if (node.slot >= 0) {
+            return mAnnotations[node.slot].deferrable();
+        }
+        for (Node child : node.children.values()) {
+            if (!isDeferrable(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One object level of the schema. A node with a slot is a value to read; one without
+     * holds nested values.
+     */
+    static final class Node {
+        final Map<String, Node> children = new TreeMap<>();
+        int slot = -1;
+    }
+}
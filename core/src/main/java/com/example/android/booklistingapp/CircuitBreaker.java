@@ -0,0 +1,96 @@
+package com.example.android.booklistingapp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops sending requests to a failing service for a while.
+ * <p>
+ * The breaker starts closed and lets every request through. After a number of consecutive
+ * failures it opens and rejects requests, so a service that is down is not hammered by retries
+ * and the caller can fall back to cached results right away. Once the open period has passed,
+ * a single trial request is let through: if it succeeds the breaker closes again, otherwise it
+ * stays open for another period.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_MILLIS = 30 * 1000;
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenNanos;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenedAt;
+    private boolean mTrialInFlight;
+
+    public CircuitBreaker() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MILLIS);
+    }
+
+    /**
+     * Constructs a new {@link CircuitBreaker}.
+     *
+     * @param failureThreshold is the number of consecutive failures that opens the breaker
+     * @param openMillis       is how long the breaker stays open before a trial request
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = Math.max(1, failureThreshold);
+        mOpenNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+    }
+
+    /**
+     * Returns true if a request may be sent now. In the half-open state only one request at a
+     * time is allowed, and it must be followed by {@link #onSuccess()} or {@link #onFailure()}.
+     */
+    public synchronized boolean allowRequest() {
+        switch (mState) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - mOpenedAt < mOpenNanos) {
+                    return false;
+                }
+                mState = State.HALF_OPEN;
+                mTrialInFlight = true;
+                return true;
+            default:
+                if (mTrialInFlight) {
+                    return false;
+                }
+                mTrialInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mTrialInFlight = false;
+    }
+
+    /**
+     * Called instead of {@link #onSuccess()} or {@link #onFailure()} when an allowed request was
+     * abandoned before it had an outcome, for example because the user cancelled it.
+     */
+    public synchronized void onCanceled() {
+        mTrialInFlight = false;
+    }
+
+    public synchronized void onFailure() {
+        mTrialInFlight = false;
+        mConsecutiveFailures++;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= mFailureThreshold) {
+            mState = State.OPEN;
+            mOpenedAt = System.nanoTime();
+        }
+    }
+
+    public synchronized State getState() {
+        return mState;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.android.booklistingapp;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link ResilientTransport} instead of sending a request while its
+ * {@link CircuitBreaker} is open.
+ */
+public class CircuitOpenException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.android.booklistingapp;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logging for the classes of the core library, which must not depend on the Android framework.
+ * <p>
+ * Mirrors the parts of {@code android.util.Log} the library uses and forwards to
+ * {@link java.util.logging}, which Android routes to logcat and a plain JVM prints to the
+ * console.
+ */
+public final class CoreLog {
+
+    /**
+     * Create a private constructor because no one should ever create a {@link CoreLog} object.
+     */
+    private CoreLog() {
+    }
+
+    public static void d(String tag, String message) {
+        Logger.getLogger(tag).logp(Level.FINE, tag, null, message);
+    }
+
+    public static void w(String tag, String message) {
+        Logger.getLogger(tag).logp(Level.WARNING, tag, null, message);
+    }
+
+    public static void e(String tag, String message) {
+        Logger.getLogger(tag).logp(Level.SEVERE, tag, null, message);
+    }
+
+    public static void e(String tag, String message, Throwable throwable) {
+        Logger.getLogger(tag).logp(Level.SEVERE, tag, null, message, throwable);
+    }
+}
@@ -0,0 +1,378 @@
+package com.example.android.booklistingapp;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the {@link VolumeDetails} of the rows on screen ahead of time, so that opening a
+ * book's detail screen needs no round trip.
+ * <p>
+ * The list reports the volume ids of its visible rows, top to bottom, whenever they change.
+ * Rows nearer the top are fetched first, at most a few at a time, so prefetching never crowds
+ * out the search itself. Rows that scroll away before their turn are dropped from the queue;
+ * requests already running are left to finish, since their answer is nearly paid for. Fetched
+ * details are kept in a small LRU cache. A volume whose request failed is not prefetched again
+ * for {@link #DEFAULT_FAILURE_TTL_MILLIS}: the list reports its rows on every scroll, and a
+ * missing volume or a dead network would otherwise take up a request slot each time.
+ * <p>
+ * Opening a detail screen asks with {@link #load(String, Callback)}, which answers from the
+ * cache, joins a request already running, or jumps the queue. A screen closed before its
+ * details arrive takes its callback back with {@link #cancel(String, Callback)}.
+ */
+public final class DetailPrefetcher {
+
+    private static final String LOG_TAG = DetailPrefetcher.class.getSimpleName();
+
+    public static final String DEFAULT_VOLUME_URL = "https://www.googleapis.com/books/v1/volumes/";
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 2;
+    public static final int DEFAULT_MAX_CACHED_DETAILS = 100;
+
+    /**
+     * How long a volume whose request failed is left out of prefetching.
+     */
+    public static final long DEFAULT_FAILURE_TTL_MILLIS = 60000;
+
+    /**
+     * Priority of a detail screen waiting for its details, ahead of every visible row.
+     */
+    private static final int OPENED = -1;
+
+    private static final DetailPrefetcher sInstance = new DetailPrefetcher(DEFAULT_VOLUME_URL,
+            DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_MAX_CACHED_DETAILS);
+
+    /**
+     * Receives the details asked for with {@link #load(String, Callback)}, or null if they
+     * could not be fetched. Called on the calling thread when they were cached, otherwise on
+     * the thread that fetched them.
+     */
+    public interface Callback {
+        void onDetails(String volumeId, VolumeDetails details);
+    }
+
+    private final String mVolumeUrl;
+    private final int mMaxConcurrentRequests;
+    private final long mFailureTtlNanos;
+
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, LOG_TAG + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final LinkedHashMap<String, VolumeDetails> mCache;
+
+    /**
+     * Volume ids whose request failed, with the time it failed at, as long as they are left out
+     */
+    private final LinkedHashMap<String, Long> mFailedAt;
+
+    /**
+     * Volume ids waiting for a request, with their position on screen
+     */
+    private final Map<String, Integer> mQueue = new HashMap<>();
+    private final Set<String> mInFlight = new HashSet<>();
+    private final Map<String, List<Callback>> mWaiting = new HashMap<>();
+
+    private long mRequests;
+    private long mFailures;
+    private long mDropped;
+    private long mHits;
+    private long mJoined;
+    private long mMisses;
+
+    /**
+     * Returns the prefetcher used by the app.
+     */
+    public static DetailPrefetcher get() {
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link DetailPrefetcher}.
+     *
+     * @param volumeUrl             is the URL a volume id is appended to
+     * @param maxConcurrentRequests is the number of requests running at the same time
+     * @param maxCachedDetails      is the number of details kept
+     */
+    public DetailPrefetcher(String volumeUrl, int maxConcurrentRequests, int maxCachedDetails) {
+        this(volumeUrl, maxConcurrentRequests, maxCachedDetails, DEFAULT_FAILURE_TTL_MILLIS);
+    }
+
+    /**
+     * Constructs a new {@link DetailPrefetcher}.
+     *
+     * @param volumeUrl             is the URL a volume id is appended to
+     * @param maxConcurrentRequests is the number of requests running at the same time
+     * @param maxCachedDetails      is the number of details kept, and of failures remembered
+     * @param failureTtlMillis      is how long a volume whose request failed is not prefetched
+     */
+    public DetailPrefetcher(String volumeUrl, int maxConcurrentRequests, final int maxCachedDetails,
+                            long failureTtlMillis) {
+        mVolumeUrl = volumeUrl;
+        mMaxConcurrentRequests = maxConcurrentRequests;
+        mFailureTtlNanos = TimeUnit.MILLISECONDS.toNanos(failureTtlMillis);
+        mCache = new LinkedHashMap<String, VolumeDetails>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, VolumeDetails> eldest) {
+                return size() > maxCachedDetails;
+            }
+        };
+        mFailedAt = new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxCachedDetails;
+            }
+        };
+    }
+
+    /**
+     * Tell the prefetcher which rows are on screen, by volume id from top to bottom. Rows
+     * without an id are skipped.
+     */
+    public void setVisible(List<String> volumeIds) {
+        synchronized (this) {
+            Map<String, Integer> visible = new HashMap<>();
+            for (int i = 0; i < volumeIds.size(); i++) {
+                String volumeId = volumeIds.get(i);
+                if (volumeId != null && !volumeId.isEmpty() && !visible.containsKey(volumeId)) {
+                    visible.put(volumeId, i);
+                }
+            }
+
+            Iterator<Map.Entry<String, Integer>> queued = mQueue.entrySet().iterator();
+            while (queued.hasNext()) {
+                Map.Entry<String, Integer> entry = queued.next();
+                // A detail screen waiting for its row keeps it in the queue.
+                if (!visible.containsKey(entry.getKey()) && entry.getValue() != OPENED) {
+                    queued.remove();
+                    mDropped++;
+                }
+            }
+            for (Map.Entry<String, Integer> entry : visible.entrySet()) {
+                String volumeId = entry.getKey();
+                if (mCache.containsKey(volumeId) || mInFlight.contains(volumeId) || recentlyFailed(volumeId)) {
+                    continue;
+                }
+                Integer queuedAt = mQueue.get(volumeId);
+                if (queuedAt == null || queuedAt != OPENED) {
+                    mQueue.put(volumeId, entry.getValue());
+                }
+            }
+            startRequests();
+        }
+    }
+
+    /**
+     * Returns true if the last request for the volume failed less than the failure TTL ago.
+     */
+    private boolean recentlyFailed(String volumeId) {
+        Long failedAt = mFailedAt.get(volumeId);
+        if (failedAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - failedAt < mFailureTtlNanos) {
+            return true;
+        }
+        mFailedAt.remove(volumeId);
+        return false;
+    }
+
+    /**
+     * Returns the cached details of the volume, or null.
+     */
+    public synchronized VolumeDetails getCached(String volumeId) {
+        return mCache.get(volumeId);
+    }
+
+    /**
+     * Get the details of the volume for its detail screen, from the cache if they are there.
+     */
+    public void load(String volumeId, Callback callback) {
+        VolumeDetails cached;
+        synchronized (this) {
+            cached = mCache.get(volumeId);
+            if (cached == null) {
+                List<Callback> waiting = mWaiting.get(volumeId);
+                if (waiting == null) {
+                    waiting = new ArrayList<>();
+                    mWaiting.put(volumeId, waiting);
+                }
+                waiting.add(callback);
+                if (mInFlight.contains(volumeId)) {
+                    mJoined++;
+                } else {
+                    mMisses++;
+                    mQueue.put(volumeId, OPENED);
+                    startRequests();
+                }
+                return;
+            }
+            mHits++;
+        }
+        callback.onDetails(volumeId, cached);
+    }
+
+    /**
+     * Stop waiting for the details asked for with {@link #load(String, Callback)}: the callback
+     * is not called and the prefetcher no longer holds on to it. A volume nobody waits for any
+     * more leaves the front of the queue; a request already running is left to finish and fill
+     * the cache.
+     */
+    public synchronized void cancel(String volumeId, Callback callback) {
+        List<Callback> waiting = mWaiting.get(volumeId);
+        if (waiting == null || !waiting.remove(callback) || !waiting.isEmpty()) {
+            return;
+        }
+        mWaiting.remove(volumeId);
+        Integer queuedAt = mQueue.get(volumeId);
+        if (queuedAt != null && queuedAt == OPENED) {
+            // Queued again by its row if that is still on screen
+            mQueue.remove(volumeId);
+        }
+    }
+
+    /**
+     * Start requests for the queued volumes nearest the top while there are free slots.
+     */
+    private void startRequests() {
+        while (mInFlight.size() < mMaxConcurrentRequests && !mQueue.isEmpty()) {
+            String next = null;
+            int nextPosition = Integer.MAX_VALUE;
+            for (Map.Entry<String, Integer> entry : mQueue.entrySet()) {
+                if (entry.getValue() < nextPosition) {
+                    next = entry.getKey();
+                    nextPosition = entry.getValue();
+                }
+            }
+            mQueue.remove(next);
+            mInFlight.add(next);
+            mRequests++;
+            final String volumeId = next;
+            // Nobody waits for a visible row yet; a detail screen does
+            final boolean background = nextPosition != OPENED;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    fetch(volumeId, background);
+                }
+            });
+        }
+    }
+
+    private void fetch(String volumeId, boolean background) {
+        VolumeDetails details = QueryUtils.fetchVolumeDetails(volumeUrl(volumeId), background);
+        List<Callback> waiting;
+        synchronized (this) {
+            mInFlight.remove(volumeId);
+            if (details != null) {
+                mCache.put(volumeId, details);
+                mFailedAt.remove(volumeId);
+            } else {
+                mFailures++;
+                mFailedAt.put(volumeId, System.nanoTime());
+            }
+            waiting = mWaiting.remove(volumeId);
+            startRequests();
+        }
+        if (waiting != null) {
+            for (Callback callback : waiting) {
+                callback.onDetails(volumeId, details);
+            }
+        }
+    }
+
+    private String volumeUrl(String volumeId) {
+        try {
+            return mVolumeUrl + URLEncoder.encode(volumeId, "UTF-8")
+                    + "?fields=" + URLEncoder.encode(VolumeDetails.PROJECTION, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(mRequests, mFailures, mDropped, mHits, mJoined, mMisses);
+    }
+
+    /**
+     * A snapshot of the prefetcher's counters.
+     */
+    public static final class Stats {
+        private final long mRequests;
+        private final long mFailures;
+        private final long mDropped;
+        private final long mHits;
+        private final long mJoined;
+        private final long mMisses;
+
+        Stats(long requests, long failures, long dropped, long hits, long joined, long misses) {
+            mRequests = requests;
+            mFailures = failures;
+            mDropped = dropped;
+            mHits = hits;
+            mJoined = joined;
+            mMisses = misses;
+        }
+
+        public long getRequests() {
+            return mRequests;
+        }
+
+        public long getFailures() {
+            return mFailures;
+        }
+
+        /**
+         * Returns the number of queued rows that scrolled away before their request started.
+         */
+        public long getDropped() {
+            return mDropped;
+        }
+
+        /**
+         * Returns the number of detail screens opened with their details already cached.
+         */
+        public long getHits() {
+            return mHits;
+        }
+
+        /**
+         * Returns the number of detail screens opened while their details were being fetched.
+         */
+        public long getJoined() {
+            return mJoined;
+        }
+
+        /**
+         * Returns the number of detail screens that had to start a request of their own.
+         */
+        public long getMisses() {
+            return mMisses;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "requests=%d failures=%d dropped=%d hits=%d joined=%d misses=%d",
+                    mRequests, mFailures, mDropped, mHits, mJoined, mMisses);
+        }
+    }
+}
@@ -0,0 +1,385 @@
+package com.example.android.booklistingapp;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Searches for a query in several ways at once and merges what comes back.
+ * <p>
+ * A plain {@code q=} search misses books that a search scoped to titles or authors finds, so
+ * every {@link Variant} of the query is sent at the same time. The answers are deduplicated
+ * by volume id and ranked by reciprocal rank fusion: a book scores {@code 1 / (10 + rank)} in
+ * each variant that found it, so books found by several variants, or high up in one, come
+ * first. The ranking depends only on the answers, never on the order they arrived in.
+ * <p>
+ * Every answer is merged and handed to a {@link Listener} as soon as it arrives, so the list
+ * can show the fastest variant's results without waiting for the others. The plain variant is
+ * the search the app made before there were variants, so it is always waited for, for as long
+ * as its transport lets it take. The scoped variants only add to it: they share one deadline,
+ * and one that has not answered by then, or by the time the plain variant answers if that is
+ * later, is cancelled and left out. A scoped straggler therefore never holds the search up,
+ * and a slow network never loses the plain results to it.
+ */
+public final class FederatedSearch {
+
+    private static final String LOG_TAG = FederatedSearch.class.getSimpleName();
+
+    /**
+     * Default time the scoped variants have to answer.
+     */
+    public static final long DEFAULT_VARIANT_TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Added to every rank, so that the first few places of a variant do not outweigh
+     * agreement between variants.
+     */
+    private static final int RANK_OFFSET = 10;
+
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, LOG_TAG + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * The ways a query is searched for, in order of preference when a book is found by more
+     * than one.
+     */
+    public enum Variant {
+        PLAIN(""), TITLE("intitle:"), AUTHOR("inauthor:");
+
+        private final String mPrefix;
+
+        Variant(String prefix) {
+            mPrefix = prefix;
+        }
+
+        /**
+         * Returns the query scoped by this variant. The API applies a scope to one word, so
+         * every word gets it.
+         */
+        public String scope(String query) {
+            String trimmed = query.trim();
+            if (mPrefix.isEmpty() || trimmed.isEmpty()) {
+                return trimmed;
+            }
+            StringBuilder scoped = new StringBuilder();
+            for (String word : trimmed.split("\\s+")) {
+                if (scoped.length() > 0) {
+                    scoped.append(' ');
+                }
+                scoped.append(mPrefix).append(word);
+            }
+            return scoped.toString();
+        }
+    }
+
+    /**
+     * Builds the request URL for one variant.
+     */
+    public interface UrlBuilder {
+        String buildUrl(String scopedQuery);
+    }
+
+    /**
+     * Receives the merged results whenever a variant other than the last one answers. Called on
+     * the searching thread.
+     */
+    public interface Listener {
+        void onResults(MergedResults results);
+    }
+
+    private final long mVariantTimeoutMillis;
+
+    /**
+     * Constructs a new {@link FederatedSearch} with the default timeout.
+     */
+    public FederatedSearch() {
+        this(DEFAULT_VARIANT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructs a new {@link FederatedSearch}.
+     *
+     * @param variantTimeoutMillis is how long the scoped variants have to answer; the plain
+     *                             variant is bounded by its transport timeouts only
+     */
+    public FederatedSearch(long variantTimeoutMillis) {
+        mVariantTimeoutMillis = variantTimeoutMillis;
+    }
+
+    /**
+     * Search for the query in every {@link Variant} at once and return the merged results,
+     * blocking until the plain variant has answered and the scoped variants have answered or
+     * run out of time.
+     *
+     * @param cancellation aborts every variant; may be null
+     * @param trace        records the plain variant, which is the one a single search makes
+     * @param listener     receives the results merged so far as variants answer; may be null
+     * @return the merged results, or null if the search was cancelled or no variant answered
+     */
+    public MergedResults search(String query, UrlBuilder urls, QueryCancellation cancellation,
+                                QueryTrace trace, Listener listener) {
+        final Variant[] variants = Variant.values();
+        final QueryCancellation[] cancellations = new QueryCancellation[variants.length];
+        for (int i = 0; i < variants.length; i++) {
+            cancellations[i] = new QueryCancellation();
+        }
+        if (cancellation != null && !cancellation.attach(new Closeable() {
+            @Override
+            public void close() {
+                for (QueryCancellation variantCancellation : cancellations) {
+                    variantCancellation.cancel();
+                }
+            }
+        })) {
+            return null;
+        }
+
+        CompletionService<Answer> completion = new ExecutorCompletionService<>(sExecutor);
+        List<Future<Answer>> futures = new ArrayList<>(variants.length);
+        // A future that failed has no Answer to say which variant it was
+        Map<Future<Answer>, Integer> indexOfFuture = new HashMap<>();
+        for (int i = 0; i < variants.length; i++) {
+            final int index = i;
+            final String url = urls.buildUrl(variants[i].scope(query));
+            final QueryTrace variantTrace = variants[i] == Variant.PLAIN ? trace : QueryTrace.DISABLED;
+            Future<Answer> future = completion.submit(new Callable<Answer>() {
+                @Override
+                public Answer call() {
+                    return new Answer(index, QueryUtils.fetchBooklistingData(url,
+                            cancellations[index], variantTrace));
+                }
+            });
+            futures.add(future);
+            indexOfFuture.put(future, index);
+        }
+        int plain = Variant.PLAIN.ordinal();
+
+        List<List<Booklisting>> answers = new ArrayList<>(Collections.<List<Booklisting>>nCopies(
+                variants.length, null));
+        boolean[] answered = new boolean[variants.length];
+        int answeredCount = 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mVariantTimeoutMillis);
+        try {
+            while (answeredCount < variants.length) {
+                long remaining = deadline - System.nanoTime();
+                Future<Answer> future;
+                if (remaining > 0) {
+                    future = completion.poll(remaining, TimeUnit.NANOSECONDS);
+                } else if (!answered[plain]) {
+                    // The scoped variants are out of time, the plain one never is
+                    future = completion.take();
+                } else {
+                    // Keep what came in while waiting for the plain variant
+                    future = completion.poll();
+                    if (future == null) {
+                        break;
+                    }
+                }
+                if (future == null) {
+                    continue;
+                }
+                Answer answer;
+                try {
+                    answer = future.get();
+                } catch (ExecutionException e) {
+                    // Answered with nothing, like a variant whose request failed
+                    int index = indexOfFuture.get(future);
+                    CoreLog.e(LOG_TAG, "Problem searching the " + variants[index].name().toLowerCase(Locale.US)
+                            + " query variant", e.getCause());
+                    answered[index] = true;
+                    answeredCount++;
+                    continue;
+                }
+                answers.set(answer.index, answer.booklistings);
+                answered[answer.index] = true;
+                answeredCount++;
+                if (listener != null && answeredCount < variants.length && answer.booklistings != null
+                        && !isCanceled(cancellation)) {
+                    listener.onResults(merge(answers, answeredCount, variants.length, false));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            for (int i = 0; i < variants.length; i++) {
+                if (!answered[i]) {
+                    cancellations[i].cancel();
+                    futures.get(i).cancel(true);
+                }
+            }
+            if (cancellation != null) {
+                cancellation.detach();
+            }
+        }
+
+        for (int i = 0; i < variants.length; i++) {
+            if (!answered[i]) {
+                CoreLog.w(LOG_TAG, "The " + variants[i].name().toLowerCase(Locale.US)
+                        + " variant did not answer within " + mVariantTimeoutMillis + " ms");
+            }
+        }
+        if (isCanceled(cancellation)) {
+            return null;
+        }
+        for (List<Booklisting> answer : answers) {
+            if (answer != null) {
+                return merge(answers, answeredCount, variants.length, true);
+            }
+        }
+        // Every variant failed or timed out.
+        return null;
+    }
+
+    private static boolean isCanceled(QueryCancellation cancellation) {
+        return cancellation != null && cancellation.isCanceled();
+    }
+
+    /**
+     * Returns the answers of the variants, in {@link Variant} order and null where a variant has
+     * not answered or failed, merged into one ranked list without duplicates.
+     */
+    static MergedResults merge(List<List<Booklisting>> answers, int answeredCount, int variantCount,
+                               boolean complete) {
+        Map<String, Candidate> candidates = new HashMap<>();
+        for (int variant = 0; variant < answers.size(); variant++) {
+            List<Booklisting> booklistings = answers.get(variant);
+            if (booklistings == null) {
+                continue;
+            }
+            for (int rank = 0; rank < booklistings.size(); rank++) {
+                Booklisting booklisting = booklistings.get(rank);
+                String key = keyOf(booklisting);
+                Candidate candidate = candidates.get(key);
+                if (candidate == null) {
+                    candidate = new Candidate(key, booklisting, variant);
+                    candidates.put(key, candidate);
+                } else if (candidate.lastVariant == variant) {
+                    // The same book twice in one answer counts once.
+                    continue;
+                }
+                candidate.lastVariant = variant;
+                candidate.score += 1.0 / (RANK_OFFSET + rank + 1);
+                candidate.bestRank = Math.min(candidate.bestRank, rank);
+            }
+        }
+
+        List<Candidate> ranked = new ArrayList<>(candidates.values());
+        Collections.sort(ranked, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                if (a.score != b.score) {
+                    return a.score > b.score ? -1 : 1;
+                }
+                if (a.bestRank != b.bestRank) {
+                    return a.bestRank < b.bestRank ? -1 : 1;
+                }
+                if (a.variant != b.variant) {
+                    return a.variant < b.variant ? -1 : 1;
+                }
+                return a.key.compareTo(b.key);
+            }
+        });
+        MergedResults results = new MergedResults(ranked.size(), answeredCount, variantCount, complete);
+        for (Candidate candidate : ranked) {
+            results.add(candidate.booklisting);
+        }
+        return results;
+    }
+
+    /**
+     * Returns the key books are deduplicated by: the volume id, or title and authors for books
+     * without one.
+     */
+    public static String keyOf(Booklisting booklisting) {
+        return booklisting.getmId().isEmpty()
+                ? booklisting.getmTitle() + '\u0000' + booklisting.getmAuthor()
+                : booklisting.getmId();
+    }
+
+    /**
+     * Results merged from the variants that have answered so far.
+     */
+    public static final class MergedResults extends ArrayList<Booklisting> {
+        private static final long serialVersionUID = 1L;
+
+        private final int mAnsweredCount;
+        private final int mVariantCount;
+        private final boolean mComplete;
+
+        MergedResults(int capacity, int answeredCount, int variantCount, boolean complete) {
+            super(capacity);
+            mAnsweredCount = answeredCount;
+            mVariantCount = variantCount;
+            mComplete = complete;
+        }
+
+        /**
+         * Returns the number of variants that answered, including those that failed.
+         */
+        public int getAnsweredCount() {
+            return mAnsweredCount;
+        }
+
+        public int getVariantCount() {
+            return mVariantCount;
+        }
+
+        /**
+         * Returns true if these are the final results of the search, after which no more
+         * variants are merged. Variants that timed out are missing from them.
+         */
+        public boolean isComplete() {
+            return mComplete;
+        }
+    }
+
+    private static final class Answer {
+        final int index;
+        final List<Booklisting> booklistings;
+
+        Answer(int index, List<Booklisting> booklistings) {
+            this.index = index;
+            this.booklistings = booklistings;
+        }
+    }
+
+    private static final class Candidate {
+        final String key;
+        final Booklisting booklisting;
+        final int variant;
+        int lastVariant;
+        double score;
+        int bestRank = Integer.MAX_VALUE;
+
+        Candidate(String key, Booklisting booklisting, int variant) {
+            this.key = key;
+            this.booklisting = booklisting;
+            this.variant = variant;
+            this.lastVariant = -1;
+        }
+    }
+}
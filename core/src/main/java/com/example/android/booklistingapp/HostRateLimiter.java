@@ -0,0 +1,75 @@
+package com.example.android.booklistingapp;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limit applied separately to every host.
+ * <p>
+ * Each host gets a bucket that refills at the configured rate and holds up to the configured
+ * burst. A request that finds the bucket empty reserves the next token anyway and waits until
+ * it would have arrived, so waiting requests are let through in the order they asked.
+ */
+public class HostRateLimiter {
+
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double mPermitsPerSecond;
+    private final int mBurst;
+    private final Map<String, Bucket> mBuckets = new HashMap<>();
+
+    /**
+     * Constructs a new {@link HostRateLimiter}.
+     *
+     * @param permitsPerSecond is the sustained number of requests per second to one host
+     * @param burst            is the number of requests to one host that may go out at once
+     */
+    public HostRateLimiter(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        mPermitsPerSecond = permitsPerSecond;
+        mBurst = Math.max(1, burst);
+    }
+
+    /**
+     * Block until a request to the given host may be sent.
+     *
+     * @return the number of nanoseconds waited
+     */
+    public long acquire(String host) throws InterruptedException {
+        Bucket bucket;
+        synchronized (mBuckets) {
+            bucket = mBuckets.get(host);
+            if (bucket == null) {
+                bucket = new Bucket(System.nanoTime());
+                mBuckets.put(host, bucket);
+            }
+        }
+        long waitNanos = bucket.reserve(System.nanoTime());
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return waitNanos;
+    }
+
+    private final class Bucket {
+        private double mTokens = mBurst;
+        private long mRefilledAt;
+
+        Bucket(long now) {
+            mRefilledAt = now;
+        }
+
+        /**
+         * Take a token and return how long to wait before it is available.
+         */
+        synchronized long reserve(long now) {
+            mTokens = Math.min(mBurst, mTokens + (now - mRefilledAt) * mPermitsPerSecond / NANOS_PER_SECOND);
+            mRefilledAt = now;
+            mTokens -= 1;
+            return mTokens >= 0 ? 0 : (long) (-mTokens * NANOS_PER_SECOND / mPermitsPerSecond);
+        }
+    }
+}
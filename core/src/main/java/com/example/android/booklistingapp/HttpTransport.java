@@ -0,0 +1,68 @@
+package com.example.android.booklistingapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Performs the HTTP GETs behind {@link QueryUtils#fetchBooklistingData(String)}.
+ * <p>
+ * The default implementation is {@link UrlConnectionTransport}; tests can install a local fake
+ * with {@link QueryUtils#setTransport(HttpTransport)}.
+ */
+public interface HttpTransport {
+
+    /**
+     * Send the request and return the response once its status line and headers have arrived.
+     * The caller must close the response.
+     */
+    Response execute(Request request) throws IOException;
+
+    /**
+     * A GET request with its headers and timeouts.
+     */
+    final class Request {
+        public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+        public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 15000;
+
+        public final URL url;
+        public final Map<String, String> headers = new LinkedHashMap<>();
+        public int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+        public int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        public QueryCancellation cancellation;
+
+        /**
+         * True for speculative requests nobody is waiting for, such as prefetches
+         */
+        public boolean background;
+        public QueryTrace trace = QueryTrace.DISABLED;
+
+        public Request(URL url) {
+            this.url = url;
+        }
+    }
+
+    /**
+     * A response whose body is streamed, already decompressed, from the connection.
+     */
+    interface Response {
+        int getCode();
+
+        /**
+         * Returns the value of the named header, or null.
+         */
+        String getHeader(String name);
+
+        /**
+         * Returns the decompressed response body.
+         */
+        InputStream getBody() throws IOException;
+
+        /**
+         * Release the response. Fully read bodies leave the connection available for reuse.
+         */
+        void close();
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.android.booklistingapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records how long the frames of the search UI take and when its main thread stalls, so jank
+ * can be found and tracked in the field without attaching a profiler.
+ * <p>
+ * The UI marks what it is doing as a {@link Phase}: around a keystroke, the delivery of
+ * results, the binding of a row, and for as long as the list scrolls. Each frame is recorded
+ * into the histogram of the busiest phase seen since the frame before, and counted as dropped
+ * frames when it took more than one and a half refresh periods. Stalls, reported by a
+ * {@link StallWatchdog}, carry the phase the main thread was stuck in and a stack sampled while
+ * it was. The most recent frames and stalls are kept in ring buffers, which {@link #export(File)}
+ * writes to a file.
+ * <p>
+ * Monitoring is off by default. While it is off, marking a phase costs a field check.
+ */
+public final class JankMonitor {
+
+    public static final int DEFAULT_RECENT_STALLS = 50;
+    public static final int DEFAULT_RECENT_FRAMES = 600;
+
+    /**
+     * Frames of the recent ring that are listed by {@link #dump()}; the rest are summarised by
+     * the histograms.
+     */
+    private static final int DUMPED_FRAMES = 120;
+
+    private static final String LOG_TAG = JankMonitor.class.getSimpleName();
+
+    private static final JankMonitor sInstance = new JankMonitor(DEFAULT_RECENT_STALLS, DEFAULT_RECENT_FRAMES);
+
+    /**
+     * What the main thread is busy with. Later phases are more specific: a row bound while the
+     * list scrolls counts as {@link #BINDING}.
+     */
+    public enum Phase {
+        IDLE,
+        SCROLLING,
+        TYPING,
+        RESULT_DELIVERY,
+        BINDING
+    }
+
+    private final int mMaxRecentStalls;
+    private volatile boolean mEnabled;
+
+    /**
+     * Phase entered with {@link #enter(Phase)}, and whether the list scrolls; written on the
+     * main thread, read by the watchdog
+     */
+    private volatile Phase mPhase = Phase.IDLE;
+    private volatile boolean mScrolling;
+
+    /**
+     * Busiest phase seen since the last frame; only touched on the main thread
+     */
+    private Phase mFramePhase = Phase.IDLE;
+
+    private final LatencyHistogram[] mFrameHistograms = new LatencyHistogram[Phase.values().length];
+    private final long[] mDroppedFrames = new long[Phase.values().length];
+    private final long[] mStallCounts = new long[Phase.values().length];
+    private final ArrayDeque<Stall> mRecentStalls = new ArrayDeque<>();
+
+    /**
+     * Ring of the most recent frames: duration and phase ordinal, oldest at mNextFrame once
+     * full
+     */
+    private final long[] mRecentFrameNanos;
+    private final byte[] mRecentFramePhases;
+    private int mNextFrame;
+    private int mRecentFrameCount;
+
+    /**
+     * Returns the monitor used by the app.
+     */
+    public static JankMonitor get() {
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link JankMonitor}.
+     *
+     * @param maxRecentStalls is the number of stalls kept for {@link #dump()}
+     * @param maxRecentFrames is the number of frame durations kept for {@link #dump()}
+     */
+    public JankMonitor(int maxRecentStalls, int maxRecentFrames) {
+        mMaxRecentStalls = maxRecentStalls;
+        mRecentFrameNanos = new long[maxRecentFrames];
+        mRecentFramePhases = new byte[maxRecentFrames];
+        for (int i = 0; i < mFrameHistograms.length; i++) {
+            mFrameHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Mark the main thread as busy with the given phase until {@link #exit(Phase)} is called
+     * with the phase returned here. Must be called on the main thread, in try/finally:
+     * <pre>
+     * JankMonitor.Phase previous = monitor.enter(JankMonitor.Phase.BINDING);
+     * try {
+     *     ...
+     * } finally {
+     *     monitor.exit(previous);
+     * }
+     * </pre>
+     *
+     * @return the phase to restore
+     */
+    public Phase enter(Phase phase) {
+        Phase previous = mPhase;
+        if (!mEnabled) {
+            return previous;
+        }
+        mPhase = phase;
+        if (phase.ordinal() > mFramePhase.ordinal()) {
+            mFramePhase = phase;
+        }
+        return previous;
+    }
+
+    /**
+     * Restore the phase returned by {@link #enter(Phase)}.
+     */
+    public void exit(Phase previous) {
+        if (mEnabled) {
+            mPhase = previous;
+        }
+    }
+
+    /**
+     * Mark the list as scrolling, or as having settled. Scrolling lasts over many frames, so
+     * it is the phase of whatever is not marked otherwise while it does. Must be called on the
+     * main thread.
+     */
+    public void setScrolling(boolean scrolling) {
+        mScrolling = scrolling;
+        if (scrolling && mEnabled && Phase.SCROLLING.ordinal() > mFramePhase.ordinal()) {
+            mFramePhase = Phase.SCROLLING;
+        }
+    }
+
+    /**
+     * Returns what the main thread is busy with now. Safe to call on any thread.
+     */
+    public Phase getPhase() {
+        Phase phase = mPhase;
+        if (phase == Phase.IDLE && mScrolling) {
+            return Phase.SCROLLING;
+        }
+        return phase;
+    }
+
+    /**
+     * Record a frame that took the given time, against the given refresh period of the
+     * display. Must be called on the main thread, once a frame.
+     */
+    public void onFrame(long frameNanos, long framePeriodNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        Phase phase = mFramePhase;
+        // The phase the next frame starts in
+        mFramePhase = getPhase();
+
+        int dropped = 0;
+        long late = frameNanos - framePeriodNanos;
+        if (framePeriodNanos > 0 && late > framePeriodNanos / 2) {
+            dropped = (int) ((late + framePeriodNanos / 2) / framePeriodNanos);
+        }
+        synchronized (this) {
+            mFrameHistograms[phase.ordinal()].record(frameNanos);
+            mDroppedFrames[phase.ordinal()] += dropped;
+            if (mRecentFrameNanos.length > 0) {
+                mRecentFrameNanos[mNextFrame] = frameNanos;
+                mRecentFramePhases[mNextFrame] = (byte) phase.ordinal();
+                mNextFrame = (mNextFrame + 1) % mRecentFrameNanos.length;
+                mRecentFrameCount = Math.min(mRecentFrameCount + 1, mRecentFrameNanos.length);
+            }
+        }
+    }
+
+    /**
+     * Record a stall of the main thread.
+     *
+     * @param phase          is what the main thread was busy with when its stack was sampled
+     * @param durationNanos  is how long the main thread did not get to a posted task
+     * @param stack          is the stack of the main thread sampled during the stall
+     * @param startedAtMillis is the wall clock time the stall started at
+     */
+    public void onStall(Phase phase, long durationNanos, StackTraceElement[] stack, long startedAtMillis) {
+        if (!mEnabled) {
+            return;
+        }
+        Stall stall = new Stall(phase, durationNanos, stack, startedAtMillis);
+        CoreLog.w(LOG_TAG, "Main thread stalled: " + stall.getSummary());
+        synchronized (this) {
+            mStallCounts[phase.ordinal()]++;
+            mRecentStalls.addLast(stall);
+            if (mRecentStalls.size() > mMaxRecentStalls) {
+                mRecentStalls.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Returns the histogram of the frames of the given phase.
+     */
+    public synchronized LatencyHistogram getFrameHistogram(Phase phase) {
+        return mFrameHistograms[phase.ordinal()];
+    }
+
+    public synchronized long getDroppedFrames(Phase phase) {
+        return mDroppedFrames[phase.ordinal()];
+    }
+
+    /**
+     * Returns the number of stalls in the given phase, including those no longer kept.
+     */
+    public synchronized long getStallCount(Phase phase) {
+        return mStallCounts[phase.ordinal()];
+    }
+
+    /**
+     * Returns the most recent stalls, oldest first.
+     */
+    public synchronized List<Stall> getRecentStalls() {
+        return new ArrayList<>(mRecentStalls);
+    }
+
+    /**
+     * Returns the durations of the most recent frames, oldest first.
+     */
+    public synchronized long[] getRecentFrameNanos() {
+        long[] frames = new long[mRecentFrameCount];
+        int oldest = (mNextFrame - mRecentFrameCount + mRecentFrameNanos.length) % Math.max(1, mRecentFrameNanos.length);
+        for (int i = 0; i < mRecentFrameCount; i++) {
+            frames[i] = mRecentFrameNanos[(oldest + i) % mRecentFrameNanos.length];
+        }
+        return frames;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : mFrameHistograms) {
+            histogram.reset();
+        }
+        for (int i = 0; i < mDroppedFrames.length; i++) {
+            mDroppedFrames[i] = 0;
+            mStallCounts[i] = 0;
+        }
+        mRecentStalls.clear();
+        mNextFrame = 0;
+        mRecentFrameCount = 0;
+    }
+
+    /**
+     * Returns a readable report of the frame histograms per phase, followed by the most recent
+     * stalls with their stacks and the most recent frames.
+     */
+    public String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Frames by phase:");
+        for (Phase phase : Phase.values()) {
+            writer.println(String.format(Locale.US, "%-16s dropped=%d stalls=%d %s",
+                    phase.name().toLowerCase(Locale.US), mDroppedFrames[phase.ordinal()],
+                    mStallCounts[phase.ordinal()], mFrameHistograms[phase.ordinal()]));
+        }
+        writer.println();
+        writer.println("Recent stalls, oldest first:");
+        for (Stall stall : mRecentStalls) {
+            writer.println(stall);
+        }
+        writer.println();
+        int count = Math.min(DUMPED_FRAMES, mRecentFrameCount);
+        writer.println("Last " + count + " frames in ms with the initial of their phase, oldest first:");
+        StringBuilder frames = new StringBuilder();
+        for (int i = count; i > 0; i--) {
+            int index = (mNextFrame - i + mRecentFrameNanos.length) % mRecentFrameNanos.length;
+            frames.append(String.format(Locale.US, "%.1f%s ", mRecentFrameNanos[index] / 1e6,
+                    mRecentFramePhases[index] == Phase.IDLE.ordinal() ? ""
+                            : "/" + Phase.values()[mRecentFramePhases[index]].name().charAt(0)));
+        }
+        writer.println(frames.toString().trim());
+    }
+
+    /**
+     * Write {@link #dump()} to the given file.
+     *
+     * @return true if the file was written
+     */
+    public boolean export(File file) {
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+                    Charset.forName("UTF-8")));
+            dump(writer);
+            writer.flush();
+            return !writer.checkError();
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem exporting the jank report to " + file, e);
+            return false;
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    /**
+     * One stall of the main thread.
+     */
+    public static final class Stall {
+        private final Phase mPhase;
+        private final long mDurationNanos;
+        private final StackTraceElement[] mStack;
+        private final long mStartedAtMillis;
+
+        Stall(Phase phase, long durationNanos, StackTraceElement[] stack, long startedAtMillis) {
+            mPhase = phase;
+            mDurationNanos = durationNanos;
+            mStack = stack;
+            mStartedAtMillis = startedAtMillis;
+        }
+
+        public Phase getPhase() {
+            return mPhase;
+        }
+
+        public long getDurationNanos() {
+            return mDurationNanos;
+        }
+
+        public StackTraceElement[] getStack() {
+            return mStack;
+        }
+
+        public long getStartedAtMillis() {
+            return mStartedAtMillis;
+        }
+
+        /**
+         * Returns the time, phase, duration and the top frame of the stack on one line.
+         */
+        String getSummary() {
+            return String.format(Locale.US, "%s %s %dms at %s",
+                    new SimpleDateFormat("HH:mm:ss.SSS", Locale.US).format(new Date(mStartedAtMillis)),
+                    mPhase.name().toLowerCase(Locale.US), TimeUnit.NANOSECONDS.toMillis(mDurationNanos),
+                    mStack.length > 0 ? mStack[0] : "?");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(getSummary());
+            for (StackTraceElement element : mStack) {
+                sb.append("\n    at ").append(element);
+            }
+            return sb.toString();
+        }
+    }
+}
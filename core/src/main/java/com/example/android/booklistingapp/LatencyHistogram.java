@@ -0,0 +1,97 @@
+package com.example.android.booklistingapp;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed-size histogram of durations with buckets that double in width, from under a
+ * microsecond to over half an hour. Recording is constant time and allocation-free; percentiles
+ * are estimated as the upper bound of the bucket they fall in, which is within a factor of two.
+ * <p>
+ * Not thread-safe; {@link QueryTracer} guards its histograms.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Bucket i holds durations below 2^i microseconds, and at least 2^(i-1) for i > 0.
+     */
+    private static final int BUCKETS = 32;
+
+    private static final long NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1);
+
+    private final long[] mCounts = new long[BUCKETS];
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        long micros = nanos / NANOS_PER_MICRO;
+        int bucket = micros == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        mCounts[bucket]++;
+        mCount++;
+        mTotalNanos += nanos;
+        mMaxNanos = Math.max(mMaxNanos, nanos);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public long getMaxNanos() {
+        return mMaxNanos;
+    }
+
+    /**
+     * Returns the mean duration, or 0 if nothing was recorded.
+     */
+    public long getMeanNanos() {
+        return mCount == 0 ? 0 : mTotalNanos / mCount;
+    }
+
+    /**
+     * Returns an upper bound of the duration below which the given percentage of the recorded
+     * durations fall, or 0 if nothing was recorded.
+     *
+     * @param percentile is between 0 and 100
+     */
+    public long getPercentileNanos(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += mCounts[bucket];
+            if (seen >= rank) {
+                return Math.min(mMaxNanos, (1L << bucket) * NANOS_PER_MICRO);
+            }
+        }
+        return mMaxNanos;
+    }
+
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            mCounts[bucket] = 0;
+        }
+        mCount = 0;
+        mTotalNanos = 0;
+        mMaxNanos = 0;
+    }
+
+    /**
+     * Returns the count, mean, p50, p90, p99 and maximum, in milliseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "n=%d mean=%.2f p50=%.2f p90=%.2f p99=%.2f max=%.2f ms",
+                mCount, millis(getMeanNanos()), millis(getPercentileNanos(50)),
+                millis(getPercentileNanos(90)), millis(getPercentileNanos(99)), millis(mMaxNanos));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.android.booklistingapp;
+
+import java.util.Locale;
+
+/**
+ * Estimates how fast the current network is, from the requests the app makes anyway, and plans
+ * requests to suit it.
+ * <p>
+ * Two exponentially weighted moving averages are kept: the round trip time, measured from
+ * sending a request to receiving its headers, and the bandwidth, measured over the bodies of
+ * responses large enough to say something about it. The round trip includes the time the
+ * server takes to answer, which a request has to wait for just the same. Until there are
+ * samples, and again after the device changes networks, the averages start from typical values
+ * for the kind of link reported by the platform.
+ * <p>
+ * Body sizes are counted after gzip is inflated, as the decoder sees them. The bandwidth and
+ * the average size of a decoded result are measured the same way, so the time a page takes
+ * comes out right even though the wire carries fewer bytes.
+ * <p>
+ * {@link #plan()} sizes the first page of a search so that it arrives within
+ * {@link #TARGET_FIRST_PAGE_MILLIS}: a few results on a slow link, one large batch on a fast
+ * one. It also picks the projection, see {@link RequestPlan}. Page sizes are rounded down to
+ * one of {@link #PAGE_SIZES}, since the size is part of the request URL, and so of the key a
+ * response is cached under: a size that followed every sample would make each search miss
+ * the cache. The timeouts are not planned per search; {@link AdaptiveTransport} asks for them
+ * as each request is made.
+ */
+public final class NetworkQualityEstimator {
+
+    private static final String LOG_TAG = NetworkQualityEstimator.class.getSimpleName();
+
+    /**
+     * Time within which the first page of a search should arrive.
+     */
+    public static final long TARGET_FIRST_PAGE_MILLIS = 1500;
+
+    /**
+     * Later pages are requested ahead of time, so they can take this many times longer.
+     */
+    static final int LATER_PAGE_BUDGET_FACTOR = 3;
+
+    public static final int MIN_FIRST_PAGE_SIZE = 5;
+    public static final int MIN_PAGE_SIZE = 10;
+
+    /**
+     * The most results the Books API returns for one request.
+     */
+    public static final int MAX_PAGE_SIZE = 40;
+
+    /**
+     * The page sizes a plan picks from, smallest first.
+     */
+    static final int[] PAGE_SIZES = {MIN_FIRST_PAGE_SIZE, 10, 20, MAX_PAGE_SIZE};
+
+    static final int MIN_CONNECT_TIMEOUT_MILLIS = 3000;
+    static final int MAX_CONNECT_TIMEOUT_MILLIS = 20000;
+    static final int MIN_READ_TIMEOUT_MILLIS = 4000;
+    static final int MAX_READ_TIMEOUT_MILLIS = 30000;
+
+    /**
+     * Bodies smaller than this mostly measure the round trip, not the bandwidth.
+     */
+    static final long MIN_TRANSFER_BYTES = 2048;
+
+    /**
+     * Weight of a new sample in the moving averages.
+     */
+    private static final double SAMPLE_WEIGHT = 0.25;
+
+    /**
+     * Decoded size of one result with the full projection, before any response is seen.
+     */
+    private static final double DEFAULT_BYTES_PER_RESULT = 400;
+
+    private static final NetworkQualityEstimator sInstance = new NetworkQualityEstimator();
+
+    /**
+     * Kind of link the device is connected through, as reported by the platform.
+     */
+    public enum LinkType {
+        UNKNOWN(900, 60000),
+        WIFI(400, 400000),
+        ETHERNET(300, 1000000),
+        CELLULAR_2G(2000, 8000),
+        CELLULAR_3G(900, 60000),
+        CELLULAR_4G(500, 250000);
+
+        final double mTypicalRttMillis;
+        final double mTypicalBytesPerSecond;
+
+        LinkType(double typicalRttMillis, double typicalBytesPerSecond) {
+            mTypicalRttMillis = typicalRttMillis;
+            mTypicalBytesPerSecond = typicalBytesPerSecond;
+        }
+    }
+
+    /**
+     * Coarse quality of the network, from the current estimates.
+     */
+    public enum Quality {
+        POOR,
+        MODERATE,
+        GOOD
+    }
+
+    private LinkType mLinkType = LinkType.UNKNOWN;
+    private double mRttMillis = LinkType.UNKNOWN.mTypicalRttMillis;
+    private double mBytesPerSecond = LinkType.UNKNOWN.mTypicalBytesPerSecond;
+    private double mBytesPerResult = DEFAULT_BYTES_PER_RESULT;
+    private int mRttSamples;
+    private int mBandwidthSamples;
+
+    /**
+     * Use {@link #get()}; separate instances are for tests.
+     */
+    NetworkQualityEstimator() {
+    }
+
+    /**
+     * Returns the estimator fed by every request the app makes.
+     */
+    public static NetworkQualityEstimator get() {
+        return sInstance;
+    }
+
+    /**
+     * Tell the estimator which kind of link the device is on. On a different link the samples
+     * taken so far say nothing, so the estimates start over from the typical values of the new
+     * link.
+     */
+    public synchronized void setLinkType(LinkType linkType) {
+        if (linkType == mLinkType) {
+            return;
+        }
+        CoreLog.d(LOG_TAG, "Link changed from " + mLinkType + " to " + linkType);
+        mLinkType = linkType;
+        mRttMillis = linkType.mTypicalRttMillis;
+        mBytesPerSecond = linkType.mTypicalBytesPerSecond;
+        mRttSamples = 0;
+        mBandwidthSamples = 0;
+    }
+
+    public synchronized LinkType getLinkType() {
+        return mLinkType;
+    }
+
+    /**
+     * Record the time from sending a request to receiving its headers. A request that timed
+     * out is recorded with the time it waited, which is a lower bound.
+     */
+    public synchronized void onRoundTrip(long millis) {
+        mRttMillis = average(mRttMillis, millis, mRttSamples++);
+    }
+
+    /**
+     * Record a response body of the given decoded size, read in the given time.
+     */
+    public synchronized void onTransfer(long bytes, long millis) {
+        if (bytes < MIN_TRANSFER_BYTES) {
+            return;
+        }
+        double bytesPerSecond = bytes * 1000.0 / Math.max(1, millis);
+        mBytesPerSecond = average(mBytesPerSecond, bytesPerSecond, mBandwidthSamples++);
+    }
+
+    /**
+     * Record a page of search results and the decoded size of its body.
+     */
+    public synchronized void onResultsDecoded(int resultCount, long bytes) {
+        if (resultCount > 0 && bytes > 0) {
+            mBytesPerResult = average(mBytesPerResult, (double) bytes / resultCount, 1);
+        }
+    }
+
+    /**
+     * The first sample replaces the typical value of the link; later ones are averaged in.
+     */
+    private static double average(double current, double sample, int previousSamples) {
+        return previousSamples == 0 ? sample : current + SAMPLE_WEIGHT * (sample - current);
+    }
+
+    public synchronized double getRttMillis() {
+        return mRttMillis;
+    }
+
+    public synchronized double getBytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    public synchronized double getBytesPerResult() {
+        return mBytesPerResult;
+    }
+
+    public synchronized Quality getQuality() {
+        if (mBytesPerSecond < 20000 || mRttMillis > 1500) {
+            return Quality.POOR;
+        }
+        if (mBytesPerSecond >= 200000 && mRttMillis <= 600) {
+            return Quality.GOOD;
+        }
+        return Quality.MODERATE;
+    }
+
+    /**
+     * Returns the page sizes and projection for the requests of a new search.
+     */
+    public synchronized RequestPlan plan() {
+        boolean lean = getQuality() == Quality.POOR;
+        int firstPageSize = pageSize(TARGET_FIRST_PAGE_MILLIS, MIN_FIRST_PAGE_SIZE);
+        int pageSize = pageSize(TARGET_FIRST_PAGE_MILLIS * LATER_PAGE_BUDGET_FACTOR, MIN_PAGE_SIZE);
+        return new RequestPlan(firstPageSize, pageSize, lean);
+    }
+
+    /**
+     * Returns the largest of {@link #PAGE_SIZES}, but at least the given minimum, whose transfer
+     * fits in what is left of the budget after the round trip.
+     */
+    private int pageSize(long budgetMillis, int minPageSize) {
+        double transferMillis = budgetMillis - mRttMillis;
+        double results = transferMillis / 1000.0 * mBytesPerSecond / mBytesPerResult;
+        int pageSize = minPageSize;
+        for (int size : PAGE_SIZES) {
+            if (size > pageSize && size <= results) {
+                pageSize = size;
+            }
+        }
+        return pageSize;
+    }
+
+    /**
+     * Returns the connect timeout for a request made now. A new connection takes a few round
+     * trips for the TCP and TLS handshakes.
+     */
+    public synchronized int connectTimeoutMillis() {
+        return clamp(3 * mRttMillis + 1000, MIN_CONNECT_TIMEOUT_MILLIS, MAX_CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the read timeout for a request made now. It bounds the wait for the headers as
+     * well as every later read, so it leaves room for a slow answer and a full buffer.
+     */
+    public synchronized int readTimeoutMillis() {
+        double bufferMillis = 8192 * 1000.0 / mBytesPerSecond;
+        return clamp(3 * mRttMillis + bufferMillis + 1000, MIN_READ_TIMEOUT_MILLIS, MAX_READ_TIMEOUT_MILLIS);
+    }
+
+    private static int clamp(double value, int min, int max) {
+        return (int) Math.max(min, Math.min(max, value));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%s %s rtt=%.0fms bandwidth=%.1fKB/s result=%.0fB samples=%d/%d",
+                mLinkType, getQuality(), mRttMillis, mBytesPerSecond / 1024, mBytesPerResult,
+                mRttSamples, mBandwidthSamples);
+    }
+
+    /**
+     * How the requests of one search are made.
+     */
+    public static final class RequestPlan {
+        private final int mFirstPageSize;
+        private final int mPageSize;
+        private final boolean mLean;
+
+        /**
+         * Constructs a new {@link RequestPlan}.
+         *
+         * @param firstPageSize is the number of results asked for on the first page
+         * @param pageSize      is the number of results asked for on every later page
+         * @param lean          is whether the deferrable fields are left out
+         */
+        public RequestPlan(int firstPageSize, int pageSize, boolean lean) {
+            mFirstPageSize = firstPageSize;
+            mPageSize = pageSize;
+            mLean = lean;
+        }
+
+        public int getFirstPageSize() {
+            return mFirstPageSize;
+        }
+
+        public int getPageSize() {
+            return mPageSize;
+        }
+
+        /**
+         * Returns true if the requests use {@link BooklistingSchema#getLeanProjection()}.
+         */
+        public boolean isLean() {
+            return mLean;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "pages=%d/%d lean=%b", mFirstPageSize, mPageSize, mLean);
+        }
+    }
+}
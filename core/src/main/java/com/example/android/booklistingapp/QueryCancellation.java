@@ -0,0 +1,62 @@
+package com.example.android.booklistingapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Lets another thread abort a request made by {@link QueryUtils}.
+ * <p>
+ * Cancelling closes the connection attached by the {@link HttpTransport}, which makes a blocked
+ * connect or read on the loader thread fail right away instead of running to completion.
+ */
+public final class QueryCancellation {
+
+    private Closeable mConnection;
+    private boolean mCanceled;
+
+    /**
+     * Attach the connection that is about to be used; closing it must abort the request.
+     *
+     * @return false if the request has already been cancelled and should not be made
+     */
+    synchronized boolean attach(Closeable connection) {
+        if (mCanceled) {
+            return false;
+        }
+        mConnection = connection;
+        return true;
+    }
+
+    /**
+     * Forget the connection once the request is over.
+     */
+    synchronized void detach() {
+        mConnection = null;
+    }
+
+    /**
+     * Abort the request. Safe to call from any thread and more than once.
+     */
+    public void cancel() {
+        Closeable connection;
+        synchronized (this) {
+            if (mCanceled) {
+                return;
+            }
+            mCanceled = true;
+            connection = mConnection;
+            mConnection = null;
+        }
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+                // The request fails either way.
+            }
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+}
@@ -0,0 +1,274 @@
+package com.example.android.booklistingapp;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fetches the results of queries the user is likely to search for next, so that the search is
+ * answered from the response cache when it comes.
+ * <p>
+ * Prefetching spends data on searches that may never be made, so it runs within a budget: at
+ * most so many requests in any minute, and at most so many bytes of response bodies in any day.
+ * Bodies are counted as decoded, which errs on the safe side of what a compressed response
+ * costs. A query that does not fit into what is left of the budget is skipped, not queued.
+ * <p>
+ * Every prefetched query is remembered until its cached results go stale. When the user then
+ * searches for it, that is a hit; the hit rate over all prefetched queries tells whether the
+ * budget is spent well.
+ */
+public final class QueryPrefetcher {
+
+    private static final String LOG_TAG = QueryPrefetcher.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_REQUESTS_PER_MINUTE = 6;
+    public static final long DEFAULT_MAX_BYTES_PER_DAY = 2 * 1024 * 1024;
+
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Builds the request URLs a search for the query would make, so that each of them is
+     * cached.
+     */
+    public interface Requests {
+        List<String> urlsFor(String query);
+    }
+
+    private final int mMaxRequestsPerMinute;
+    private final long mMaxBytesPerDay;
+    private final long mFreshMillis;
+
+    /**
+     * Traces the prefetch requests only to count the bytes they read. Its traces are never
+     * finished, so they stay out of every report.
+     */
+    private final QueryTracer mByteCounter = new QueryTracer(0);
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, LOG_TAG);
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * Start times of the requests of the last minute, and the bytes read by those of the last
+     * day, oldest first.
+     */
+    private final ArrayDeque<Long> mRequestTimes = new ArrayDeque<>();
+    private final ArrayDeque<long[]> mDayBytes = new ArrayDeque<>();
+    private long mBytesToday;
+
+    /**
+     * Prefetched queries, normalized, and when their results were fetched.
+     */
+    private final Map<String, Long> mPrefetched = new LinkedHashMap<>();
+
+    private QueryCancellation mCancellation = new QueryCancellation();
+
+    private long mPrefetchedQueries;
+    private long mRequests;
+    private long mBytes;
+    private long mHits;
+    private long mSkipped;
+
+    /**
+     * Constructs a new {@link QueryPrefetcher}.
+     *
+     * @param maxRequestsPerMinute is the number of requests made in any minute
+     * @param maxBytesPerDay       is the number of response body bytes read in any day
+     * @param freshMillis          is how long prefetched results stay fresh in the cache
+     */
+    public QueryPrefetcher(int maxRequestsPerMinute, long maxBytesPerDay, long freshMillis) {
+        mMaxRequestsPerMinute = maxRequestsPerMinute;
+        mMaxBytesPerDay = maxBytesPerDay;
+        mFreshMillis = freshMillis;
+        mByteCounter.setEnabled(true);
+    }
+
+    /**
+     * Prefetch the given queries, most likely first, on a background thread. Queries that are
+     * still fresh from an earlier prefetch, or do not fit into the budget, are skipped.
+     */
+    public void prefetch(final List<String> queries, final Requests requests) {
+        final QueryCancellation cancellation;
+        synchronized (this) {
+            cancellation = mCancellation;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                prefetchNow(queries, requests, cancellation);
+            }
+        });
+    }
+
+    /**
+     * Abort the prefetches that are running or waiting, for example because the user has
+     * started a search of their own and the network is needed for it.
+     */
+    public void cancel() {
+        QueryCancellation cancellation;
+        synchronized (this) {
+            cancellation = mCancellation;
+            mCancellation = new QueryCancellation();
+        }
+        cancellation.cancel();
+    }
+
+    /**
+     * Prefetch on the calling thread.
+     */
+    void prefetchNow(List<String> queries, Requests requests, QueryCancellation cancellation) {
+        for (String query : queries) {
+            if (cancellation.isCanceled()) {
+                return;
+            }
+            String key = QueryTrie.normalize(query);
+            List<String> urls = requests.urlsFor(query);
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                Long fetchedAt = mPrefetched.get(key);
+                if (fetchedAt != null && now - fetchedAt < mFreshMillis) {
+                    continue;
+                }
+                if (!reserve(urls.size(), now)) {
+                    mSkipped++;
+                    continue;
+                }
+            }
+
+            long bytes = 0;
+            boolean fetched = true;
+            for (String url : urls) {
+                QueryTrace trace = mByteCounter.start(url);
+                fetched &= QueryUtils.fetchBooklistingData(url, cancellation, trace, true) != null;
+                bytes += trace.getBytesRead();
+            }
+
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                mRequests += urls.size();
+                mBytes += bytes;
+                mBytesToday += bytes;
+                mDayBytes.addLast(new long[]{now, bytes});
+                if (fetched && !cancellation.isCanceled()) {
+                    mPrefetched.remove(key);
+                    mPrefetched.put(key, now);
+                    mPrefetchedQueries++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Take the given number of requests out of the budget, if they fit into it.
+     */
+    private boolean reserve(int requestCount, long now) {
+        while (!mRequestTimes.isEmpty() && now - mRequestTimes.peekFirst() >= MINUTE_MILLIS) {
+            mRequestTimes.removeFirst();
+        }
+        while (!mDayBytes.isEmpty() && now - mDayBytes.peekFirst()[0] >= DAY_MILLIS) {
+            mBytesToday -= mDayBytes.removeFirst()[1];
+        }
+        if (mRequestTimes.size() + requestCount > mMaxRequestsPerMinute || mBytesToday >= mMaxBytesPerDay) {
+            return false;
+        }
+        for (int i = 0; i < requestCount; i++) {
+            mRequestTimes.addLast(now);
+        }
+        return true;
+    }
+
+    /**
+     * Tell the prefetcher that the user searched for the given query, to count a hit if it was
+     * prefetched.
+     */
+    public synchronized void onQuerySearched(String query) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> entries = mPrefetched.entrySet().iterator();
+        while (entries.hasNext()) {
+            if (now - entries.next().getValue() >= mFreshMillis) {
+                entries.remove();
+            }
+        }
+        // A query is only counted once, however often it is searched for.
+        if (mPrefetched.remove(QueryTrie.normalize(query)) != null) {
+            mHits++;
+        }
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(mPrefetchedQueries, mRequests, mBytes, mHits, mSkipped);
+    }
+
+    /**
+     * A snapshot of the prefetcher's counters.
+     */
+    public static final class Stats {
+        private final long mPrefetchedQueries;
+        private final long mRequests;
+        private final long mBytes;
+        private final long mHits;
+        private final long mSkipped;
+
+        Stats(long prefetchedQueries, long requests, long bytes, long hits, long skipped) {
+            mPrefetchedQueries = prefetchedQueries;
+            mRequests = requests;
+            mBytes = bytes;
+            mHits = hits;
+            mSkipped = skipped;
+        }
+
+        public long getPrefetchedQueries() {
+            return mPrefetchedQueries;
+        }
+
+        public long getRequests() {
+            return mRequests;
+        }
+
+        /**
+         * Returns the bytes of the response bodies read, as decoded; results that were already
+         * fresh in the cache cost none.
+         */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        public long getHits() {
+            return mHits;
+        }
+
+        /**
+         * Returns the number of queries left out because they did not fit into the budget.
+         */
+        public long getSkipped() {
+            return mSkipped;
+        }
+
+        /**
+         * Returns the share of prefetched queries the user went on to search for.
+         */
+        public double getHitRate() {
+            return mPrefetchedQueries == 0 ? 0 : mHits / (double) mPrefetchedQueries;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "prefetched=%d requests=%d bytes=%d hits=%d skipped=%d hitRate=%.2f",
+                    mPrefetchedQueries, mRequests, mBytes, mHits, mSkipped, getHitRate());
+        }
+    }
+}
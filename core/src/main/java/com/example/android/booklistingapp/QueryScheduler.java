@@ -0,0 +1,155 @@
+package com.example.android.booklistingapp;
+
+/**
+ * Sits between the search field and the loader that fetches the results.
+ * <p>
+ * Keystrokes are debounced: a query is only issued once the text has been stable for the quiet
+ * period. A query identical to the one already in flight (or already shown) is collapsed into it
+ * instead of being issued again, and issuing a new query while another one is still in flight
+ * counts that one as cancelled, since the loader aborts it.
+ * <p>
+ * All methods must be called on the thread the {@link Timer} runs its tasks on; in the app, the
+ * main thread. The scheduler itself has no Android dependency, so the load test harness replays
+ * typing through the same debouncing as the app.
+ */
+public class QueryScheduler {
+
+    /**
+     * Default time the text has to stay unchanged before a query is issued.
+     */
+    public static final long DEFAULT_QUIET_PERIOD_MILLIS = 300;
+
+    /**
+     * Receives the queries that survive debouncing and deduplication.
+     */
+    public interface Listener {
+        void onQueryIssued(String query);
+    }
+
+    /**
+     * Runs the debounce task after the quiet period, on the thread the scheduler is used from.
+     */
+    public interface Timer {
+        void postDelayed(Runnable task, long delayMillis);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    private final Timer mTimer;
+    private final long mQuietPeriodMillis;
+    private final Listener mListener;
+
+    private String mPendingQuery;
+    private String mInFlightQuery;
+    private String mLastFinishedQuery;
+
+    private int mKeystrokes;
+    private int mIssued;
+    private int mCoalesced;
+    private int mCancelled;
+
+    private final Runnable mIssuePending = new Runnable() {
+        @Override
+        public void run() {
+            String query = mPendingQuery;
+            mPendingQuery = null;
+            issue(query);
+        }
+    };
+
+    /**
+     * Constructs a new {@link QueryScheduler}.
+     *
+     * @param quietPeriodMillis is how long the text has to stay unchanged before it is issued
+     * @param timer             runs the debounce task
+     * @param listener          starts the load for an issued query
+     */
+    public QueryScheduler(long quietPeriodMillis, Timer timer, Listener listener) {
+        mTimer = timer;
+        mQuietPeriodMillis = quietPeriodMillis;
+        mListener = listener;
+    }
+
+    /**
+     * Called for every change of the search text.
+     */
+    public void onQueryChanged(String query) {
+        mKeystrokes++;
+        mPendingQuery = query;
+        mTimer.removeCallbacks(mIssuePending);
+        mTimer.postDelayed(mIssuePending, mQuietPeriodMillis);
+    }
+
+    /**
+     * Called when the results for the given query have been delivered.
+     */
+    public void onQueryFinished(String query) {
+        if (query != null && query.equals(mInFlightQuery)) {
+            mInFlightQuery = null;
+            mLastFinishedQuery = query;
+        }
+    }
+
+    /**
+     * Forget the last finished query so the next identical one is issued again, for example
+     * when the previous attempt failed.
+     */
+    public void invalidate() {
+        mLastFinishedQuery = null;
+    }
+
+    /**
+     * Drops any pending keystroke, for example when the activity goes away.
+     */
+    public void cancelPending() {
+        mTimer.removeCallbacks(mIssuePending);
+        mPendingQuery = null;
+    }
+
+    private void issue(String query) {
+        if (query == null) {
+            return;
+        }
+        if (query.equals(mInFlightQuery)
+                || (mInFlightQuery == null && query.equals(mLastFinishedQuery))) {
+            mCoalesced++;
+            return;
+        }
+        if (mInFlightQuery != null) {
+            mCancelled++;
+        }
+        mInFlightQuery = query;
+        mIssued++;
+        mListener.onQueryIssued(query);
+    }
+
+    /**
+     * Returns a snapshot of this session's counters.
+     */
+    public Stats getStats() {
+        return new Stats(mKeystrokes, mIssued, mCoalesced, mCancelled);
+    }
+
+    /**
+     * Request counters for one search session.
+     */
+    public static final class Stats {
+        public final int keystrokes;
+        public final int issued;
+        public final int coalesced;
+        public final int cancelled;
+
+        Stats(int keystrokes, int issued, int coalesced, int cancelled) {
+            this.keystrokes = keystrokes;
+            this.issued = issued;
+            this.coalesced = coalesced;
+            this.cancelled = cancelled;
+        }
+
+        @Override
+        public String toString() {
+            return "keystrokes=" + keystrokes + " issued=" + issued
+                    + " coalesced=" + coalesced + " cancelled=" + cancelled;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.android.booklistingapp;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing of one search request, from the loader starting it to its rows reaching the adapter.
+ * <p>
+ * The phases run one after the other, and each {@link #mark(Phase)} ends a phase: the time since
+ * the previous mark is added to it. Reading the body and decoding it happen together, so the
+ * time spent blocked on the network is measured separately and moved from {@link Phase#PARSE}
+ * to {@link Phase#READ}.
+ * <p>
+ * Traces come from {@link QueryTracer#start(String)}. While tracing is off every request shares
+ * {@link #DISABLED}, whose methods return right away without reading the clock. A trace is used
+ * by one thread at a time; handing it from the loader thread to the main thread through the
+ * loader's result delivery is enough.
+ */
+public final class QueryTrace {
+
+    public enum Phase {
+        /**
+         * Looking the request up in the response cache.
+         */
+        CACHE,
+        /**
+         * Opening the connection, including DNS and TLS when the connection is not reused.
+         */
+        CONNECT,
+        /**
+         * Sending the request and waiting for the status line and headers.
+         */
+        FIRST_BYTE,
+        /**
+         * Waiting for the response body to arrive, and inflating it.
+         */
+        READ,
+        /**
+         * Decoding the body into books, and caching it.
+         */
+        PARSE,
+        /**
+         * Handing the result from the loader thread to the main thread.
+         */
+        DELIVER,
+        /**
+         * Computing and dispatching the adapter's change notifications.
+         */
+        BIND
+    }
+
+    public enum Outcome {
+        CACHED, NETWORK, NOT_MODIFIED, STALE, FAILED, CANCELED
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    /**
+     * Shared trace handed out while tracing is off.
+     */
+    public static final QueryTrace DISABLED = new QueryTrace(null, null);
+
+    private final QueryTracer mTracer;
+    private final String mUrl;
+    private final long[] mPhaseNanos;
+    private final long mStartedAt;
+    private long mLastMark;
+    private long mBytesRead;
+    private int mResultCount;
+    private Outcome mOutcome = Outcome.FAILED;
+    private boolean mFinished;
+
+    QueryTrace(QueryTracer tracer, String url) {
+        mTracer = tracer;
+        mUrl = url;
+        if (tracer != null) {
+            mPhaseNanos = new long[PHASES.length];
+            mStartedAt = System.nanoTime();
+            mLastMark = mStartedAt;
+        } else {
+            mPhaseNanos = null;
+            mStartedAt = 0;
+        }
+    }
+
+    /**
+     * Returns true if this trace records anything.
+     */
+    public boolean isEnabled() {
+        return mTracer != null;
+    }
+
+    /**
+     * End the given phase, adding the time since the previous mark to it. Does nothing once the
+     * trace is finished.
+     */
+    public void mark(Phase phase) {
+        if (mTracer == null || mFinished) {
+            return;
+        }
+        long now = System.nanoTime();
+        mPhaseNanos[phase.ordinal()] += now - mLastMark;
+        mLastMark = now;
+    }
+
+    /**
+     * Attribute part of the time already added to one phase to another.
+     */
+    public void move(Phase from, Phase to, long nanos) {
+        if (mTracer == null) {
+            return;
+        }
+        nanos = Math.min(nanos, mPhaseNanos[from.ordinal()]);
+        mPhaseNanos[from.ordinal()] -= nanos;
+        mPhaseNanos[to.ordinal()] += nanos;
+    }
+
+    public void addBytesRead(long bytes) {
+        if (mTracer != null) {
+            mBytesRead += bytes;
+        }
+    }
+
+    public void setResultCount(int resultCount) {
+        if (mTracer != null) {
+            mResultCount = resultCount;
+        }
+    }
+
+    public void setOutcome(Outcome outcome) {
+        if (mTracer != null) {
+            mOutcome = outcome;
+        }
+    }
+
+    /**
+     * Add the trace to the aggregates of its {@link QueryTracer}. Only the first call counts.
+     */
+    public void finish() {
+        if (mTracer == null || mFinished) {
+            return;
+        }
+        mFinished = true;
+        mTracer.record(this);
+    }
+
+    public String getUrl() {
+        return mUrl;
+    }
+
+    public long getPhaseNanos(Phase phase) {
+        return mTracer == null ? 0 : mPhaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * Returns the time from the start of the trace to its last mark.
+     */
+    public long getTotalNanos() {
+        return mLastMark - mStartedAt;
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    public int getResultCount() {
+        return mResultCount;
+    }
+
+    public Outcome getOutcome() {
+        return mOutcome;
+    }
+
+    /**
+     * Returns one line with the outcome, the phases in milliseconds, the bytes read and the
+     * result count, followed by the URL.
+     */
+    @Override
+    public String toString() {
+        if (mTracer == null) {
+            return "disabled";
+        }
+        StringBuilder line = new StringBuilder(mOutcome.name());
+        for (Phase phase : PHASES) {
+            line.append(String.format(Locale.US, " %s=%.2f", phase.name().toLowerCase(Locale.US),
+                    mPhaseNanos[phase.ordinal()] / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+        }
+        line.append(String.format(Locale.US, " total=%.2f bytes=%d results=%d %s",
+                getTotalNanos() / (double) TimeUnit.MILLISECONDS.toNanos(1), mBytesRead,
+                mResultCount, mUrl));
+        return line.toString();
+    }
+}
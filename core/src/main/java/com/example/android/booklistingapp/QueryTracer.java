@@ -0,0 +1,174 @@
+package com.example.android.booklistingapp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Locale;
+
+/**
+ * Collects the {@link QueryTrace}s of all search requests into histograms per phase, and keeps
+ * the most recent traces for inspection.
+ * <p>
+ * Tracing is off by default. While it is off, {@link #start(String)} returns
+ * {@link QueryTrace#DISABLED}, so the instrumented code does no more than a field check per
+ * phase.
+ */
+public final class QueryTracer {
+
+    public static final int DEFAULT_RECENT_TRACES = 100;
+
+    private static final String LOG_TAG = QueryTracer.class.getSimpleName();
+
+    private static final QueryTracer sInstance = new QueryTracer(DEFAULT_RECENT_TRACES);
+
+    private final int mMaxRecentTraces;
+    private volatile boolean mEnabled;
+
+    private final LatencyHistogram[] mPhaseHistograms = new LatencyHistogram[QueryTrace.Phase.values().length];
+    private final LatencyHistogram mTotalHistogram = new LatencyHistogram();
+    private final long[] mOutcomeCounts = new long[QueryTrace.Outcome.values().length];
+    private final ArrayDeque<QueryTrace> mRecentTraces = new ArrayDeque<>();
+    private long mBytesRead;
+    private long mResultCount;
+
+    /**
+     * Returns the tracer used by the app.
+     */
+    public static QueryTracer get() {
+        return sInstance;
+    }
+
+    /**
+     * Constructs a new {@link QueryTracer}.
+     *
+     * @param maxRecentTraces is the number of finished traces kept for {@link #dump()}
+     */
+    public QueryTracer(int maxRecentTraces) {
+        mMaxRecentTraces = maxRecentTraces;
+        for (int i = 0; i < mPhaseHistograms.length; i++) {
+            mPhaseHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * Start tracing a request to the given URL.
+     */
+    public QueryTrace start(String url) {
+        return mEnabled ? new QueryTrace(this, url) : QueryTrace.DISABLED;
+    }
+
+    synchronized void record(QueryTrace trace) {
+        for (QueryTrace.Phase phase : QueryTrace.Phase.values()) {
+            long nanos = trace.getPhaseNanos(phase);
+            if (nanos > 0) {
+                mPhaseHistograms[phase.ordinal()].record(nanos);
+            }
+        }
+        mTotalHistogram.record(trace.getTotalNanos());
+        mOutcomeCounts[trace.getOutcome().ordinal()]++;
+        mBytesRead += trace.getBytesRead();
+        mResultCount += trace.getResultCount();
+
+        mRecentTraces.addLast(trace);
+        if (mRecentTraces.size() > mMaxRecentTraces) {
+            mRecentTraces.removeFirst();
+        }
+    }
+
+    /**
+     * Returns the histogram of the given phase. Phases a request did not go through, such as
+     * {@link QueryTrace.Phase#CONNECT} for a cached result, are not counted.
+     */
+    public synchronized LatencyHistogram getHistogram(QueryTrace.Phase phase) {
+        return mPhaseHistograms[phase.ordinal()];
+    }
+
+    public synchronized LatencyHistogram getTotalHistogram() {
+        return mTotalHistogram;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public synchronized void reset() {
+        for (LatencyHistogram histogram : mPhaseHistograms) {
+            histogram.reset();
+        }
+        mTotalHistogram.reset();
+        for (int i = 0; i < mOutcomeCounts.length; i++) {
+            mOutcomeCounts[i] = 0;
+        }
+        mRecentTraces.clear();
+        mBytesRead = 0;
+        mResultCount = 0;
+    }
+
+    /**
+     * Returns a readable report of the histograms, followed by the most recent traces.
+     */
+    public String dump() {
+        StringWriter out = new StringWriter();
+        PrintWriter writer = new PrintWriter(out);
+        dump(writer);
+        writer.flush();
+        return out.toString();
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        long traced = mTotalHistogram.getCount();
+        writer.println(String.format(Locale.US, "%d requests, %d bytes read, %d results",
+                traced, mBytesRead, mResultCount));
+        StringBuilder outcomes = new StringBuilder();
+        for (QueryTrace.Outcome outcome : QueryTrace.Outcome.values()) {
+            outcomes.append(outcome.name().toLowerCase(Locale.US)).append('=')
+                    .append(mOutcomeCounts[outcome.ordinal()]).append(' ');
+        }
+        writer.println(outcomes.toString().trim());
+        for (QueryTrace.Phase phase : QueryTrace.Phase.values()) {
+            writer.println(String.format(Locale.US, "%-10s %s",
+                    phase.name().toLowerCase(Locale.US), mPhaseHistograms[phase.ordinal()]));
+        }
+        writer.println(String.format(Locale.US, "%-10s %s", "total", mTotalHistogram));
+        writer.println();
+        writer.println("Recent requests, oldest first:");
+        for (QueryTrace trace : mRecentTraces) {
+            writer.println(trace);
+        }
+    }
+
+    /**
+     * Write {@link #dump()} to the given file.
+     *
+     * @return true if the file was written
+     */
+    public boolean export(File file) {
+        PrintWriter writer = null;
+        try {
+            writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+                    Charset.forName("UTF-8")));
+            dump(writer);
+            writer.flush();
+            return !writer.checkError();
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem exporting the query traces to " + file, e);
+            return false;
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package com.example.android.booklistingapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Prefix trie of the queries the user has searched for, weighted by how often and how recently
+ * each was searched.
+ * <p>
+ * Every search adds one to the weight of its query, and weights halve every
+ * {@link #DEFAULT_HALF_LIFE_MILLIS}, so a query searched daily last month ranks below one
+ * searched twice today. Only the decayed weight and the time it was computed are stored per
+ * query; the decay is applied when the weight is read. Once the trie holds more than its cap,
+ * the queries with the lowest weights are dropped.
+ * <p>
+ * Children are kept in small arrays sorted by character, and the trie is saved as a pre-order
+ * walk of its nodes, so both in memory and on disk a shared prefix is stored once. All methods
+ * are synchronized; completions are asked for from a filter thread while searches are recorded
+ * on the main thread.
+ */
+public final class QueryTrie {
+
+    private static final String LOG_TAG = QueryTrie.class.getSimpleName();
+
+    public static final long DEFAULT_HALF_LIFE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    public static final int DEFAULT_MAX_QUERIES = 500;
+
+    private static final int FILE_VERSION = 1;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final long mHalfLifeMillis;
+    private final int mMaxQueries;
+    private final Node mRoot = new Node();
+    private int mSize;
+
+    /**
+     * Constructs a new {@link QueryTrie} with the default half-life and cap.
+     */
+    public QueryTrie() {
+        this(DEFAULT_HALF_LIFE_MILLIS, DEFAULT_MAX_QUERIES);
+    }
+
+    /**
+     * Constructs a new {@link QueryTrie}.
+     *
+     * @param halfLifeMillis is the time after which the weight of a search has halved
+     * @param maxQueries     is the number of queries kept
+     */
+    public QueryTrie(long halfLifeMillis, int maxQueries) {
+        mHalfLifeMillis = halfLifeMillis;
+        mMaxQueries = maxQueries;
+    }
+
+    /**
+     * Returns the query as it is stored: trimmed, lowercased and single-spaced.
+     */
+    public static String normalize(String query) {
+        return query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.US);
+    }
+
+    /**
+     * Count a search for the given query at the given time.
+     */
+    public synchronized void record(String query, long now) {
+        String key = normalize(query);
+        if (key.isEmpty()) {
+            return;
+        }
+        Node node = mRoot;
+        for (int i = 0; i < key.length(); i++) {
+            node = node.childFor(key.charAt(i), true);
+        }
+        if (!node.terminal) {
+            node.terminal = true;
+            mSize++;
+        }
+        node.weight = decayed(node, now) + 1;
+        node.updatedAt = now;
+        if (mSize > mMaxQueries) {
+            prune(now);
+        }
+    }
+
+    /**
+     * Returns up to the given number of stored queries starting with the prefix, heaviest
+     * first. The prefix itself is left out.
+     */
+    public synchronized List<String> complete(String prefix, int limit, long now) {
+        String key = normalize(prefix);
+        Node node = mRoot;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.childFor(key.charAt(i), false);
+        }
+        if (node == null || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        // Keep the best few in a min-heap while walking the subtree.
+        PriorityQueue<Completion> best = new PriorityQueue<>(limit + 1, Completion.BY_WEIGHT);
+        collect(node, new StringBuilder(key), now, limit, best, key);
+        List<Completion> sorted = new ArrayList<>(best);
+        Collections.sort(sorted, Collections.reverseOrder(Completion.BY_WEIGHT));
+        List<String> completions = new ArrayList<>(sorted.size());
+        for (Completion completion : sorted) {
+            completions.add(completion.query);
+        }
+        return completions;
+    }
+
+    /**
+     * Returns the weight of the query at the given time, or 0 if it is not stored.
+     */
+    public synchronized double getWeight(String query, long now) {
+        String key = normalize(query);
+        Node node = mRoot;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.childFor(key.charAt(i), false);
+        }
+        return node != null && node.terminal ? decayed(node, now) : 0;
+    }
+
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Save the trie to the given file, replacing it as a whole.
+     *
+     * @return true if the trie was saved
+     */
+    public synchronized boolean save(File file) {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mSize);
+            writeNode(out, mRoot);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                CoreLog.e(LOG_TAG, "Could not replace " + file);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem saving the query trie to " + temp, e);
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            temp.delete();
+        }
+    }
+
+    /**
+     * Returns the trie saved in the given file, or an empty one if there is none or it cannot
+     * be read.
+     */
+    public static QueryTrie load(File file, long halfLifeMillis, int maxQueries) {
+        QueryTrie trie = new QueryTrie(halfLifeMillis, maxQueries);
+        if (!file.isFile()) {
+            return trie;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FILE_VERSION) {
+                CoreLog.w(LOG_TAG, "Ignoring query trie of another version");
+                return trie;
+            }
+            int size = in.readInt();
+            Node root = readNode(in);
+            trie.mRoot.keys = root.keys;
+            trie.mRoot.children = root.children;
+            trie.mRoot.size = root.size;
+            trie.mSize = size;
+            return trie;
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem loading the query trie from " + file, e);
+            return new QueryTrie(halfLifeMillis, maxQueries);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private double decayed(Node node, long now) {
+        long age = Math.max(0, now - node.updatedAt);
+        return node.weight * Math.pow(0.5, age / (double) mHalfLifeMillis);
+    }
+
+    private void collect(Node node, StringBuilder path, long now, int limit,
+                         PriorityQueue<Completion> best, String prefix) {
+        if (node.terminal && path.length() > prefix.length()) {
+            best.add(new Completion(path.toString(), decayed(node, now)));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        for (int i = 0; i < node.size; i++) {
+            path.append(node.keys[i]);
+            collect(node.children[i], path, now, limit, best, prefix);
+            path.setLength(path.length() - 1);
+        }
+    }
+
+    /**
+     * Drop the lightest queries until the trie is back to nine tenths of its cap, so the next
+     * few searches do not prune again.
+     */
+    private void prune(long now) {
+        PriorityQueue<Completion> all = new PriorityQueue<>(mSize, Completion.BY_WEIGHT);
+        collect(mRoot, new StringBuilder(), now, Integer.MAX_VALUE, all, "");
+        int target = mMaxQueries * 9 / 10;
+        while (mSize > target && !all.isEmpty()) {
+            remove(all.poll().query);
+        }
+    }
+
+    private void remove(String key) {
+        // Remember the path so emptied nodes can be unlinked on the way back.
+        Node[] path = new Node[key.length() + 1];
+        path[0] = mRoot;
+        for (int i = 0; i < key.length(); i++) {
+            path[i + 1] = path[i].childFor(key.charAt(i), false);
+            if (path[i + 1] == null) {
+                return;
+            }
+        }
+        Node node = path[key.length()];
+        if (!node.terminal) {
+            return;
+        }
+        node.terminal = false;
+        mSize--;
+        for (int i = key.length(); i > 0 && !path[i].terminal && path[i].size == 0; i--) {
+            path[i - 1].removeChild(key.charAt(i - 1));
+        }
+    }
+
+    private static void writeNode(DataOutputStream out, Node node) throws IOException {
+        out.writeBoolean(node.terminal);
+        if (node.terminal) {
+            out.writeFloat((float) node.weight);
+            out.writeLong(node.updatedAt);
+        }
+        out.writeShort(node.size);
+        for (int i = 0; i < node.size; i++) {
+            out.writeChar(node.keys[i]);
+            writeNode(out, node.children[i]);
+        }
+    }
+
+    private static Node readNode(DataInputStream in) throws IOException {
+        Node node = new Node();
+        node.terminal = in.readBoolean();
+        if (node.terminal) {
+            node.weight = in.readFloat();
+            node.updatedAt = in.readLong();
+        }
+        int size = in.readShort();
+        if (size < 0) {
+            throw new IOException("Corrupt query trie");
+        }
+        node.keys = new char[size];
+        node.children = new Node[size];
+        node.size = size;
+        for (int i = 0; i < size; i++) {
+            node.keys[i] = in.readChar();
+            node.children[i] = readNode(in);
+        }
+        return node;
+    }
+
+    private static final class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int size;
+        boolean terminal;
+        double weight;
+        long updatedAt;
+
+        Node childFor(char c, boolean create) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (keys[middle] < c) {
+                    low = middle + 1;
+                } else if (keys[middle] > c) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+            if (!create) {
+                return null;
+            }
+            if (size == keys.length) {
+                int capacity = Math.max(2, size * 2);
+                char[] newKeys = new char[capacity];
+                Node[] newChildren = new Node[capacity];
+                System.arraycopy(keys, 0, newKeys, 0, size);
+                System.arraycopy(children, 0, newChildren, 0, size);
+                keys = newKeys;
+                children = newChildren;
+            }
+            System.arraycopy(keys, low, keys, low + 1, size - low);
+            System.arraycopy(children, low, children, low + 1, size - low);
+            Node child = new Node();
+            keys[low] = c;
+            children[low] = child;
+            size++;
+            return child;
+        }
+
+        void removeChild(char c) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == c) {
+                    System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+                    System.arraycopy(children, i + 1, children, i, size - i - 1);
+                    size--;
+                    children[size] = null;
+                    return;
+                }
+            }
+        }
+    }
+
+    private static final class Completion {
+        static final Comparator<Completion> BY_WEIGHT = new Comparator<Completion>() {
+            @Override
+            public int compare(Completion a, Completion b) {
+                if (a.weight != b.weight) {
+                    return a.weight < b.weight ? -1 : 1;
+                }
+                // Equal weights: the alphabetically later query is the lighter one.
+                return b.query.compareTo(a.query);
+            }
+        };
+
+        final String query;
+        final double weight;
+
+        Completion(String query, double weight) {
+            this.query = query;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,461 @@
+package com.example.android.booklistingapp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+/**
+ * Created by Bianka Matyas on 02/07/2017.
+ */
+
+
+/**
+ * Helper methods related to requesting and receiving booklisting data from Google Books API.
+ */
+public final class QueryUtils {
+
+    /**
+     * Tag for the log messages
+     */
+    private static final String LOG_TAG = QueryUtils.class.getSimpleName();
+
+    /**
+     * Response cache shared by all requests, or null if caching is not set up.
+     */
+    private static volatile BooklistingCache sCache;
+
+    /**
+     * Transport used for all requests; replaceable for tests. Timeouts follow the network, and
+     * every attempt, retries included, is measured.
+     */
+    private static volatile HttpTransport sTransport = new ResilientTransport(
+            new AdaptiveTransport(new UrlConnectionTransport(), NetworkQualityEstimator.get()));
+
+    /**
+     * Create a private constructor because no one should ever create a {@link QueryUtils} object.
+     * This class is only meant to hold static variables and methods, which can be accessed
+     * directly from the class name QueryUtils (and an object instance of QueryUtils is not needed).
+     */
+    private QueryUtils() {
+    }
+
+    /**
+     * Install the response cache used by {@link #fetchBooklistingData(String)}.
+     */
+    public static void setCache(BooklistingCache cache) {
+        sCache = cache;
+    }
+
+    /**
+     * Returns the installed response cache, or null.
+     */
+    public static BooklistingCache getCache() {
+        return sCache;
+    }
+
+    /**
+     * Replace the HTTP transport, for example with a local fake in tests.
+     */
+    public static void setTransport(HttpTransport transport) {
+        sTransport = transport;
+    }
+
+    /**
+     * Returns the HTTP transport used for all requests.
+     */
+    public static HttpTransport getTransport() {
+        return sTransport;
+    }
+
+    /**
+     * Query the Google Books API dataset and return a list of {@link Booklisting} objects.
+     */
+    public static List<Booklisting> fetchBooklistingData(String requestUrl) {
+        return fetchBooklistingData(requestUrl, null);
+    }
+
+    /**
+     * Query the Google Books API dataset and return a list of {@link Booklisting} objects.
+     * The request can be aborted from another thread through the given cancellation, in which
+     * case null is returned.
+     */
+    public static List<Booklisting> fetchBooklistingData(String requestUrl, QueryCancellation cancellation) {
+        return fetchBooklistingData(requestUrl, cancellation, QueryTrace.DISABLED);
+    }
+
+    /**
+     * Query the Google Books API dataset and return a list of {@link Booklisting} objects,
+     * recording the time spent in each phase of the request in the given trace. The trace is
+     * left open for the caller to add the later phases and finish.
+     */
+    public static List<Booklisting> fetchBooklistingData(String requestUrl, QueryCancellation cancellation,
+                                                         QueryTrace trace) {
+        return fetchBooklistingData(requestUrl, cancellation, trace, false);
+    }
+
+    /**
+     * Like {@link #fetchBooklistingData(String, QueryCancellation, QueryTrace)}, for a request
+     * the user may not be waiting for, such as a prefetch, if background is true. See
+     * {@link HttpTransport.Request#background}.
+     */
+    public static List<Booklisting> fetchBooklistingData(String requestUrl, QueryCancellation cancellation,
+                                                         QueryTrace trace, boolean background) {
+        // Serve a fresh cached result without touching the network
+        BooklistingCache cache = sCache;
+        String cacheKey = null;
+        if (cache != null) {
+            cacheKey = BooklistingCache.normalizeUrl(requestUrl);
+            List<Booklisting> cached = cache.getFresh(cacheKey);
+            trace.mark(QueryTrace.Phase.CACHE);
+            if (cached != null) {
+                trace.setOutcome(QueryTrace.Outcome.CACHED);
+                trace.setResultCount(cached.size());
+                return cached;
+            }
+        }
+
+        // Create URL object
+        URL url = createUrl(requestUrl);
+
+        // Perform HTTP request to the URL and decode the JSON response as it streams in
+        List<Booklisting> booklistings = makeHttpRequest(url, cache, cacheKey, cancellation, trace, background);
+        if (cancellation != null && cancellation.isCanceled()) {
+            trace.setOutcome(QueryTrace.Outcome.CANCELED);
+            return null;
+        }
+        trace.setResultCount(booklistings != null ? booklistings.size() : 0);
+
+        // Return the list of {@link Booklisting}s
+        return booklistings;
+    }
+
+    /**
+     * Query the Google Books volume at the given URL and return its {@link VolumeDetails}, or
+     * null if the request failed.
+     */
+    public static VolumeDetails fetchVolumeDetails(String requestUrl) {
+        return fetchVolumeDetails(requestUrl, false);
+    }
+
+    /**
+     * Like {@link #fetchVolumeDetails(String)}, for a prefetch if background is true. See
+     * {@link HttpTransport.Request#background}.
+     */
+    public static VolumeDetails fetchVolumeDetails(String requestUrl, boolean background) {
+        URL url = createUrl(requestUrl);
+        if (url == null) {
+            return null;
+        }
+
+        HttpTransport.Response response = null;
+        try {
+            HttpTransport.Request request = new HttpTransport.Request(url);
+            request.background = background;
+            response = sTransport.execute(request);
+            if (response.getCode() != 200) {
+                CoreLog.e(LOG_TAG, "Error response code: " + response.getCode());
+                return null;
+            }
+            InputStream body = response.getBody();
+            VolumeDetails details = VolumeDetails.decode(body);
+            drain(body);
+            return details;
+        } catch (CircuitOpenException e) {
+            CoreLog.d(LOG_TAG, e.getMessage());
+            return null;
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem retrieving the volume JSON results.", e);
+            return null;
+        } finally {
+            if (response != null) {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Returns new URL object from the given string URL.
+     */
+    private static URL createUrl(String stringUrl) {
+        URL url = null;
+        try {
+            url = new URL(stringUrl);
+        } catch (MalformedURLException e) {
+            CoreLog.e(LOG_TAG, "Problem building the URL ", e);
+        }
+        return url;
+    }
+
+    /**
+     * Make an HTTP request to the given URL and return the list of {@link Booklisting}s
+     * decoded from the response, or null if there is nothing to show.
+     * <p>
+     * If the cache holds an expired copy of the response, the request is made conditional on
+     * its validators and a 304 answer is served from disk. A 200 answer is copied into the
+     * cache while it is being decoded. If the request fails, the expired copy is served.
+     */
+    private static List<Booklisting> makeHttpRequest(URL url, BooklistingCache cache, String cacheKey,
+                                                     QueryCancellation cancellation, QueryTrace trace,
+                                                     boolean background) {
+        List<Booklisting> booklistings = null;
+        boolean failed = false;
+
+        // If the URL is null, then return early.
+        if (url == null) {
+            return booklistings;
+        }
+
+        BooklistingCache.DiskEntry staleEntry = cache != null ? cache.getDiskEntry(cacheKey) : null;
+
+        HttpTransport.Request request = new HttpTransport.Request(url);
+        request.cancellation = cancellation;
+        request.trace = trace;
+        request.background = background;
+        if (staleEntry != null) {
+            if (staleEntry.etag != null) {
+                request.headers.put("If-None-Match", staleEntry.etag);
+            }
+            if (staleEntry.lastModified != null) {
+                request.headers.put("If-Modified-Since", staleEntry.lastModified);
+            }
+        }
+
+        HttpTransport.Response response = null;
+        try {
+            response = sTransport.execute(request);
+            trace.mark(QueryTrace.Phase.FIRST_BYTE);
+
+            int responseCode = response.getCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && staleEntry != null) {
+                // The cached copy is still current, so no body was transferred.
+                booklistings = cache.onNotModified(cacheKey, staleEntry);
+                trace.mark(QueryTrace.Phase.PARSE);
+                trace.setOutcome(QueryTrace.Outcome.NOT_MODIFIED);
+            } else if (responseCode == 200) {
+                // If the request was successful (response code 200),
+                // then decode the response straight off the input stream.
+                TimedInputStream timedBody = new TimedInputStream(response.getBody(), trace.isEnabled());
+                InputStream body = timedBody;
+                if (cache == null) {
+                    booklistings = BooklistingJsonDecoder.decode(body);
+                    drain(body);
+                } else {
+                    booklistings = decodeIntoCache(body, response, cache, cacheKey);
+                }
+                trace.mark(QueryTrace.Phase.PARSE);
+                trace.move(QueryTrace.Phase.PARSE, QueryTrace.Phase.READ, timedBody.getReadNanos());
+                trace.addBytesRead(timedBody.getByteCount());
+                trace.setOutcome(QueryTrace.Outcome.NETWORK);
+                // Sizes the pages of later searches
+                if (booklistings != null) {
+                    NetworkQualityEstimator.get().onResultsDecoded(booklistings.size(), timedBody.getByteCount());
+                }
+            } else {
+                CoreLog.e(LOG_TAG, "Error response code: " + responseCode);
+                failed = true;
+            }
+        } catch (CircuitOpenException e) {
+            CoreLog.d(LOG_TAG, e.getMessage());
+            failed = true;
+        } catch (IOException e) {
+            if (cancellation != null && cancellation.isCanceled()) {
+                CoreLog.d(LOG_TAG, "Request cancelled: " + url);
+            } else {
+                CoreLog.e(LOG_TAG, "Problem retrieving the booklist JSON results.", e);
+                failed = true;
+            }
+        } finally {
+            if (cancellation != null) {
+                cancellation.detach();
+            }
+            if (response != null) {
+                // Closing a fully read response hands the connection back for reuse.
+                response.close();
+            }
+        }
+
+        if (failed && cache != null) {
+            // An old result is better than none; the next search tries the network again.
+            booklistings = cache.getStale(cacheKey);
+            if (booklistings != null) {
+                trace.setOutcome(QueryTrace.Outcome.STALE);
+            }
+        }
+        return booklistings;
+    }
+
+    /**
+     * Decode the response while copying its raw bytes into the cache.
+     */
+    private static List<Booklisting> decodeIntoCache(InputStream body, HttpTransport.Response response,
+                                                     BooklistingCache cache, String cacheKey)
+            throws IOException {
+        BooklistingCache.BodyWriter bodyWriter = cache.openBodyWriter(cacheKey);
+        TeeInputStream teeStream = new TeeInputStream(body, bodyWriter);
+        boolean complete = false;
+        try {
+            List<Booklisting> booklistings = BooklistingJsonDecoder.decode(teeStream);
+            // Drain anything after the closing brace so the cached copy is byte-identical.
+            drain(teeStream);
+            complete = true;
+            if (booklistings == null) {
+                booklistings = new ArrayList<>();
+            }
+            teeStream.closeCopy();
+            if (teeStream.isCopyAbandoned()) {
+                // The copy on disk is missing bytes; keep only the parsed results
+                cache.abortBody(bodyWriter);
+                bodyWriter = null;
+            }
+            cache.put(cacheKey, booklistings, response.getHeader("ETag"),
+                    response.getHeader("Last-Modified"), teeStream.getByteCount(), bodyWriter);
+            return booklistings;
+        } finally {
+            if (!complete) {
+                teeStream.closeCopy();
+                cache.abortBody(bodyWriter);
+            }
+        }
+    }
+
+    /**
+     * Read whatever is left after the closing brace. The connection is only reused once the
+     * response has been consumed to the end.
+     */
+    private static void drain(InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[512];
+        while (inputStream.read(buffer) != -1) {
+            // Keep reading until the end of the response.
+        }
+    }
+
+    /**
+     * Copies everything read from the wrapped stream into a second stream. Failures of the copy
+     * only disable the copy; reading carries on.
+     */
+    private static final class TeeInputStream extends FilterInputStream {
+        private OutputStream mCopy;
+        private long mByteCount;
+        private boolean mCopyAbandoned;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            mCopy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mByteCount++;
+                if (mCopy != null) {
+                    try {
+                        mCopy.write(b);
+                    } catch (IOException e) {
+                        abandonCopy(e);
+                    }
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                mByteCount += count;
+                if (mCopy != null) {
+                    try {
+                        mCopy.write(buffer, offset, count);
+                    } catch (IOException e) {
+                        abandonCopy(e);
+                    }
+                }
+            }
+            return count;
+        }
+
+        long getByteCount() {
+            return mByteCount;
+        }
+
+        void closeCopy() {
+            if (mCopy != null) {
+                try {
+                    mCopy.close();
+                } catch (IOException e) {
+                    CoreLog.e(LOG_TAG, "Problem closing the cached copy of the response.", e);
+                }
+                mCopy = null;
+            }
+        }
+
+        /**
+         * Returns true if writing the copy failed partway.
+         */
+        boolean isCopyAbandoned() {
+            return mCopyAbandoned;
+        }
+
+        private void abandonCopy(IOException e) {
+            CoreLog.e(LOG_TAG, "Problem caching the response, continuing without it.", e);
+            mCopyAbandoned = true;
+            closeCopy();
+        }
+    }
+
+    /**
+     * Counts the bytes read from the wrapped stream and, if timed, the time spent waiting for
+     * them. The byte count sizes later pages, see {@link NetworkQualityEstimator}, so it is
+     * always kept; the time is only read off the clock while the request is traced.
+     */
+    private static final class TimedInputStream extends FilterInputStream {
+        private final boolean mTimed;
+        private long mByteCount;
+        private long mReadNanos;
+
+        TimedInputStream(InputStream in, boolean timed) {
+            super(in);
+            mTimed = timed;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = mTimed ? System.nanoTime() : 0;
+            int b = super.read();
+            if (mTimed) {
+                mReadNanos += System.nanoTime() - start;
+            }
+            if (b != -1) {
+                mByteCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            long start = mTimed ? System.nanoTime() : 0;
+            int count = super.read(buffer, offset, length);
+            if (mTimed) {
+                mReadNanos += System.nanoTime() - start;
+            }
+            if (count > 0) {
+                mByteCount += count;
+            }
+            return count;
+        }
+
+        long getByteCount() {
+            return mByteCount;
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+    }
+}
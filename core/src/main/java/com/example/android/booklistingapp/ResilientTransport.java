@@ -0,0 +1,496 @@
+package com.example.android.booklistingapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link HttpTransport} that makes the requests of another transport more dependable.
+ * <ul>
+ * <li>Failed requests, and answers with a status that says "try again" (429, 500, 502, 503,
+ * 504), are retried after a randomly jittered, exponentially growing delay. Every request is
+ * an idempotent GET, so retrying is always safe. All attempts of a request share one time
+ * budget: no retry is started, and no delay waited out, that would run past it, and the
+ * timeouts of every attempt, the first included, are cut to what is left.</li>
+ * <li>A {@link CircuitBreaker} stops the retries, and rejects new requests with a
+ * {@link CircuitOpenException}, while the service keeps failing. {@link QueryUtils} then
+ * serves the cached copy of the response, if there is one. Background requests, such as
+ * prefetches, have a breaker of their own, so their failures never lock the user out; they
+ * are only sent while the breaker of the user's requests is closed.</li>
+ * <li>Optionally, when an attempt has not received its headers by the 95th percentile of the
+ * recently observed latencies, a second, identical request is sent, and whichever answers first
+ * is used. At most one request in ten is hedged, so a slow service does not get twice the
+ * load.</li>
+ * </ul>
+ * Once there are enough latency samples to hedge, attempts run on a background thread, so the
+ * connect time of a request is counted as part of {@link QueryTrace.Phase#FIRST_BYTE}. Until
+ * then they run on the calling thread.
+ */
+public class ResilientTransport implements HttpTransport {
+
+    private static final String LOG_TAG = ResilientTransport.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_BACKOFF_MILLIS = 250;
+    public static final long MAX_BACKOFF_MILLIS = 4000;
+
+    /**
+     * Time all attempts of a request may take together. Well under the connect and read
+     * timeouts of one attempt added up, which is how long a single stuck request used to
+     * hold the loader.
+     */
+    public static final long DEFAULT_TOTAL_BUDGET_MILLIS = 12000;
+
+    /**
+     * A retry with less of the budget left than this is not worth starting.
+     */
+    static final long MIN_ATTEMPT_MILLIS = 1000;
+
+    /**
+     * Number of latency samples needed before requests are hedged.
+     */
+    static final int MIN_HEDGE_SAMPLES = 20;
+
+    /**
+     * At most one request in this many is hedged.
+     */
+    private static final int HEDGE_BUDGET_RATIO = 10;
+
+    private static final ExecutorService sHedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, LOG_TAG + "-" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final HttpTransport mDelegate;
+    private final int mMaxAttempts;
+    private final long mBaseBackoffMillis;
+    private final long mTotalBudgetMillis;
+    private final CircuitBreaker mCircuitBreaker;
+    private final CircuitBreaker mBackgroundCircuitBreaker;
+    private final boolean mHedging;
+    private final LatencyWindow mLatencies = new LatencyWindow(128);
+    private final Random mRandom = new Random();
+
+    private int mRequests;
+    private int mHedges;
+    private int mRetries;
+
+    /**
+     * Wraps the given transport with the default retries, a default {@link CircuitBreaker} and
+     * hedging.
+     */
+    public ResilientTransport(HttpTransport delegate) {
+        this(delegate, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_BACKOFF_MILLIS, new CircuitBreaker(), true);
+    }
+
+    /**
+     * Like {@link #ResilientTransport(HttpTransport, int, long, long, CircuitBreaker,
+     * CircuitBreaker, boolean)}, with the default budget and a default breaker for background
+     * requests.
+     */
+    public ResilientTransport(HttpTransport delegate, int maxAttempts, long baseBackoffMillis,
+                              CircuitBreaker circuitBreaker, boolean hedging) {
+        this(delegate, maxAttempts, baseBackoffMillis, DEFAULT_TOTAL_BUDGET_MILLIS, circuitBreaker,
+                new CircuitBreaker(), hedging);
+    }
+
+    /**
+     * Constructs a new {@link ResilientTransport}.
+     *
+     * @param delegate                 sends the actual requests
+     * @param maxAttempts              is the number of times a request is tried, including the
+     *                                 first
+     * @param baseBackoffMillis        is the upper bound of the delay before the first retry; it
+     *                                 doubles with every further retry
+     * @param totalBudgetMillis        is the time all attempts of a request may take together
+     * @param circuitBreaker           tracks the health of the service for the user's requests
+     * @param backgroundCircuitBreaker tracks it for {@link Request#background} requests
+     * @param hedging                  is true to send a duplicate of requests slower than the p95
+     */
+    public ResilientTransport(HttpTransport delegate, int maxAttempts, long baseBackoffMillis,
+                              long totalBudgetMillis, CircuitBreaker circuitBreaker,
+                              CircuitBreaker backgroundCircuitBreaker, boolean hedging) {
+        mDelegate = delegate;
+        mMaxAttempts = Math.max(1, maxAttempts);
+        mBaseBackoffMillis = baseBackoffMillis;
+        mTotalBudgetMillis = totalBudgetMillis;
+        mCircuitBreaker = circuitBreaker;
+        mBackgroundCircuitBreaker = backgroundCircuitBreaker;
+        mHedging = hedging;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return mCircuitBreaker;
+    }
+
+    public CircuitBreaker getBackgroundCircuitBreaker() {
+        return mBackgroundCircuitBreaker;
+    }
+
+    /**
+     * Returns the number of retries and hedged requests sent so far.
+     */
+    public synchronized String getStats() {
+        return "requests=" + mRequests + " retries=" + mRetries + " hedges=" + mHedges
+                + " circuit=" + mCircuitBreaker.getState() + " background=" + mBackgroundCircuitBreaker.getState();
+    }
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        synchronized (this) {
+            mRequests++;
+        }
+        CircuitBreaker breaker = request.background ? mBackgroundCircuitBreaker : mCircuitBreaker;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mTotalBudgetMillis);
+        for (int attempt = 1; ; attempt++) {
+            if (!allowRequest(request, breaker)) {
+                throw new CircuitOpenException("Not sending " + request.url + " while the service is failing");
+            }
+            capTimeouts(request, deadline);
+            Response response;
+            try {
+                response = mHedging ? executeHedged(request) : mDelegate.execute(request);
+            } catch (IOException e) {
+                if (isCanceled(request)) {
+                    breaker.onCanceled();
+                    throw e;
+                }
+                breaker.onFailure();
+                long delayMillis = delayMillis(attempt, 0);
+                if (attempt >= mMaxAttempts || !fitsBudget(delayMillis, deadline)) {
+                    throw e;
+                }
+                CoreLog.w(LOG_TAG, "Attempt " + attempt + " failed (" + e + "), retrying " + request.url);
+                backOff(request, delayMillis);
+                continue;
+            }
+
+            int code = response.getCode();
+            if (!isRetryable(code)) {
+                breaker.onSuccess();
+                return response;
+            }
+            breaker.onFailure();
+            long delayMillis = delayMillis(attempt, parseRetryAfter(response.getHeader("Retry-After")));
+            if (attempt >= mMaxAttempts || !fitsBudget(delayMillis, deadline)) {
+                return response;
+            }
+            response.close();
+            CoreLog.w(LOG_TAG, "Attempt " + attempt + " answered " + code + ", retrying " + request.url);
+            backOff(request, delayMillis);
+        }
+    }
+
+    /**
+     * Returns true if the request may be sent now. Background requests also wait for the
+     * breaker of the user's requests to close, without taking its trial request.
+     */
+    private boolean allowRequest(Request request, CircuitBreaker breaker) {
+        if (request.background && mCircuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+            return false;
+        }
+        return breaker.allowRequest();
+    }
+
+    /**
+     * Returns true if waiting the given delay still leaves time for a worthwhile attempt before
+     * the deadline.
+     */
+    private static boolean fitsBudget(long delayMillis, long deadline) {
+        long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+        return delayMillis + MIN_ATTEMPT_MILLIS <= remainingMillis;
+    }
+
+    static boolean isRetryable(int code) {
+        return code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+    }
+
+    /**
+     * Returns the delay asked for by a Retry-After header given in seconds, or 0.
+     */
+    private static long parseRetryAfter(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            // An HTTP date; fall back to the computed backoff.
+            return 0;
+        }
+    }
+
+    private static boolean isCanceled(Request request) {
+        return request.cancellation != null && request.cancellation.isCanceled();
+    }
+
+    /**
+     * Returns a random delay up to the base delay doubled for every earlier retry ("full
+     * jitter"), so clients that failed together do not retry together.
+     */
+    long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, mBaseBackoffMillis << Math.min(attempt - 1, 16));
+        synchronized (mRandom) {
+            return (long) (mRandom.nextDouble() * ceiling);
+        }
+    }
+
+    /**
+     * Returns the delay before the retry after the given attempt: the computed backoff, or the
+     * delay the server asked for if longer, up to {@link #MAX_BACKOFF_MILLIS}.
+     */
+    private long delayMillis(int attempt, long retryAfterMillis) {
+        return Math.min(MAX_BACKOFF_MILLIS, Math.max(retryAfterMillis, backoffMillis(attempt)));
+    }
+
+    /**
+     * Wait before the next attempt. Cancelling the request ends the wait early.
+     */
+    private void backOff(Request request, long delayMillis) throws IOException {
+        synchronized (this) {
+            mRetries++;
+        }
+        final Object lock = new Object();
+        if (request.cancellation != null && !request.cancellation.attach(new Closeable() {
+            @Override
+            public void close() {
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+        })) {
+            throw new IOException("Request cancelled");
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            synchronized (lock) {
+                long remaining;
+                while (!isCanceled(request) && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        } finally {
+            if (request.cancellation != null) {
+                request.cancellation.detach();
+            }
+        }
+        if (isCanceled(request)) {
+            throw new IOException("Request cancelled");
+        }
+    }
+
+    /**
+     * Cut the timeouts of the next attempt to what is left of the budget.
+     */
+    private static void capTimeouts(Request request, long budgetDeadline) {
+        int remainingMillis = (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(budgetDeadline - System.nanoTime()));
+        request.connectTimeoutMillis = Math.min(request.connectTimeoutMillis, remainingMillis);
+        request.readTimeoutMillis = Math.min(request.readTimeoutMillis, remainingMillis);
+    }
+
+    /**
+     * Send the request, and a duplicate if it is slow to answer, and return the first response.
+     */
+    private Response executeHedged(Request request) throws IOException {
+        long hedgeAfterMillis = mLatencies.percentileMillis(95, MIN_HEDGE_SAMPLES);
+        if (hedgeAfterMillis < 0) {
+            // Too few samples to hedge: no need for another thread, only for another sample
+            long startedAt = System.nanoTime();
+            Response response = mDelegate.execute(request);
+            mLatencies.add(System.nanoTime() - startedAt);
+            return response;
+        }
+        final HedgedCall call = new HedgedCall();
+        if (request.cancellation != null && !request.cancellation.attach(new Closeable() {
+            @Override
+            public void close() {
+                call.cancelAll();
+            }
+        })) {
+            throw new IOException("Request cancelled");
+        }
+
+        call.start(request);
+        try {
+            Response response = call.await(hedgeAfterMillis);
+            if (response == null && call.isPending() && tryReserveHedge()) {
+                CoreLog.d(LOG_TAG, "No answer after " + hedgeAfterMillis + " ms, hedging " + request.url);
+                call.start(request);
+                response = call.await(0);
+            } else if (response == null) {
+                response = call.await(0);
+            }
+            return response;
+        } catch (InterruptedException e) {
+            call.cancelAll();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        }
+    }
+
+    private synchronized boolean tryReserveHedge() {
+        if ((mHedges + 1) * HEDGE_BUDGET_RATIO > mRequests) {
+            return false;
+        }
+        mHedges++;
+        return true;
+    }
+
+    /**
+     * One or two copies of a request racing each other. The first response wins; the other
+     * copy is cancelled, and its response closed if it arrives anyway.
+     */
+    private final class HedgedCall {
+        private final QueryCancellation[] mAttempts = new QueryCancellation[2];
+        private int mStarted;
+        private int mFailed;
+        private Response mResponse;
+        private IOException mFailure;
+        private boolean mCanceled;
+
+        synchronized boolean isPending() {
+            return mResponse == null && mFailed < mStarted;
+        }
+
+        void start(Request request) {
+            final QueryCancellation cancellation = new QueryCancellation();
+            synchronized (this) {
+                if (mCanceled) {
+                    cancellation.cancel();
+                }
+                mAttempts[mStarted++] = cancellation;
+            }
+            final Request copy = new Request(request.url);
+            copy.headers.putAll(request.headers);
+            copy.readTimeoutMillis = request.readTimeoutMillis;
+            copy.connectTimeoutMillis = request.connectTimeoutMillis;
+            copy.background = request.background;
+            copy.cancellation = cancellation;
+            sHedgeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long startedAt = System.nanoTime();
+                    try {
+                        Response response = mDelegate.execute(copy);
+                        mLatencies.add(System.nanoTime() - startedAt);
+                        onResponse(cancellation, response);
+                    } catch (IOException e) {
+                        onFailure(e);
+                    }
+                }
+            });
+        }
+
+        private void onResponse(QueryCancellation winner, Response response) {
+            synchronized (this) {
+                if (mResponse == null && !mCanceled) {
+                    mResponse = response;
+                    notifyAll();
+                    response = null;
+                }
+            }
+            if (response != null) {
+                // Lost the race.
+                response.close();
+                return;
+            }
+            for (QueryCancellation attempt : attempts()) {
+                if (attempt != winner) {
+                    attempt.cancel();
+                }
+            }
+        }
+
+        private synchronized void onFailure(IOException e) {
+            mFailed++;
+            mFailure = e;
+            notifyAll();
+        }
+
+        /**
+         * Wait for a response, up to the given time, or without limit for 0.
+         *
+         * @return the response, or null if none arrived in time
+         * @throws IOException if every copy started so far has failed
+         */
+        synchronized Response await(long timeoutMillis) throws IOException, InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            while (mResponse == null && mFailed < mStarted) {
+                if (timeoutMillis == 0) {
+                    wait();
+                } else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+            }
+            if (mResponse != null) {
+                return mResponse;
+            }
+            throw mFailure;
+        }
+
+        void cancelAll() {
+            synchronized (this) {
+                mCanceled = true;
+            }
+            for (QueryCancellation attempt : attempts()) {
+                attempt.cancel();
+            }
+        }
+
+        private synchronized QueryCancellation[] attempts() {
+            return Arrays.copyOf(mAttempts, mStarted);
+        }
+    }
+
+    /**
+     * The most recent latencies of requests that got an answer.
+     */
+    private static final class LatencyWindow {
+        private final long[] mSamples;
+        private int mCount;
+        private int mNext;
+
+        LatencyWindow(int size) {
+            mSamples = new long[size];
+        }
+
+        synchronized void add(long nanos) {
+            mSamples[mNext] = nanos;
+            mNext = (mNext + 1) % mSamples.length;
+            mCount = Math.min(mCount + 1, mSamples.length);
+        }
+
+        /**
+         * Returns the given percentile in milliseconds, or -1 with fewer than minSamples samples.
+         */
+        synchronized long percentileMillis(double percentile, int minSamples) {
+            if (mCount < minSamples) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(mSamples, mCount);
+            Arrays.sort(sorted);
+            int index = Math.min(mCount - 1, (int) Math.ceil(percentile / 100 * mCount) - 1);
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, index)]));
+        }
+    }
+}
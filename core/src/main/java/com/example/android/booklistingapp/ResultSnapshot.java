@@ -0,0 +1,250 @@
+package com.example.android.booklistingapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The most recent search and its first page of results, kept in a small binary file so the
+ * next launch can show them before any network or JSON work.
+ * <p>
+ * The file is a 16 byte header followed by the payload. The header holds a magic number, the
+ * format {@link #VERSION}, the payload length and the CRC32 of the payload. The payload holds
+ * the time the snapshot was saved, the query and the books, each string as a length-prefixed
+ * UTF-8 run. A file that is missing, truncated, of another version or fails its checksum reads
+ * as no snapshot, so a change of format only costs one launch without it.
+ * <p>
+ * Reading maps the file instead of streaming it, which makes it a single copy out of the page
+ * cache however many strings it holds.
+ */
+public final class ResultSnapshot {
+
+    private static final String LOG_TAG = ResultSnapshot.class.getSimpleName();
+
+    /**
+     * "BKSN"
+     */
+    static final int MAGIC = 0x424b534e;
+
+    /**
+     * Version of the payload layout. Bump it whenever the layout changes.
+     */
+    static final int VERSION = 2;
+
+    static final int HEADER_BYTES = 16;
+
+    /**
+     * Largest payload read back. The first page of results is a few kilobytes.
+     */
+    private static final int MAX_PAYLOAD_BYTES = 1024 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final String mQuery;
+    private final List<Booklisting> mBooklistings;
+    private final long mSavedAt;
+
+    private ResultSnapshot(String query, List<Booklisting> booklistings, long savedAt) {
+        mQuery = query;
+        mBooklistings = booklistings;
+        mSavedAt = savedAt;
+    }
+
+    /**
+     * Returns the query the results were loaded for.
+     */
+    public String getmQuery() {
+        return mQuery;
+    }
+
+    /**
+     * Returns the books, in the order they were shown. The list cannot be modified.
+     */
+    public List<Booklisting> getmBooklistings() {
+        return mBooklistings;
+    }
+
+    /**
+     * Returns the time the snapshot was saved, in milliseconds since the epoch.
+     */
+    public long getmSavedAt() {
+        return mSavedAt;
+    }
+
+    /**
+     * Save the query and its results to the given file. The file is replaced as a whole: a
+     * reader sees either the previous snapshot or this one.
+     *
+     * @return true if the snapshot was saved
+     */
+    public static boolean write(File file, String query, List<Booklisting> booklistings) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(4096);
+        try {
+            DataOutputStream out = new DataOutputStream(payload);
+            out.writeLong(System.currentTimeMillis());
+            writeString(out, query);
+            out.writeInt(booklistings.size());
+            for (Booklisting booklisting : booklistings) {
+                writeString(out, booklisting.getmId());
+                writeString(out, booklisting.getmTitle());
+                writeString(out, booklisting.getmThumbnailUrl());
+                String[] authors = booklisting.getmAuthors();
+                out.writeInt(authors.length);
+                for (String author : authors) {
+                    writeString(out, author);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+
+        CRC32 crc = new CRC32();
+        byte[] bytes = payload.toByteArray();
+        crc.update(bytes, 0, bytes.length);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(bytes.length).putInt((int) crc.getValue());
+
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            out.write(header.array());
+            out.write(bytes);
+            out.getFD().sync();
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem writing the result snapshot " + temp, e);
+            closeQuietly(out);
+            temp.delete();
+            return false;
+        } finally {
+            closeQuietly(out);
+        }
+        if (!temp.renameTo(file)) {
+            CoreLog.e(LOG_TAG, "Could not replace the result snapshot " + file);
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the snapshot saved in the given file, or null if there is none or it cannot be
+     * trusted.
+     */
+    public static ResultSnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > HEADER_BYTES + MAX_PAYLOAD_BYTES) {
+                CoreLog.w(LOG_TAG, "Ignoring result snapshot of " + size + " bytes");
+                return null;
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int magic = mapped.getInt();
+            int version = mapped.getInt();
+            int length = mapped.getInt();
+            int checksum = mapped.getInt();
+            if (magic != MAGIC || version != VERSION || length != size - HEADER_BYTES) {
+                CoreLog.w(LOG_TAG, "Ignoring result snapshot of version " + version);
+                return null;
+            }
+
+            // CRC32 only takes arrays before API 26, so the payload is copied out once and
+            // decoded from the copy.
+            byte[] payload = new byte[length];
+            mapped.get(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                CoreLog.w(LOG_TAG, "Ignoring result snapshot with a bad checksum");
+                return null;
+            }
+            return decode(ByteBuffer.wrap(payload));
+        } catch (IOException e) {
+            CoreLog.e(LOG_TAG, "Problem reading the result snapshot " + file, e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static ResultSnapshot decode(ByteBuffer payload) {
+        try {
+            long savedAt = payload.getLong();
+            String query = readString(payload);
+            int count = payload.getInt();
+            if (count < 0 || count > payload.remaining()) {
+                return null;
+            }
+            AuthorPool pool = AuthorPool.shared();
+            List<Booklisting> booklistings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = readString(payload);
+                String title = readString(payload);
+                String thumbnailUrl = readString(payload);
+                int authorCount = payload.getInt();
+                if (authorCount < 1 || authorCount > payload.remaining()) {
+                    return null;
+                }
+                String[] authors = new String[authorCount];
+                for (int j = 0; j < authorCount; j++) {
+                    authors[j] = readString(payload);
+                }
+                booklistings.add(new Booklisting(id, pool.intern(authors), title, thumbnailUrl));
+            }
+            if (payload.hasRemaining()) {
+                return null;
+            }
+            return new ResultSnapshot(query, Collections.unmodifiableList(booklistings), savedAt);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            // The checksum matched, so this was written by a different layout.
+            CoreLog.w(LOG_TAG, "Ignoring malformed result snapshot");
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0 || length > payload.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(payload.array(), payload.arrayOffset() + payload.position(),
+                length, UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.android.booklistingapp;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the main thread for stalls from a thread of its own, and reports them to a
+ * {@link JankMonitor}.
+ * <p>
+ * The watchdog keeps one tick posted to the main thread. A tick that has not run after
+ * {@link #getThresholdMillis()} means the main thread is stuck in something: the watchdog
+ * samples its stack and the phase it is in right then, while it is still stuck. When the tick
+ * finally runs, the stall is recorded with the time the main thread took to get to it. Each
+ * stall is sampled once, so a long one costs one stack trace.
+ * <p>
+ * A stall is measured from the moment its tick was posted, so it may start up to one check
+ * interval, a quarter of the threshold, late.
+ */
+public final class StallWatchdog {
+
+    private static final String LOG_TAG = StallWatchdog.class.getSimpleName();
+
+    public static final long DEFAULT_THRESHOLD_MILLIS = 100;
+
+    private final JankMonitor mMonitor;
+    private final QueryScheduler.Timer mMainTimer;
+    private final Thread mMainThread;
+    private final long mThresholdMillis;
+
+    private Thread mThread;
+
+    /**
+     * Set by the watchdog when it posts a tick, cleared by the tick; the sample is taken by the
+     * watchdog and read by the tick
+     */
+    private volatile boolean mTickPending;
+    private volatile long mTickPostedAtNanos;
+    private volatile long mTickPostedAtMillis;
+    private volatile JankMonitor.Phase mSampledPhase;
+    private volatile StackTraceElement[] mSampledStack;
+
+    private final Runnable mTick = new Runnable() {
+        @Override
+        public void run() {
+            StackTraceElement[] stack = mSampledStack;
+            if (stack != null) {
+                mMonitor.onStall(mSampledPhase, System.nanoTime() - mTickPostedAtNanos, stack,
+                        mTickPostedAtMillis);
+                mSampledStack = null;
+            }
+            mTickPending = false;
+        }
+    };
+
+    /**
+     * Constructs a new {@link StallWatchdog}.
+     *
+     * @param monitor         is told about the stalls
+     * @param mainTimer       posts tasks to the main thread
+     * @param mainThread      is the thread the timer runs its tasks on
+     * @param thresholdMillis is the shortest stall that is reported
+     */
+    public StallWatchdog(JankMonitor monitor, QueryScheduler.Timer mainTimer, Thread mainThread, long thresholdMillis) {
+        mMonitor = monitor;
+        mMainTimer = mainTimer;
+        mMainThread = mainThread;
+        mThresholdMillis = thresholdMillis;
+    }
+
+    public long getThresholdMillis() {
+        return mThresholdMillis;
+    }
+
+    /**
+     * Start watching, unless already watching. Must be called on the main thread.
+     */
+    public void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, LOG_TAG);
+        mThread.setDaemon(true);
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Stop watching. A stall in progress is not reported. Must be called on the main thread.
+     */
+    public void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mThread.interrupt();
+        mThread = null;
+        mMainTimer.removeCallbacks(mTick);
+        mTickPending = false;
+        mSampledStack = null;
+    }
+
+    private void watch() {
+        long checkIntervalMillis = Math.max(1, mThresholdMillis / 4);
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!mTickPending) {
+                    // A sample taken just as the last tick ran belongs to no stall
+                    mSampledStack = null;
+                    mTickPending = true;
+                    mTickPostedAtMillis = System.currentTimeMillis();
+                    mTickPostedAtNanos = System.nanoTime();
+                    mMainTimer.postDelayed(mTick, 0);
+                } else if (mSampledStack == null && System.nanoTime() - mTickPostedAtNanos
+                        >= TimeUnit.MILLISECONDS.toNanos(mThresholdMillis)) {
+                    // Phase first: the stack is what the main thread does in that phase
+                    mSampledPhase = mMonitor.getPhase();
+                    mSampledStack = mMainThread.getStackTrace();
+                }
+                Thread.sleep(checkIntervalMillis);
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+    }
+}
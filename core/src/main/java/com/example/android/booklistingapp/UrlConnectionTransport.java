@@ -0,0 +1,108 @@
+package com.example.android.booklistingapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * {@link HttpTransport} on top of {@link HttpURLConnection}.
+ * <p>
+ * Connections are not disconnected after a successful response. Once the body has been read to
+ * the end and closed, the socket goes back to the platform's keep-alive pool, so repeated
+ * searches against the Books host skip the TCP and TLS handshakes. Responses are requested
+ * gzip-compressed and inflated on the fly while the decoder reads them.
+ */
+public class UrlConnectionTransport implements HttpTransport {
+
+    private static final String LOG_TAG = UrlConnectionTransport.class.getSimpleName();
+
+    @Override
+    public Response execute(Request request) throws IOException {
+        final HttpURLConnection urlConnection = (HttpURLConnection) request.url.openConnection();
+        if (request.cancellation != null && !request.cancellation.attach(new Closeable() {
+            @Override
+            public void close() {
+                urlConnection.disconnect();
+            }
+        })) {
+            throw new IOException("Request cancelled");
+        }
+
+        boolean connected = false;
+        try {
+            urlConnection.setReadTimeout(request.readTimeoutMillis);
+            urlConnection.setConnectTimeout(request.connectTimeoutMillis);
+            urlConnection.setRequestMethod("GET");
+            // Asking for gzip explicitly means the body must be inflated here.
+            urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+            for (Map.Entry<String, String> header : request.headers.entrySet()) {
+                urlConnection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            urlConnection.connect();
+            request.trace.mark(QueryTrace.Phase.CONNECT);
+            int code = urlConnection.getResponseCode();
+            connected = true;
+            return new UrlConnectionResponse(urlConnection, code);
+        } finally {
+            if (!connected) {
+                // A half-open connection cannot be reused.
+                urlConnection.disconnect();
+            }
+        }
+    }
+
+    private static final class UrlConnectionResponse implements Response {
+        private final HttpURLConnection mConnection;
+        private final int mCode;
+        private InputStream mBody;
+
+        UrlConnectionResponse(HttpURLConnection connection, int code) {
+            mConnection = connection;
+            mCode = code;
+        }
+
+        @Override
+        public int getCode() {
+            return mCode;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return mConnection.getHeaderField(name);
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (mBody == null) {
+                InputStream raw = mConnection.getInputStream();
+                mBody = "gzip".equalsIgnoreCase(mConnection.getContentEncoding())
+                        ? new GZIPInputStream(raw) : raw;
+            }
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            try {
+                if (mBody != null) {
+                    mBody.close();
+                } else {
+                    // Close the body without reading it so the connection can be released.
+                    InputStream stream = mCode >= 400 ? mConnection.getErrorStream() : null;
+                    if (stream == null && mCode < 300 && mCode != HttpURLConnection.HTTP_NO_CONTENT) {
+                        stream = mConnection.getInputStream();
+                    }
+                    if (stream != null) {
+                        stream.close();
+                    }
+                }
+            } catch (IOException e) {
+                CoreLog.e(LOG_TAG, "Problem closing the response, dropping the connection.", e);
+                mConnection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.android.booklistingapp;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+
+/**
+ * The details of one volume shown on its detail screen, from {@code /volumes/{id}}.
+ */
+public class VolumeDetails {
+
+    /**
+     * Partial-response projection of the fields read by {@link #decode(InputStream)}.
+     */
+    public static final String PROJECTION = "id,volumeInfo(description,pageCount,industryIdentifiers)";
+
+    private static final String ISBN_10 = "ISBN_10";
+    private static final String ISBN_13 = "ISBN_13";
+
+    /**
+     * Google Books volume id
+     */
+    private final String mId;
+
+    /**
+     * Description of the book, which may contain HTML markup; empty if there is none
+     */
+    private final String mDescription;
+
+    /**
+     * Number of pages, 0 if unknown
+     */
+    private final int mPageCount;
+
+    /**
+     * ISBNs of the book, empty if unknown
+     */
+    private final String mIsbn10;
+    private final String mIsbn13;
+
+    /**
+     * Constructs a new {@link VolumeDetails} object.
+     *
+     * @param id          is the Google Books volume id
+     * @param description of the book
+     * @param pageCount   is the number of pages
+     * @param isbn10      is the 10 digit ISBN
+     * @param isbn13      is the 13 digit ISBN
+     */
+    public VolumeDetails(String id, String description, int pageCount, String isbn10, String isbn13) {
+        mId = id;
+        mDescription = description;
+        mPageCount = pageCount;
+        mIsbn10 = isbn10;
+        mIsbn13 = isbn13;
+    }
+
+    public String getmId() {
+        return mId;
+    }
+
+    public String getmDescription() {
+        return mDescription;
+    }
+
+    public int getmPageCount() {
+        return mPageCount;
+    }
+
+    public String getmIsbn10() {
+        return mIsbn10;
+    }
+
+    public String getmIsbn13() {
+        return mIsbn13;
+    }
+
+    /**
+     * Decode a {@code /volumes/{id}} response, skipping every field that is not read.
+     */
+    public static VolumeDetails decode(InputStream inputStream) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        try {
+            return readVolume(reader);
+        } catch (IllegalStateException e) {
+            // Thrown by JsonReader when the document does not have the expected shape.
+            throw new IOException("Unexpected volume JSON structure", e);
+        }
+    }
+
+    private static VolumeDetails readVolume(JsonReader reader) throws IOException {
+        String id = "";
+        String description = "";
+        int pageCount = 0;
+        String[] isbns = {"", ""};
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("id".equals(name) && reader.peek() == JsonToken.STRING) {
+                id = reader.nextString();
+            } else if ("volumeInfo".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if ("description".equals(field) && reader.peek() == JsonToken.STRING) {
+                        description = reader.nextString();
+                    } else if ("pageCount".equals(field) && reader.peek() == JsonToken.NUMBER) {
+                        pageCount = reader.nextInt();
+                    } else if ("industryIdentifiers".equals(field) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                        readIsbns(reader, isbns);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new VolumeDetails(id, description, pageCount, isbns[0], isbns[1]);
+    }
+
+    /**
+     * Read the ISBN-10 and ISBN-13 out of the industry identifiers, into the given array.
+     */
+    private static void readIsbns(JsonReader reader, String[] isbns) throws IOException {
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String type = null;
+            String identifier = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if ("type".equals(name) && reader.peek() == JsonToken.STRING) {
+                    type = reader.nextString();
+                } else if ("identifier".equals(name) && reader.peek() == JsonToken.STRING) {
+                    identifier = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (identifier != null && ISBN_10.equals(type)) {
+                isbns[0] = identifier;
+            } else if (identifier != null && ISBN_13.equals(type)) {
+                isbns[1] = identifier;
+            }
+        }
+        reader.endArray();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AuthorPool} and the heap held by decoded {@link Booklisting} objects.
+ */
+public class AuthorPoolTest {
+
+    private static final String FIXTURE = "/volumes_40.json";
+
+    /**
+     * Heap a book saves by sharing its author array, rather than holding a joined string
+     */
+    private static final int MIN_SAVED_BYTES_PER_BOOK = 40;
+
+    @Test
+    public void intern_returnsTheFirstInstance() {
+        AuthorPool pool = new AuthorPool(4);
+        String first = new String("Ursula K. Le Guin");
+        String second = new String("Ursula K. Le Guin");
+
+        assertSame(first, pool.intern(first));
+        assertSame(first, pool.intern(second));
+        assertEquals(1, pool.size());
+    }
+
+    @Test
+    public void intern_forgetsLeastRecentlyUsedNames() {
+        AuthorPool pool = new AuthorPool(2);
+        String a = new String("A");
+        pool.intern(a);
+        pool.intern("B");
+        pool.intern("A");
+        pool.intern("C");
+
+        assertEquals(2, pool.size());
+        // "A" was used more recently than "B", so it is still pooled.
+        assertSame(a, pool.intern(new String("A")));
+        String b = new String("B");
+        assertSame(b, pool.intern(b));
+    }
+
+    @Test
+    public void intern_sharesEqualAuthorLists() {
+        AuthorPool pool = new AuthorPool(4);
+        String[] first = pool.intern(new String[]{"Terry Pratchett", "Neil Gaiman"});
+        String[] second = pool.intern(new String[]{new String("Terry Pratchett"), "Neil Gaiman"});
+
+        assertSame(first, second);
+        assertSame(first[0], pool.intern(new String("Terry Pratchett")));
+    }
+
+    @Test
+    public void decode_sharesAuthorNamesAcrossResponses() throws Exception {
+        byte[] fixture = BooklistingJsonDecoderTest.readFixture(FIXTURE);
+        List<Booklisting> first = BooklistingJsonDecoder.decode(new ByteArrayInputStream(fixture));
+        List<Booklisting> second = BooklistingJsonDecoder.decode(new ByteArrayInputStream(fixture));
+        assertNotNull(first);
+        assertNotNull(second);
+
+        for (int i = 0; i < first.size(); i++) {
+            String[] firstAuthors = first.get(i).getmAuthors();
+            assertSame(firstAuthors, second.get(i).getmAuthors());
+            if (firstAuthors.length > 1) {
+                // The joined display string is built on demand and not kept.
+                assertNotSame(first.get(i).getmAuthor(), second.get(i).getmAuthor());
+            }
+            assertEquals(first.get(i).getmAuthor(), second.get(i).getmAuthor());
+        }
+    }
+
+    /**
+     * Retains a few thousand decoded books, as paging and the response cache do, and compares
+     * the heap their authors hold with the same books stored the old way, with a pre-joined
+     * author string per book. The heap is counted from the objects the books reach rather than
+     * read off the garbage collector, so the result does not depend on when it runs.
+     */
+    @Test
+    public void decode_retainsLessHeapThanPreJoinedAuthors() throws Exception {
+        byte[] fixture = BooklistingJsonDecoderTest.readFixture(FIXTURE);
+        final int responses = 100;
+        List<Booklisting> books = new ArrayList<>();
+        for (int i = 0; i < responses; i++) {
+            books.addAll(BooklistingJsonDecoder.decode(new ByteArrayInputStream(fixture)));
+        }
+
+        // Shared arrays and names count once, however many books hold them
+        Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        long pooledBytes = 0;
+        long preJoinedBytes = 0;
+        for (Booklisting book : books) {
+            String[] authors = book.getmAuthors();
+            if (counted.add(authors)) {
+                pooledBytes += arrayBytes(authors.length);
+            }
+            for (String author : authors) {
+                if (counted.add(author)) {
+                    pooledBytes += stringBytes(author);
+                }
+            }
+            // The old layout held a joined string of its own per book
+            preJoinedBytes += stringBytes(book.getmAuthor());
+        }
+
+        // Both layouts hold the same ids, titles and thumbnail addresses, so the difference is
+        // what pooling the authors saves.
+        assertTrue("pooled " + pooledBytes + " bytes, pre-joined " + preJoinedBytes + " bytes",
+                (preJoinedBytes - pooledBytes) / books.size() >= MIN_SAVED_BYTES_PER_BOOK);
+    }
+
+    /**
+     * Returns the heap a String holds on a 32-bit VM: the object, and its char array.
+     */
+    private static long stringBytes(String string) {
+        return 24 + align(12 + 2L * string.length());
+    }
+
+    /**
+     * Returns the heap an array of references holds on a 32-bit VM.
+     */
+    private static long arrayBytes(int length) {
+        return align(12 + 4L * length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) / 8 * 8;
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link BatchQueryRunner} against a fake transport that records how many requests are in
+ * flight and when each one was sent.
+ */
+public class BatchQueryRunnerTest {
+
+    private static final long RESPONSE_DELAY_MILLIS = 20;
+
+    private byte[] mFixture;
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+    private final List<Long> mSentAtNanos = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        mFixture = BooklistingJsonDecoderTest.readFixture("/volumes_40.json");
+        QueryUtils.setCache(null);
+        QueryUtils.setTransport(new HttpTransport() {
+            @Override
+            public Response execute(Request request) throws IOException {
+                synchronized (mSentAtNanos) {
+                    mSentAtNanos.add(System.nanoTime());
+                }
+                int inFlight = mInFlight.incrementAndGet();
+                while (true) {
+                    int max = mMaxInFlight.get();
+                    if (inFlight <= max || mMaxInFlight.compareAndSet(max, inFlight)) {
+                        break;
+                    }
+                }
+                try {
+                    Thread.sleep(RESPONSE_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                } finally {
+                    mInFlight.decrementAndGet();
+                }
+                return new Response() {
+                    @Override
+                    public int getCode() {
+                        return 200;
+                    }
+
+                    @Override
+                    public String getHeader(String name) {
+                        return null;
+                    }
+
+                    @Override
+                    public InputStream getBody() {
+                        return new ByteArrayInputStream(mFixture);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(new UrlConnectionTransport());
+    }
+
+    @Test
+    public void run_streamsEveryResultWithBoundedConcurrency() throws Exception {
+        List<String> requestUrls = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            requestUrls.add("http://host" + (i % 3) + ".invalid/books/v1/volumes?q=q" + i);
+        }
+        final List<BatchQueryRunner.Result> results = new ArrayList<>();
+
+        BatchQueryRunner runner = new BatchQueryRunner(3, new HostRateLimiter(1000, 100));
+        BatchQueryRunner.Report report = runner.run(requestUrls, new BatchQueryRunner.Sink() {
+            @Override
+            public void onResult(BatchQueryRunner.Result result) {
+                results.add(result);
+            }
+        });
+
+        System.out.println(report);
+        assertEquals(30, results.size());
+        assertEquals(30, report.getCount());
+        assertEquals(30, report.getWithResults());
+        for (BatchQueryRunner.Result result : results) {
+            assertEquals(40, result.getmBooklistings().size());
+        }
+        assertTrue("at most 3 requests in flight", mMaxInFlight.get() <= 3);
+        assertTrue("requests ran concurrently", mMaxInFlight.get() > 1);
+        assertTrue(report.getLatencyMillis(50) >= RESPONSE_DELAY_MILLIS);
+        assertTrue(report.getLatencyMillis(50) <= report.getLatencyMillis(99));
+        assertTrue(report.getQueriesPerSecond() > 0);
+    }
+
+    @Test
+    public void run_spacesRequestsToOneHost() throws Exception {
+        List<String> requestUrls = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            requestUrls.add("http://books.invalid/books/v1/volumes?q=q" + i);
+        }
+
+        // 50 requests per second with no burst: one request every 20 ms.
+        BatchQueryRunner runner = new BatchQueryRunner(4, new HostRateLimiter(50, 1));
+        runner.run(requestUrls, new BatchQueryRunner.Sink() {
+            @Override
+            public void onResult(BatchQueryRunner.Result result) {
+            }
+        });
+
+        long spanMillis = (mSentAtNanos.get(mSentAtNanos.size() - 1) - mSentAtNanos.get(0)) / 1000000;
+        assertEquals(10, mSentAtNanos.size());
+        assertTrue("10 requests took only " + spanMillis + " ms", spanMillis >= 9 * 20 * 9 / 10);
+    }
+
+    @Test
+    public void run_limitsEveryHostSeparately() throws Exception {
+        List<String> requestUrls = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            requestUrls.add("http://host" + i + ".invalid/books/v1/volumes?q=q");
+        }
+
+        // One request per second per host would take 7 s if the hosts shared a bucket.
+        BatchQueryRunner runner = new BatchQueryRunner(8, new HostRateLimiter(1, 1));
+        BatchQueryRunner.Report report = runner.run(requestUrls, new BatchQueryRunner.Sink() {
+            @Override
+            public void onResult(BatchQueryRunner.Result result) {
+            }
+        });
+
+        assertEquals(8, report.getCount());
+        assertTrue(report.getElapsedNanos() < 1000000000L);
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Runs {@link QueryUtils#fetchBooklistingData(String)} through {@link BooklistingCache} against a
+ * local server and counts the round trips and bytes each cache tier saves.
+ */
+public class BooklistingCacheTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private FakeBooksServer mServer;
+    private File mCacheDir;
+    private int mFixtureLength;
+
+    @Before
+    public void setUp() throws Exception {
+        byte[] fixture = BooklistingJsonDecoderTest.readFixture("/volumes_40.json");
+        mFixtureLength = fixture.length;
+        mServer = new FakeBooksServer(fixture);
+        mCacheDir = mTemporaryFolder.newFolder("responses");
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setCache(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void normalizeUrl_ignoresCaseSpacingAndParameterOrder() {
+        assertEquals(
+                BooklistingCache.normalizeUrl("https://www.googleapis.com/books/v1/volumes?maxResults=30&q=android"),
+                BooklistingCache.normalizeUrl("HTTPS://WWW.googleapis.com/books/v1/volumes?q=%20Android++&maxResults=30"));
+    }
+
+    @Test
+    public void freshEntries_areServedWithoutNetwork() {
+        BooklistingCache cache = new BooklistingCache(mCacheDir);
+        QueryUtils.setCache(cache);
+
+        List<Booklisting> first = QueryUtils.fetchBooklistingData(mServer.volumesUrl("android"));
+        List<Booklisting> retyped = QueryUtils.fetchBooklistingData(mServer.volumesUrl("Android"));
+
+        assertNotNull(first);
+        assertEquals(40, first.size());
+        assertEquals(first, retyped);
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, cache.getStats().memoryHits);
+
+        // A new process only has the disk tier to go on.
+        BooklistingCache restarted = new BooklistingCache(mCacheDir);
+        QueryUtils.setCache(restarted);
+        assertEquals(40, QueryUtils.fetchBooklistingData(mServer.volumesUrl("android")).size());
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, restarted.getStats().diskHits);
+        printSavings(3);
+    }
+
+    @Test
+    public void concurrentWritersOfOneKey_eachPublishAWholeBody() throws Exception {
+        byte[] fixture = BooklistingJsonDecoderTest.readFixture("/volumes_40.json");
+        String key = BooklistingCache.normalizeUrl(mServer.volumesUrl("android"));
+        BooklistingCache cache = new BooklistingCache(mCacheDir);
+
+        // A prefetch and the user's own search copy the same response at the same time
+        BooklistingCache.BodyWriter prefetch = cache.openBodyWriter(key);
+        BooklistingCache.BodyWriter search = cache.openBodyWriter(key);
+        int half = fixture.length / 2;
+        prefetch.write(fixture, 0, half);
+        search.write(fixture, 0, fixture.length);
+        search.close();
+        cache.put(key, new ArrayList<Booklisting>(), null, null, fixture.length, search);
+        prefetch.write(fixture, half, fixture.length - half);
+        prefetch.close();
+        cache.put(key, new ArrayList<Booklisting>(), null, null, fixture.length, prefetch);
+
+        List<Booklisting> onDisk = new BooklistingCache(mCacheDir).getFresh(key);
+        assertNotNull(onDisk);
+        assertEquals(40, onDisk.size());
+        assertEquals(2, mCacheDir.list().length);
+    }
+
+    @Test
+    public void expiredEntries_areRevalidatedWithoutPayload() {
+        BooklistingCache cache = new BooklistingCache(mCacheDir, 20, BooklistingCache.DEFAULT_MAX_DISK_BYTES, 0);
+        QueryUtils.setCache(cache);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(40, QueryUtils.fetchBooklistingData(mServer.volumesUrl("android")).size());
+        }
+
+        assertEquals(5, mServer.getRequestCount());
+        assertEquals(4, mServer.getNotModifiedCount());
+        assertEquals(4, cache.getStats().revalidatedHits);
+        // Only the first, full response carried a body.
+        assertEquals(mFixtureLength, cache.getStats().bytesDownloaded);
+        printSavings(5);
+    }
+
+    @Test
+    public void diskTier_evictsLeastRecentlyUsed() {
+        long oneResponse = mServer.volumesUrl("").length() + 200_000;
+        BooklistingCache cache = new BooklistingCache(mCacheDir, 1, oneResponse, BooklistingCache.DEFAULT_TTL_MILLIS);
+        QueryUtils.setCache(cache);
+
+        QueryUtils.fetchBooklistingData(mServer.volumesUrl("android"));
+        QueryUtils.fetchBooklistingData(mServer.volumesUrl("kotlin"));
+
+        BooklistingCache.Stats stats = cache.getStats();
+        assertEquals(1, stats.memoryEvictions);
+        assertEquals(1, stats.diskEvictions);
+    }
+
+    private void printSavings(int fetches) {
+        System.out.println(fetches + " fetches: " + mServer.getRequestCount() + " round trips, "
+                + mServer.getBodyBytes() + " body bytes transferred");
+    }
+}
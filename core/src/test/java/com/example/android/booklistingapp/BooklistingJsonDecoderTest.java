@@ -0,0 +1,168 @@
+package com.example.android.booklistingapp;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link BooklistingJsonDecoder} against the line-reader + JSONObject parser it replaced,
+ * using a recorded Google Books response.
+ */
+public class BooklistingJsonDecoderTest {
+
+    private static final String FIXTURE = "/volumes_40.json";
+
+    @Test
+    public void decode_matchesDomParser() throws Exception {
+        byte[] fixture = readFixture(FIXTURE);
+
+        List<Booklisting> expected = domParse(new ByteArrayInputStream(fixture));
+        List<Booklisting> actual = BooklistingJsonDecoder.decode(new ByteArrayInputStream(fixture));
+
+        assertNotNull(actual);
+        assertEquals(40, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getmTitle(), actual.get(i).getmTitle());
+            assertEquals(expected.get(i).getmAuthor(), actual.get(i).getmAuthor());
+        }
+    }
+
+    @Test
+    public void decode_returnsNullWithoutItems() throws Exception {
+        byte[] response = "{\"kind\":\"books#volumes\",\"totalItems\":0}".getBytes("UTF-8");
+        assertNull(BooklistingJsonDecoder.decode(new ByteArrayInputStream(response)));
+    }
+
+    @Test
+    public void decode_allocatesFarLessThanDomParser() throws Exception {
+        final byte[] fixture = readFixture(FIXTURE);
+        final int rounds = 50;
+
+        // Warm up both paths so JIT compilation does not count towards the measurement.
+        for (int i = 0; i < rounds; i++) {
+            domParse(new ByteArrayInputStream(fixture));
+            BooklistingJsonDecoder.decode(new ByteArrayInputStream(fixture));
+        }
+
+        long domBytes = allocatedBytes(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < rounds; i++) {
+                    try {
+                        domParse(new ByteArrayInputStream(fixture));
+                    } catch (Exception e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+        });
+        long streamingBytes = allocatedBytes(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < rounds; i++) {
+                    try {
+                        BooklistingJsonDecoder.decode(new ByteArrayInputStream(fixture));
+                    } catch (IOException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+            }
+        });
+
+        System.out.println("Allocated per response: DOM " + domBytes / rounds
+                + " bytes, streaming " + streamingBytes / rounds + " bytes");
+        if (domBytes > 0) {
+            assertTrue("streaming decoder should allocate less than half of the DOM parser",
+                    streamingBytes * 2 < domBytes);
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread while running the task, or 0 if the
+     * JVM cannot measure it.
+     */
+    private static long allocatedBytes(Runnable task) {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            task.run();
+            return 0;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+        long before = sunBean.getThreadAllocatedBytes(threadId);
+        task.run();
+        return sunBean.getThreadAllocatedBytes(threadId) - before;
+    }
+
+    /**
+     * The previous QueryUtils parsing path: read the response line by line into a String, then
+     * build a JSONObject tree and pick the title and authors out of it.
+     */
+    private static List<Booklisting> domParse(InputStream inputStream) throws IOException, JSONException {
+        StringBuilder output = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, Charset.forName("UTF-8")));
+        String line = reader.readLine();
+        while (line != null) {
+            output.append(line);
+            line = reader.readLine();
+        }
+
+        List<Booklisting> booklistings = new ArrayList<>();
+        JSONArray booklistingArray = new JSONObject(output.toString()).getJSONArray("items");
+        for (int i = 0; i < booklistingArray.length(); i++) {
+            JSONObject items = booklistingArray.getJSONObject(i).getJSONObject("volumeInfo");
+            JSONArray authorArray = items.optJSONArray("authors");
+            ArrayList<String> authors = new ArrayList<>();
+            if (null != authorArray && authorArray.length() != 0) {
+                for (int j = 0; j < authorArray.length(); j++) {
+                    authors.add(authorArray.getString(j));
+                }
+            } else {
+                authors.add(Booklisting.UNKNOWN_AUTHOR);
+            }
+            StringBuilder joined = new StringBuilder();
+            for (int j = 0; j < authors.size(); j++) {
+                if (j > 0) {
+                    joined.append(Booklisting.AUTHOR_SEPARATOR);
+                }
+                joined.append(authors.get(j));
+            }
+            booklistings.add(new Booklisting(joined.toString(), items.getString("title")));
+        }
+        return booklistings;
+    }
+
+    static byte[] readFixture(String name) throws IOException {
+        InputStream in = BooklistingJsonDecoderTest.class.getResourceAsStream(name);
+        assertNotNull("missing fixture " + name, in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the {@code fields=} projection derived from {@link Booklisting} and measures what it
+ * saves on recorded responses fetched with and without it.
+ */
+public class BooklistingSchemaTest {
+
+    @Test
+    public void projection_coversAnnotatedFields() {
+        assertEquals("items(id,volumeInfo(authors,imageLinks(thumbnail),title))", BooklistingSchema.get().getProjection());
+    }
+
+    @Test
+    public void leanProjection_leavesOutDeferrableFields() {
+        assertEquals("items(id,volumeInfo(authors,title))", BooklistingSchema.get().getLeanProjection());
+    }
+
+    @Test
+    public void projectedResponse_decodesToSameBooks_withLessPayloadAndParseTime() throws Exception {
+        byte[] full = BooklistingJsonDecoderTest.readFixture("/volumes_40.json");
+        byte[] projected = BooklistingJsonDecoderTest.readFixture("/volumes_40_projected.json");
+
+        List<Booklisting> fromFull = BooklistingJsonDecoder.decode(new ByteArrayInputStream(full));
+        List<Booklisting> fromProjected = BooklistingJsonDecoder.decode(new ByteArrayInputStream(projected));
+        assertEquals(fromFull.size(), fromProjected.size());
+        for (int i = 0; i < fromFull.size(); i++) {
+            assertEquals(fromFull.get(i).getmId(), fromProjected.get(i).getmId());
+            assertEquals(fromFull.get(i).getmTitle(), fromProjected.get(i).getmTitle());
+            assertEquals(fromFull.get(i).getmAuthor(), fromProjected.get(i).getmAuthor());
+            assertEquals(fromFull.get(i).getmThumbnailUrl(), fromProjected.get(i).getmThumbnailUrl());
+        }
+
+        long fullNanos = averageParseNanos(full);
+        long projectedNanos = averageParseNanos(projected);
+        System.out.println("Payload: " + full.length + " -> " + projected.length + " bytes; parse: "
+                + fullNanos / 1000 + " -> " + projectedNanos / 1000 + " us");
+
+        // The thumbnail addresses are most of what is left.
+        assertTrue(projected.length * 8 < full.length);
+        assertTrue(projectedNanos < fullNanos);
+    }
+
+    private static long averageParseNanos(byte[] response) throws Exception {
+        int rounds = 200;
+        for (int i = 0; i < rounds; i++) {
+            BooklistingJsonDecoder.decode(new ByteArrayInputStream(response));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            BooklistingJsonDecoder.decode(new ByteArrayInputStream(response));
+        }
+        return (System.nanoTime() - start) / rounds;
+    }
+}
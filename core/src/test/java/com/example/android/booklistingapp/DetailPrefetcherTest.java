@@ -0,0 +1,340 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the ordering, concurrency limit and cache of {@link DetailPrefetcher} against a
+ * transport that holds every request until the test releases it.
+ */
+public class DetailPrefetcherTest {
+
+    private static final String VOLUME_URL = "http://localhost/volumes/";
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private HttpTransport mOriginalTransport;
+    private GatedTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mOriginalTransport = QueryUtils.getTransport();
+        mTransport = new GatedTransport();
+        QueryUtils.setTransport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        // Release anything still waiting rather than leave its thread blocked.
+        mTransport.release(100);
+        QueryUtils.setTransport(mOriginalTransport);
+    }
+
+    @Test
+    public void decode_readsDescriptionPageCountAndIsbns() throws IOException {
+        VolumeDetails details = VolumeDetails.decode(new ByteArrayInputStream(volumeJson("abc")));
+
+        assertEquals("abc", details.getmId());
+        assertEquals("About abc", details.getmDescription());
+        assertEquals(320, details.getmPageCount());
+        assertEquals("0123456789", details.getmIsbn10());
+        assertEquals("9780123456789", details.getmIsbn13());
+    }
+
+    @Test
+    public void visibleRows_areFetchedTopFirst_withinTheLimit() throws Exception {
+        DetailPrefetcher prefetcher = new DetailPrefetcher(VOLUME_URL, 2, 10);
+        prefetcher.setVisible(Arrays.asList("a", "b", "c", "d"));
+
+        // Requests started together may reach the transport in either order.
+        mTransport.awaitStarted(2);
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), new HashSet<>(mTransport.getStarted()));
+        assertEquals(2, mTransport.getMaxRunning());
+
+        mTransport.release(2);
+        mTransport.awaitStarted(4);
+        mTransport.release(2);
+        awaitCached(prefetcher, "d");
+
+        assertEquals(new HashSet<>(Arrays.asList("c", "d")),
+                new HashSet<>(mTransport.getStarted().subList(2, 4)));
+        assertEquals(2, mTransport.getMaxRunning());
+        assertEquals(4, prefetcher.getStats().getRequests());
+    }
+
+    @Test
+    public void rowsScrolledAway_areDroppedFromTheQueue() throws Exception {
+        DetailPrefetcher prefetcher = new DetailPrefetcher(VOLUME_URL, 1, 10);
+        prefetcher.setVisible(Arrays.asList("a", "b", "c"));
+        mTransport.awaitStarted(1);
+
+        // "a" keeps running; "b" is gone and "d" comes into view.
+        prefetcher.setVisible(Arrays.asList("c", "d"));
+        mTransport.release(3);
+        awaitCached(prefetcher, "d");
+
+        assertEquals(Arrays.asList("a", "c", "d"), mTransport.getStarted());
+        assertNotNull(prefetcher.getCached("a"));
+        assertNull(prefetcher.getCached("b"));
+        assertEquals(1, prefetcher.getStats().getDropped());
+    }
+
+    @Test
+    public void load_isAnsweredFromTheCache_withoutARequest() throws Exception {
+        DetailPrefetcher prefetcher = new DetailPrefetcher(VOLUME_URL, 2, 10);
+        prefetcher.setVisible(Arrays.asList("a"));
+        mTransport.release(1);
+        VolumeDetails cached = awaitCached(prefetcher, "a");
+
+        final AtomicReference<VolumeDetails> loaded = new AtomicReference<>();
+        prefetcher.load("a", new DetailPrefetcher.Callback() {
+            @Override
+            public void onDetails(String volumeId, VolumeDetails details) {
+                loaded.set(details);
+            }
+        });
+
+        // Answered before load returned
+        assertSame(cached, loaded.get());
+        assertEquals(1, mTransport.getStarted().size());
+        assertEquals(1, prefetcher.getStats().getHits());
+    }
+
+    @Test
+    public void load_jumpsTheQueue_andJoinsRunningRequests() throws Exception {
+        DetailPrefetcher prefetcher = new DetailPrefetcher(VOLUME_URL, 1, 10);
+        prefetcher.setVisible(Arrays.asList("a", "b", "c"));
+        mTransport.awaitStarted(1);
+
+        final CountDownLatch answered = new CountDownLatch(2);
+        DetailPrefetcher.Callback callback = new DetailPrefetcher.Callback() {
+            @Override
+            public void onDetails(String volumeId, VolumeDetails details) {
+                if (details != null && volumeId.equals(details.getmId())) {
+                    answered.countDown();
+                }
+            }
+        };
+        prefetcher.load("c", callback);
+        prefetcher.load("a", callback);
+        // The opened row stays queued even after it scrolls away.
+        prefetcher.setVisible(Arrays.asList("b"));
+
+        mTransport.release(2);
+        assertTrue(answered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        // Let the prefetch of "b" finish, so it cannot run into the next test.
+        mTransport.release(1);
+        awaitCached(prefetcher, "b");
+        assertEquals(Arrays.asList("a", "c", "b"), mTransport.getStarted());
+
+        DetailPrefetcher.Stats stats = prefetcher.getStats();
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getJoined());
+        assertEquals(0, stats.getDropped());
+    }
+
+    @Test
+    public void cancel_forgetsTheCallback_andLeavesTheQueue() throws Exception {
+        DetailPrefetcher prefetcher = new DetailPrefetcher(VOLUME_URL, 1, 10);
+        prefetcher.setVisible(Arrays.asList("a"));
+        mTransport.awaitStarted(1);
+
+        final AtomicReference<String> called = new AtomicReference<>();
+        DetailPrefetcher.Callback callback = new DetailPrefetcher.Callback() {
+            @Override
+            public void onDetails(String volumeId, VolumeDetails details) {
+                called.set(volumeId);
+            }
+        };
+        // "b" is queued for its screen, "a" is joined while it runs; both screens close
+        prefetcher.load("b", callback);
+        prefetcher.load("a", callback);
+        prefetcher.cancel("b", callback);
+        prefetcher.cancel("a", callback);
+
+        mTransport.release(1);
+        awaitCached(prefetcher, "a");
+        prefetcher.setVisible(Arrays.asList("c"));
+        mTransport.release(1);
+        awaitCached(prefetcher, "c");
+
+        assertNull(called.get());
+        assertEquals(Arrays.asList("a", "c"), mTransport.getStarted());
+    }
+
+    @Test
+    public void failedRequest_isReportedAsNull_andNotCached() throws Exception {
+        DetailPrefetcher prefetcher = new DetailPrefetcher(VOLUME_URL, 2, 10);
+        mTransport.failNext();
+        final CountDownLatch answered = new CountDownLatch(1);
+        final AtomicReference<VolumeDetails> loaded = new AtomicReference<>(
+                new VolumeDetails("", "", 0, "", ""));
+        prefetcher.load("a", new DetailPrefetcher.Callback() {
+            @Override
+            public void onDetails(String volumeId, VolumeDetails details) {
+                loaded.set(details);
+                answered.countDown();
+            }
+        });
+        mTransport.release(1);
+
+        assertTrue(answered.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(loaded.get());
+        assertNull(prefetcher.getCached("a"));
+        assertEquals(1, prefetcher.getStats().getFailures());
+    }
+
+    @Test
+    public void failedVolume_isNotPrefetchedAgainUntilItsFailureExpires() throws Exception {
+        DetailPrefetcher prefetcher = new DetailPrefetcher(VOLUME_URL, 2, 10, 200);
+        mTransport.failNext();
+        prefetcher.setVisible(Arrays.asList("a"));
+        mTransport.release(1);
+        awaitFailures(prefetcher, 1);
+
+        // Scrolling reports the row again and again
+        prefetcher.setVisible(Arrays.asList("a", "b"));
+        prefetcher.setVisible(Arrays.asList("a", "b"));
+        mTransport.release(1);
+        awaitCached(prefetcher, "b");
+        assertEquals(Arrays.asList("a", "b"), mTransport.getStarted());
+
+        Thread.sleep(250);
+        prefetcher.setVisible(Arrays.asList("a", "b"));
+        mTransport.release(1);
+        awaitCached(prefetcher, "a");
+        assertEquals(Arrays.asList("a", "b", "a"), mTransport.getStarted());
+    }
+
+    private static void awaitFailures(DetailPrefetcher prefetcher, long failures) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (prefetcher.getStats().getFailures() < failures && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(failures, prefetcher.getStats().getFailures());
+    }
+
+    private static VolumeDetails awaitCached(DetailPrefetcher prefetcher, String volumeId)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        VolumeDetails details;
+        while ((details = prefetcher.getCached(volumeId)) == null && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertNotNull("details of " + volumeId, details);
+        return details;
+    }
+
+    private static byte[] volumeJson(String volumeId) {
+        String json = "{\"kind\":\"books#volume\",\"id\":\"" + volumeId + "\",\"volumeInfo\":{"
+                + "\"title\":\"Ignored\",\"description\":\"About " + volumeId + "\",\"pageCount\":320,"
+                + "\"industryIdentifiers\":[{\"type\":\"ISBN_10\",\"identifier\":\"0123456789\"},"
+                + "{\"type\":\"ISBN_13\",\"identifier\":\"9780123456789\"},"
+                + "{\"type\":\"OTHER\",\"identifier\":\"X:1\"}]}}";
+        return json.getBytes(Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Records the volume id of every request and holds each one until it is released.
+     */
+    private static final class GatedTransport implements HttpTransport {
+        private final Semaphore mGate = new Semaphore(0);
+        private final List<String> mStarted = new ArrayList<>();
+        private int mRunning;
+        private int mMaxRunning;
+        private boolean mFailNext;
+
+        void release(int count) {
+            mGate.release(count);
+        }
+
+        synchronized void failNext() {
+            mFailNext = true;
+        }
+
+        synchronized List<String> getStarted() {
+            return new ArrayList<>(mStarted);
+        }
+
+        synchronized int getMaxRunning() {
+            return mMaxRunning;
+        }
+
+        synchronized void awaitStarted(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (mStarted.size() < count && System.nanoTime() < deadline) {
+                wait(10);
+            }
+            assertEquals(count, mStarted.size());
+        }
+
+        @Override
+        public Response execute(Request request) throws IOException {
+            String path = request.url.getPath();
+            String volumeId = path.substring(path.lastIndexOf('/') + 1);
+            boolean fail;
+            synchronized (this) {
+                mStarted.add(volumeId);
+                mRunning++;
+                mMaxRunning = Math.max(mMaxRunning, mRunning);
+                fail = mFailNext;
+                mFailNext = false;
+                notifyAll();
+            }
+            try {
+                if (!mGate.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new IOException("never released");
+                }
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                synchronized (this) {
+                    mRunning--;
+                }
+            }
+            if (fail) {
+                throw new IOException("gated failure");
+            }
+            final byte[] body = volumeJson(volumeId);
+            return new Response() {
+                @Override
+                public int getCode() {
+                    return 200;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(body);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
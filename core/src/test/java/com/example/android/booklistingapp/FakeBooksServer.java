@@ -0,0 +1,101 @@
+package com.example.android.booklistingapp;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the Google Books volumes endpoint that serves a recorded response with an
+ * ETag, gzip-compressed when the client asks for it, and counts the round trips, connections
+ * and body bytes it sends.
+ */
+class FakeBooksServer {
+
+    static final String ETAG = "\"fixture-v1\"";
+
+    private final HttpServer mServer;
+    private final byte[] mBody;
+    private final byte[] mGzippedBody;
+    private final Set<InetSocketAddress> mConnections =
+            Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    private final AtomicLong mBodyBytes = new AtomicLong();
+
+    FakeBooksServer(byte[] body) throws IOException {
+        mBody = body;
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(gzipped);
+        gzip.write(body);
+        gzip.close();
+        mGzippedBody = gzipped.toByteArray();
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/books/v1/volumes", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequests.incrementAndGet();
+                mConnections.add(exchange.getRemoteAddress());
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    mNotModified.incrementAndGet();
+                    exchange.getResponseHeaders().set("ETag", ETAG);
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+                exchange.getResponseHeaders().set("ETag", ETAG);
+                byte[] body = mBody;
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                    body = mGzippedBody;
+                }
+                exchange.sendResponseHeaders(200, body.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(body);
+                out.close();
+                mBodyBytes.addAndGet(body.length);
+            }
+        });
+        mServer.start();
+    }
+
+    String volumesUrl(String query) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort()
+                + "/books/v1/volumes?maxResults=30&orderBy=newest&q=" + query;
+    }
+
+    int getRequestCount() {
+        return mRequests.get();
+    }
+
+    int getNotModifiedCount() {
+        return mNotModified.get();
+    }
+
+    /**
+     * Returns the number of distinct client connections seen so far.
+     */
+    int getConnectionCount() {
+        return mConnections.size();
+    }
+
+    long getBodyBytes() {
+        return mBodyBytes.get();
+    }
+
+    void shutdown() {
+        mServer.stop(0);
+    }
+}
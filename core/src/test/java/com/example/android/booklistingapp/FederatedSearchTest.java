@@ -0,0 +1,301 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs {@link FederatedSearch} against a transport that answers each query variant with its
+ * own books after its own delay.
+ */
+public class FederatedSearchTest {
+
+    private static final FederatedSearch.UrlBuilder URLS = new FederatedSearch.UrlBuilder() {
+        @Override
+        public String buildUrl(String scopedQuery) {
+            try {
+                return "http://books.invalid/books/v1/volumes?q=" + URLEncoder.encode(scopedQuery, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
+    private VariantTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new VariantTransport();
+        mTransport.answer(FederatedSearch.Variant.PLAIN, 0, "a", "b", "c", "d");
+        mTransport.answer(FederatedSearch.Variant.TITLE, 0, "c", "e", "a");
+        mTransport.answer(FederatedSearch.Variant.AUTHOR, 0, "f", "c");
+        QueryUtils.setCache(null);
+        QueryUtils.setTransport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(new UrlConnectionTransport());
+    }
+
+    @Test
+    public void variant_scopesEveryWord() {
+        assertEquals("android studio", FederatedSearch.Variant.PLAIN.scope(" android studio "));
+        assertEquals("intitle:android intitle:studio", FederatedSearch.Variant.TITLE.scope("android studio"));
+        assertEquals("inauthor:meier", FederatedSearch.Variant.AUTHOR.scope("meier"));
+    }
+
+    @Test
+    public void answers_areDedupedAndRankedByAgreement() {
+        FederatedSearch.MergedResults results = new FederatedSearch(2000)
+                .search("android", URLS, null, QueryTrace.DISABLED, null);
+
+        assertNotNull(results);
+        assertTrue(results.isComplete());
+        // c is found by all three variants, a by two; then single finds by rank and variant.
+        assertEquals("c a f b e d", ids(results));
+        assertEquals(3, mTransport.mCalls.get());
+    }
+
+    @Test
+    public void ranking_doesNotDependOnArrivalOrder() {
+        String fastPlain = ids(new FederatedSearch(2000).search("android", URLS, null, QueryTrace.DISABLED, null));
+
+        mTransport.mDelays[FederatedSearch.Variant.PLAIN.ordinal()] = 200;
+        mTransport.mDelays[FederatedSearch.Variant.TITLE.ordinal()] = 100;
+        String slowPlain = ids(new FederatedSearch(2000).search("android", URLS, null, QueryTrace.DISABLED, null));
+
+        assertEquals(fastPlain, slowPlain);
+    }
+
+    @Test
+    public void answers_streamAsEachVariantArrives() {
+        mTransport.mDelays[FederatedSearch.Variant.TITLE.ordinal()] = 150;
+        mTransport.mDelays[FederatedSearch.Variant.AUTHOR.ordinal()] = 300;
+        final List<String> streamed = new ArrayList<>();
+        final List<Long> streamedAt = new ArrayList<>();
+        final long startedAt = System.nanoTime();
+
+        FederatedSearch.MergedResults results = new FederatedSearch(2000).search("android", URLS, null,
+                QueryTrace.DISABLED, new FederatedSearch.Listener() {
+                    @Override
+                    public void onResults(FederatedSearch.MergedResults partial) {
+                        assertFalse(partial.isComplete());
+                        streamed.add(ids(partial));
+                        streamedAt.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                    }
+                });
+
+        assertEquals(2, streamed.size());
+        assertEquals("a b c d", streamed.get(0));
+        // a and c tie on score; a ranks higher in the plain answer.
+        assertEquals("a c b e d", streamed.get(1));
+        assertTrue("first results after " + streamedAt.get(0) + " ms", streamedAt.get(0) < 150);
+        assertEquals("c a f b e d", ids(results));
+    }
+
+    @Test
+    public void straggler_isCancelledAtTheTimeout() throws Exception {
+        mTransport.mDelays[FederatedSearch.Variant.AUTHOR.ordinal()] = 10000;
+        long startedAt = System.nanoTime();
+
+        FederatedSearch.MergedResults results = new FederatedSearch(300)
+                .search("android", URLS, null, QueryTrace.DISABLED, null);
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        assertTrue("took " + tookMillis + " ms", tookMillis < 1000);
+        assertNotNull(results);
+        assertTrue(results.isComplete());
+        assertEquals(2, results.getAnsweredCount());
+        assertEquals("a c b e d", ids(results));
+        assertTrue(mTransport.mCancelled.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void slowPlain_isWaitedForPastTheDeadline() {
+        mTransport.mDelays[FederatedSearch.Variant.PLAIN.ordinal()] = 500;
+        mTransport.mDelays[FederatedSearch.Variant.AUTHOR.ordinal()] = 10000;
+
+        FederatedSearch.MergedResults results = new FederatedSearch(200)
+                .search("android", URLS, null, QueryTrace.DISABLED, null);
+
+        assertNotNull(results);
+        assertTrue(results.isComplete());
+        // The title variant answered in time; the author variant was cut off
+        assertEquals(2, results.getAnsweredCount());
+        assertEquals("a c b e d", ids(results));
+    }
+
+    @Test
+    public void failedVariant_isNeitherCancelledNorReportedAsTimedOut() throws Exception {
+        mTransport.mFailures[FederatedSearch.Variant.TITLE.ordinal()] = true;
+        mTransport.mDelays[FederatedSearch.Variant.AUTHOR.ordinal()] = 10000;
+        final List<String> warnings = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel() == Level.WARNING) {
+                    warnings.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(FederatedSearch.class.getSimpleName());
+        logger.addHandler(handler);
+        FederatedSearch.MergedResults results;
+        try {
+            results = new FederatedSearch(300).search("android", URLS, null, QueryTrace.DISABLED, null);
+        } finally {
+            logger.removeHandler(handler);
+        }
+
+        assertNotNull(results);
+        assertEquals(2, results.getAnsweredCount());
+        assertEquals("a b c d", ids(results));
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0), warnings.get(0).startsWith("The author variant"));
+    }
+
+    @Test
+    public void cancellation_abortsEveryVariant() throws Exception {
+        for (int i = 0; i < mTransport.mDelays.length; i++) {
+            mTransport.mDelays[i] = 10000;
+        }
+        final QueryCancellation cancellation = new QueryCancellation();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignored) {
+                }
+                cancellation.cancel();
+            }
+        }).start();
+        long startedAt = System.nanoTime();
+
+        assertNull(new FederatedSearch(5000).search("android", URLS, cancellation, QueryTrace.DISABLED, null));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt) < 1000);
+    }
+
+    private static String ids(List<Booklisting> booklistings) {
+        StringBuilder ids = new StringBuilder();
+        for (Booklisting booklisting : booklistings) {
+            if (ids.length() > 0) {
+                ids.append(' ');
+            }
+            ids.append(booklisting.getmId());
+        }
+        return ids.toString();
+    }
+
+    /**
+     * Answers each variant, told apart by the scope of its query, with a page of the given
+     * volume ids after the given delay, or by breaking. A delayed answer ends early when it is
+     * cancelled.
+     */
+    private static final class VariantTransport implements HttpTransport {
+        final String[] mBodies = new String[FederatedSearch.Variant.values().length];
+        final long[] mDelays = new long[FederatedSearch.Variant.values().length];
+        final boolean[] mFailures = new boolean[FederatedSearch.Variant.values().length];
+        final CountDownLatch mCancelled = new CountDownLatch(1);
+        final AtomicInteger mCalls = new AtomicInteger();
+
+        void answer(FederatedSearch.Variant variant, long delayMillis, String... ids) {
+            StringBuilder body = new StringBuilder("{\"items\":[");
+            for (int i = 0; i < ids.length; i++) {
+                if (i > 0) {
+                    body.append(',');
+                }
+                body.append("{\"id\":\"").append(ids[i]).append("\",\"volumeInfo\":{\"title\":\"Book ")
+                        .append(ids[i]).append("\",\"authors\":[\"Author ").append(ids[i]).append("\"]}}");
+            }
+            mBodies[variant.ordinal()] = body.append("]}").toString();
+            mDelays[variant.ordinal()] = delayMillis;
+        }
+
+        @Override
+        public Response execute(Request request) throws IOException {
+            mCalls.incrementAndGet();
+            String query = URLDecoder.decode(request.url.getQuery().substring("q=".length()), "UTF-8");
+            FederatedSearch.Variant variant = query.startsWith("intitle:") ? FederatedSearch.Variant.TITLE
+                    : query.startsWith("inauthor:") ? FederatedSearch.Variant.AUTHOR
+                    : FederatedSearch.Variant.PLAIN;
+            if (mFailures[variant.ordinal()]) {
+                throw new IllegalStateException("Transport broke on " + variant);
+            }
+            long delay = mDelays[variant.ordinal()];
+            if (delay > 0) {
+                final CountDownLatch canceled = new CountDownLatch(1);
+                if (request.cancellation != null && !request.cancellation.attach(new Closeable() {
+                    @Override
+                    public void close() {
+                        canceled.countDown();
+                    }
+                })) {
+                    throw new IOException("Request cancelled");
+                }
+                try {
+                    if (canceled.await(delay, TimeUnit.MILLISECONDS)) {
+                        mCancelled.countDown();
+                        throw new IOException("Request cancelled");
+                    }
+                } catch (InterruptedException e) {
+                    mCancelled.countDown();
+                    throw new IOException(e);
+                }
+            }
+            final byte[] body = mBodies[variant.ordinal()].getBytes("UTF-8");
+            return new Response() {
+                @Override
+                public int getCode() {
+                    return 200;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(body);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
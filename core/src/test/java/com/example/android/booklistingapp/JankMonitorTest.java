@@ -0,0 +1,192 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link JankMonitor} tags frames and stalls with phases, and that
+ * {@link StallWatchdog} catches a stuck thread in the act.
+ */
+public class JankMonitorTest {
+
+    private static final long PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private JankMonitor mMonitor;
+    private ExecutorService mMainExecutor;
+    private Thread mMainThread;
+
+    @Before
+    public void setUp() throws Exception {
+        mMonitor = new JankMonitor(2, 4);
+        mMonitor.setEnabled(true);
+        mMainExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                mMainThread = new Thread(task, "fake-main");
+                return mMainThread;
+            }
+        });
+        // Starts the thread
+        mMainExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }).get();
+    }
+
+    @After
+    public void tearDown() {
+        mMainExecutor.shutdownNow();
+    }
+
+    @Test
+    public void frames_countAgainstTheBusiestPhaseSinceTheLastFrame() {
+        mMonitor.setScrolling(true);
+        JankMonitor.Phase previous = mMonitor.enter(JankMonitor.Phase.BINDING);
+        mMonitor.exit(previous);
+        // Bound a row while scrolling, then missed two vsyncs
+        mMonitor.onFrame(3 * PERIOD_NANOS, PERIOD_NANOS);
+        // Still scrolling, on time
+        mMonitor.onFrame(PERIOD_NANOS, PERIOD_NANOS);
+        mMonitor.setScrolling(false);
+        mMonitor.onFrame(PERIOD_NANOS, PERIOD_NANOS);
+        mMonitor.onFrame(PERIOD_NANOS, PERIOD_NANOS);
+
+        assertEquals(1, mMonitor.getFrameHistogram(JankMonitor.Phase.BINDING).getCount());
+        assertEquals(2, mMonitor.getDroppedFrames(JankMonitor.Phase.BINDING));
+        assertEquals(2, mMonitor.getFrameHistogram(JankMonitor.Phase.SCROLLING).getCount());
+        assertEquals(0, mMonitor.getDroppedFrames(JankMonitor.Phase.SCROLLING));
+        assertEquals(1, mMonitor.getFrameHistogram(JankMonitor.Phase.IDLE).getCount());
+    }
+
+    @Test
+    public void phases_nestAndFallBackToScrolling() {
+        mMonitor.setScrolling(true);
+        JankMonitor.Phase outer = mMonitor.enter(JankMonitor.Phase.RESULT_DELIVERY);
+        JankMonitor.Phase inner = mMonitor.enter(JankMonitor.Phase.BINDING);
+        assertEquals(JankMonitor.Phase.BINDING, mMonitor.getPhase());
+        mMonitor.exit(inner);
+        assertEquals(JankMonitor.Phase.RESULT_DELIVERY, mMonitor.getPhase());
+        mMonitor.exit(outer);
+        assertEquals(JankMonitor.Phase.SCROLLING, mMonitor.getPhase());
+    }
+
+    @Test
+    public void disabled_recordsNothing() {
+        mMonitor.setEnabled(false);
+        mMonitor.enter(JankMonitor.Phase.TYPING);
+        mMonitor.onFrame(10 * PERIOD_NANOS, PERIOD_NANOS);
+
+        assertEquals(JankMonitor.Phase.IDLE, mMonitor.getPhase());
+        assertEquals(0, mMonitor.getRecentFrameNanos().length);
+    }
+
+    @Test
+    public void ringBuffers_keepTheMostRecent() {
+        for (int i = 1; i <= 6; i++) {
+            mMonitor.onFrame(i, PERIOD_NANOS);
+            mMonitor.onStall(JankMonitor.Phase.TYPING, i, new StackTraceElement[0], i);
+        }
+
+        assertArrayEquals(new long[]{3, 4, 5, 6}, mMonitor.getRecentFrameNanos());
+        List<JankMonitor.Stall> stalls = mMonitor.getRecentStalls();
+        assertEquals(2, stalls.size());
+        assertEquals(5, stalls.get(0).getDurationNanos());
+        assertEquals(6, mMonitor.getStallCount(JankMonitor.Phase.TYPING));
+    }
+
+    @Test
+    public void watchdog_samplesTheStuckThread_inItsPhase() throws Exception {
+        StallWatchdog watchdog = new StallWatchdog(mMonitor, new ExecutorTimer(mMainExecutor), mMainThread, 50);
+        final CountDownLatch stalled = new CountDownLatch(1);
+        watchdog.start();
+        try {
+            mMainExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    JankMonitor.Phase previous = mMonitor.enter(JankMonitor.Phase.TYPING);
+                    try {
+                        stuckOnKeystroke(300);
+                    } finally {
+                        mMonitor.exit(previous);
+                    }
+                    stalled.countDown();
+                }
+            });
+            assertTrue(stalled.await(5, TimeUnit.SECONDS));
+            // Let the tick that waited out the stall run and report it
+            long deadline = System.currentTimeMillis() + 5000;
+            while (mMonitor.getRecentStalls().isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } finally {
+            watchdog.stop();
+        }
+
+        List<JankMonitor.Stall> stalls = mMonitor.getRecentStalls();
+        assertEquals(1, stalls.size());
+        JankMonitor.Stall stall = stalls.get(0);
+        assertEquals(JankMonitor.Phase.TYPING, stall.getPhase());
+        assertTrue(stall.getDurationNanos() >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertTrue(stall.toString(), stall.toString().contains("stuckOnKeystroke"));
+    }
+
+    @Test
+    public void export_writesTheStallsWithTheirStacks() throws Exception {
+        mMonitor.onFrame(2 * PERIOD_NANOS, PERIOD_NANOS);
+        mMonitor.onStall(JankMonitor.Phase.RESULT_DELIVERY, TimeUnit.MILLISECONDS.toNanos(250),
+                new StackTraceElement[]{new StackTraceElement("Activity", "onLoadFinished", "Activity.java", 7)}, 0);
+        File file = File.createTempFile("jank", ".txt");
+        try {
+            assertTrue(mMonitor.export(file));
+            String report = new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+            assertTrue(report, report.contains("result_delivery 250ms"));
+            assertTrue(report, report.contains("at Activity.onLoadFinished(Activity.java:7)"));
+            assertTrue(report, report.contains("32.0"));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void stuckOnKeystroke(long millis) {
+        long end = System.currentTimeMillis() + millis;
+        while (System.currentTimeMillis() < end) {
+            // Busy, as a main thread doing too much is
+        }
+    }
+
+    /**
+     * Runs the tasks on the fake main thread right away.
+     */
+    private static final class ExecutorTimer implements QueryScheduler.Timer {
+        private final ExecutorService mExecutor;
+
+        ExecutorTimer(ExecutorService executor) {
+            mExecutor = executor;
+        }
+
+        @Override
+        public void postDelayed(Runnable task, long delayMillis) {
+            mExecutor.execute(task);
+        }
+
+        @Override
+        public void removeCallbacks(Runnable task) {
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link NetworkQualityEstimator} plans requests for slow and fast links, and what
+ * {@link AdaptiveTransport} feeds it.
+ */
+public class NetworkQualityEstimatorTest {
+
+    @Test
+    public void slowLink_asksForAFewLeanResults_withLongTimeouts() {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.CELLULAR_2G);
+        NetworkQualityEstimator.RequestPlan plan = estimator.plan();
+
+        assertEquals(NetworkQualityEstimator.Quality.POOR, estimator.getQuality());
+        assertEquals(NetworkQualityEstimator.MIN_FIRST_PAGE_SIZE, plan.getFirstPageSize());
+        assertTrue(plan.isLean());
+        assertTrue(estimator.connectTimeoutMillis() > NetworkQualityEstimator.MIN_CONNECT_TIMEOUT_MILLIS);
+        assertTrue(estimator.readTimeoutMillis() > NetworkQualityEstimator.MIN_READ_TIMEOUT_MILLIS);
+    }
+
+    @Test
+    public void fastLink_asksForOneLargeBatch_withShortTimeouts() {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.WIFI);
+        NetworkQualityEstimator.RequestPlan plan = estimator.plan();
+
+        assertEquals(NetworkQualityEstimator.Quality.GOOD, estimator.getQuality());
+        assertEquals(NetworkQualityEstimator.MAX_PAGE_SIZE, plan.getFirstPageSize());
+        assertFalse(plan.isLean());
+        assertEquals(NetworkQualityEstimator.MIN_CONNECT_TIMEOUT_MILLIS, estimator.connectTimeoutMillis());
+        assertEquals(NetworkQualityEstimator.MIN_READ_TIMEOUT_MILLIS, estimator.readTimeoutMillis());
+    }
+
+    @Test
+    public void pageSizes_snapToAFewFixedSizes() {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.WIFI);
+        // Room for about 27 results on the first page, which is asked for as 20
+        for (int i = 0; i < 10; i++) {
+            estimator.onRoundTrip(500);
+            estimator.onTransfer(13500, 1000);
+            estimator.onResultsDecoded(20, 10000);
+        }
+        NetworkQualityEstimator.RequestPlan plan = estimator.plan();
+
+        assertEquals(20, plan.getFirstPageSize());
+        assertEquals(NetworkQualityEstimator.MAX_PAGE_SIZE, plan.getPageSize());
+    }
+
+    @Test
+    public void slowSamples_shrinkTheFirstPage_toFitTheBudget() {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.WIFI);
+        // A congested hotspot: 500 ms to the headers, 10 KB/s, 500 bytes a result
+        for (int i = 0; i < 10; i++) {
+            estimator.onRoundTrip(500);
+            estimator.onTransfer(10000, 1000);
+            estimator.onResultsDecoded(20, 10000);
+        }
+
+        int firstPageSize = estimator.plan().getFirstPageSize();
+        long firstPageMillis = Math.round(estimator.getRttMillis()
+                + firstPageSize * estimator.getBytesPerResult() * 1000 / estimator.getBytesPerSecond());
+        assertEquals(20, firstPageSize);
+        assertTrue(firstPageMillis <= NetworkQualityEstimator.TARGET_FIRST_PAGE_MILLIS);
+        assertTrue(estimator.plan().getPageSize() > firstPageSize);
+    }
+
+    @Test
+    public void smallBodies_doNotCountAsBandwidth() {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.WIFI);
+        double typical = estimator.getBytesPerSecond();
+        estimator.onTransfer(NetworkQualityEstimator.MIN_TRANSFER_BYTES - 1, 1000);
+
+        assertEquals(typical, estimator.getBytesPerSecond(), 0);
+    }
+
+    @Test
+    public void linkChange_startsOverFromTheTypicalValues() {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.CELLULAR_2G);
+        estimator.onRoundTrip(5000);
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.WIFI);
+
+        assertEquals(NetworkQualityEstimator.LinkType.WIFI.mTypicalRttMillis, estimator.getRttMillis(), 0);
+        assertEquals(NetworkQualityEstimator.Quality.GOOD, estimator.getQuality());
+    }
+
+    @Test
+    public void transport_appliesTimeouts_andRecordsWhatItObserves() throws Exception {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.CELLULAR_2G);
+        int connectTimeout = estimator.connectTimeoutMillis();
+        StubTransport stub = new StubTransport(new byte[64 * 1024], 0);
+        HttpTransport transport = new AdaptiveTransport(stub, estimator);
+
+        HttpTransport.Response response = transport.execute(new HttpTransport.Request(new URL("http://localhost/")));
+        InputStream body = response.getBody();
+        byte[] buffer = new byte[4096];
+        while (body.read(buffer) != -1) {
+            // Read to the end, as the decoder does.
+        }
+        response.close();
+
+        assertEquals(connectTimeout, stub.mRequest.connectTimeoutMillis);
+        // The stub answered at once over an endless pipe.
+        assertTrue(estimator.getRttMillis() < 100);
+        assertTrue(estimator.getBytesPerSecond() > NetworkQualityEstimator.LinkType.CELLULAR_2G.mTypicalBytesPerSecond);
+        assertEquals(NetworkQualityEstimator.Quality.GOOD, estimator.getQuality());
+    }
+
+    @Test
+    public void transport_leavesTheDecoderOutOfTheTransferTime() throws Exception {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.WIFI);
+        StubTransport stub = new StubTransport(new byte[64 * 1024], 0);
+        HttpTransport.Response response = new AdaptiveTransport(stub, estimator)
+                .execute(new HttpTransport.Request(new URL("http://localhost/")));
+
+        InputStream body = response.getBody();
+        byte[] buffer = new byte[4096];
+        while (body.read(buffer) != -1) {
+            // A slow decoder working through each buffer
+            Thread.sleep(20);
+        }
+        response.close();
+
+        // Counting the 300 ms of decoding would put the body below the typical bandwidth
+        assertTrue(estimator.getBytesPerSecond() > NetworkQualityEstimator.LinkType.WIFI.mTypicalBytesPerSecond);
+    }
+
+    @Test
+    public void transport_keepsTimeoutsSetByTheCaller_andRecordsTimeouts() throws Exception {
+        NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+        estimator.setLinkType(NetworkQualityEstimator.LinkType.WIFI);
+        StubTransport stub = new StubTransport(null, 50);
+        HttpTransport.Request request = new HttpTransport.Request(new URL("http://localhost/"));
+        request.readTimeoutMillis = 50;
+
+        try {
+            new AdaptiveTransport(stub, estimator).execute(request);
+        } catch (SocketTimeoutException expected) {
+            // The attempt is recorded all the same.
+        }
+
+        assertEquals(50, stub.mRequest.readTimeoutMillis);
+        // The wait replaced the typical round trip of the link.
+        assertTrue(estimator.getRttMillis() >= 50);
+        assertTrue(estimator.getRttMillis() < NetworkQualityEstimator.LinkType.WIFI.mTypicalRttMillis);
+    }
+
+    /**
+     * Answers with the given body at once or, without one, times out after the given delay.
+     */
+    private static final class StubTransport implements HttpTransport {
+        private final byte[] mBody;
+        private final long mDelayMillis;
+        Request mRequest;
+
+        StubTransport(byte[] body, long delayMillis) {
+            mBody = body;
+            mDelayMillis = delayMillis;
+        }
+
+        @Override
+        public Response execute(Request request) throws IOException {
+            mRequest = request;
+            if (mBody == null) {
+                sleep(mDelayMillis);
+                throw new SocketTimeoutException("stub timeout");
+            }
+            return new Response() {
+                @Override
+                public int getCode() {
+                    return 200;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(mBody);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        private static void sleep(long millis) throws IOException {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
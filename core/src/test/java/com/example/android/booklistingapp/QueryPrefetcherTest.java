@@ -0,0 +1,112 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Prefetches queries from a local server into {@link BooklistingCache} and checks the budget
+ * and the hit rate of {@link QueryPrefetcher}.
+ */
+public class QueryPrefetcherTest {
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    private FakeBooksServer mServer;
+    private QueryPrefetcher.Requests mRequests;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new FakeBooksServer(BooklistingJsonDecoderTest.readFixture("/volumes_40.json"));
+        QueryUtils.setCache(new BooklistingCache(mTemporaryFolder.newFolder("responses")));
+        mRequests = new QueryPrefetcher.Requests() {
+            @Override
+            public List<String> urlsFor(String query) {
+                return Collections.singletonList(mServer.volumesUrl(query.replace(' ', '+')));
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setCache(null);
+        mServer.shutdown();
+    }
+
+    @Test
+    public void prefetchedQuery_isAnsweredFromTheCache() {
+        QueryPrefetcher prefetcher = new QueryPrefetcher(10, QueryPrefetcher.DEFAULT_MAX_BYTES_PER_DAY,
+                BooklistingCache.DEFAULT_TTL_MILLIS);
+        prefetcher.prefetchNow(Arrays.asList("android studio", "android things"), mRequests,
+                new QueryCancellation());
+        assertEquals(2, mServer.getRequestCount());
+
+        prefetcher.onQuerySearched("Android Studio");
+        assertEquals(40, QueryUtils.fetchBooklistingData(mServer.volumesUrl("android+studio")).size());
+        assertEquals(2, mServer.getRequestCount());
+
+        // Searching again is no second hit.
+        prefetcher.onQuerySearched("android studio");
+        QueryPrefetcher.Stats stats = prefetcher.getStats();
+        assertEquals(2, stats.getPrefetchedQueries());
+        assertEquals(2, stats.getRequests());
+        // Decoded bodies count at least what was sent.
+        assertTrue(stats.getBytes() >= mServer.getBodyBytes());
+        assertEquals(1, stats.getHits());
+        assertEquals(0.5, stats.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void freshPrefetch_isNotRepeated() {
+        QueryPrefetcher prefetcher = new QueryPrefetcher(10, QueryPrefetcher.DEFAULT_MAX_BYTES_PER_DAY,
+                BooklistingCache.DEFAULT_TTL_MILLIS);
+        prefetcher.prefetchNow(Arrays.asList("android"), mRequests, new QueryCancellation());
+        prefetcher.prefetchNow(Arrays.asList("Android"), mRequests, new QueryCancellation());
+
+        assertEquals(1, mServer.getRequestCount());
+        assertEquals(1, prefetcher.getStats().getRequests());
+    }
+
+    @Test
+    public void requestsPerMinute_areCapped() {
+        QueryPrefetcher prefetcher = new QueryPrefetcher(2, QueryPrefetcher.DEFAULT_MAX_BYTES_PER_DAY,
+                BooklistingCache.DEFAULT_TTL_MILLIS);
+        prefetcher.prefetchNow(Arrays.asList("a", "b", "c", "d"), mRequests, new QueryCancellation());
+
+        assertEquals(2, mServer.getRequestCount());
+        assertEquals(2, prefetcher.getStats().getSkipped());
+    }
+
+    @Test
+    public void bytesPerDay_areCapped() {
+        QueryPrefetcher prefetcher = new QueryPrefetcher(10, 1, BooklistingCache.DEFAULT_TTL_MILLIS);
+        prefetcher.prefetchNow(Arrays.asList("a", "b", "c"), mRequests, new QueryCancellation());
+
+        // The first response uses up the budget.
+        assertEquals(1, mServer.getRequestCount());
+        assertTrue(prefetcher.getStats().getBytes() > 1);
+        assertEquals(2, prefetcher.getStats().getSkipped());
+    }
+
+    @Test
+    public void cancelledPrefetch_fetchesNothing() {
+        QueryPrefetcher prefetcher = new QueryPrefetcher(10, QueryPrefetcher.DEFAULT_MAX_BYTES_PER_DAY,
+                BooklistingCache.DEFAULT_TTL_MILLIS);
+        QueryCancellation cancellation = new QueryCancellation();
+        cancellation.cancel();
+        prefetcher.prefetchNow(Arrays.asList("a", "b"), mRequests, cancellation);
+
+        assertEquals(0, mServer.getRequestCount());
+        assertEquals(0, prefetcher.getStats().getPrefetchedQueries());
+    }
+}
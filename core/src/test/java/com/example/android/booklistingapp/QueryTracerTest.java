@@ -0,0 +1,157 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Traces requests to {@link FakeBooksServer} through {@link QueryUtils} and checks what
+ * {@link QueryTracer} aggregates.
+ */
+public class QueryTracerTest {
+
+    private byte[] mFixture;
+    private FakeBooksServer mServer;
+    private QueryTracer mTracer;
+
+    @Before
+    public void setUp() throws Exception {
+        mFixture = BooklistingJsonDecoderTest.readFixture("/volumes_40.json");
+        mServer = new FakeBooksServer(mFixture);
+        mTracer = new QueryTracer(10);
+        QueryUtils.setCache(null);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void disabled_handsOutTheSharedNoOpTrace() {
+        QueryTrace trace = mTracer.start("http://books.invalid/");
+        assertSame(QueryTrace.DISABLED, trace);
+
+        trace.mark(QueryTrace.Phase.CONNECT);
+        trace.finish();
+        assertEquals(0, trace.getPhaseNanos(QueryTrace.Phase.CONNECT));
+        assertEquals(0, mTracer.getTotalHistogram().getCount());
+    }
+
+    @Test
+    public void disabled_allocatesNothingPerPhase() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+
+        // Warm up, then measure the calls a request makes while tracing is off.
+        for (int i = 0; i < 20000; i++) {
+            traceOneRequest(mTracer.start("http://books.invalid/"));
+        }
+        long before = sunBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 20000; i++) {
+            traceOneRequest(mTracer.start("http://books.invalid/"));
+        }
+        long allocated = sunBean.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void traceOneRequest(QueryTrace trace) {
+        trace.mark(QueryTrace.Phase.CACHE);
+        trace.mark(QueryTrace.Phase.CONNECT);
+        trace.mark(QueryTrace.Phase.FIRST_BYTE);
+        trace.mark(QueryTrace.Phase.PARSE);
+        trace.move(QueryTrace.Phase.PARSE, QueryTrace.Phase.READ, 1000);
+        trace.addBytesRead(1000);
+        trace.setResultCount(40);
+        trace.setOutcome(QueryTrace.Outcome.NETWORK);
+        trace.mark(QueryTrace.Phase.DELIVER);
+        trace.mark(QueryTrace.Phase.BIND);
+        trace.finish();
+    }
+
+    @Test
+    public void enabled_recordsEveryNetworkPhase() throws Exception {
+        mTracer.setEnabled(true);
+        String url = mServer.volumesUrl("android");
+
+        QueryTrace trace = mTracer.start(url);
+        List<Booklisting> booklistings = QueryUtils.fetchBooklistingData(url, null, trace);
+        trace.mark(QueryTrace.Phase.DELIVER);
+        trace.mark(QueryTrace.Phase.BIND);
+        trace.finish();
+
+        assertEquals(40, booklistings.size());
+        assertEquals(QueryTrace.Outcome.NETWORK, trace.getOutcome());
+        assertEquals(40, trace.getResultCount());
+        assertEquals(mFixture.length, trace.getBytesRead());
+        long sum = 0;
+        for (QueryTrace.Phase phase : QueryTrace.Phase.values()) {
+            sum += trace.getPhaseNanos(phase);
+        }
+        assertEquals(trace.getTotalNanos(), sum);
+        assertTrue(trace.getPhaseNanos(QueryTrace.Phase.FIRST_BYTE) > 0);
+        assertTrue(trace.getPhaseNanos(QueryTrace.Phase.READ) > 0);
+        assertTrue(trace.getPhaseNanos(QueryTrace.Phase.PARSE) > 0);
+        // The cache is off, so it was never consulted.
+        assertEquals(0, trace.getPhaseNanos(QueryTrace.Phase.CACHE));
+
+        assertEquals(1, mTracer.getTotalHistogram().getCount());
+        assertEquals(1, mTracer.getHistogram(QueryTrace.Phase.PARSE).getCount());
+        assertEquals(0, mTracer.getHistogram(QueryTrace.Phase.CACHE).getCount());
+        System.out.println(trace);
+    }
+
+    @Test
+    public void finish_countsOnceAndExports() throws Exception {
+        mTracer.setEnabled(true);
+        QueryTrace trace = mTracer.start("http://books.invalid/");
+        trace.mark(QueryTrace.Phase.CACHE);
+        trace.finish();
+        trace.finish();
+        assertEquals(1, mTracer.getTotalHistogram().getCount());
+
+        File file = File.createTempFile("query_traces", ".txt");
+        try {
+            assertTrue(mTracer.export(file));
+            String exported = new String(Files.readAllBytes(file.toPath()), "UTF-8");
+            assertTrue(exported.startsWith("1 requests"));
+            assertTrue(exported.contains("http://books.invalid/"));
+        } finally {
+            assertTrue(file.delete());
+        }
+
+        mTracer.reset();
+        assertEquals(0, mTracer.getTotalHistogram().getCount());
+        assertFalse(mTracer.dump().contains("http://books.invalid/"));
+    }
+
+    @Test
+    public void histogram_percentilesAreWithinABucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getMaxNanos());
+        long p50 = histogram.getPercentileNanos(50);
+        assertTrue(p50 >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(p50 <= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), histogram.getPercentileNanos(99));
+    }
+}
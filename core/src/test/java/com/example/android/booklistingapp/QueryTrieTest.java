@@ -0,0 +1,118 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks how {@link QueryTrie} ranks completions, forgets old queries and survives a restart.
+ */
+public class QueryTrieTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void completions_areRankedByFrequency() {
+        QueryTrie trie = new QueryTrie();
+        record(trie, "android", 1, 0);
+        record(trie, "android studio", 3, 0);
+        record(trie, "androids", 2, 0);
+        record(trie, "java", 5, 0);
+
+        assertEquals(Arrays.asList("android studio", "androids", "android"), trie.complete("andr", 5, 0));
+        // The prefix itself is not a completion.
+        assertEquals(Arrays.asList("android studio", "androids"), trie.complete("android", 5, 0));
+        assertEquals(Arrays.asList("android studio"), trie.complete("andr", 1, 0));
+        assertTrue(trie.complete("kotlin", 5, 0).isEmpty());
+    }
+
+    @Test
+    public void queries_areNormalized() {
+        QueryTrie trie = new QueryTrie();
+        trie.record("  Android   Studio ", 0);
+        trie.record("android studio", 0);
+
+        assertEquals(1, trie.size());
+        assertEquals(2.0, trie.getWeight("ANDROID STUDIO", 0), 1e-9);
+        assertEquals(Arrays.asList("android studio"), trie.complete("Android  s", 5, 0));
+    }
+
+    @Test
+    public void recentQueries_outrankOldFrequentOnes() {
+        QueryTrie trie = new QueryTrie(HOUR, QueryTrie.DEFAULT_MAX_QUERIES);
+        record(trie, "android old", 3, 0);
+        record(trie, "android new", 1, 2 * HOUR);
+
+        // Three searches two half-lives ago weigh 0.75 now.
+        assertEquals(0.75, trie.getWeight("android old", 2 * HOUR), 1e-9);
+        assertEquals(Arrays.asList("android new", "android old"), trie.complete("android", 5, 2 * HOUR));
+        assertEquals(Arrays.asList("android old", "android new"), trie.complete("android", 5, 0));
+    }
+
+    @Test
+    public void lightestQueries_arePrunedAtTheCap() {
+        QueryTrie trie = new QueryTrie(HOUR, 10);
+        record(trie, "query heavy", 5, 0);
+        for (int i = 0; i < 10; i++) {
+            trie.record("query " + i, i);
+        }
+
+        // Back to nine tenths of the cap, dropping the lightest.
+        assertEquals(9, trie.size());
+        assertTrue(trie.getWeight("query heavy", 10) > 0);
+        assertEquals(0, trie.getWeight("query 0", 10), 0);
+        assertEquals(0, trie.getWeight("query 1", 10), 0);
+        assertTrue(trie.getWeight("query 9", 10) > 0);
+        assertEquals("query heavy", trie.complete("q", 1, 10).get(0));
+    }
+
+    @Test
+    public void savedTrie_loadsWithItsWeights() throws Exception {
+        File file = new File(mTemporaryFolder.getRoot(), "queries.bin");
+        QueryTrie trie = new QueryTrie(HOUR, 100);
+        record(trie, "android", 2, 0);
+        record(trie, "android studio", 3, HOUR);
+        record(trie, "\u00e9l\u00e9ments", 1, HOUR);
+        assertTrue(trie.save(file));
+
+        QueryTrie loaded = QueryTrie.load(file, HOUR, 100);
+        assertEquals(3, loaded.size());
+        assertEquals(trie.complete("", 5, 2 * HOUR), loaded.complete("", 5, 2 * HOUR));
+        assertEquals(trie.getWeight("android", 2 * HOUR), loaded.getWeight("android", 2 * HOUR), 1e-6);
+        assertEquals(1.0, loaded.getWeight("\u00e9l\u00e9ments", HOUR), 1e-6);
+
+        // Searches go on where they left off.
+        loaded.record("android", 2 * HOUR);
+        assertEquals(Arrays.asList("android", "android studio"), loaded.complete("", 2, 2 * HOUR));
+    }
+
+    @Test
+    public void unreadableFile_loadsEmpty() throws Exception {
+        File file = new File(mTemporaryFolder.getRoot(), "queries.bin");
+        QueryTrie trie = new QueryTrie();
+        trie.record("android", 0);
+        assertTrue(trie.save(file));
+        FileOutputStream truncated = new FileOutputStream(file, true);
+        truncated.getChannel().truncate(file.length() - 4);
+        truncated.close();
+
+        assertEquals(0, QueryTrie.load(file, HOUR, 100).size());
+        assertEquals(0, QueryTrie.load(new File(mTemporaryFolder.getRoot(), "missing"), HOUR, 100).size());
+    }
+
+    private static void record(QueryTrie trie, String query, int times, long now) {
+        for (int i = 0; i < times; i++) {
+            trie.record(query, now);
+        }
+    }
+}
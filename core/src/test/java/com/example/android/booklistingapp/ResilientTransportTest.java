@@ -0,0 +1,366 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link ResilientTransport} against a scripted transport whose answers, failures and
+ * delays are set per call.
+ */
+public class ResilientTransportTest {
+
+    private static final String URL = "http://books.invalid/books/v1/volumes?q=android";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private byte[] mFixture;
+    private ScriptedTransport mScript;
+
+    @Before
+    public void setUp() throws Exception {
+        mFixture = BooklistingJsonDecoderTest.readFixture("/volumes_40.json");
+        mScript = new ScriptedTransport();
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setCache(null);
+        QueryUtils.setTransport(new UrlConnectionTransport());
+    }
+
+    @Test
+    public void failures_areRetriedUntilAnAnswer() throws Exception {
+        mScript.fail().fail().answer(200, 0);
+        ResilientTransport transport = new ResilientTransport(mScript, 3, 5, new CircuitBreaker(), false);
+
+        HttpTransport.Response response = transport.execute(request());
+
+        assertEquals(200, response.getCode());
+        assertEquals(3, mScript.getCalls());
+        assertEquals(CircuitBreaker.State.CLOSED, transport.getCircuitBreaker().getState());
+    }
+
+    @Test
+    public void retryableStatus_isReturnedAfterTheLastAttempt() throws Exception {
+        mScript.answer(503, 0).answer(503, 0).answer(503, 0).answer(200, 0);
+        ResilientTransport transport = new ResilientTransport(mScript, 3, 5, new CircuitBreaker(), false);
+
+        assertEquals(503, transport.execute(request()).getCode());
+        assertEquals(3, mScript.getCalls());
+    }
+
+    @Test
+    public void clientErrors_areNotRetried() throws Exception {
+        mScript.answer(400, 0).answer(200, 0);
+        ResilientTransport transport = new ResilientTransport(mScript, 3, 5, new CircuitBreaker(), false);
+
+        assertEquals(400, transport.execute(request()).getCode());
+        assertEquals(1, mScript.getCalls());
+    }
+
+    @Test
+    public void backoff_isJitteredBelowAGrowingCeiling() {
+        ResilientTransport transport = new ResilientTransport(mScript, 5, 100, new CircuitBreaker(), false);
+        long first = 0;
+        long third = 0;
+        for (int i = 0; i < 200; i++) {
+            long delay = transport.backoffMillis(1);
+            assertTrue(delay >= 0 && delay < 100);
+            first = Math.max(first, delay);
+            delay = transport.backoffMillis(3);
+            assertTrue(delay >= 0 && delay < 400);
+            third = Math.max(third, delay);
+        }
+        assertTrue(third > first);
+    }
+
+    @Test
+    public void breaker_opensAfterRepeatedFailuresAndClosesAfterATrial() throws Exception {
+        mScript.fail().fail().fail().answer(200, 0);
+        CircuitBreaker breaker = new CircuitBreaker(3, 100);
+        ResilientTransport transport = new ResilientTransport(mScript, 1, 5, breaker, false);
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                transport.execute(request());
+                fail();
+            } catch (IOException expected) {
+                // Counted by the breaker.
+            }
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        try {
+            transport.execute(request());
+            fail();
+        } catch (CircuitOpenException expected) {
+            // Rejected without a call.
+        }
+        assertEquals(3, mScript.getCalls());
+
+        Thread.sleep(150);
+        assertEquals(200, transport.execute(request()).getCode());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void retries_stopWhenTheBudgetWouldRunOut() throws Exception {
+        mScript.answer(503, 600).answer(503, 600).answer(503, 600).answer(200, 0);
+        ResilientTransport transport = new ResilientTransport(mScript, 5, 5, 2000, new CircuitBreaker(),
+                new CircuitBreaker(), false);
+
+        long start = System.nanoTime();
+        HttpTransport.Response response = transport.execute(request());
+
+        // After the second slow answer there is less than a worthwhile attempt left
+        assertEquals(503, response.getCode());
+        assertEquals(2, mScript.getCalls());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000);
+    }
+
+    @Test
+    public void firstAttempt_hasItsTimeoutsCutToTheBudget() throws Exception {
+        mScript.answer(200, 0);
+        ResilientTransport transport = new ResilientTransport(mScript, 3, 5, 2000, new CircuitBreaker(),
+                new CircuitBreaker(), false);
+
+        assertEquals(200, transport.execute(request()).getCode());
+        assertTrue(mScript.mLastRequest.connectTimeoutMillis <= 2000);
+        assertTrue(mScript.mLastRequest.readTimeoutMillis <= 2000);
+    }
+
+    @Test
+    public void hedging_withTooFewSamples_sendsOnTheCallingThread() throws Exception {
+        mScript.answer(200, 0);
+        ResilientTransport transport = new ResilientTransport(mScript, 1, 5,
+                ResilientTransport.DEFAULT_TOTAL_BUDGET_MILLIS, new CircuitBreaker(), new CircuitBreaker(), true);
+
+        assertEquals(200, transport.execute(request()).getCode());
+        assertSame(Thread.currentThread(), mScript.mLastThread);
+    }
+
+    @Test
+    public void backgroundFailures_doNotOpenTheBreakerOfTheUsersRequests() throws Exception {
+        mScript.fail().answer(200, 0).fail();
+        CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+        CircuitBreaker backgroundBreaker = new CircuitBreaker(1, 60000);
+        ResilientTransport transport = new ResilientTransport(mScript, 1, 5,
+                ResilientTransport.DEFAULT_TOTAL_BUDGET_MILLIS, breaker, backgroundBreaker, false);
+        HttpTransport.Request prefetch = request();
+        prefetch.background = true;
+
+        try {
+            transport.execute(prefetch);
+            fail();
+        } catch (IOException expected) {
+            // Counted by the background breaker only.
+        }
+        assertEquals(CircuitBreaker.State.OPEN, backgroundBreaker.getState());
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(200, transport.execute(request()).getCode());
+
+        // Once the user's requests fail, prefetches hold off too
+        try {
+            transport.execute(request());
+            fail();
+        } catch (IOException expected) {
+            // Opens the user's breaker.
+        }
+        backgroundBreaker.onSuccess();
+        HttpTransport.Request laterPrefetch = request();
+        laterPrefetch.background = true;
+        try {
+            transport.execute(laterPrefetch);
+            fail();
+        } catch (CircuitOpenException expected) {
+            // Rejected without a call.
+        }
+        assertEquals(3, mScript.getCalls());
+    }
+
+    @Test
+    public void openBreaker_servesTheCachedResult() throws Exception {
+        QueryUtils.setCache(new BooklistingCache(mFolder.getRoot(), 20, 1024 * 1024, 0));
+        mScript.answer(200, 0).fail();
+        CircuitBreaker breaker = new CircuitBreaker(1, 60000);
+        QueryUtils.setTransport(new ResilientTransport(mScript, 1, 5, breaker, false));
+
+        assertEquals(40, QueryUtils.fetchBooklistingData(URL).size());
+
+        // The cached copy has expired, and the network fails: the old result is shown.
+        QueryTracer tracer = new QueryTracer(1);
+        tracer.setEnabled(true);
+        QueryTrace trace = tracer.start(URL);
+        List<Booklisting> booklistings = QueryUtils.fetchBooklistingData(URL, null, trace);
+        assertNotNull(booklistings);
+        assertEquals(40, booklistings.size());
+        assertEquals(QueryTrace.Outcome.STALE, trace.getOutcome());
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        // While the breaker is open the network is not even tried.
+        assertEquals(40, QueryUtils.fetchBooklistingData(URL).size());
+        assertEquals(2, mScript.getCalls());
+        assertEquals(2, QueryUtils.getCache().getStats().staleHits);
+    }
+
+    @Test
+    public void slowRequest_isHedged() throws Exception {
+        // Enough fast requests to learn the p95 and earn a hedge. Some of them may be hedged
+        // themselves, so script a few spare answers.
+        int warmUp = 100;
+        for (int i = 0; i < warmUp + 20; i++) {
+            mScript.answer(200, 0);
+        }
+        ResilientTransport transport = new ResilientTransport(mScript, 1, 5, new CircuitBreaker(), true);
+        for (int i = 0; i < warmUp; i++) {
+            transport.execute(request()).close();
+        }
+        mScript.clear();
+        int callsBefore = mScript.getCalls();
+
+        // The first copy would take 5 s; the hedge answers at once.
+        mScript.answer(200, 5000).answer(200, 0);
+        long startedAt = System.nanoTime();
+        HttpTransport.Response response = transport.execute(request());
+        long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+
+        assertEquals(200, response.getCode());
+        assertEquals(callsBefore + 2, mScript.getCalls());
+        assertTrue("took " + tookMillis + " ms", tookMillis < 2000);
+        // The slow copy was cancelled rather than left running.
+        assertTrue(mScript.awaitCancellation(2000));
+        System.out.println(transport.getStats());
+    }
+
+    @Test
+    public void hedges_stayWithinTheBudget() throws Exception {
+        // Extra steps for the hedges.
+        for (int i = 0; i < 60; i++) {
+            mScript.answer(200, i < ResilientTransport.MIN_HEDGE_SAMPLES ? 1 : 30);
+        }
+        ResilientTransport transport = new ResilientTransport(mScript, 1, 5, new CircuitBreaker(), true);
+        for (int i = 0; i < 40; i++) {
+            transport.execute(request()).close();
+        }
+
+        // Every request after the first 20 is slower than the p95, but only 1 in 10 is hedged.
+        assertTrue(transport.getStats(), mScript.getCalls() <= 40 + 4);
+    }
+
+    private static HttpTransport.Request request() throws IOException {
+        HttpTransport.Request request = new HttpTransport.Request(new URL(URL));
+        request.cancellation = new QueryCancellation();
+        return request;
+    }
+
+    /**
+     * Answers calls in the order they were scripted. Delayed answers end early, with an
+     * IOException, when the request is cancelled.
+     */
+    private final class ScriptedTransport implements HttpTransport {
+        private final ArrayDeque<int[]> mSteps = new ArrayDeque<>();
+        private final AtomicInteger mCalls = new AtomicInteger();
+        private final CountDownLatch mCancellations = new CountDownLatch(1);
+        private volatile Thread mLastThread;
+        private volatile Request mLastRequest;
+
+        ScriptedTransport answer(int code, int delayMillis) {
+            synchronized (mSteps) {
+                mSteps.add(new int[]{code, delayMillis});
+            }
+            return this;
+        }
+
+        ScriptedTransport fail() {
+            return answer(-1, 0);
+        }
+
+        void clear() {
+            synchronized (mSteps) {
+                mSteps.clear();
+            }
+        }
+
+        int getCalls() {
+            return mCalls.get();
+        }
+
+        boolean awaitCancellation(long timeoutMillis) throws InterruptedException {
+            return mCancellations.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public Response execute(Request request) throws IOException {
+            mCalls.incrementAndGet();
+            mLastThread = Thread.currentThread();
+            mLastRequest = request;
+            int[] step;
+            synchronized (mSteps) {
+                step = mSteps.poll();
+            }
+            if (step == null || step[0] == -1) {
+                throw new IOException("scripted failure");
+            }
+            if (step[1] > 0) {
+                final CountDownLatch canceled = new CountDownLatch(1);
+                if (request.cancellation != null && !request.cancellation.attach(new Closeable() {
+                    @Override
+                    public void close() {
+                        canceled.countDown();
+                    }
+                })) {
+                    throw new IOException("Request cancelled");
+                }
+                try {
+                    if (canceled.await(step[1], TimeUnit.MILLISECONDS)) {
+                        mCancellations.countDown();
+                        throw new IOException("Request cancelled");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            final int code = step[0];
+            return new Response() {
+                @Override
+                public int getCode() {
+                    return code;
+                }
+
+                @Override
+                public String getHeader(String name) {
+                    return null;
+                }
+
+                @Override
+                public InputStream getBody() {
+                    return new ByteArrayInputStream(mFixture);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+}
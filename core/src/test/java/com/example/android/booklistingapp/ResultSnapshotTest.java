@@ -0,0 +1,117 @@
+package com.example.android.booklistingapp;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes {@link ResultSnapshot}s and reads them back whole, damaged and from other versions.
+ */
+public class ResultSnapshotTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private List<Booklisting> mBooklistings;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mBooklistings = BooklistingJsonDecoder.decode(new ByteArrayInputStream(
+                BooklistingJsonDecoderTest.readFixture("/volumes_40.json")));
+        mFile = new File(mFolder.getRoot(), "last_results.snapshot");
+    }
+
+    @Test
+    public void written_readsBackTheSameBooks() {
+        long before = System.currentTimeMillis();
+        assertTrue(ResultSnapshot.write(mFile, "android d\u00e9veloppeur", mBooklistings));
+
+        ResultSnapshot snapshot = ResultSnapshot.read(mFile);
+        assertNotNull(snapshot);
+        assertEquals("android d\u00e9veloppeur", snapshot.getmQuery());
+        assertTrue(snapshot.getmSavedAt() >= before);
+        assertEquals(mBooklistings.size(), snapshot.getmBooklistings().size());
+        for (int i = 0; i < mBooklistings.size(); i++) {
+            Booklisting expected = mBooklistings.get(i);
+            Booklisting actual = snapshot.getmBooklistings().get(i);
+            assertEquals(expected.getmId(), actual.getmId());
+            assertEquals(expected.getmTitle(), actual.getmTitle());
+            assertArrayEquals(expected.getmAuthors(), actual.getmAuthors());
+            assertEquals(expected.getmThumbnailUrl(), actual.getmThumbnailUrl());
+        }
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void missingFile_readsAsNoSnapshot() {
+        assertNull(ResultSnapshot.read(mFile));
+    }
+
+    @Test
+    public void flippedByte_failsTheChecksum() throws Exception {
+        assertTrue(ResultSnapshot.write(mFile, "android", mBooklistings));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            long offset = ResultSnapshot.HEADER_BYTES + file.length() / 2;
+            file.seek(offset);
+            int value = file.read();
+            file.seek(offset);
+            file.write(value ^ 0x01);
+        } finally {
+            file.close();
+        }
+
+        assertNull(ResultSnapshot.read(mFile));
+    }
+
+    @Test
+    public void truncatedFile_readsAsNoSnapshot() throws Exception {
+        assertTrue(ResultSnapshot.write(mFile, "android", mBooklistings));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.setLength(file.length() - 10);
+        } finally {
+            file.close();
+        }
+
+        assertNull(ResultSnapshot.read(mFile));
+    }
+
+    @Test
+    public void otherVersion_readsAsNoSnapshot() throws Exception {
+        assertTrue(ResultSnapshot.write(mFile, "android", mBooklistings));
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(4);
+            file.writeInt(ResultSnapshot.VERSION + 1);
+        } finally {
+            file.close();
+        }
+
+        assertNull(ResultSnapshot.read(mFile));
+    }
+
+    @Test
+    public void newerSnapshot_replacesTheOlderOne() {
+        assertTrue(ResultSnapshot.write(mFile, "android", mBooklistings));
+        assertTrue(ResultSnapshot.write(mFile, "kotlin", mBooklistings.subList(0, 3)));
+
+        ResultSnapshot snapshot = ResultSnapshot.read(mFile);
+        assertEquals("kotlin", snapshot.getmQuery());
+        assertEquals(3, snapshot.getmBooklistings().size());
+    }
+}
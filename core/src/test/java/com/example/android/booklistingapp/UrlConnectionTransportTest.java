@@ -0,0 +1,97 @@
+package com.example.android.booklistingapp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link UrlConnectionTransport} negotiates gzip and reuses its connection, and that
+ * {@link QueryUtils} accepts any {@link HttpTransport}.
+ */
+public class UrlConnectionTransportTest {
+
+    private byte[] mFixture;
+    private FakeBooksServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mFixture = BooklistingJsonDecoderTest.readFixture("/volumes_40.json");
+        mServer = new FakeBooksServer(mFixture);
+        QueryUtils.setCache(null);
+    }
+
+    @After
+    public void tearDown() {
+        QueryUtils.setTransport(new UrlConnectionTransport());
+        mServer.shutdown();
+    }
+
+    @Test
+    public void repeatedSearches_shareOneCompressedConnection() {
+        int searches = 5;
+        for (int i = 0; i < searches; i++) {
+            List<Booklisting> booklistings = QueryUtils.fetchBooklistingData(mServer.volumesUrl("android"));
+            assertEquals(40, booklistings.size());
+        }
+
+        long perResponse = mServer.getBodyBytes() / searches;
+        System.out.println("Wire bytes per response: " + perResponse + " of " + mFixture.length
+                + ", connections: " + mServer.getConnectionCount());
+        assertEquals(searches, mServer.getRequestCount());
+        assertEquals(1, mServer.getConnectionCount());
+        assertTrue(perResponse * 4 < mFixture.length);
+    }
+
+    @Test
+    public void fakeTransport_replacesNetwork() {
+        QueryUtils.setTransport(new HttpTransport() {
+            @Override
+            public Response execute(Request request) {
+                return new Response() {
+                    @Override
+                    public int getCode() {
+                        return 200;
+                    }
+
+                    @Override
+                    public String getHeader(String name) {
+                        return null;
+                    }
+
+                    @Override
+                    public InputStream getBody() {
+                        return new ByteArrayInputStream(mFixture);
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+            }
+        });
+
+        assertEquals(40, QueryUtils.fetchBooklistingData("http://books.invalid/books/v1/volumes?q=x").size());
+        assertEquals(0, mServer.getRequestCount());
+    }
+
+    @Test
+    public void failedTransport_yieldsNoResults() {
+        QueryUtils.setTransport(new HttpTransport() {
+            @Override
+            public Response execute(Request request) throws IOException {
+                throw new IOException("offline");
+            }
+        });
+
+        assertNull(QueryUtils.fetchBooklistingData("http://books.invalid/books/v1/volumes?q=x"));
+    }
+}